@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.testcontainers.containers.MySQLContainer;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * JMH benchmarks of the hot paths of {@link JdbcUserDao}, for comparing the throughput and latency of the DAO across
+ * releases, and across configurations of its DataSource.
+ * <p>
+ * The benchmarks are run against one of the following databases, selected using the 'database' parameter -
+ * <ul>
+ *   <li>h2 - (The default) An embedded, in-memory database ({@link EmbeddedUserDatabase}). Doesn't require Docker,
+ *   but only the performance of the DAO's (and JDBC driver's) code is representative, not that of MySQL.</li>
+ *   <li>mysql - The same version of MySQL as is used by the integration tests, launched in a Docker container using
+ *   Testcontainers.</li>
+ * </ul>
+ * The database is created and populated with users once per trial (combination of parameters). The max size of the
+ * DataSource's connection pool is varied using the 'poolSize' parameter. The overhead of recording metrics of the
+ * DAO's queries and the connection pool ({@link JdbcMetrics}) is measured by comparing the results with and without
+ * the 'instrumented' parameter. The no. of threads concurrently executing
+ * each benchmark is set when running JMH (e.g. -t). See the project's README for how to run the benchmarks using the
+ * Gradle build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JdbcUserDaoBenchmark {
+
+  /** No. of users created in the database before the benchmarks are run. */
+  static final int USER_COUNT = 10_000;
+
+  @Param({"h2"})
+  String database;
+
+  @Param({"4", "16"})
+  int poolSize;
+
+  @Param({"false", "true"})
+  boolean instrumented;
+
+  private MySQLContainer<?> mySqlContainer;
+  private JdbcMetrics jdbcMetrics;
+  private HikariDataSource dataSource;
+  private JdbcUserDao jdbcUserDao;
+  private long firstUserId;
+  private long lastUserId;
+  private final AtomicLong createdUserCount = new AtomicLong();
+
+  /**
+   * State of the benchmark of bulk lookups. The no. of users looked up per call is only a parameter of the benchmarks
+   * which use this state.
+   */
+  @State(Scope.Thread)
+  public static class BulkLookup {
+
+    @Param({"10", "100", "1000"})
+    int bulkLookupSize;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.dataSource = createDataSource();
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    if (this.instrumented) {
+      this.jdbcMetrics = new JdbcMetrics();
+      DataSourceFactory.instrument(this.dataSource, this.jdbcMetrics);
+      config.setMetrics(this.jdbcMetrics);
+    }
+    this.jdbcUserDao = new JdbcUserDao(this.dataSource, config);
+    final List<NewUser> newUsers = new ArrayList<>(USER_COUNT);
+    for (int i = 0; i < USER_COUNT; i++) {
+      newUsers.add(new NewUser("First" + i, "Last" + i, "user-" + i + "@example.com"));
+    }
+    final List<User> createdUsers = this.jdbcUserDao.createUsers(newUsers).getCreatedUsers();
+    this.firstUserId = createdUsers.get(0).getId();
+    this.lastUserId = this.jdbcUserDao.findLastUserId();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.jdbcMetrics != null) {
+      this.jdbcMetrics.close();
+    }
+    if (this.dataSource != null) {
+      this.dataSource.close();
+    }
+    if (this.mySqlContainer != null) {
+      this.mySqlContainer.stop();
+    }
+  }
+
+  @Benchmark
+  public Optional<User> findUserById_whenUserExists() {
+    return this.jdbcUserDao.findUserById(randomExistingUserId());
+  }
+
+  @Benchmark
+  public Optional<User> findUserById_whenUserDoesNotExist() {
+    return this.jdbcUserDao.findUserById(this.lastUserId + 1 + ThreadLocalRandom.current().nextInt(USER_COUNT));
+  }
+
+  @Benchmark
+  public long findLastUserId() {
+    return this.jdbcUserDao.findLastUserId();
+  }
+
+  @Benchmark
+  public long findLastUserId_boundedStale() {
+    return this.jdbcUserDao.findLastUserId(ReadConsistency.BOUNDED_STALE);
+  }
+
+  /*
+   * Reads of the last user ID, concurrent with the creation of users by a writer thread, which advances the high-water
+   * mark used by bounded-stale reads. The reads and writes of each consistency are measured as a group of threads.
+   */
+
+  @Benchmark
+  @Group("findLastUserIdWhileCreatingUsers_strict")
+  @GroupThreads(3)
+  public long findLastUserIdWhileCreatingUsers_strict_read() {
+    return this.jdbcUserDao.findLastUserId(ReadConsistency.STRICT);
+  }
+
+  @Benchmark
+  @Group("findLastUserIdWhileCreatingUsers_strict")
+  @GroupThreads(1)
+  public User findLastUserIdWhileCreatingUsers_strict_create() {
+    return createUser();
+  }
+
+  @Benchmark
+  @Group("findLastUserIdWhileCreatingUsers_boundedStale")
+  @GroupThreads(3)
+  public long findLastUserIdWhileCreatingUsers_boundedStale_read() {
+    return this.jdbcUserDao.findLastUserId(ReadConsistency.BOUNDED_STALE);
+  }
+
+  @Benchmark
+  @Group("findLastUserIdWhileCreatingUsers_boundedStale")
+  @GroupThreads(1)
+  public User findLastUserIdWhileCreatingUsers_boundedStale_create() {
+    return createUser();
+  }
+
+  @Benchmark
+  public Map<Long, User> findUsersByIds(BulkLookup bulkLookup) {
+    final List<Long> userIds = new ArrayList<>(bulkLookup.bulkLookupSize);
+    for (int i = 0; i < bulkLookup.bulkLookupSize; i++) {
+      userIds.add(randomExistingUserId());
+    }
+    return this.jdbcUserDao.findUsersByIds(userIds);
+  }
+
+  private User createUser() {
+    final long userNo = this.createdUserCount.incrementAndGet();
+    return this.jdbcUserDao.createUser(new NewUser("First", "Last", "created-" + userNo + "@example.com"));
+  }
+
+  private long randomExistingUserId() {
+    return ThreadLocalRandom.current().nextLong(this.firstUserId, this.lastUserId + 1);
+  }
+
+  private HikariDataSource createDataSource() {
+    switch (this.database) {
+      case "h2":
+        return (HikariDataSource) EmbeddedUserDatabase.createDatabase("benchmark_" + System.nanoTime(), this.poolSize);
+      case "mysql":
+        return createMySqlDataSource();
+      default:
+        throw new IllegalArgumentException("Unsupported database [" + this.database + "].");
+    }
+  }
+
+  private HikariDataSource createMySqlDataSource() {
+    final Properties dataSourceProperties = AbstractJdbcUserDaoMySqlIntegrationTest.loadDataSourceProperties();
+    this.mySqlContainer = new MySQLContainer<>(
+      "mysql:" + AbstractJdbcUserDaoMySqlIntegrationTest.MYSQL_VERSION)
+      .withDatabaseName(dataSourceProperties.getProperty("dataSource.databaseName"))
+      .withInitScript("db/V1__create_user_table.sql");
+    this.mySqlContainer.start();
+    final String jdbcUrl = "jdbc:mysql://" + this.mySqlContainer.getHost() + ":" +
+      this.mySqlContainer.getFirstMappedPort() + "/" + dataSourceProperties.getProperty("dataSource.databaseName") +
+      "?useSSL=false";
+    final HikariDataSource mySqlDataSource = (HikariDataSource) DataSourceFactory.createDataSource(jdbcUrl,
+      dataSourceProperties.getProperty("dataSource.user"), dataSourceProperties.getProperty("dataSource.password"),
+      dataSourceProperties.getProperty("driverClassName"));
+    mySqlDataSource.setMaximumPoolSize(this.poolSize);
+    return mySqlDataSource;
+  }
+}
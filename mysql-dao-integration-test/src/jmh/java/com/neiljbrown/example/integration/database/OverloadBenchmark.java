@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * JMH benchmark of the latency of {@link JdbcUserDao} when its database is overloaded, with and without an
+ * {@link AdaptiveConcurrencyLimiter} (the 'limited' parameter).
+ * <p>
+ * The benchmark uses an embedded database ({@link EmbeddedUserDatabase}), artificially slowed by holding each
+ * connection obtained from the pool for an additional 'slowQueryMillis' before it's used, as if each query took that
+ * long to execute. The database is overloaded by running the benchmark with (many) more threads than the size of the
+ * connection pool, e.g. -PjmhThreads=32. Without a limiter, callers queue for a connection, and their latency grows
+ * with the no. of callers. With a limiter, queries over the limit are rejected immediately, and the latency of those
+ * that are accepted is bounded by the limiter's latency threshold.
+ * <p>
+ * A caller whose query is rejected backs off for 'slowQueryMillis' before its next query, rather than retrying
+ * immediately, as a client shedding load would. The sampled latencies include rejected queries and the backoff, so the
+ * percentiles of the latency of accepted queries alone are printed at the end of each iteration, along with the
+ * limiter's state. The 'accepted' and 'rejected' counters report the throughput of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OverloadBenchmark {
+
+  /** No. of users created in the database before the benchmark is run. */
+  static final int USER_COUNT = 1000;
+
+  @Param({"4"})
+  int poolSize;
+
+  @Param({"5"})
+  int slowQueryMillis;
+
+  @Param({"false", "true"})
+  boolean limited;
+
+  private HikariDataSource dataSource;
+  private AdaptiveConcurrencyLimiter limiter;
+  private JdbcUserDao jdbcUserDao;
+  private final Recorder acceptedLatencies = new Recorder(3);
+  private long firstUserId;
+  private long lastUserId;
+
+  /**
+   * Counts of the outcome of the benchmark's calls, reported by JMH as throughputs.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Outcomes {
+
+    public long accepted;
+    public long rejected;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      this.accepted = 0;
+      this.rejected = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase("overload_" + System.nanoTime(),
+      this.poolSize);
+    final List<NewUser> newUsers = new ArrayList<>(USER_COUNT);
+    for (int i = 0; i < USER_COUNT; i++) {
+      newUsers.add(new NewUser("First" + i, "Last" + i, "user-" + i + "@example.com"));
+    }
+    final JdbcUserDao setUpDao = new JdbcUserDao(this.dataSource);
+    this.firstUserId = setUpDao.createUsers(newUsers).getCreatedUsers().get(0).getId();
+    this.lastUserId = setUpDao.findLastUserId();
+
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    if (this.limited) {
+      final AdaptiveConcurrencyLimitConfig limitConfig = new AdaptiveConcurrencyLimitConfig();
+      limitConfig.setInitialLimit(this.poolSize);
+      limitConfig.setMaxLimit(this.poolSize * 2);
+      limitConfig.setLatencyThreshold(Duration.ofMillis(this.slowQueryMillis * 4L));
+      this.limiter = new AdaptiveConcurrencyLimiter(limitConfig, new AdaptiveConcurrencyLimitConfig());
+      config.setConcurrencyLimiter(this.limiter);
+    }
+    this.jdbcUserDao = new JdbcUserDao(slow(this.dataSource, this.slowQueryMillis), config);
+  }
+
+  @TearDown(Level.Iteration)
+  public void printAcceptedLatencies() {
+    final Histogram histogram = this.acceptedLatencies.getIntervalHistogram();
+    System.out.printf("%nAccepted queries: %d, latency (ms) p50=%.3f p99=%.3f p99.9=%.3f max=%.3f, limiter: %s%n",
+      histogram.getTotalCount(), histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+      histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMaxValue() / 1e6, this.limiter);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.dataSource != null) {
+      this.dataSource.close();
+    }
+  }
+
+  @Benchmark
+  public Optional<User> findUserById(Outcomes outcomes) throws InterruptedException {
+    final long startNanos = System.nanoTime();
+    try {
+      final Optional<User> user = this.jdbcUserDao.findUserById(
+        ThreadLocalRandom.current().nextLong(this.firstUserId, this.lastUserId + 1));
+      this.acceptedLatencies.recordValue(System.nanoTime() - startNanos);
+      outcomes.accepted++;
+      return user;
+    } catch (DatabaseOverloadedException e) {
+      outcomes.rejected++;
+      Thread.sleep(this.slowQueryMillis);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @return a DataSource which holds each connection it obtains from the supplied DataSource for the specified delay,
+   * before returning it.
+   */
+  private static DataSource slow(DataSource dataSource, long delayMillis) {
+    return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] {DataSource.class},
+      (proxy, method, args) -> {
+        final Object result;
+        try {
+          result = method.invoke(dataSource, args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+        if (method.getName().equals("getConnection")) {
+          Thread.sleep(delayMillis);
+        }
+        return result;
+      });
+  }
+}
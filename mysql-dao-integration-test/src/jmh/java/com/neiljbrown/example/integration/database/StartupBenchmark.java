@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.testcontainers.containers.MySQLContainer;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * JMH benchmarks of the cost of starting a DataSource created by {@link DataSourceFactory}, in each of its startup
+ * modes (see {@link DataSourceStartupConfig.StartupMode}), selected using the 'startupMode' parameter -
+ * <ul>
+ *   <li>timeToFirstQuery - The time taken to create the DataSource (including any warm-up) and a DAO, and execute
+ *   the DAO's first query.</li>
+ *   <li>firstQueries - The time taken to execute the first {@link #FIRST_QUERY_COUNT} queries of each benchmark thread,
+ *   once the DataSource has been created. A proxy for the latency experienced by requests in the first minute after a
+ *   deploy, during which they pay the cost of establishing connections and preparing statements, unless the pool was
+ *   warmed up.</li>
+ * </ul>
+ * Each is measured as the time of a single invocation (JMH's single shot mode), using a new DataSource per iteration,
+ * with the pool's default size.
+ * The benchmarks are run against an embedded database ({@link EmbeddedUserDatabase}) by default, in which establishing
+ * a connection and preparing a statement are cheap. The 'mysql' database (see {@link JdbcUserDaoBenchmark}) includes
+ * the cost of connecting and authenticating over the network, and of preparing statements on the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+
+  /** No. of users created in the database before the benchmarks are run. */
+  static final int USER_COUNT = 1000;
+
+  /** No. of queries measured by the first queries benchmark, per thread. */
+  static final int FIRST_QUERY_COUNT = 100;
+
+  @Param({"h2"})
+  String database;
+
+  @Param({"EAGER", "WARM_UP", "LAZY"})
+  DataSourceStartupConfig.StartupMode startupMode;
+
+  private MySQLContainer<?> mySqlContainer;
+  private HikariDataSource schemaDataSource;
+  private String jdbcUrl;
+  private String username;
+  private String password;
+  private long firstUserId;
+  private long lastUserId;
+  // DataSource and DAO created before each iteration of the first queries benchmark
+  private HikariDataSource startedDataSource;
+  private JdbcUserDao startedDao;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    switch (this.database) {
+      case "h2":
+        final String databaseName = "startup_" + System.nanoTime();
+        this.schemaDataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase(databaseName, 1);
+        this.jdbcUrl = EmbeddedUserDatabase.jdbcUrl(databaseName);
+        this.username = "sa";
+        this.password = "";
+        break;
+      case "mysql":
+        startMySql();
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported database [" + this.database + "].");
+    }
+    final HikariDataSource dataSource = createDataSource(DataSourceStartupConfig.StartupMode.EAGER);
+    try {
+      final JdbcUserDao jdbcUserDao = new JdbcUserDao(dataSource);
+      final List<NewUser> newUsers = new ArrayList<>(USER_COUNT);
+      for (int i = 0; i < USER_COUNT; i++) {
+        newUsers.add(new NewUser("First" + i, "Last" + i, "user-" + i + "@example.com"));
+      }
+      this.firstUserId = jdbcUserDao.createUsers(newUsers).getCreatedUsers().get(0).getId();
+      this.lastUserId = jdbcUserDao.findLastUserId();
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.schemaDataSource != null) {
+      this.schemaDataSource.close();
+    }
+    if (this.mySqlContainer != null) {
+      this.mySqlContainer.stop();
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void startDataSource() {
+    this.startedDataSource = createDataSource(this.startupMode);
+    this.startedDao = new JdbcUserDao(this.startedDataSource);
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeDataSource() {
+    this.startedDataSource.close();
+  }
+
+  @Benchmark
+  public Optional<User> timeToFirstQuery() {
+    final HikariDataSource dataSource = createDataSource(this.startupMode);
+    try {
+      return new JdbcUserDao(dataSource).findUserById(randomExistingUserId());
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  @Benchmark
+  public void firstQueries(Blackhole blackhole) {
+    for (int i = 0; i < FIRST_QUERY_COUNT; i++) {
+      blackhole.consume(this.startedDao.findUserById(randomExistingUserId()));
+    }
+  }
+
+  private HikariDataSource createDataSource(DataSourceStartupConfig.StartupMode startupMode) {
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(startupMode);
+    return (HikariDataSource) DataSourceFactory.createDataSource(this.jdbcUrl, this.username, this.password, null,
+      startupConfig);
+  }
+
+  private long randomExistingUserId() {
+    return ThreadLocalRandom.current().nextLong(this.firstUserId, this.lastUserId + 1);
+  }
+
+  private void startMySql() {
+    final Properties dataSourceProperties = AbstractJdbcUserDaoMySqlIntegrationTest.loadDataSourceProperties();
+    this.mySqlContainer = new MySQLContainer<>(
+      "mysql:" + AbstractJdbcUserDaoMySqlIntegrationTest.MYSQL_VERSION)
+      .withDatabaseName(dataSourceProperties.getProperty("dataSource.databaseName"))
+      .withInitScript("db/V1__create_user_table.sql");
+    this.mySqlContainer.start();
+    this.jdbcUrl = "jdbc:mysql://" + this.mySqlContainer.getHost() + ":" + this.mySqlContainer.getFirstMappedPort() +
+      "/" + dataSourceProperties.getProperty("dataSource.databaseName") + "?useSSL=false";
+    this.username = dataSourceProperties.getProperty("dataSource.user");
+    this.password = dataSourceProperties.getProperty("dataSource.password");
+  }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.testcontainers.containers.MySQLContainer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * A load test of {@link JdbcUserDao}, which measures its throughput and latency under mixed, concurrent traffic,
+ * complementing the (JMH) benchmarks of its individual operations.
+ * <p>
+ * A configurable no. of threads concurrently read users by id, update existing users, and insert new users, in a
+ * configurable mix. The users that are read and updated are chosen following either a uniform or a Zipfian (hot set)
+ * distribution. The load test is repeated for each of a list of max sizes of the DataSource's connection pool, each
+ * using a new DataSource created by {@link DataSourceFactory}, and a newly populated user table. Each load test is
+ * preceded by a warm-up that isn't measured. The throughput and latency percentiles of each are printed, followed by
+ * the throughput 'knee' - the smallest pool size beyond which throughput doesn't significantly increase.
+ *
+ * <h2>Coordinated Omission</h2>
+ * A load generator whose threads wait for each operation to complete before issuing the next, and which only measures
+ * the time each operation took, under-reports latency. While an operation is stalled, the operations that would have
+ * been issued in the meantime aren't, so the stall is recorded once, rather than by every operation it delayed. The
+ * reported latencies are corrected for this 'coordinated omission' -
+ * <ul>
+ *   <li>If a target rate is configured, each thread issues its operations on a fixed schedule, and the latency of each
+ *   is measured from when it was due to be issued, so it includes any time the thread spent behind schedule.</li>
+ *   <li>Otherwise, threads issue operations as fast as they complete, and each latency is recorded using
+ *   HdrHistogram's correction for an expected interval between the operations of each thread (the mean interval
+ *   achieved in the warm-up), which back-fills the samples that a stall omitted.</li>
+ * </ul>
+ * The uncorrected p99 (of the time taken by the operations alone) is also reported, for comparison.
+ * <p>
+ * The load test is run using the Gradle build's loadTest task, and configured using space-separated name=value args
+ * (see {@link #parseConfig(String[])}), e.g. {@code ./gradlew loadTest -PloadTestArgs="threads=64 poolSizes=4,8,16"}.
+ */
+public final class UserDaoLoadTest implements AutoCloseable {
+
+  /** A pool size whose throughput is at least this ratio of the peak throughput is considered to have reached it. */
+  static final double KNEE_THROUGHPUT_RATIO = 0.95;
+
+  private static final int CREATE_USERS_BATCH_SIZE = 1000;
+
+  /**
+   * Operations performed by the load test, in the order of their weights in the configured mix.
+   */
+  private enum Operation {
+    READ, UPDATE, INSERT
+  }
+
+  private final UserDaoLoadTestConfig config;
+  // Null if the keys are uniformly distributed
+  private final ZipfianGenerator zipfianGenerator;
+  private final int totalOperationWeight;
+  private final AtomicLong insertedUserCount = new AtomicLong();
+  private MySQLContainer<?> mySqlContainer;
+  private String jdbcUrl;
+  private String username;
+  private String password;
+  private String driverClassName;
+  // DataSource used to reset the database before each load test
+  private HikariDataSource adminDataSource;
+
+  /**
+   * @param config the configuration of the load test.
+   */
+  UserDaoLoadTest(UserDaoLoadTestConfig config) {
+    this.config = config;
+    this.zipfianGenerator = config.getKeyDistribution() == UserDaoLoadTestConfig.KeyDistribution.ZIPFIAN ?
+      new ZipfianGenerator(config.getUserCount(), config.getZipfianConstant()) : null;
+    this.totalOperationWeight = config.getOperationMix().stream().mapToInt(Integer::intValue).sum();
+  }
+
+  /**
+   * Runs the load test.
+   *
+   * @param args the configuration of the load test, as name=value args. See {@link #parseConfig(String[])}.
+   * @throws Exception if an error occurs running the load test.
+   */
+  public static void main(String[] args) throws Exception {
+    try (UserDaoLoadTest loadTest = new UserDaoLoadTest(parseConfig(args))) {
+      loadTest.run();
+    }
+  }
+
+  /**
+   * Parses the configuration of the load test from name=value args. The supported args, each of which is optional,
+   * are -
+   * <ul>
+   *   <li>database - The database to load test - h2 (an embedded database) or mysql (requires Docker).</li>
+   *   <li>threads - The no. of threads concurrently calling the DAO.</li>
+   *   <li>poolSizes - A comma separated list of the max sizes of the connection pool to load test, in ascending
+   *   order.</li>
+   *   <li>users - The no. of users created before each load test, which are the keys that are read and updated.</li>
+   *   <li>mix - The relative weights of reads, updates and inserts, comma separated, in that order, e.g. 90,10,0.</li>
+   *   <li>keys - The distribution of the users that are read and updated - uniform or zipfian.</li>
+   *   <li>zipfianConstant - The skew of the Zipfian distribution, between 0 and 1.</li>
+   *   <li>rate - The target rate of operations per second, across all threads. 0 to issue operations as fast as they
+   *   complete.</li>
+   *   <li>warmUpSeconds - The duration of the warm-up before each load test, in seconds.</li>
+   *   <li>durationSeconds - The duration of each measured load test, in seconds.</li>
+   * </ul>
+   * Defaults are defined by {@link UserDaoLoadTestConfig}.
+   *
+   * @param args the args.
+   * @return the configuration.
+   * @throws IllegalArgumentException if an arg isn't supported, or its value is invalid.
+   */
+  static UserDaoLoadTestConfig parseConfig(String[] args) {
+    final UserDaoLoadTestConfig config = new UserDaoLoadTestConfig();
+    for (String arg : args) {
+      final int separatorIndex = arg.indexOf('=');
+      Preconditions.checkArgument(separatorIndex > 0, "Invalid arg [%s]. Args must be of the form name=value.", arg);
+      final String name = arg.substring(0, separatorIndex);
+      final String value = arg.substring(separatorIndex + 1);
+      switch (name) {
+        case "database":
+          config.setDatabase(value);
+          break;
+        case "threads":
+          config.setThreads(Integer.parseInt(value));
+          break;
+        case "poolSizes":
+          config.setPoolSizes(parseInts(value));
+          break;
+        case "users":
+          config.setUserCount(Integer.parseInt(value));
+          break;
+        case "mix":
+          final List<Integer> weights = parseInts(value);
+          Preconditions.checkArgument(weights.size() == 3,
+            "mix must be the weights of reads, updates and inserts, e.g. 90,10,0.");
+          config.setOperationMix(weights.get(0), weights.get(1), weights.get(2));
+          break;
+        case "keys":
+          config.setKeyDistribution(UserDaoLoadTestConfig.KeyDistribution.valueOf(value.toUpperCase(Locale.ROOT)));
+          break;
+        case "zipfianConstant":
+          config.setZipfianConstant(Double.parseDouble(value));
+          break;
+        case "rate":
+          config.setTargetRate(Integer.parseInt(value));
+          break;
+        case "warmUpSeconds":
+          config.setWarmUp(Duration.ofSeconds(Long.parseLong(value)));
+          break;
+        case "durationSeconds":
+          config.setDuration(Duration.ofSeconds(Long.parseLong(value)));
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported arg [" + name + "].");
+      }
+    }
+    return config;
+  }
+
+  /**
+   * Runs the load test for each of the configured pool sizes, in turn, printing the results of each, followed by the
+   * throughput knee.
+   *
+   * @return the results of the load test of each pool size, in the order they were run.
+   * @throws InterruptedException if interrupted while waiting for a load test to complete.
+   */
+  List<Result> run() throws InterruptedException {
+    System.out.printf("Load testing JdbcUserDao, %s%n", this.config);
+    createDatabase();
+    System.out.printf("%n%9s %12s %9s %9s %10s %9s %16s %8s%n", "Pool size", "Throughput", "p50 (ms)", "p99 (ms)",
+      "p99.9 (ms)", "Max (ms)", "Uncorrected p99", "Errors");
+    final List<Result> results = new ArrayList<>();
+    for (int poolSize : this.config.getPoolSizes()) {
+      final Result result = runAtPoolSize(poolSize);
+      results.add(result);
+      final Histogram latencies = result.getLatencies();
+      System.out.printf("%9d %12.0f %9.3f %9.3f %10.3f %9.3f %16.3f %8d%n", poolSize, result.getThroughput(),
+        millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+        millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()),
+        millis(result.getServiceTimes().getValueAtPercentile(99)), result.getErrorCount());
+    }
+    final Result peak = results.stream().max((r1, r2) -> Double.compare(r1.getThroughput(), r2.getThroughput()))
+      .orElseThrow();
+    final Result knee = findKnee(results);
+    System.out.printf("%nThroughput knee: maximumPoolSize=%d - the smallest pool size with at least %.0f%% of the peak "
+        + "throughput (%.0f ops/sec, with a pool size of %d).%n", knee.getPoolSize(), KNEE_THROUGHPUT_RATIO * 100,
+      peak.getThroughput(), peak.getPoolSize());
+    return results;
+  }
+
+  /**
+   * @param results the results of load testing a range of pool sizes, in ascending order of pool size.
+   * @return the result of the smallest pool size whose throughput is at least {@link #KNEE_THROUGHPUT_RATIO} of the
+   * peak throughput.
+   */
+  static Result findKnee(List<Result> results) {
+    final double peakThroughput = results.stream().mapToDouble(Result::getThroughput).max().orElseThrow();
+    return results.stream().filter(result -> result.getThroughput() >= peakThroughput * KNEE_THROUGHPUT_RATIO)
+      .findFirst().orElseThrow();
+  }
+
+  @Override
+  public void close() {
+    if (this.adminDataSource != null) {
+      this.adminDataSource.close();
+    }
+    if (this.mySqlContainer != null) {
+      this.mySqlContainer.stop();
+    }
+  }
+
+  /**
+   * Creates the database, and its schema, once, and the DataSource used to reset it before each load test.
+   */
+  private void createDatabase() {
+    switch (this.config.getDatabase()) {
+      case "h2":
+        final String databaseName = "load_test_" + System.nanoTime();
+        this.adminDataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase(databaseName, 1);
+        this.jdbcUrl = EmbeddedUserDatabase.jdbcUrl(databaseName);
+        this.username = EmbeddedUserDatabase.USERNAME;
+        this.password = EmbeddedUserDatabase.PASSWORD;
+        break;
+      case "mysql":
+        final Properties dataSourceProperties = AbstractJdbcUserDaoMySqlIntegrationTest.loadDataSourceProperties();
+        this.mySqlContainer = new MySQLContainer<>(
+          "mysql:" + AbstractJdbcUserDaoMySqlIntegrationTest.MYSQL_VERSION)
+          .withDatabaseName(dataSourceProperties.getProperty("dataSource.databaseName"))
+          .withInitScript("db/V1__create_user_table.sql");
+        this.mySqlContainer.start();
+        this.jdbcUrl = "jdbc:mysql://" + this.mySqlContainer.getHost() + ":" +
+          this.mySqlContainer.getFirstMappedPort() + "/" + dataSourceProperties.getProperty("dataSource.databaseName") +
+          "?useSSL=false";
+        this.username = dataSourceProperties.getProperty("dataSource.user");
+        this.password = dataSourceProperties.getProperty("dataSource.password");
+        this.driverClassName = dataSourceProperties.getProperty("driverClassName");
+        this.adminDataSource = (HikariDataSource) DataSourceFactory.createDataSource(this.jdbcUrl, this.username,
+          this.password, this.driverClassName);
+        this.adminDataSource.setMaximumPoolSize(1);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported database [" + this.config.getDatabase() + "].");
+    }
+  }
+
+  private Result runAtPoolSize(int poolSize) throws InterruptedException {
+    truncateUsers();
+    // Create the DataSource without starting its pool, so the pool is started with the required max size
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(DataSourceStartupConfig.StartupMode.LAZY);
+    try (HikariDataSource dataSource = (HikariDataSource) DataSourceFactory.createDataSource(this.jdbcUrl,
+      this.username, this.password, this.driverClassName, startupConfig)) {
+      dataSource.setMaximumPoolSize(poolSize);
+      final JdbcUserDao jdbcUserDao = new JdbcUserDao(dataSource);
+      final long[] userIds = createUsers(jdbcUserDao);
+      long expectedIntervalNanos = 0;
+      if (!this.config.getWarmUp().isZero()) {
+        final Result warmUpResult = runLoad(jdbcUserDao, userIds, poolSize, this.config.getWarmUp(), 0);
+        if (this.config.getTargetRate() == 0 && warmUpResult.getThroughput() > 0) {
+          expectedIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(this.config.getThreads()) /
+            warmUpResult.getThroughput());
+        }
+      }
+      return runLoad(jdbcUserDao, userIds, poolSize, this.config.getDuration(), expectedIntervalNanos);
+    }
+  }
+
+  private void truncateUsers() {
+    try (Connection connection = this.adminDataSource.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("TRUNCATE TABLE user");
+    } catch (SQLException sqle) {
+      throw new RuntimeException("Error truncating user table.", sqle);
+    }
+  }
+
+  /**
+   * @return the ids of the created users.
+   */
+  private long[] createUsers(JdbcUserDao jdbcUserDao) {
+    final long[] userIds = new long[this.config.getUserCount()];
+    int createdUserCount = 0;
+    while (createdUserCount < userIds.length) {
+      final int batchSize = Math.min(CREATE_USERS_BATCH_SIZE, userIds.length - createdUserCount);
+      final List<NewUser> newUsers = new ArrayList<>(batchSize);
+      for (int i = createdUserCount; i < createdUserCount + batchSize; i++) {
+        newUsers.add(new NewUser("First" + i, "Last" + i, "user-" + i + "@example.com"));
+      }
+      for (User user : jdbcUserDao.createUsers(newUsers).getCreatedUsers()) {
+        userIds[createdUserCount++] = user.getId();
+      }
+    }
+    return userIds;
+  }
+
+  /**
+   * Runs a load test, using the configured no. of threads.
+   *
+   * @param expectedIntervalNanos the expected interval between the operations issued by each thread, used to correct
+   * their latencies for coordinated omission, when a target rate isn't configured. 0 to not correct them.
+   */
+  private Result runLoad(JdbcUserDao jdbcUserDao, long[] userIds, int poolSize, Duration duration,
+    long expectedIntervalNanos) throws InterruptedException {
+    final int threads = this.config.getThreads();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads,
+      new ThreadFactoryBuilder().setNameFormat("load-test-%d").setDaemon(true).build());
+    try {
+      // Start all the threads at the same time, once they've all been created
+      final long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+      final long endNanos = startNanos + duration.toNanos();
+      final List<Future<Result>> workerResults = new ArrayList<>(threads);
+      for (int i = 0; i < threads; i++) {
+        final int workerNo = i;
+        workerResults.add(executor.submit(
+          () -> runWorker(jdbcUserDao, userIds, workerNo, startNanos, endNanos, expectedIntervalNanos)));
+      }
+      final Result result = new Result(poolSize);
+      for (Future<Result> workerResult : workerResults) {
+        result.add(workerResult.get());
+      }
+      result.setElapsedNanos(System.nanoTime() - startNanos);
+      return result;
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error running load test.", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Result runWorker(JdbcUserDao jdbcUserDao, long[] userIds, int workerNo, long startNanos, long endNanos,
+    long expectedIntervalNanos) {
+    final Result result = new Result(0);
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final long intervalNanos = this.config.getTargetRate() > 0 ?
+      TimeUnit.SECONDS.toNanos(this.config.getThreads()) / this.config.getTargetRate() : 0;
+    // Stagger the schedules of the threads, so they don't all issue their operations at the same time
+    long dueNanos = startNanos + intervalNanos * workerNo / this.config.getThreads();
+    parkUntil(startNanos);
+    while (true) {
+      if (intervalNanos > 0) {
+        parkUntil(dueNanos);
+      }
+      final long issuedNanos = System.nanoTime();
+      if (issuedNanos >= endNanos) {
+        break;
+      }
+      boolean failed = false;
+      try {
+        execute(jdbcUserDao, userIds, random);
+      } catch (RuntimeException e) {
+        failed = true;
+      }
+      final long completedNanos = System.nanoTime();
+      result.getServiceTimes().recordValue(completedNanos - issuedNanos);
+      if (intervalNanos > 0) {
+        result.getLatencies().recordValue(completedNanos - dueNanos);
+        dueNanos += intervalNanos;
+      } else if (expectedIntervalNanos > 0) {
+        result.getLatencies().recordValueWithExpectedInterval(completedNanos - issuedNanos, expectedIntervalNanos);
+      } else {
+        result.getLatencies().recordValue(completedNanos - issuedNanos);
+      }
+      result.recordOperation(failed);
+    }
+    // Operations that were due, but which the thread was too far behind schedule to issue, have been waiting at least
+    // since they were due. Omitting them would understate the latency of a DAO that can't sustain the target rate.
+    final long stoppedNanos = System.nanoTime();
+    for (; intervalNanos > 0 && dueNanos < endNanos; dueNanos += intervalNanos) {
+      result.getLatencies().recordValue(stoppedNanos - dueNanos);
+    }
+    return result;
+  }
+
+  private void execute(JdbcUserDao jdbcUserDao, long[] userIds, ThreadLocalRandom random) {
+    switch (nextOperation(random)) {
+      case READ:
+        jdbcUserDao.findUserById(userIds[nextKey(random)]);
+        break;
+      case UPDATE:
+        final int version = random.nextInt(Integer.MAX_VALUE);
+        jdbcUserDao.updateUser(new User(userIds[nextKey(random)], "First" + version, "Last" + version));
+        break;
+      case INSERT:
+        final long userNo = this.insertedUserCount.incrementAndGet();
+        jdbcUserDao.createUser(new NewUser("First" + userNo, "Last" + userNo, "inserted-" + userNo + "@example.com"));
+        break;
+      default:
+        throw new IllegalStateException("Unsupported operation.");
+    }
+  }
+
+  private Operation nextOperation(ThreadLocalRandom random) {
+    int weight = random.nextInt(this.totalOperationWeight);
+    final List<Integer> operationMix = this.config.getOperationMix();
+    for (Operation operation : Operation.values()) {
+      weight -= operationMix.get(operation.ordinal());
+      if (weight < 0) {
+        return operation;
+      }
+    }
+    throw new IllegalStateException("Operation weights exhausted.");
+  }
+
+  private int nextKey(ThreadLocalRandom random) {
+    return this.zipfianGenerator != null ? this.zipfianGenerator.next(random) :
+      random.nextInt(this.config.getUserCount());
+  }
+
+  private static void parkUntil(long deadlineNanos) {
+    long remainingNanos;
+    while ((remainingNanos = deadlineNanos - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remainingNanos);
+    }
+  }
+
+  private static List<Integer> parseInts(String value) {
+    return Arrays.stream(value.split(",")).map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /**
+   * The result of a load test (or of one of its threads).
+   */
+  static final class Result {
+
+    private final int poolSize;
+    // Latencies, in nanos, corrected for coordinated omission
+    private final Histogram latencies = new Histogram(3);
+    // Time taken by each operation, in nanos
+    private final Histogram serviceTimes = new Histogram(3);
+    private long operationCount;
+    private long errorCount;
+    private long elapsedNanos;
+
+    private Result(int poolSize) {
+      this.poolSize = poolSize;
+    }
+
+    /**
+     * @return the max size of the connection pool.
+     */
+    int getPoolSize() {
+      return this.poolSize;
+    }
+
+    /**
+     * @return the latencies of the operations, in nanos, corrected for coordinated omission.
+     */
+    Histogram getLatencies() {
+      return this.latencies;
+    }
+
+    /**
+     * @return the time taken by each operation, in nanos, excluding any time it was delayed before being issued.
+     */
+    Histogram getServiceTimes() {
+      return this.serviceTimes;
+    }
+
+    /**
+     * @return the no. of operations that failed, e.g. because a connection couldn't be obtained.
+     */
+    long getErrorCount() {
+      return this.errorCount;
+    }
+
+    /**
+     * @return the no. of operations completed per second, including those that failed.
+     */
+    double getThroughput() {
+      return this.elapsedNanos > 0 ? this.operationCount / (this.elapsedNanos / 1e9) : 0;
+    }
+
+    private void recordOperation(boolean failed) {
+      this.operationCount++;
+      if (failed) {
+        this.errorCount++;
+      }
+    }
+
+    private void add(Result other) {
+      this.latencies.add(other.latencies);
+      this.serviceTimes.add(other.serviceTimes);
+      this.operationCount += other.operationCount;
+      this.errorCount += other.errorCount;
+    }
+
+    private void setElapsedNanos(long elapsedNanos) {
+      this.elapsedNanos = elapsedNanos;
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Configuration of a {@link UserDaoLoadTest}. Each property has a default value that's used unless it's overridden.
+ */
+public class UserDaoLoadTestConfig {
+
+  /** Default database to load test - an embedded database, which doesn't require Docker. */
+  public static final String DEFAULT_DATABASE = "h2";
+
+  /** Default no. of threads concurrently calling the DAO. */
+  public static final int DEFAULT_THREADS = 32;
+
+  /** Default max sizes of the DataSource's connection pool to load test, in turn. */
+  public static final List<Integer> DEFAULT_POOL_SIZES = List.of(1, 2, 4, 8, 16, 32);
+
+  /** Default no. of users created in the database before each load test, which are the keys of reads and updates. */
+  public static final int DEFAULT_USER_COUNT = 10_000;
+
+  /** Default relative weights of reads, updates and inserts of users, in that order. */
+  public static final List<Integer> DEFAULT_OPERATION_MIX = List.of(90, 10, 0);
+
+  /** Default value of the Zipfian constant, when the keys follow a {@link KeyDistribution#ZIPFIAN} distribution. */
+  public static final double DEFAULT_ZIPFIAN_CONSTANT = ZipfianGenerator.DEFAULT_ZIPFIAN_CONSTANT;
+
+  /** Default duration of the warm-up before each load test is measured. */
+  public static final Duration DEFAULT_WARM_UP = Duration.ofSeconds(5);
+
+  /** Default duration of each measured load test. */
+  public static final Duration DEFAULT_DURATION = Duration.ofSeconds(15);
+
+  /**
+   * Distributions of the keys (users) that are read and updated.
+   */
+  public enum KeyDistribution {
+    /** Each user is equally likely to be read or updated. */
+    UNIFORM,
+    /**
+     * A small 'hot set' of users accounts for most reads and updates, with the likelihood of a user being read or
+     * updated being inversely proportional to (a power of) its rank. See {@link ZipfianGenerator}.
+     */
+    ZIPFIAN
+  }
+
+  private String database = DEFAULT_DATABASE;
+  private int threads = DEFAULT_THREADS;
+  private List<Integer> poolSizes = DEFAULT_POOL_SIZES;
+  private int userCount = DEFAULT_USER_COUNT;
+  private List<Integer> operationMix = DEFAULT_OPERATION_MIX;
+  private KeyDistribution keyDistribution = KeyDistribution.ZIPFIAN;
+  private double zipfianConstant = DEFAULT_ZIPFIAN_CONSTANT;
+  private int targetRate;
+  private Duration warmUp = DEFAULT_WARM_UP;
+  private Duration duration = DEFAULT_DURATION;
+
+  /**
+   * @return the database to load test.
+   */
+  public String getDatabase() {
+    return this.database;
+  }
+
+  /**
+   * @param database the database to load test - h2 (an embedded database), or mysql (the version of MySQL used by the
+   * integration tests, launched in a Docker container using Testcontainers).
+   */
+  public void setDatabase(String database) {
+    Preconditions.checkArgument("h2".equals(database) || "mysql".equals(database),
+      "database must be one of h2 or mysql.");
+    this.database = database;
+  }
+
+  /**
+   * @return the no. of threads concurrently calling the DAO.
+   */
+  public int getThreads() {
+    return this.threads;
+  }
+
+  /**
+   * @param threads the no. of threads concurrently calling the DAO. Must be greater than 0.
+   */
+  public void setThreads(int threads) {
+    Preconditions.checkArgument(threads > 0, "threads must be greater than 0.");
+    this.threads = threads;
+  }
+
+  /**
+   * @return the max sizes of the DataSource's connection pool to load test, in turn.
+   */
+  public List<Integer> getPoolSizes() {
+    return this.poolSizes;
+  }
+
+  /**
+   * @param poolSizes the max sizes of the DataSource's connection pool to load test, in turn, in ascending order, to
+   * find the size beyond which throughput no longer increases. Must not be empty, and each must be greater than 0.
+   */
+  public void setPoolSizes(List<Integer> poolSizes) {
+    Preconditions.checkArgument(poolSizes != null && !poolSizes.isEmpty(), "poolSizes must not be empty.");
+    Preconditions.checkArgument(poolSizes.stream().allMatch(poolSize -> poolSize > 0),
+      "poolSizes must be greater than 0.");
+    this.poolSizes = List.copyOf(poolSizes);
+  }
+
+  /**
+   * @return the no. of users created in the database before each load test.
+   */
+  public int getUserCount() {
+    return this.userCount;
+  }
+
+  /**
+   * @param userCount the no. of users created in the database before each load test, which are the keys of the reads
+   * and updates. Must be greater than 1.
+   */
+  public void setUserCount(int userCount) {
+    Preconditions.checkArgument(userCount > 1, "userCount must be greater than 1.");
+    this.userCount = userCount;
+  }
+
+  /**
+   * @return the relative weights of reads, updates and inserts of users, in that order.
+   */
+  public List<Integer> getOperationMix() {
+    return this.operationMix;
+  }
+
+  /**
+   * @param readWeight the relative weight (e.g. percentage) of operations that read a user by id.
+   * @param updateWeight the relative weight of operations that update an existing user.
+   * @param insertWeight the relative weight of operations that insert a new user.
+   * The weights must not be negative, and at least one must be greater than 0.
+   */
+  public void setOperationMix(int readWeight, int updateWeight, int insertWeight) {
+    Preconditions.checkArgument(readWeight >= 0 && updateWeight >= 0 && insertWeight >= 0,
+      "Weights of operations must not be negative.");
+    Preconditions.checkArgument(readWeight + updateWeight + insertWeight > 0,
+      "At least one weight of an operation must be greater than 0.");
+    this.operationMix = List.of(readWeight, updateWeight, insertWeight);
+  }
+
+  /**
+   * @return the distribution of the keys (users) that are read and updated.
+   */
+  public KeyDistribution getKeyDistribution() {
+    return this.keyDistribution;
+  }
+
+  /**
+   * @param keyDistribution the distribution of the keys (users) that are read and updated. Defaults to
+   * {@link KeyDistribution#ZIPFIAN}.
+   */
+  public void setKeyDistribution(KeyDistribution keyDistribution) {
+    this.keyDistribution = Objects.requireNonNull(keyDistribution, "keyDistribution must not be null.");
+  }
+
+  /**
+   * @return the Zipfian constant, when the keys follow a Zipfian distribution.
+   */
+  public double getZipfianConstant() {
+    return this.zipfianConstant;
+  }
+
+  /**
+   * @param zipfianConstant the Zipfian constant, when the keys follow a Zipfian distribution. The higher the value,
+   * the smaller and hotter the hot set. Must be greater than 0 and less than 1.
+   */
+  public void setZipfianConstant(double zipfianConstant) {
+    Preconditions.checkArgument(zipfianConstant > 0 && zipfianConstant < 1,
+      "zipfianConstant must be greater than 0 and less than 1.");
+    this.zipfianConstant = zipfianConstant;
+  }
+
+  /**
+   * @return the target rate of operations per second, across all threads, or 0 if the rate isn't limited.
+   */
+  public int getTargetRate() {
+    return this.targetRate;
+  }
+
+  /**
+   * @param targetRate the target rate of operations per second, across all threads. If set, each thread issues its
+   * operations at a fixed interval, and the latency of each is measured from when it should have been issued, rather
+   * than when it actually was, so that time spent queued behind slow operations is included. Zero (the default) to
+   * issue operations as fast as the DAO completes them. Must not be negative.
+   */
+  public void setTargetRate(int targetRate) {
+    Preconditions.checkArgument(targetRate >= 0, "targetRate must not be negative.");
+    this.targetRate = targetRate;
+  }
+
+  /**
+   * @return the duration of the warm-up before each load test is measured.
+   */
+  public Duration getWarmUp() {
+    return this.warmUp;
+  }
+
+  /**
+   * @param warmUp the duration of the warm-up before each load test is measured. Must not be negative.
+   */
+  public void setWarmUp(Duration warmUp) {
+    Preconditions.checkArgument(warmUp != null && !warmUp.isNegative(), "warmUp must not be negative.");
+    this.warmUp = warmUp;
+  }
+
+  /**
+   * @return the duration of each measured load test.
+   */
+  public Duration getDuration() {
+    return this.duration;
+  }
+
+  /**
+   * @param duration the duration of each measured load test. Must be positive.
+   */
+  public void setDuration(Duration duration) {
+    Preconditions.checkArgument(duration != null && !duration.isNegative() && !duration.isZero(),
+      "duration must be positive.");
+    this.duration = duration;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("database", database)
+      .add("threads", threads)
+      .add("poolSizes", poolSizes)
+      .add("userCount", userCount)
+      .add("operationMix", operationMix)
+      .add("keyDistribution", keyDistribution)
+      .add("zipfianConstant", zipfianConstant)
+      .add("targetRate", targetRate)
+      .add("warmUp", warmUp)
+      .add("duration", duration)
+      .toString();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.neiljbrown.example.business.domain.UserView;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * JMH benchmarks of the cost of retrieving and mapping rows of users using each {@link UserProjection}, compared to a
+ * baseline of selecting all columns (SELECT *) and mapping them by column name, on the bulk lookup and streaming
+ * paths of {@link JdbcUserDao}.
+ * <p>
+ * The 'projection' parameter selects the projection, or 'SELECT_STAR' for the baseline. Running the benchmarks with
+ * JMH's GC profiler (-prof gc) reports the bytes allocated per op, which is dominated by the size of the retrieved
+ * rows. The benchmarks use an embedded database ({@link EmbeddedUserDatabase}), so the cost of transferring the rows
+ * over the network, which the projections also reduce, isn't included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserProjectionBenchmark {
+
+  /** No. of users created in the database before the benchmarks are run. */
+  static final int USER_COUNT = 10_000;
+
+  /** No. of users looked up per call of the bulk lookup benchmark. */
+  static final int BULK_LOOKUP_SIZE = 100;
+
+  /** No. of users read per call of the streaming benchmark. */
+  static final int STREAM_SIZE = 1000;
+
+  private static final String SELECT_STAR = "SELECT_STAR";
+  private static final String SELECT_STAR_BY_IDS_SQL_PREFIX = "SELECT * FROM user u WHERE u.id IN (";
+  private static final String SELECT_STAR_PAGE_SQL = "SELECT * FROM user u WHERE u.id > ? ORDER BY u.id LIMIT ?";
+
+  // The mapping of rows prior to the introduction of projections - all columns, looked up by name
+  private static final RowMapper<UserView> BY_NAME_ROW_MAPPER = resultSet -> new UserView(resultSet.getLong("id"),
+    resultSet.getString("first_name"), resultSet.getString("last_name"), resultSet.getString("email"));
+
+  @Param({SELECT_STAR, "ID_ONLY", "NAME", "FULL"})
+  String projection;
+
+  private HikariDataSource dataSource;
+  private JdbcUserDao jdbcUserDao;
+  private UserProjection userProjection;
+  private InListQuery selectStarByIdsQuery;
+  private long firstUserId;
+  private long lastUserId;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase("projection_" + System.nanoTime(), 4);
+    this.jdbcUserDao = new JdbcUserDao(this.dataSource);
+    this.userProjection = SELECT_STAR.equals(this.projection) ? null : UserProjection.valueOf(this.projection);
+    this.selectStarByIdsQuery = new InListQuery(SELECT_STAR_BY_IDS_SQL_PREFIX, ")", BULK_LOOKUP_SIZE);
+    final List<NewUser> newUsers = new ArrayList<>(USER_COUNT);
+    for (int i = 0; i < USER_COUNT; i++) {
+      newUsers.add(new NewUser("First" + i, "Last" + i, "user-" + i + "@example.com"));
+    }
+    final List<User> createdUsers = this.jdbcUserDao.createUsers(newUsers).getCreatedUsers();
+    this.firstUserId = createdUsers.get(0).getId();
+    this.lastUserId = this.jdbcUserDao.findLastUserId();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.dataSource != null) {
+      this.dataSource.close();
+    }
+  }
+
+  @Benchmark
+  public Object findUsersByIds() throws SQLException {
+    final List<Long> userIds = new ArrayList<>(BULK_LOOKUP_SIZE);
+    for (int i = 0; i < BULK_LOOKUP_SIZE; i++) {
+      userIds.add(ThreadLocalRandom.current().nextLong(this.firstUserId, this.lastUserId + 1));
+    }
+    if (this.userProjection != null) {
+      return this.jdbcUserDao.findUsersByIds(userIds, this.userProjection);
+    }
+    try (Connection connection = this.dataSource.getConnection();
+         PreparedStatement preparedStatement = connection.prepareStatement(
+           this.selectStarByIdsQuery.sqlFor(userIds.size()))) {
+      this.selectStarByIdsQuery.binderFor(userIds, 1).bind(preparedStatement);
+      return mapAll(preparedStatement);
+    }
+  }
+
+  @Benchmark
+  public void streamUsersAfter(Blackhole blackhole) throws SQLException {
+    final long afterUserId = ThreadLocalRandom.current().nextLong(this.firstUserId - 1, this.lastUserId - STREAM_SIZE);
+    if (this.userProjection != null) {
+      this.jdbcUserDao.streamUsersAfter(afterUserId, this.userProjection).limit(STREAM_SIZE)
+        .forEach(blackhole::consume);
+      return;
+    }
+    try (Connection connection = this.dataSource.getConnection();
+         PreparedStatement preparedStatement = connection.prepareStatement(SELECT_STAR_PAGE_SQL)) {
+      preparedStatement.setLong(1, afterUserId);
+      preparedStatement.setInt(2, STREAM_SIZE);
+      mapAll(preparedStatement).forEach(blackhole::consume);
+    }
+  }
+
+  private static List<UserView> mapAll(PreparedStatement preparedStatement) throws SQLException {
+    final List<UserView> users = new ArrayList<>();
+    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+      while (resultSet.next()) {
+        users.add(BY_NAME_ROW_MAPPER.mapRow(resultSet));
+      }
+    }
+    return users;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Generates indexes of items in the range [0, itemCount) following a Zipfian distribution, in which the probability of
+ * an item being generated is inversely proportional to (a power of) its rank. A small 'hot set' of items accounts for
+ * most of the generated indexes, as is typical of the keys accessed by real workloads.
+ * <p>
+ * The items' ranks are scrambled (using a fixed seed), so the hot items are spread across the range, rather than
+ * being the lowest indexes. (The most active users of an application are rarely those with the lowest ids).
+ * <p>
+ * Uses the algorithm described in "Quickly Generating Billion-Record Synthetic Databases" (Gray et al, SIGMOD 1994),
+ * as used by YCSB. Creating the generator takes time linear in the no. of items, but generating each index takes
+ * constant time. Instances are immutable, and so can be shared by threads.
+ */
+final class ZipfianGenerator {
+
+  /** Default value of the Zipfian constant (skew), as used by YCSB. */
+  static final double DEFAULT_ZIPFIAN_CONSTANT = 0.99;
+
+  private static final long SCRAMBLE_SEED = 42;
+
+  private final int itemCount;
+  private final double zetaN;
+  private final double alpha;
+  private final double eta;
+  private final double secondRankThreshold;
+  // The index of the item of each rank
+  private final int[] indexByRank;
+
+  /**
+   * @param itemCount the no. of items. Must be greater than 1.
+   * @param zipfianConstant the Zipfian constant (skew) of the distribution. The higher the value the smaller and hotter
+   * the hot set. Must be greater than 0 and less than 1.
+   */
+  ZipfianGenerator(int itemCount, double zipfianConstant) {
+    Preconditions.checkArgument(itemCount > 1, "itemCount must be greater than 1.");
+    Preconditions.checkArgument(zipfianConstant > 0 && zipfianConstant < 1,
+      "zipfianConstant must be greater than 0 and less than 1.");
+    this.itemCount = itemCount;
+    this.zetaN = zeta(itemCount, zipfianConstant);
+    this.alpha = 1 / (1 - zipfianConstant);
+    this.eta = (1 - Math.pow(2.0 / itemCount, 1 - zipfianConstant)) / (1 - zeta(2, zipfianConstant) / this.zetaN);
+    this.secondRankThreshold = 1 + Math.pow(0.5, zipfianConstant);
+    this.indexByRank = new int[itemCount];
+    for (int i = 0; i < itemCount; i++) {
+      this.indexByRank[i] = i;
+    }
+    // Fisher-Yates shuffle
+    final Random random = new Random(SCRAMBLE_SEED);
+    for (int i = itemCount - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final int index = this.indexByRank[i];
+      this.indexByRank[i] = this.indexByRank[j];
+      this.indexByRank[j] = index;
+    }
+  }
+
+  /**
+   * @param random the source of randomness, e.g. the calling thread's {@link java.util.concurrent.ThreadLocalRandom}.
+   * @return the index of the next item, in the range [0, itemCount).
+   */
+  int next(Random random) {
+    final double u = random.nextDouble();
+    final double uz = u * this.zetaN;
+    final int rank;
+    if (uz < 1) {
+      rank = 0;
+    } else if (uz < this.secondRankThreshold) {
+      rank = 1;
+    } else {
+      rank = Math.min((int) (this.itemCount * Math.pow(this.eta * u - this.eta + 1, this.alpha)), this.itemCount - 1);
+    }
+    return this.indexByRank[rank];
+  }
+
+  private static double zeta(int n, double theta) {
+    double sum = 0;
+    for (int i = 1; i <= n; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+}
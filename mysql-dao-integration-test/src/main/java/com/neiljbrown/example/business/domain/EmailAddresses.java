@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.business.domain;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Utility methods for users' email addresses.
+ */
+public final class EmailAddresses {
+
+  private EmailAddresses() {
+  }
+
+  /**
+   * Normalises an email address to the canonical form in which it's stored and looked up - with leading and trailing
+   * whitespace removed, and in lower case.
+   * <p>
+   * Email addresses are compared case-insensitively (consistent with the collation of the database's email column).
+   * Normalising them before they're stored or used in a query allows them to be compared for equality as-is, e.g. in
+   * a query that can be satisfied by the column's unique index, rather than by applying a function (such as LOWER())
+   * to the column, which prevents the index being used.
+   *
+   * @param email the email address.
+   * @return the normalised email address.
+   */
+  public static String normalise(String email) {
+    Objects.requireNonNull(email, "email must not be null.");
+    return email.trim().toLowerCase(Locale.ROOT);
+  }
+}
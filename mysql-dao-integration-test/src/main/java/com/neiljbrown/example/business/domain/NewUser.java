@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.business.domain;
+
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * The details of a new user of the application that's yet to be registered (created), and hence does not yet have an
+ * id.
+ */
+public class NewUser {
+
+  private final String firstName;
+  private final String lastName;
+  private final String email;
+
+  /**
+   * @param firstName the first name of the user.
+   * @param lastName the last name of the user.
+   * @param email the email address of the user. Must be unique across all users.
+   */
+  public NewUser(String firstName, String lastName, String email) {
+    this.firstName = Objects.requireNonNull(firstName, "firstName must not be null.");
+    this.lastName = Objects.requireNonNull(lastName, "lastName must not be null.");
+    this.email = Objects.requireNonNull(email, "email must not be null.");
+  }
+
+  public String getFirstName() {
+    return this.firstName;
+  }
+
+  public String getLastName() {
+    return this.lastName;
+  }
+
+  public String getEmail() {
+    return this.email;
+  }
+
+  /**
+   * @param id the id that was generated for the user when they were created.
+   * @return the created {@link User}.
+   */
+  public User toUser(long id) {
+    return new User(id, this.firstName, this.lastName);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("firstName", firstName)
+      .add("lastName", lastName)
+      .add("email", email)
+      .toString();
+  }
+}
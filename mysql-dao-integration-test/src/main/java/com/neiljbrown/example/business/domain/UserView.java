@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.business.domain;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A lightweight, read-only view of a registered user, containing only a subset (projection) of their details, e.g.
+ * when only their id or name is needed. Details that weren't retrieved are null.
+ */
+public class UserView {
+
+  private final long id;
+  private final String firstName;
+  private final String lastName;
+  private final String email;
+
+  /**
+   * @param id the id of the user.
+   * @param firstName the first name of the user, or null if it wasn't retrieved.
+   * @param lastName the last name of the user, or null if it wasn't retrieved.
+   * @param email the email address of the user, or null if it wasn't retrieved.
+   */
+  public UserView(long id, String firstName, String lastName, String email) {
+    this.id = id;
+    this.firstName = firstName;
+    this.lastName = lastName;
+    this.email = email;
+  }
+
+  public long getId() {
+    return this.id;
+  }
+
+  /**
+   * @return the first name of the user, or null if it wasn't retrieved.
+   */
+  public String getFirstName() {
+    return this.firstName;
+  }
+
+  /**
+   * @return the last name of the user, or null if it wasn't retrieved.
+   */
+  public String getLastName() {
+    return this.lastName;
+  }
+
+  /**
+   * @return the email address of the user, or null if it wasn't retrieved.
+   */
+  public String getEmail() {
+    return this.email;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .omitNullValues()
+      .add("id", id)
+      .add("firstName", firstName)
+      .add("lastName", lastName)
+      .add("email", email)
+      .toString();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of one of the concurrency limits of an {@link AdaptiveConcurrencyLimiter}. Each property has
+ * a default value that's used unless it's overridden. The defaults suit cheap ({@link QueryCost#POINT point}) queries.
+ * The configuration is copied when the limiter is created.
+ */
+public class AdaptiveConcurrencyLimitConfig {
+
+  /** Default initial concurrency limit. */
+  public static final int DEFAULT_INITIAL_LIMIT = 20;
+
+  /** Default min concurrency limit. */
+  public static final int DEFAULT_MIN_LIMIT = 1;
+
+  /** Default max concurrency limit. */
+  public static final int DEFAULT_MAX_LIMIT = 200;
+
+  /** Default latency above which a query is considered a sign of overload. */
+  public static final Duration DEFAULT_LATENCY_THRESHOLD = Duration.ofMillis(50);
+
+  /** Default ratio by which the limit is multiplied when a sign of overload is observed. */
+  public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+  private int initialLimit = DEFAULT_INITIAL_LIMIT;
+  private int minLimit = DEFAULT_MIN_LIMIT;
+  private int maxLimit = DEFAULT_MAX_LIMIT;
+  private Duration latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+  private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+  /**
+   * @return the concurrency limit when the limiter is created.
+   */
+  public int getInitialLimit() {
+    return this.initialLimit;
+  }
+
+  /**
+   * @param initialLimit the concurrency limit when the limiter is created. Must be greater than 0, and between the min
+   * and max limits.
+   */
+  public void setInitialLimit(int initialLimit) {
+    Preconditions.checkArgument(initialLimit > 0, "initialLimit must be greater than 0.");
+    this.initialLimit = initialLimit;
+  }
+
+  /**
+   * @return the min concurrency limit.
+   */
+  public int getMinLimit() {
+    return this.minLimit;
+  }
+
+  /**
+   * @param minLimit the min concurrency limit, below which the limit isn't reduced however slow queries become. Must
+   * be greater than 0.
+   */
+  public void setMinLimit(int minLimit) {
+    Preconditions.checkArgument(minLimit > 0, "minLimit must be greater than 0.");
+    this.minLimit = minLimit;
+  }
+
+  /**
+   * @return the max concurrency limit.
+   */
+  public int getMaxLimit() {
+    return this.maxLimit;
+  }
+
+  /**
+   * @param maxLimit the max concurrency limit, above which the limit isn't increased however fast queries are. Should
+   * be no more than the size of the connection pool, plus the no. of callers that can acceptably wait for a
+   * connection. Must be greater than 0.
+   */
+  public void setMaxLimit(int maxLimit) {
+    Preconditions.checkArgument(maxLimit > 0, "maxLimit must be greater than 0.");
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * @return the latency above which a query is considered a sign of overload.
+   */
+  public Duration getLatencyThreshold() {
+    return this.latencyThreshold;
+  }
+
+  /**
+   * @param latencyThreshold the latency of a query, including the time taken to obtain a connection from the pool,
+   * above which the query is considered a sign of overload, and the limit is reduced. Should be comfortably above the
+   * latency of the queries when the database isn't loaded. Must be positive.
+   */
+  public void setLatencyThreshold(Duration latencyThreshold) {
+    Preconditions.checkArgument(latencyThreshold != null && !latencyThreshold.isNegative() &&
+      !latencyThreshold.isZero(), "latencyThreshold must be positive.");
+    this.latencyThreshold = latencyThreshold;
+  }
+
+  /**
+   * @return the ratio by which the limit is multiplied when a sign of overload is observed.
+   */
+  public double getBackoffRatio() {
+    return this.backoffRatio;
+  }
+
+  /**
+   * @param backoffRatio the ratio by which the limit is multiplied when a sign of overload is observed, at most once
+   * per window of the queries that were executing at the time. Lower values shed load more aggressively. Must be
+   * greater than 0 and less than 1.
+   */
+  public void setBackoffRatio(double backoffRatio) {
+    Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1,
+      "backoffRatio must be greater than 0 and less than 1.");
+    this.backoffRatio = backoffRatio;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("initialLimit", initialLimit)
+      .add("minLimit", minLimit)
+      .add("maxLimit", maxLimit)
+      .add("latencyThreshold", latencyThreshold)
+      .add("backoffRatio", backoffRatio)
+      .toString();
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Limits the no. of queries executed concurrently by a {@link JdbcUserDao}, rejecting queries over the limit, so that
+ * callers fail fast with a {@link DatabaseOverloadedException} when the database slows down, rather than piling up
+ * waiting for a connection from the pool until it times out.
+ * <p>
+ * Queries of each {@link QueryCost cost} are subject to a separate limit, which adapts to the observed latency of the
+ * queries using AIMD (additive increase, multiplicative decrease). In particular, bulk writes, which take much longer
+ * than bulk reads, have their own limit and latency threshold, so that large writes don't reduce the limit of bulk
+ * reads -
+ * <ul>
+ *   <li>When a query takes longer than the configured latency threshold, or fails because a connection couldn't be
+ *   obtained in time, the limit is multiplied by the configured backoff ratio (e.g. 0.9), down to the min limit. The
+ *   limit is decreased at most once per window - queries that were already executing when the limit was last
+ *   decreased don't decrease it again - so that many queries slowed by the same episode of overload (e.g. all those
+ *   waiting on a stalled database) decrease the limit once, rather than once each.</li>
+ *   <li>When a query completes within the threshold, while the limit is at least half used, the limit is increased by
+ *   1 / limit, i.e. by roughly 1 for each limit's worth of fast queries, up to the max limit.</li>
+ * </ul>
+ * The latency of a query includes the time taken to obtain a connection from the pool, which is the first to grow when
+ * the database, or the pool, can't keep up.
+ * <p>
+ * A limiter is configured using {@link JdbcUserDaoConfig#setConcurrencyLimiter}. The current limits, and the no. of
+ * queries rejected, can be read using the limiter's getters, e.g. to export them as metrics.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  /** Default initial concurrency limit of {@link QueryCost#BULK bulk} queries. */
+  public static final int DEFAULT_BULK_INITIAL_LIMIT = 4;
+
+  /** Default max concurrency limit of {@link QueryCost#BULK bulk} queries. */
+  public static final int DEFAULT_BULK_MAX_LIMIT = 32;
+
+  /** Default latency above which a {@link QueryCost#BULK bulk} query is considered a sign of overload. */
+  public static final Duration DEFAULT_BULK_LATENCY_THRESHOLD = Duration.ofMillis(500);
+
+  /** Default initial concurrency limit of {@link QueryCost#BULK_WRITE bulk writes}. */
+  public static final int DEFAULT_BULK_WRITE_INITIAL_LIMIT = 4;
+
+  /** Default max concurrency limit of {@link QueryCost#BULK_WRITE bulk writes}. */
+  public static final int DEFAULT_BULK_WRITE_MAX_LIMIT = 16;
+
+  /** Default latency above which a {@link QueryCost#BULK_WRITE bulk write} is considered a sign of overload. */
+  public static final Duration DEFAULT_BULK_WRITE_LATENCY_THRESHOLD = Duration.ofSeconds(5);
+
+  /** Returned by {@link #tryAcquire(QueryCost)} when a query is rejected, rather than a permit. */
+  static final long REJECTED = 0;
+
+  private final Map<QueryCost, Limit> limits = new EnumMap<>(QueryCost.class);
+
+  /**
+   * Creates a limiter with the default configuration of each limit.
+   */
+  public AdaptiveConcurrencyLimiter() {
+    this(new AdaptiveConcurrencyLimitConfig(), defaultBulkLimitConfig());
+  }
+
+  /**
+   * Creates a limiter with the default configuration of the limit of {@link QueryCost#BULK_WRITE bulk writes}.
+   *
+   * @param pointLimitConfig the configuration of the limit of {@link QueryCost#POINT point} queries.
+   * @param bulkLimitConfig the configuration of the limit of {@link QueryCost#BULK bulk} queries.
+   */
+  public AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimitConfig pointLimitConfig,
+    AdaptiveConcurrencyLimitConfig bulkLimitConfig) {
+    this(pointLimitConfig, bulkLimitConfig, defaultBulkWriteLimitConfig());
+  }
+
+  /**
+   * @param pointLimitConfig the configuration of the limit of {@link QueryCost#POINT point} queries.
+   * @param bulkLimitConfig the configuration of the limit of {@link QueryCost#BULK bulk} queries.
+   * @param bulkWriteLimitConfig the configuration of the limit of {@link QueryCost#BULK_WRITE bulk writes}.
+   */
+  public AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimitConfig pointLimitConfig,
+    AdaptiveConcurrencyLimitConfig bulkLimitConfig, AdaptiveConcurrencyLimitConfig bulkWriteLimitConfig) {
+    this.limits.put(QueryCost.POINT, new Limit(Objects.requireNonNull(pointLimitConfig,
+      "pointLimitConfig must not be null.")));
+    this.limits.put(QueryCost.BULK, new Limit(Objects.requireNonNull(bulkLimitConfig,
+      "bulkLimitConfig must not be null.")));
+    this.limits.put(QueryCost.BULK_WRITE, new Limit(Objects.requireNonNull(bulkWriteLimitConfig,
+      "bulkWriteLimitConfig must not be null.")));
+  }
+
+  /**
+   * @param queryCost the cost of queries.
+   * @return the current concurrency limit of queries of the cost.
+   */
+  public int getLimit(QueryCost queryCost) {
+    return this.limits.get(queryCost).getLimit();
+  }
+
+  /**
+   * @param queryCost the cost of queries.
+   * @return the no. of queries of the cost that are currently executing.
+   */
+  public int getInFlightCount(QueryCost queryCost) {
+    return this.limits.get(queryCost).getInFlightCount();
+  }
+
+  /**
+   * @param queryCost the cost of queries.
+   * @return the total no. of queries of the cost that have been rejected because the limit had been reached.
+   */
+  public long getRejectedCount(QueryCost queryCost) {
+    return this.limits.get(queryCost).getRejectedCount();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("point", this.limits.get(QueryCost.POINT))
+      .add("bulk", this.limits.get(QueryCost.BULK))
+      .add("bulkWrite", this.limits.get(QueryCost.BULK_WRITE))
+      .toString();
+  }
+
+  /**
+   * Acquires a permit to execute a query, if the no. of queries of the same cost that are executing is below the
+   * current limit. A permit that's acquired must be released once the query completes.
+   *
+   * @param queryCost the cost of the query.
+   * @return the permit that was acquired - a sequence no. (greater than 0) which orders it relative to the permits
+   * of other queries of the same cost - or {@link #REJECTED} if the query should be rejected.
+   */
+  long tryAcquire(QueryCost queryCost) {
+    return this.limits.get(queryCost).tryAcquire();
+  }
+
+  /**
+   * Releases a permit once a query has completed, and adapts the limit to the query's latency.
+   *
+   * @param queryCost the cost of the query.
+   * @param permit the permit acquired for the query by {@link #tryAcquire(QueryCost)}.
+   * @param latencyNanos the latency of the query, including the time taken to obtain a connection, in nanoseconds.
+   * @param overloaded true if the query failed due to a sign of overload, e.g. a connection couldn't be obtained in
+   * time.
+   */
+  void release(QueryCost queryCost, long permit, long latencyNanos, boolean overloaded) {
+    this.limits.get(queryCost).release(permit, latencyNanos, overloaded);
+  }
+
+  private static AdaptiveConcurrencyLimitConfig defaultBulkLimitConfig() {
+    final AdaptiveConcurrencyLimitConfig config = new AdaptiveConcurrencyLimitConfig();
+    config.setInitialLimit(DEFAULT_BULK_INITIAL_LIMIT);
+    config.setMaxLimit(DEFAULT_BULK_MAX_LIMIT);
+    config.setLatencyThreshold(DEFAULT_BULK_LATENCY_THRESHOLD);
+    return config;
+  }
+
+  private static AdaptiveConcurrencyLimitConfig defaultBulkWriteLimitConfig() {
+    final AdaptiveConcurrencyLimitConfig config = new AdaptiveConcurrencyLimitConfig();
+    config.setInitialLimit(DEFAULT_BULK_WRITE_INITIAL_LIMIT);
+    config.setMaxLimit(DEFAULT_BULK_WRITE_MAX_LIMIT);
+    config.setLatencyThreshold(DEFAULT_BULK_WRITE_LATENCY_THRESHOLD);
+    return config;
+  }
+
+  /**
+   * An adaptive limit of the queries of one cost.
+   */
+  private static final class Limit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    // Guarded by this
+    private double limit;
+    private int inFlightCount;
+    private long rejectedCount;
+    // Sequence no. of the last permit acquired
+    private long lastPermit;
+    // Sequence no. of the last permit acquired before the limit was last decreased. The limit isn't decreased again by
+    // the queries holding this or earlier permits, as they were executing when it was decreased.
+    private long lastPermitBeforeDecrease;
+
+    Limit(AdaptiveConcurrencyLimitConfig config) {
+      Preconditions.checkArgument(config.getMinLimit() <= config.getMaxLimit(),
+        "minLimit must not be greater than maxLimit.");
+      Preconditions.checkArgument(config.getInitialLimit() >= config.getMinLimit() &&
+        config.getInitialLimit() <= config.getMaxLimit(), "initialLimit must be between minLimit and maxLimit.");
+      this.minLimit = config.getMinLimit();
+      this.maxLimit = config.getMaxLimit();
+      this.latencyThresholdNanos = config.getLatencyThreshold().toNanos();
+      this.backoffRatio = config.getBackoffRatio();
+      this.limit = config.getInitialLimit();
+    }
+
+    synchronized long tryAcquire() {
+      if (this.inFlightCount >= (int) this.limit) {
+        this.rejectedCount++;
+        return REJECTED;
+      }
+      this.inFlightCount++;
+      return ++this.lastPermit;
+    }
+
+    synchronized void release(long permit, long latencyNanos, boolean overloaded) {
+      final int inFlightCount = this.inFlightCount--;
+      if (overloaded || latencyNanos > this.latencyThresholdNanos) {
+        if (permit > this.lastPermitBeforeDecrease) {
+          this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+          this.lastPermitBeforeDecrease = this.lastPermit;
+        }
+      } else if (inFlightCount * 2 >= this.limit) {
+        // Only grow the limit while it's being used, so it doesn't grow unbounded while load is light
+        this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+      }
+    }
+
+    synchronized int getLimit() {
+      return (int) this.limit;
+    }
+
+    synchronized int getInFlightCount() {
+      return this.inFlightCount;
+    }
+
+    synchronized long getRejectedCount() {
+      return this.rejectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return MoreObjects.toStringHelper(this)
+        .add("limit", (int) limit)
+        .add("inFlightCount", inFlightCount)
+        .add("rejectedCount", rejectedCount)
+        .toString();
+    }
+  }
+}
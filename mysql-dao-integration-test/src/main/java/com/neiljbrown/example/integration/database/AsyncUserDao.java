@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * An asynchronous (non-blocking) API for looking up users, which executes the calls using a (blocking)
+ * {@link JdbcUserDao}.
+ *
+ * <h2>Threading</h2>
+ * On JDKs that support virtual threads (JDK 21+) each call is executed on its own virtual thread, so a large no. of
+ * calls waiting on the database consume very few resources. On older JDKs calls are executed by a bounded pool of
+ * platform threads, and calls made once its queue is full fail with a {@link RejectedExecutionException}.
+ *
+ * <h2>Bulkhead</h2>
+ * The no. of calls that execute concurrently is limited by a semaphore, sized by default to the max size of the
+ * DataSource's connection pool. Calls in excess of the limit wait for a permit in the JVM, which is cheap, rather
+ * than blocking inside the connection pool's {@code getConnection()}, where they would contend for the pool's lock and
+ * eventually fail with the pool's connection timeout.
+ *
+ * <h2>Deadlines</h2>
+ * Each call has a deadline - a max time allowed for the call, either specified by the caller or defaulted. If the call
+ * is still waiting for a permit when the deadline passes it's abandoned. If its query is executing the JDBC statement
+ * is cancelled, and the statement's query timeout is also set as a backstop. In either case the returned future
+ * completes exceptionally with a {@link TimeoutException} once the deadline passes.
+ * <p>
+ * The DAO should be {@link #close() closed} when it's no longer needed, to release the threads it creates.
+ */
+public class AsyncUserDao implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AsyncUserDao.class);
+
+  private final JdbcUserDao delegate;
+  private final Duration defaultTimeout;
+  private final int maxConcurrency;
+  private final Semaphore permits;
+  private final ExecutorService executor;
+  private final boolean usingVirtualThreads;
+  private final ScheduledExecutorService deadlineScheduler;
+
+  /**
+   * Creates an async DAO with the default configuration.
+   *
+   * @param delegate the DAO used to execute the calls.
+   * @param dataSource the DataSource used by the {@code delegate}, whose connection pool size limits the no. of
+   * concurrent calls.
+   */
+  public AsyncUserDao(JdbcUserDao delegate, DataSource dataSource) {
+    this(delegate, dataSource, new AsyncUserDaoConfig());
+  }
+
+  /**
+   * @param delegate the DAO used to execute the calls.
+   * @param dataSource the DataSource used by the {@code delegate}. Unless a max concurrency is configured, the size of
+   * its connection pool limits the no. of concurrent calls.
+   * @param config the configuration of the DAO.
+   */
+  public AsyncUserDao(JdbcUserDao delegate, DataSource dataSource, AsyncUserDaoConfig config) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate must not be null.");
+    Objects.requireNonNull(dataSource, "dataSource must not be null.");
+    Objects.requireNonNull(config, "config must not be null.");
+    this.defaultTimeout = config.getDefaultTimeout();
+    this.maxConcurrency = config.getMaxConcurrency() > 0 ? config.getMaxConcurrency() :
+      DataSourceFactory.getMaximumPoolSize(dataSource);
+    this.permits = new Semaphore(this.maxConcurrency, true);
+    final ExecutorService virtualThreadExecutor = config.isUseVirtualThreads() ? newVirtualThreadExecutor() : null;
+    this.usingVirtualThreads = virtualThreadExecutor != null;
+    this.executor = this.usingVirtualThreads ? virtualThreadExecutor : new ThreadPoolExecutor(this.maxConcurrency,
+      this.maxConcurrency, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getMaxQueuedCalls()),
+      new ThreadFactoryBuilder().setNameFormat("async-user-dao-%d").setDaemon(true).build());
+    this.deadlineScheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("async-user-dao-deadline").setDaemon(true).build());
+    logger.debug("Created AsyncUserDao with max concurrency {}, using {} threads.", this.maxConcurrency,
+      this.usingVirtualThreads ? "virtual" : "platform");
+  }
+
+  /**
+   * Finds a {@link User user} by their unique id, within the default timeout.
+   *
+   * @param userId the unique ID of the user.
+   * @return a future that's completed with an Optional of the {@link User user}, empty if the {code userId} doesn't
+   * identify an existing user.
+   */
+  public CompletableFuture<Optional<User>> findUserById(long userId) {
+    return findUserById(userId, this.defaultTimeout);
+  }
+
+  /**
+   * Finds a {@link User user} by their unique id, within a specified timeout.
+   *
+   * @param userId the unique ID of the user.
+   * @param timeout the max time allowed for the call, including waiting to be executed.
+   * @return a future that's completed with an Optional of the {@link User user}, empty if the {code userId} doesn't
+   * identify an existing user; or completed exceptionally with a {@link TimeoutException} if the call doesn't complete
+   * within the timeout.
+   */
+  public CompletableFuture<Optional<User>> findUserById(long userId, Duration timeout) {
+    Preconditions.checkArgument(userId > 0, "userId must be greater than 0.");
+    final QueryDeadline deadline = QueryDeadline.after(timeout);
+    final CompletableFuture<Optional<User>> result = new CompletableFuture<>();
+    final ScheduledFuture<?> deadlineTimer = this.deadlineScheduler.schedule(() -> {
+      if (result.completeExceptionally(new TimeoutException("Call exceeded timeout of " + timeout + "."))) {
+        deadline.cancel();
+      }
+    }, timeout.toNanos(), TimeUnit.NANOSECONDS);
+    result.whenComplete((user, throwable) -> deadlineTimer.cancel(false));
+    try {
+      this.executor.execute(() -> execute(userId, deadline, result));
+    } catch (RejectedExecutionException ree) {
+      result.completeExceptionally(ree);
+    }
+    return result;
+  }
+
+  /**
+   * @return the max no. of calls that execute concurrently.
+   */
+  public int getMaxConcurrency() {
+    return this.maxConcurrency;
+  }
+
+  /**
+   * @return the no. of calls that are currently waiting for a permit to execute.
+   */
+  public int getQueueLength() {
+    return this.permits.getQueueLength();
+  }
+
+  /**
+   * @return true if calls are executed on virtual threads, or false if they're executed on platform threads.
+   */
+  public boolean isUsingVirtualThreads() {
+    return this.usingVirtualThreads;
+  }
+
+  /**
+   * Stops accepting new calls, and releases the threads created by this DAO once executing calls complete.
+   */
+  @Override
+  public void close() {
+    this.executor.shutdown();
+    this.deadlineScheduler.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("maxConcurrency", maxConcurrency)
+      .add("availablePermits", permits.availablePermits())
+      .add("queueLength", permits.getQueueLength())
+      .add("usingVirtualThreads", usingVirtualThreads)
+      .toString();
+  }
+
+  private void execute(long userId, QueryDeadline deadline, CompletableFuture<Optional<User>> result) {
+    if (result.isDone()) {
+      return;
+    }
+    try {
+      if (!this.permits.tryAcquire(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS)) {
+        // The deadline timer completes the result
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.completeExceptionally(e);
+      return;
+    }
+    try {
+      if (!result.isDone()) {
+        result.complete(this.delegate.findUserById(userId, deadline));
+      }
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    } finally {
+      this.permits.release();
+    }
+  }
+
+  /**
+   * Creates an executor which executes each task on a new virtual thread, if the JDK supports them. Uses reflection
+   * so the code can be compiled and run on JDKs that predate virtual threads.
+   *
+   * @return the created executor, or null if the JDK doesn't support virtual threads.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Not supported by the JDK, or only as a preview feature that isn't enabled
+      return null;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of an {@link AsyncUserDao}. Each property has a default value that's used unless it's
+ * overridden. The configuration is copied when the DAO is created.
+ */
+public class AsyncUserDaoConfig {
+
+  /** Default max time allowed for a call, if the caller doesn't specify one. */
+  public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+  /** Default max no. of calls queued waiting to be executed, when virtual threads aren't used. */
+  public static final int DEFAULT_MAX_QUEUED_CALLS = 10_000;
+
+  private int maxConcurrency;
+  private Duration defaultTimeout = DEFAULT_TIMEOUT;
+  private boolean useVirtualThreads = true;
+  private int maxQueuedCalls = DEFAULT_MAX_QUEUED_CALLS;
+
+  /**
+   * @return the max no. of calls that execute concurrently, or 0 if it's the max size of the connection pool.
+   */
+  public int getMaxConcurrency() {
+    return this.maxConcurrency;
+  }
+
+  /**
+   * @param maxConcurrency the max no. of calls that execute (use a connection) concurrently. Further calls wait in
+   * the JVM for one of the executing calls to complete, rather than waiting for a connection inside the pool. Zero
+   * (the default) to use the max size of the connection pool ({@link DataSourceFactory#getMaximumPoolSize}). Must
+   * not be negative.
+   */
+  public void setMaxConcurrency(int maxConcurrency) {
+    Preconditions.checkArgument(maxConcurrency >= 0, "maxConcurrency must not be negative.");
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  /**
+   * @return the max time allowed for a call, if the caller doesn't specify one.
+   */
+  public Duration getDefaultTimeout() {
+    return this.defaultTimeout;
+  }
+
+  /**
+   * @param defaultTimeout the max time allowed for a call, if the caller doesn't specify one. Must be positive.
+   */
+  public void setDefaultTimeout(Duration defaultTimeout) {
+    Preconditions.checkArgument(defaultTimeout != null && !defaultTimeout.isNegative() && !defaultTimeout.isZero(),
+      "defaultTimeout must be positive.");
+    this.defaultTimeout = defaultTimeout;
+  }
+
+  /**
+   * @return true if calls are executed on virtual threads, when the JDK supports them.
+   */
+  public boolean isUseVirtualThreads() {
+    return this.useVirtualThreads;
+  }
+
+  /**
+   * @param useVirtualThreads true (the default) to execute calls on virtual threads when the JDK supports them (JDK
+   * 21+), or false to always use a bounded pool of platform threads.
+   */
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+
+  /**
+   * @return the max no. of calls queued waiting to be executed, when virtual threads aren't used.
+   */
+  public int getMaxQueuedCalls() {
+    return this.maxQueuedCalls;
+  }
+
+  /**
+   * @param maxQueuedCalls the max no. of calls queued waiting to be executed, when virtual threads aren't used. Calls
+   * made once the queue is full fail immediately. Must be greater than 0.
+   */
+  public void setMaxQueuedCalls(int maxQueuedCalls) {
+    Preconditions.checkArgument(maxQueuedCalls > 0, "maxQueuedCalls must be greater than 0.");
+    this.maxQueuedCalls = maxQueuedCalls;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("maxConcurrency", maxConcurrency)
+      .add("defaultTimeout", defaultTimeout)
+      .add("useVirtualThreads", useVirtualThreads)
+      .add("maxQueuedCalls", maxQueuedCalls)
+      .toString();
+  }
+}
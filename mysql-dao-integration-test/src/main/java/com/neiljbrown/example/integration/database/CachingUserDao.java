@@ -0,0 +1,424 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.neiljbrown.example.business.domain.EmailAddresses;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * A {@link UserDao} which decorates another (typically a {@link JdbcUserDao}) with a read-through, in-memory cache of
+ * users, to avoid querying the database for frequently looked up (hot) users.
+ * <p>
+ * Users are cached when they're looked up, and evicted once the cache reaches its max size (least recently used
+ * first), or they expire. A cached user that's looked up after its refresh period has elapsed is reloaded
+ * asynchronously, while the cached user continues to be returned, so hot users remain fresh without callers waiting.
+ * <p>
+ * The IDs of users that don't exist are also cached (negative caching), in a separate cache with a short expiry, so
+ * that repeated lookups of a missing user don't each query the database.
+ * <p>
+ * Lookups by email address use a separate, bounded cache of (normalised) email addresses mapped to the ID of the user
+ * they belong to, in front of the delegate's query. The user is then retrieved via the cache of users, so a user looked
+ * up by both id and email is only cached once. Emails that don't belong to a user aren't cached.
+ * <p>
+ * Users created or updated via this DAO are removed from the caches, so subsequent lookups reflect the write. A lookup
+ * that's concurrent with a write via this DAO doesn't cache a user as missing, and a bulk lookup that's concurrent with
+ * a write doesn't cache the users it loaded, so the lookup can't cache a user as it was before the write.
+ * Changes made to users by other processes (bypassing this cache) are visible once the cached user is refreshed or
+ * expires. Scans and {@link #findLastUserId()} are not cached.
+ * <p>
+ * Hit, miss and eviction statistics are recorded for both caches, see {@link #getUserCacheStats()} and
+ * {@link #getMissingUserCacheStats()}.
+ */
+public class CachingUserDao implements UserDao {
+
+  private final UserDao delegate;
+  private final LoadingCache<Long, User> userCache;
+  // IDs of users that don't exist. The values are unused.
+  private final Cache<Long, Boolean> missingUserCache;
+  // Normalised email addresses, mapped to the ID of the user they belong to
+  private final Cache<String, Long> emailCache;
+  // Incremented whenever users are invalidated, so that a lookup that overlaps a write doesn't cache stale results
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  /**
+   * Creates a caching DAO with the default configuration.
+   *
+   * @param delegate the DAO to which lookups that aren't satisfied by the cache, and all other operations, are
+   * delegated.
+   */
+  public CachingUserDao(UserDao delegate) {
+    this(delegate, new CachingUserDaoConfig());
+  }
+
+  /**
+   * @param delegate the DAO to which lookups that aren't satisfied by the cache, and all other operations, are
+   * delegated.
+   * @param config the configuration of the cache.
+   */
+  public CachingUserDao(UserDao delegate, CachingUserDaoConfig config) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate must not be null.");
+    Objects.requireNonNull(config, "config must not be null.");
+    final Executor refreshExecutor = config.getRefreshExecutor() != null ? config.getRefreshExecutor() :
+      Executors.newFixedThreadPool(2,
+        new ThreadFactoryBuilder().setNameFormat("user-cache-refresh-%d").setDaemon(true).build());
+    this.userCache = CacheBuilder.newBuilder()
+      .maximumSize(config.getMaximumSize())
+      .expireAfterWrite(config.getExpireAfterWrite())
+      .refreshAfterWrite(config.getRefreshAfterWrite())
+      .ticker(config.getTicker())
+      .recordStats()
+      .build(CacheLoader.asyncReloading(new UserLoader(delegate), refreshExecutor));
+    this.missingUserCache = CacheBuilder.newBuilder()
+      .maximumSize(config.getMissingMaximumSize())
+      .expireAfterWrite(config.getMissingExpireAfterWrite())
+      .ticker(config.getTicker())
+      .recordStats()
+      .build();
+    this.emailCache = CacheBuilder.newBuilder()
+      .maximumSize(config.getEmailMaximumSize())
+      .expireAfterWrite(config.getExpireAfterWrite())
+      .ticker(config.getTicker())
+      .recordStats()
+      .build();
+  }
+
+  @Override
+  public Optional<User> findUserById(long userId) {
+    Preconditions.checkArgument(userId > 0, "userId must be greater than 0.");
+    if (this.missingUserCache.getIfPresent(userId) != null) {
+      return Optional.empty();
+    }
+    final long invalidationCount = this.invalidationCount.get();
+    try {
+      return Optional.of(this.userCache.get(userId));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UserNotFoundException) {
+        cacheMissingUsers(List.of(userId), invalidationCount);
+        return Optional.empty();
+      }
+      throw new RuntimeException("Error loading user [" + userId + "].", e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Users that are cached (including those cached as missing) are returned from the cache. The remaining users are
+   * retrieved from the delegate DAO in bulk, and then cached.
+   */
+  @Override
+  public Map<Long, User> findUsersByIds(Collection<Long> userIds) {
+    Objects.requireNonNull(userIds, "userIds must not be null.");
+    final Map<Long, User> usersById = new HashMap<>();
+    final Set<Long> uncachedUserIds = new LinkedHashSet<>();
+    for (Long userId : new LinkedHashSet<>(userIds)) {
+      Preconditions.checkArgument(userId != null && userId > 0, "userIds must be greater than 0.");
+      final User user = this.userCache.getIfPresent(userId);
+      if (user != null) {
+        usersById.put(userId, user);
+      } else if (this.missingUserCache.getIfPresent(userId) == null) {
+        uncachedUserIds.add(userId);
+      }
+    }
+    if (!uncachedUserIds.isEmpty()) {
+      final long invalidationCount = this.invalidationCount.get();
+      final Map<Long, User> loadedUsersById = this.delegate.findUsersByIds(uncachedUserIds);
+      cacheLoadedUsers(loadedUsersById, invalidationCount);
+      final List<Long> missingUserIds = new ArrayList<>();
+      for (Long userId : uncachedUserIds) {
+        if (!loadedUsersById.containsKey(userId)) {
+          missingUserIds.add(userId);
+        }
+      }
+      cacheMissingUsers(missingUserIds, invalidationCount);
+      usersById.putAll(loadedUsersById);
+    }
+    return usersById;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * If the ID of the user the email belongs to is cached, the user is retrieved by their ID (via the cache of users).
+   * Otherwise the user is retrieved from the delegate DAO by email, and then cached.
+   */
+  @Override
+  public Optional<User> findUserByEmail(String email) {
+    final String normalisedEmail = EmailAddresses.normalise(email);
+    final Long userId = this.emailCache.getIfPresent(normalisedEmail);
+    if (userId != null) {
+      final Optional<User> user = findUserById(userId);
+      if (user.isPresent()) {
+        return user;
+      }
+      this.emailCache.invalidate(normalisedEmail);
+    }
+    final Optional<User> user = this.delegate.findUserByEmail(normalisedEmail);
+    user.ifPresent(foundUser -> cacheUserByEmail(normalisedEmail, foundUser));
+    return user;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Users whose ID is cached for their email are retrieved by their IDs (via the cache of users). The remaining users
+   * are retrieved from the delegate DAO by email in bulk, and then cached.
+   */
+  @Override
+  public Map<String, User> findUsersByEmails(Collection<String> emails) {
+    Objects.requireNonNull(emails, "emails must not be null.");
+    final Map<String, User> usersByEmail = new HashMap<>();
+    final Map<Long, String> cachedEmailsByUserId = new HashMap<>();
+    final Set<String> uncachedEmails = new LinkedHashSet<>();
+    for (String email : emails) {
+      final String normalisedEmail = EmailAddresses.normalise(email);
+      final Long userId = this.emailCache.getIfPresent(normalisedEmail);
+      if (userId != null) {
+        cachedEmailsByUserId.put(userId, normalisedEmail);
+      } else {
+        uncachedEmails.add(normalisedEmail);
+      }
+    }
+    if (!cachedEmailsByUserId.isEmpty()) {
+      final Map<Long, User> usersById = findUsersByIds(cachedEmailsByUserId.keySet());
+      cachedEmailsByUserId.forEach((userId, email) -> {
+        final User user = usersById.get(userId);
+        if (user != null) {
+          usersByEmail.put(email, user);
+        } else {
+          this.emailCache.invalidate(email);
+          uncachedEmails.add(email);
+        }
+      });
+    }
+    if (!uncachedEmails.isEmpty()) {
+      final Map<String, User> loadedUsersByEmail = this.delegate.findUsersByEmails(uncachedEmails);
+      loadedUsersByEmail.forEach(this::cacheUserByEmail);
+      usersByEmail.putAll(loadedUsersByEmail);
+    }
+    return usersByEmail;
+  }
+
+  @Override
+  public long findLastUserId() {
+    return this.delegate.findLastUserId();
+  }
+
+  @Override
+  public Stream<User> streamUsersAfter(long userId) {
+    return this.delegate.streamUsersAfter(userId);
+  }
+
+  @Override
+  public User createUser(NewUser newUser) {
+    final User user = this.delegate.createUser(newUser);
+    invalidate(List.of(user.getId()));
+    return user;
+  }
+
+  @Override
+  public CreateUsersResult createUsers(List<NewUser> newUsers) {
+    final CreateUsersResult result = this.delegate.createUsers(newUsers);
+    final List<Long> createdUserIds = new ArrayList<>(result.getCreatedUsers().size());
+    result.getCreatedUsers().forEach(user -> createdUserIds.add(user.getId()));
+    invalidate(createdUserIds);
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The user is removed from the caches once the delegate DAO has updated them. An update can't change a user's email,
+   * so any email cached for the user still maps to their ID, and is retained.
+   */
+  @Override
+  public boolean updateUser(User user) {
+    final boolean updated = this.delegate.updateUser(user);
+    invalidate(List.of(user.getId()));
+    return updated;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The users are removed from the caches once the delegate DAO has updated them. Any emails cached for them are
+   * retained, as for {@link #updateUser(User)}.
+   */
+  @Override
+  public int updateUsers(Collection<User> users) {
+    final int updatedCount = this.delegate.updateUsers(users);
+    final List<Long> userIds = new ArrayList<>(users.size());
+    users.forEach(user -> userIds.add(user.getId()));
+    invalidate(userIds);
+    return updatedCount;
+  }
+
+  /**
+   * Removes users from the cache, including any cached as missing. Should be called whenever users are written, so
+   * subsequent lookups reflect the write.
+   *
+   * @param userIds the IDs of the users to remove.
+   */
+  public void invalidate(Collection<Long> userIds) {
+    // Incremented first, so that a concurrent lookup that caches the users as missing after they're invalidated below
+    // sees the change, and removes them again
+    this.invalidationCount.incrementAndGet();
+    this.missingUserCache.invalidateAll(userIds);
+    this.userCache.invalidateAll(userIds);
+  }
+
+  /**
+   * @return statistics for the cache of email addresses mapped to user IDs. A hit is a lookup by email that didn't
+   * query the database by email (although the user may still have been loaded by their ID).
+   */
+  public CacheStats getEmailCacheStats() {
+    return this.emailCache.stats();
+  }
+
+  /**
+   * @return statistics for the cache of users that exist, including the no. of hits, misses (loads) and evictions.
+   */
+  public CacheStats getUserCacheStats() {
+    return this.userCache.stats();
+  }
+
+  /**
+   * @return statistics for the cache of IDs of users that don't exist. A hit is a lookup of a missing user that
+   * didn't query the database.
+   */
+  public CacheStats getMissingUserCacheStats() {
+    return this.missingUserCache.stats();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("userCacheSize", userCache.size())
+      .add("userCacheStats", getUserCacheStats())
+      .add("missingUserCacheSize", missingUserCache.size())
+      .add("missingUserCacheStats", getMissingUserCacheStats())
+      .add("emailCacheSize", emailCache.size())
+      .add("emailCacheStats", getEmailCacheStats())
+      .toString();
+  }
+
+  /**
+   * Caches users loaded by a bulk lookup, unless users were invalidated during the lookup, in which case the loaded
+   * users may predate a write. As for {@link #cacheMissingUsers(Collection, long)}, the check is repeated once the
+   * users have been cached, and they're removed if it fails.
+   *
+   * @param usersById the loaded users, keyed by their ID.
+   * @param invalidationCount the value of the invalidation count before the lookup.
+   */
+  private void cacheLoadedUsers(Map<Long, User> usersById, long invalidationCount) {
+    if (usersById.isEmpty() || this.invalidationCount.get() != invalidationCount) {
+      return;
+    }
+    this.userCache.putAll(usersById);
+    if (this.invalidationCount.get() != invalidationCount) {
+      this.userCache.invalidateAll(usersById.keySet());
+    }
+  }
+
+  /**
+   * Caches users as missing, following a lookup that didn't find them, unless users were invalidated during the
+   * lookup, in which case the users may have been created since they were looked up. Users may have been invalidated
+   * after this check, so the check is repeated once the users have been cached, and they're removed if it fails.
+   *
+   * @param userIds the IDs of the users that weren't found.
+   * @param invalidationCount the value of the invalidation count before the lookup.
+   */
+  private void cacheMissingUsers(Collection<Long> userIds, long invalidationCount) {
+    if (userIds.isEmpty() || this.invalidationCount.get() != invalidationCount) {
+      return;
+    }
+    userIds.forEach(userId -> this.missingUserCache.put(userId, Boolean.TRUE));
+    if (this.invalidationCount.get() != invalidationCount) {
+      this.missingUserCache.invalidateAll(userIds);
+    }
+  }
+
+  private void cacheUserByEmail(String normalisedEmail, User user) {
+    this.emailCache.put(normalisedEmail, user.getId());
+    this.missingUserCache.invalidate(user.getId());
+    this.userCache.put(user.getId(), user);
+  }
+
+  /**
+   * Loads users from the delegate DAO on a cache miss, or refresh.
+   */
+  private static class UserLoader extends CacheLoader<Long, User> {
+
+    private final UserDao delegate;
+
+    UserLoader(UserDao delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public User load(Long userId) throws UserNotFoundException {
+      // A loader can't return null. Signal the user doesn't exist using an exception, so it can be cached as missing.
+      return this.delegate.findUserById(userId).orElseThrow(UserNotFoundException::new);
+    }
+
+    @Override
+    public Map<Long, User> loadAll(Iterable<? extends Long> userIds) {
+      final List<Long> userIdList = new ArrayList<>();
+      userIds.forEach(userIdList::add);
+      return this.delegate.findUsersByIds(userIdList);
+    }
+  }
+
+  /**
+   * Signals that a user being loaded into the cache doesn't exist. Created without a stack trace, as it's thrown for
+   * an expected outcome.
+   */
+  private static class UserNotFoundException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    UserNotFoundException() {
+      super("User not found.", null, false, false);
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+/**
+ * Optional configuration of a {@link CachingUserDao}. Each property has a default value that's used unless it's
+ * overridden. The configuration is copied when the DAO is created.
+ */
+public class CachingUserDaoConfig {
+
+  /** Default max no. of users held in the cache. */
+  public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
+  /** Default period after which a cached user expires. */
+  public static final Duration DEFAULT_EXPIRE_AFTER_WRITE = Duration.ofMinutes(5);
+
+  /** Default period after which a cached user is eligible to be refreshed. */
+  public static final Duration DEFAULT_REFRESH_AFTER_WRITE = Duration.ofMinutes(1);
+
+  /** Default max no. of IDs of missing (non-existent) users held in the cache. */
+  public static final long DEFAULT_MISSING_MAXIMUM_SIZE = 10_000;
+
+  /** Default period after which a cached ID of a missing (non-existent) user expires. */
+  public static final Duration DEFAULT_MISSING_EXPIRE_AFTER_WRITE = Duration.ofSeconds(5);
+
+  /** Default max no. of email addresses, mapped to the ID of the user they belong to, held in the cache. */
+  public static final long DEFAULT_EMAIL_MAXIMUM_SIZE = 10_000;
+
+  private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+  private Duration expireAfterWrite = DEFAULT_EXPIRE_AFTER_WRITE;
+  private Duration refreshAfterWrite = DEFAULT_REFRESH_AFTER_WRITE;
+  private long missingMaximumSize = DEFAULT_MISSING_MAXIMUM_SIZE;
+  private Duration missingExpireAfterWrite = DEFAULT_MISSING_EXPIRE_AFTER_WRITE;
+  private long emailMaximumSize = DEFAULT_EMAIL_MAXIMUM_SIZE;
+  private Executor refreshExecutor;
+  private Ticker ticker = Ticker.systemTicker();
+
+  /**
+   * @return the max no. of users held in the cache.
+   */
+  public long getMaximumSize() {
+    return this.maximumSize;
+  }
+
+  /**
+   * @param maximumSize the max no. of users held in the cache. Once reached, the least recently used users are
+   * evicted. Must be greater than 0.
+   */
+  public void setMaximumSize(long maximumSize) {
+    Preconditions.checkArgument(maximumSize > 0, "maximumSize must be greater than 0.");
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * @return the period after which a cached user expires.
+   */
+  public Duration getExpireAfterWrite() {
+    return this.expireAfterWrite;
+  }
+
+  /**
+   * @param expireAfterWrite the period after which a cached user expires, and the next lookup of the user blocks
+   * while it's reloaded. Bounds how stale a cached user can be. Must be positive.
+   */
+  public void setExpireAfterWrite(Duration expireAfterWrite) {
+    Preconditions.checkArgument(expireAfterWrite != null && !expireAfterWrite.isNegative() &&
+      !expireAfterWrite.isZero(), "expireAfterWrite must be positive.");
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  /**
+   * @return the period after which a cached user is eligible to be refreshed.
+   */
+  public Duration getRefreshAfterWrite() {
+    return this.refreshAfterWrite;
+  }
+
+  /**
+   * @param refreshAfterWrite the period after which a cached user is eligible to be refreshed. The first lookup of the
+   * user after this period triggers an asynchronous reload, while still returning the cached user. Users that are
+   * looked up frequently (hot users) are therefore kept up to date without callers waiting for them to be reloaded.
+   * Should be less than the {@link #setExpireAfterWrite(Duration) expiry period}. Must be positive.
+   */
+  public void setRefreshAfterWrite(Duration refreshAfterWrite) {
+    Preconditions.checkArgument(refreshAfterWrite != null && !refreshAfterWrite.isNegative() &&
+      !refreshAfterWrite.isZero(), "refreshAfterWrite must be positive.");
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  /**
+   * @return the max no. of IDs of missing (non-existent) users held in the cache.
+   */
+  public long getMissingMaximumSize() {
+    return this.missingMaximumSize;
+  }
+
+  /**
+   * @param missingMaximumSize the max no. of IDs of missing (non-existent) users held in the cache. Must be greater
+   * than 0.
+   */
+  public void setMissingMaximumSize(long missingMaximumSize) {
+    Preconditions.checkArgument(missingMaximumSize > 0, "missingMaximumSize must be greater than 0.");
+    this.missingMaximumSize = missingMaximumSize;
+  }
+
+  /**
+   * @return the period after which a cached ID of a missing (non-existent) user expires.
+   */
+  public Duration getMissingExpireAfterWrite() {
+    return this.missingExpireAfterWrite;
+  }
+
+  /**
+   * @param missingExpireAfterWrite the period after which a cached ID of a missing (non-existent) user expires.
+   * Should be short, to bound the period for which a user created by another process (bypassing this cache) is
+   * reported as not existing. Must be positive.
+   */
+  public void setMissingExpireAfterWrite(Duration missingExpireAfterWrite) {
+    Preconditions.checkArgument(missingExpireAfterWrite != null && !missingExpireAfterWrite.isNegative() &&
+      !missingExpireAfterWrite.isZero(), "missingExpireAfterWrite must be positive.");
+    this.missingExpireAfterWrite = missingExpireAfterWrite;
+  }
+
+  /**
+   * @return the max no. of email addresses, mapped to the ID of the user they belong to, held in the cache.
+   */
+  public long getEmailMaximumSize() {
+    return this.emailMaximumSize;
+  }
+
+  /**
+   * @param emailMaximumSize the max no. of email addresses, mapped to the ID of the user they belong to, held in the
+   * cache. The mappings expire after the same period as cached users. Must be greater than 0.
+   */
+  public void setEmailMaximumSize(long emailMaximumSize) {
+    Preconditions.checkArgument(emailMaximumSize > 0, "emailMaximumSize must be greater than 0.");
+    this.emailMaximumSize = emailMaximumSize;
+  }
+
+  /**
+   * @return the {@link Executor} used to refresh cached users, or null if the cache creates its own.
+   */
+  public Executor getRefreshExecutor() {
+    return this.refreshExecutor;
+  }
+
+  /**
+   * @param refreshExecutor the {@link Executor} to use to refresh cached users. Optional. If null (the default) the
+   * cache creates its own executor, comprising a small no. of daemon threads.
+   */
+  public void setRefreshExecutor(Executor refreshExecutor) {
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  Ticker getTicker() {
+    return this.ticker;
+  }
+
+  /**
+   * @param ticker the source of time used to expire and refresh cached entries. Supports tests.
+   */
+  void setTicker(Ticker ticker) {
+    this.ticker = Objects.requireNonNull(ticker, "ticker must not be null.");
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("maximumSize", maximumSize)
+      .add("expireAfterWrite", expireAfterWrite)
+      .add("refreshAfterWrite", refreshAfterWrite)
+      .add("missingMaximumSize", missingMaximumSize)
+      .add("missingExpireAfterWrite", missingExpireAfterWrite)
+      .add("emailMaximumSize", emailMaximumSize)
+      .add("refreshExecutor", refreshExecutor)
+      .toString();
+  }
+}
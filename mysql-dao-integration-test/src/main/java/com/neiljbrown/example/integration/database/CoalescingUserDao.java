@@ -0,0 +1,305 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * A {@link UserDao} which decorates another (typically a {@link JdbcUserDao}) by coalescing concurrent lookups of
+ * individual users into batches, each of which is executed as a single bulk lookup ({@link #findUsersByIds}), in the
+ * style of a 'DataLoader'.
+ * <p>
+ * A lookup of a user by id ({@link #findUserById(long)} or {@link #findUserByIdAsync(long)}) is added to the current
+ * batch. The batch is executed once the configured batch window has elapsed since its first lookup, or as soon as it
+ * reaches the configured max batch size, whichever is sooner. Lookups of the same id that are pending in the same
+ * batch, or are in flight in a batch that's executing, share the same result rather than being looked up again.
+ * <p>
+ * During spikes in traffic this significantly reduces the no. of queries executed against the database, and the no.
+ * of threads contending for connections from the pool, at the cost of adding up to one batch window of latency to
+ * each lookup. All other operations are delegated without being batched.
+ * <p>
+ * The DAO should be {@link #close() closed} when it's no longer needed, to release the threads it creates.
+ */
+public class CoalescingUserDao implements UserDao, AutoCloseable {
+
+  private final UserDao delegate;
+  private final long batchWindowNanos;
+  private final int maxBatchSize;
+  private final Executor batchExecutor;
+  // Executor created by this DAO, if one wasn't configured, which needs to be shutdown when the DAO is closed
+  private final ExecutorService ownedBatchExecutor;
+  private final ScheduledExecutorService batchScheduler;
+  private final Object lock = new Object();
+  // Lookups waiting for the current batch to be executed, keyed by user id. Guarded by lock.
+  private Map<Long, CompletableFuture<Optional<User>>> pendingLookups = new HashMap<>();
+  // Guarded by lock
+  private boolean closed;
+  // Lookups in batches that are executing, keyed by user id
+  private final Map<Long, CompletableFuture<Optional<User>>> inFlightLookups = new ConcurrentHashMap<>();
+  private final AtomicLong lookupCount = new AtomicLong();
+  private final AtomicLong batchCount = new AtomicLong();
+
+  /**
+   * Creates a coalescing DAO with the default configuration.
+   *
+   * @param delegate the DAO used to execute batches of lookups, and to which all other operations are delegated.
+   */
+  public CoalescingUserDao(UserDao delegate) {
+    this(delegate, new CoalescingUserDaoConfig());
+  }
+
+  /**
+   * @param delegate the DAO used to execute batches of lookups, and to which all other operations are delegated.
+   * @param config the configuration of the DAO.
+   */
+  public CoalescingUserDao(UserDao delegate, CoalescingUserDaoConfig config) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate must not be null.");
+    Objects.requireNonNull(config, "config must not be null.");
+    this.batchWindowNanos = config.getBatchWindow().toNanos();
+    this.maxBatchSize = config.getMaxBatchSize();
+    if (config.getBatchExecutor() != null) {
+      this.batchExecutor = config.getBatchExecutor();
+      this.ownedBatchExecutor = null;
+    } else {
+      this.ownedBatchExecutor = Executors.newFixedThreadPool(CoalescingUserDaoConfig.DEFAULT_MAX_CONCURRENT_BATCHES,
+        new ThreadFactoryBuilder().setNameFormat("user-lookup-batch-%d").setDaemon(true).build());
+      this.batchExecutor = this.ownedBatchExecutor;
+    }
+    this.batchScheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("user-lookup-batch-scheduler").setDaemon(true).build());
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The lookup is coalesced with other concurrent lookups, and the calling thread blocks until the batch containing
+   * the lookup has been executed.
+   */
+  @Override
+  public Optional<User> findUserById(long userId) {
+    try {
+      return findUserByIdAsync(userId).join();
+    } catch (CompletionException ce) {
+      throw ce.getCause() instanceof RuntimeException ? (RuntimeException) ce.getCause() : ce;
+    }
+  }
+
+  /**
+   * Finds a {@link User user} by their unique id asynchronously. The lookup is coalesced with other concurrent
+   * lookups.
+   *
+   * @param userId the unique ID of the user.
+   * @return a future which is completed with an Optional of the {@link User user} (empty if the {code userId} doesn't
+   * identify an existing user) once the batch containing the lookup has been executed, or completed exceptionally if
+   * the batch failed.
+   * @throws IllegalStateException if the DAO has been closed.
+   */
+  public CompletableFuture<Optional<User>> findUserByIdAsync(long userId) {
+    Preconditions.checkArgument(userId > 0, "userId must be greater than 0.");
+    this.lookupCount.incrementAndGet();
+    final CompletableFuture<Optional<User>> inFlightLookup = this.inFlightLookups.get(userId);
+    if (inFlightLookup != null) {
+      return inFlightLookup;
+    }
+    final CompletableFuture<Optional<User>> lookup;
+    Map<Long, CompletableFuture<Optional<User>>> fullBatch = null;
+    synchronized (this.lock) {
+      // Checked before the lookup is added to the batch, as a batch can't be scheduled once the DAO is closed
+      Preconditions.checkState(!this.closed, "DAO is closed.");
+      final CompletableFuture<Optional<User>> pendingLookup = this.pendingLookups.get(userId);
+      if (pendingLookup != null) {
+        return pendingLookup;
+      }
+      lookup = new CompletableFuture<>();
+      this.pendingLookups.put(userId, lookup);
+      if (this.pendingLookups.size() == 1) {
+        final Map<Long, CompletableFuture<Optional<User>>> batch = this.pendingLookups;
+        this.batchScheduler.schedule(() -> executeBatchIfPending(batch), this.batchWindowNanos, TimeUnit.NANOSECONDS);
+      }
+      if (this.pendingLookups.size() >= this.maxBatchSize) {
+        fullBatch = takePendingLookups();
+      }
+    }
+    if (fullBatch != null) {
+      executeBatch(fullBatch);
+    }
+    return lookup;
+  }
+
+  @Override
+  public Map<Long, User> findUsersByIds(Collection<Long> userIds) {
+    return this.delegate.findUsersByIds(userIds);
+  }
+
+  @Override
+  public Optional<User> findUserByEmail(String email) {
+    return this.delegate.findUserByEmail(email);
+  }
+
+  @Override
+  public Map<String, User> findUsersByEmails(Collection<String> emails) {
+    return this.delegate.findUsersByEmails(emails);
+  }
+
+  @Override
+  public long findLastUserId() {
+    return this.delegate.findLastUserId();
+  }
+
+  @Override
+  public Stream<User> streamUsersAfter(long userId) {
+    return this.delegate.streamUsersAfter(userId);
+  }
+
+  @Override
+  public User createUser(NewUser newUser) {
+    return this.delegate.createUser(newUser);
+  }
+
+  @Override
+  public CreateUsersResult createUsers(List<NewUser> newUsers) {
+    return this.delegate.createUsers(newUsers);
+  }
+
+  @Override
+  public boolean updateUser(User user) {
+    return this.delegate.updateUser(user);
+  }
+
+  @Override
+  public int updateUsers(Collection<User> users) {
+    return this.delegate.updateUsers(users);
+  }
+
+  /**
+   * @return the total no. of lookups of individual users requested of this DAO.
+   */
+  public long getLookupCount() {
+    return this.lookupCount.get();
+  }
+
+  /**
+   * @return the total no. of batches of lookups executed by this DAO, each of which is a single bulk lookup
+   * delegated to the decorated DAO.
+   */
+  public long getBatchCount() {
+    return this.batchCount.get();
+  }
+
+  /**
+   * Stops accepting lookups, executes any pending lookups, and then releases the threads created by this DAO.
+   */
+  @Override
+  public void close() {
+    final Map<Long, CompletableFuture<Optional<User>>> batch;
+    synchronized (this.lock) {
+      this.closed = true;
+      batch = takePendingLookups();
+    }
+    executeBatch(batch);
+    this.batchScheduler.shutdown();
+    if (this.ownedBatchExecutor != null) {
+      this.ownedBatchExecutor.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("lookupCount", lookupCount.get())
+      .add("batchCount", batchCount.get())
+      .toString();
+  }
+
+  /**
+   * Executes a batch once its window has elapsed, unless it has already been executed because it became full.
+   *
+   * @param batch the batch whose window has elapsed.
+   */
+  private void executeBatchIfPending(Map<Long, CompletableFuture<Optional<User>>> batch) {
+    synchronized (this.lock) {
+      if (this.pendingLookups != batch) {
+        return;
+      }
+      takePendingLookups();
+    }
+    executeBatch(batch);
+  }
+
+  /**
+   * Replaces the current batch of pending lookups with a new, empty batch, and marks the lookups as in flight. Must be
+   * called while holding the lock.
+   *
+   * @return the batch of pending lookups.
+   */
+  private Map<Long, CompletableFuture<Optional<User>>> takePendingLookups() {
+    final Map<Long, CompletableFuture<Optional<User>>> batch = this.pendingLookups;
+    this.pendingLookups = new HashMap<>();
+    this.inFlightLookups.putAll(batch);
+    return batch;
+  }
+
+  private void executeBatch(Map<Long, CompletableFuture<Optional<User>>> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    this.batchCount.incrementAndGet();
+    try {
+      this.batchExecutor.execute(() -> {
+        try {
+          final Map<Long, User> usersById = this.delegate.findUsersByIds(batch.keySet());
+          batch.forEach((userId, lookup) -> {
+            this.inFlightLookups.remove(userId, lookup);
+            lookup.complete(Optional.ofNullable(usersById.get(userId)));
+          });
+        } catch (RuntimeException | Error e) {
+          failBatch(batch, e);
+        }
+      });
+    } catch (RuntimeException e) {
+      // E.g. the executor rejected the batch
+      failBatch(batch, e);
+    }
+  }
+
+  private void failBatch(Map<Long, CompletableFuture<Optional<User>>> batch, Throwable cause) {
+    batch.forEach((userId, lookup) -> {
+      this.inFlightLookups.remove(userId, lookup);
+      lookup.completeExceptionally(cause);
+    });
+  }
+}
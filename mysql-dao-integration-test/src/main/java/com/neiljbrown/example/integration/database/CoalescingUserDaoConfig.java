@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of a {@link CoalescingUserDao}. Each property has a default value that's used unless it's
+ * overridden. The configuration is copied when the DAO is created.
+ */
+public class CoalescingUserDaoConfig {
+
+  /** Default max period for which a lookup waits to be batched with other concurrent lookups. */
+  public static final Duration DEFAULT_BATCH_WINDOW = Duration.ofMillis(2);
+
+  /** Default max no. of distinct IDs looked up by a single batch. */
+  public static final int DEFAULT_MAX_BATCH_SIZE = JdbcUserDaoConfig.DEFAULT_MAX_IN_LIST_SIZE;
+
+  /** Default max no. of batches that are executed concurrently, when the DAO creates its own executor. */
+  public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+
+  private Duration batchWindow = DEFAULT_BATCH_WINDOW;
+  private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+  private Executor batchExecutor;
+
+  /**
+   * @return the max period for which a lookup waits to be batched with other concurrent lookups.
+   */
+  public Duration getBatchWindow() {
+    return this.batchWindow;
+  }
+
+  /**
+   * @param batchWindow the max period for which a lookup waits to be batched with other concurrent lookups, measured
+   * from the first lookup in the batch. Adds up to this much latency to each lookup, in exchange for fewer queries.
+   * Must be positive.
+   */
+  public void setBatchWindow(Duration batchWindow) {
+    Preconditions.checkArgument(batchWindow != null && !batchWindow.isNegative() && !batchWindow.isZero(),
+      "batchWindow must be positive.");
+    this.batchWindow = batchWindow;
+  }
+
+  /**
+   * @return the max no. of distinct IDs looked up by a single batch.
+   */
+  public int getMaxBatchSize() {
+    return this.maxBatchSize;
+  }
+
+  /**
+   * @param maxBatchSize the max no. of distinct IDs looked up by a single batch. A batch is executed as soon as it
+   * reaches this size, without waiting for the batch window to elapse. Should not exceed the max IN-list size of the
+   * decorated DAO, so each batch is executed as a single query. Must be greater than 0.
+   */
+  public void setMaxBatchSize(int maxBatchSize) {
+    Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be greater than 0.");
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * @return the {@link Executor} used to execute batches, or null if the DAO creates its own.
+   */
+  public Executor getBatchExecutor() {
+    return this.batchExecutor;
+  }
+
+  /**
+   * @param batchExecutor the {@link Executor} to use to execute batches. Optional. If null (the default) the DAO
+   * creates its own executor, which executes at most {@link #DEFAULT_MAX_CONCURRENT_BATCHES} batches concurrently.
+   */
+  public void setBatchExecutor(Executor batchExecutor) {
+    this.batchExecutor = batchExecutor;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("batchWindow", batchWindow)
+      .add("maxBatchSize", maxBatchSize)
+      .add("batchExecutor", batchExecutor)
+      .toString();
+  }
+}
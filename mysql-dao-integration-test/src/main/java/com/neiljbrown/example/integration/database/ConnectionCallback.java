@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Performs some work using a JDBC {@link Connection} that's been obtained, and will be released, by the
+ * {@link JdbcExecutor}. Used for units of work that span more than one statement, e.g. batches and transactions.
+ *
+ * @param <T> the type of the result of the work.
+ */
+@FunctionalInterface
+interface ConnectionCallback<T> {
+
+  /**
+   * @param connection the connection to use. Must not be closed by the callback.
+   * @return the result of the work.
+   * @throws SQLException if an error occurs using the connection.
+   */
+  T doInConnection(Connection connection) throws SQLException;
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.MoreObjects;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * The result of creating a list of users in bulk - the users that were created, and those that were rejected.
+ *
+ * @see JdbcUserDao#createUsers(List)
+ */
+public class CreateUsersResult {
+
+  private final List<User> createdUsers;
+  private final List<RejectedUser> rejectedUsers;
+
+  /**
+   * @param createdUsers the created users, in the same order as they were supplied.
+   * @param rejectedUsers the rejected users, in the same order as they were supplied.
+   */
+  CreateUsersResult(List<User> createdUsers, List<RejectedUser> rejectedUsers) {
+    this.createdUsers = Collections.unmodifiableList(createdUsers);
+    this.rejectedUsers = Collections.unmodifiableList(rejectedUsers);
+  }
+
+  /**
+   * @return the created {@link User users}, including their generated ids, in the same order as they were supplied.
+   */
+  public List<User> getCreatedUsers() {
+    return this.createdUsers;
+  }
+
+  /**
+   * @return the users that were not created, in the same order as they were supplied. Empty if all the users were
+   * created.
+   */
+  public List<RejectedUser> getRejectedUsers() {
+    return this.rejectedUsers;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("createdUsers", createdUsers.size())
+      .add("rejectedUsers", rejectedUsers)
+      .toString();
+  }
+
+  /**
+   * A user that couldn't be created, and the reason why.
+   */
+  public static class RejectedUser {
+
+    /** The reasons a user may be rejected. */
+    public enum Reason {
+      /** Another user, either existing or earlier in the same list, has the same email address. */
+      DUPLICATE_EMAIL
+    }
+
+    private final int index;
+    private final NewUser newUser;
+    private final Reason reason;
+
+    RejectedUser(int index, NewUser newUser, Reason reason) {
+      this.index = index;
+      this.newUser = newUser;
+      this.reason = reason;
+    }
+
+    /**
+     * @return the (zero-based) position of the rejected user in the list of users supplied to be created.
+     */
+    public int getIndex() {
+      return this.index;
+    }
+
+    public NewUser getNewUser() {
+      return this.newUser;
+    }
+
+    public Reason getReason() {
+      return this.reason;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+        .add("index", index)
+        .add("newUser", newUser)
+        .add("reason", reason)
+        .toString();
+    }
+  }
+}
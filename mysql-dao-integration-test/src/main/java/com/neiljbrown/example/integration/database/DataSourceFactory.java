@@ -16,17 +16,90 @@
 
 package com.neiljbrown.example.integration.database;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import javax.sql.DataSource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 /**
  * Factory for creating instances of the implementation of the JDBC {@link DataSource} that JDBC DAO can use to obtain
  * connections to the app/service's DB.
+ *
+ * <h2>Prepared Statement Caching and Batching</h2>
+ * When connecting to MySQL the created DataSource configures the JDBC driver to cache prepared statements, so that
+ * repeated executions of the same SQL (on the same pooled connection) don't pay the cost of the statement being parsed
+ * and planned again. The driver is configured to use server-side prepared statements, and to cache both the parsed
+ * client-side statements and the server-side statement handles. The driver is also configured to rewrite batches of
+ * INSERT statements as multi-row INSERTs, significantly reducing the no. of round trips needed to execute a batch.
+ * Any of these properties can be overridden by configuring a data source property of the same name, e.g.
+ * {@code dataSource.prepStmtCacheSize} in datasource.properties.
+ *
+ * <h2>Read Replicas</h2>
+ * The factory can also create a {@link RoutingDataSource}, which routes reads across a set of replica databases, each
+ * with its own connection pool. The replicas and routing are configured in datasource.properties, using properties
+ * prefixed 'replica.[n].' and 'routing.' respectively - see {@link #createRoutingDataSource(Properties)}.
+ *
+ * <h2>Startup</h2>
+ * By default a created DataSource's connection pool is started eagerly, but the first requests to use each of its
+ * connections still pay the cost of the statements they execute being prepared. A DataSource can optionally be created
+ * with a {@link DataSourceStartupConfig} that either warms up the pool before it's returned, preparing the DAO's
+ * statements on each connection, or defers starting the pool until it's first used. The startup mode can also be
+ * configured in datasource.properties, using the properties 'startup.mode' (EAGER, WARM_UP or LAZY) and
+ * 'startup.warmUpDeadlineMillis'.
+ *
+ * <h2>Instrumentation</h2>
+ * A created DataSource can be {@link #instrument instrumented} to record metrics of its connection pool, such as the
+ * time callers wait to obtain a connection, and the no. of callers that time out waiting. See {@link JdbcMetrics}.
  */
 public class DataSourceFactory {
 
+  private static final Logger logger = LoggerFactory.getLogger(DataSourceFactory.class);
+
+  private static final String DATASOURCE_PROPERTIES = "/datasource.properties";
+  private static final String REPLICA_PROPERTY_PREFIX = "replica.";
+  private static final String ROUTING_PROPERTY_PREFIX = "routing.";
+  private static final String STARTUP_PROPERTY_PREFIX = "startup.";
+  // Matches the property of a replica, capturing its no. and the name of the (pool or driver) property
+  private static final Pattern REPLICA_PROPERTY = Pattern.compile("replica\\.(\\d+)\\.(.+)");
+
+  /** Default values of the MySQL JDBC driver properties that configure its caching and batching of statements. */
+  private static final Map<String, String> MYSQL_STATEMENT_PROPERTIES = Map.of(
+    "cachePrepStmts", "true",
+    // Max no. of prepared statements cached per connection. The driver's default (25) is too small for most apps.
+    "prepStmtCacheSize", "250",
+    // Max length of SQL that will be cached. The driver's default (256) is too small for e.g. IN-list queries.
+    "prepStmtCacheSqlLimit", "2048",
+    "useServerPrepStmts", "true",
+    "cacheServerConfiguration", "true",
+    "rewriteBatchedStatements", "true");
+
   /**
    * Creates the DataSource and initialises it with the required mandatory configuration loaded from an external
    * datasource.properties file on the classpath.
@@ -34,8 +107,8 @@ public class DataSourceFactory {
    * @return the created {@link DataSource}.
    */
   public static DataSource createDataSource() {
-    final HikariConfig hikariConfig = new HikariConfig("/datasource.properties");
-    return new HikariDataSource(hikariConfig);
+    final Properties properties = loadProperties();
+    return createDataSource(primaryProperties(properties), startupConfig(properties));
   }
 
   /**
@@ -51,6 +124,26 @@ public class DataSourceFactory {
    * @return the created {@link DataSource}.
    */
   public static DataSource createDataSource(String jdbcUrl, String username, String password, String driverClassName) {
+    return createDataSource(jdbcUrl, username, password, driverClassName, new DataSourceStartupConfig());
+  }
+
+  /**
+   * Creates the DataSource and initialises it with required mandatory configuration supplied as parameters, starting
+   * its connection pool as configured.
+   *
+   * @param jdbcUrl the JDBC URL (aka connection string) to use to locate and connect to the database server.
+   * @param username the username of the database user for which the connection should be created.
+   * @param password the password of the database user for which the connection should be created.
+   * @param driverClassName string containing fully-qualified name of the implementation of the JDBC Driver to use.
+   * Optional. See {@link #createDataSource(String, String, String, String)}.
+   * @param startupConfig the configuration of how the DataSource's connection pool is started.
+   * @return the created {@link DataSource}.
+   * @throws IllegalStateException if the pool is warmed up, and a connection couldn't be validated, or a statement
+   * couldn't be prepared.
+   */
+  public static DataSource createDataSource(String jdbcUrl, String username, String password, String driverClassName,
+    DataSourceStartupConfig startupConfig) {
+    Objects.requireNonNull(startupConfig, "startupConfig must not be null.");
     final HikariConfig hikariConfig = new HikariConfig();
     hikariConfig.setJdbcUrl(jdbcUrl);
     hikariConfig.setUsername(username);
@@ -58,6 +151,278 @@ public class DataSourceFactory {
     if (driverClassName !=null) {
       hikariConfig.setDriverClassName(driverClassName);
     }
-    return new HikariDataSource(hikariConfig);
+    configureStatementProperties(hikariConfig);
+    return start(hikariConfig, startupConfig);
+  }
+
+  /**
+   * Creates a DataSource which routes reads across a set of replica databases, configured in an external
+   * datasource.properties file on the classpath.
+   *
+   * @return the created {@link RoutingDataSource}.
+   * @see #createRoutingDataSource(Properties)
+   */
+  public static RoutingDataSource createRoutingDataSource() {
+    return createRoutingDataSource(loadProperties());
+  }
+
+  /**
+   * Creates a DataSource which routes reads across a set of replica databases, configured using the following
+   * properties -
+   * <ul>
+   *   <li>The primary database's connection pool is configured using the same properties as
+   *   {@link #createDataSource()}, e.g. jdbcUrl.</li>
+   *   <li>Each replica is configured using properties prefixed 'replica.[n].', where n is the replica's no., e.g.
+   *   replica.1.jdbcUrl. The replica's connection pool is configured using the same properties as the primary's, with
+   *   any of the replica's properties overriding them, e.g. replica.1.maximumPoolSize. Replicas are optional.</li>
+   *   <li>The routing is configured using the following optional properties, corresponding to the properties of
+   *   {@link RoutingDataSourceConfig} - routing.replicaSelection (ROUND_ROBIN or LEAST_ACTIVE_CONNECTIONS),
+   *   routing.maxReplicaLagMillis, routing.readYourWritesWindowMillis and routing.healthCheckIntervalMillis.</li>
+   *   <li>The startup of each of the connection pools is configured using the optional properties startup.mode and
+   *   startup.warmUpDeadlineMillis.</li>
+   * </ul>
+   *
+   * @param properties the properties.
+   * @return the created {@link RoutingDataSource}.
+   */
+  public static RoutingDataSource createRoutingDataSource(Properties properties) {
+    Objects.requireNonNull(properties, "properties must not be null.");
+    final Properties primaryProperties = primaryProperties(properties);
+    primaryProperties.putIfAbsent("poolName", "primary");
+    final DataSourceStartupConfig startupConfig = startupConfig(properties);
+    final SortedSet<Integer> replicaNumbers = new TreeSet<>();
+    for (String name : properties.stringPropertyNames()) {
+      final Matcher matcher = REPLICA_PROPERTY.matcher(name);
+      if (matcher.matches()) {
+        replicaNumbers.add(Integer.valueOf(matcher.group(1)));
+      }
+    }
+    final List<DataSource> replicas = new ArrayList<>(replicaNumbers.size());
+    for (int replicaNumber : replicaNumbers) {
+      final Properties replicaProperties = primaryProperties(properties);
+      replicaProperties.setProperty("poolName", "replica-" + replicaNumber);
+      final String prefix = REPLICA_PROPERTY_PREFIX + replicaNumber + ".";
+      for (String name : properties.stringPropertyNames()) {
+        if (name.startsWith(prefix)) {
+          replicaProperties.setProperty(name.substring(prefix.length()), properties.getProperty(name));
+        }
+      }
+      replicas.add(createDataSource(replicaProperties, startupConfig));
+    }
+    return new RoutingDataSource(createDataSource(primaryProperties, startupConfig), replicas,
+      routingConfig(properties));
+  }
+
+  /**
+   * Returns the max size of the connection pool of a DataSource created by this factory, i.e. the max no. of
+   * connections to the database that can be in use concurrently.
+   *
+   * @param dataSource a DataSource created by this factory.
+   * @return the max size of the DataSource's connection pool.
+   * @throws IllegalArgumentException if the DataSource wasn't created by this factory.
+   */
+  public static int getMaximumPoolSize(DataSource dataSource) {
+    return unwrap(dataSource).getMaximumPoolSize();
+  }
+
+  /**
+   * Instruments a DataSource created by this factory, so that its connection pool records metrics of its use, e.g.
+   * the time taken to acquire a connection, the time connections are in use, and connection timeouts.
+   *
+   * @param dataSource a DataSource created by this factory.
+   * @param metrics the metrics in which to record the pool's use.
+   * @throws IllegalArgumentException if the DataSource wasn't created by this factory.
+   * @throws IllegalStateException if the DataSource has already been instrumented.
+   */
+  public static void instrument(DataSource dataSource, JdbcMetrics metrics) {
+    Objects.requireNonNull(metrics, "metrics must not be null.");
+    unwrap(dataSource).setMetricsTrackerFactory(metrics.getMetricsTrackerFactory());
+  }
+
+  private static DataSource createDataSource(Properties properties, DataSourceStartupConfig startupConfig) {
+    final HikariConfig hikariConfig = new HikariConfig(properties);
+    configureStatementProperties(hikariConfig);
+    return start(hikariConfig, startupConfig);
+  }
+
+  /**
+   * Creates a pooled DataSource, and starts its pool according to the startup mode.
+   */
+  private static HikariDataSource start(HikariConfig hikariConfig, DataSourceStartupConfig startupConfig) {
+    switch (startupConfig.getStartupMode()) {
+      case LAZY:
+        // A pool created using the no-arg constructor is started on first use
+        final HikariDataSource lazyDataSource = new HikariDataSource();
+        hikariConfig.copyStateTo(lazyDataSource);
+        return lazyDataSource;
+      case WARM_UP:
+        final HikariDataSource dataSource = new HikariDataSource(hikariConfig);
+        try {
+          warmUp(dataSource, startupConfig);
+        } catch (RuntimeException e) {
+          dataSource.close();
+          throw e;
+        }
+        return dataSource;
+      default:
+        return new HikariDataSource(hikariConfig);
+    }
+  }
+
+  /**
+   * Warms up a started pool, by concurrently obtaining its min idle no. of connections, and validating and preparing
+   * the configured statements on each, within the configured deadline. Each connection is held until all of them have
+   * been obtained, so that each is warmed up. (The pool establishes new connections one at a time, so the preparation
+   * of statements on the connections that have already been established overlaps with the establishment of the rest.)
+   * If the deadline is reached, warm-up is abandoned, leaving the connections warmed up so far in the pool.
+   *
+   * @throws IllegalStateException if a connection couldn't be validated, or a statement couldn't be prepared.
+   */
+  private static void warmUp(HikariDataSource dataSource, DataSourceStartupConfig startupConfig) {
+    final List<String> statements = startupConfig.getWarmUpStatements() != null ?
+      startupConfig.getWarmUpStatements() : JdbcUserDao.getStatementSql(new JdbcUserDaoConfig());
+    final int connectionCount = Math.max(1, dataSource.getMinimumIdle());
+    final long startNanos = System.nanoTime();
+    final long deadlineNanos = startNanos + startupConfig.getWarmUpDeadline().toNanos();
+    final CountDownLatch connectionsObtained = new CountDownLatch(connectionCount);
+    final ExecutorService executor = Executors.newFixedThreadPool(connectionCount,
+      new ThreadFactoryBuilder().setNameFormat(dataSource.getPoolName() + "-warm-up-%d").setDaemon(true).build());
+    int warmedUpCount = 0;
+    try {
+      final List<Future<Void>> warmUps = new ArrayList<>(connectionCount);
+      for (int i = 0; i < connectionCount; i++) {
+        warmUps.add(executor.submit(() -> {
+          warmUp(dataSource, startupConfig.getValidationQuery(), statements, connectionsObtained, deadlineNanos);
+          return null;
+        }));
+      }
+      for (Future<Void> warmUp : warmUps) {
+        warmUp.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        warmedUpCount++;
+      }
+      logger.info("Warmed up {} connections of pool [{}], preparing {} statements on each, in {} ms.", warmedUpCount,
+        dataSource.getPoolName(), statements.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    } catch (TimeoutException e) {
+      logger.warn("Warm-up of pool [{}] didn't complete within its deadline of {}. {} of {} connections warmed up.",
+        dataSource.getPoolName(), startupConfig.getWarmUpDeadline(), warmedUpCount, connectionCount);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to warm up pool [" + dataSource.getPoolName() + "].", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted warming up pool [" + dataSource.getPoolName() + "].", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void warmUp(DataSource dataSource, String validationQuery, List<String> statements,
+    CountDownLatch connectionsObtained, long deadlineNanos) throws SQLException, InterruptedException {
+    try (Connection connection = dataSource.getConnection()) {
+      connectionsObtained.countDown();
+      try (Statement statement = connection.createStatement()) {
+        statement.execute(validationQuery);
+      }
+      for (String sql : statements) {
+        // Closing the statement returns it to the driver's cache of prepared statements
+        connection.prepareStatement(sql).close();
+      }
+      connectionsObtained.await(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static Properties loadProperties() {
+    final Properties properties = new Properties();
+    try (InputStream inputStream = DataSourceFactory.class.getResourceAsStream(DATASOURCE_PROPERTIES)) {
+      if (inputStream == null) {
+        throw new IllegalStateException("Failed to find " + DATASOURCE_PROPERTIES + " on classpath.");
+      }
+      properties.load(inputStream);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to load " + DATASOURCE_PROPERTIES + ".", e);
+    }
+    return properties;
+  }
+
+  /**
+   * @return a copy of the properties, excluding those of the replicas, routing and startup, which would otherwise be
+   * rejected by the connection pool as unknown.
+   */
+  private static Properties primaryProperties(Properties properties) {
+    final Properties primaryProperties = new Properties();
+    for (String name : properties.stringPropertyNames()) {
+      if (!name.startsWith(REPLICA_PROPERTY_PREFIX) && !name.startsWith(ROUTING_PROPERTY_PREFIX) &&
+        !name.startsWith(STARTUP_PROPERTY_PREFIX)) {
+        primaryProperties.setProperty(name, properties.getProperty(name));
+      }
+    }
+    return primaryProperties;
+  }
+
+  private static RoutingDataSourceConfig routingConfig(Properties properties) {
+    final RoutingDataSourceConfig config = new RoutingDataSourceConfig();
+    final String replicaSelection = properties.getProperty(ROUTING_PROPERTY_PREFIX + "replicaSelection");
+    if (replicaSelection != null) {
+      config.setReplicaSelection(RoutingDataSourceConfig.ReplicaSelection.valueOf(replicaSelection.trim()));
+    }
+    final Duration maxReplicaLag = durationProperty(properties, "maxReplicaLagMillis");
+    if (maxReplicaLag != null) {
+      config.setMaxReplicaLag(maxReplicaLag);
+    }
+    final Duration readYourWritesWindow = durationProperty(properties, "readYourWritesWindowMillis");
+    if (readYourWritesWindow != null) {
+      config.setReadYourWritesWindow(readYourWritesWindow);
+    }
+    final Duration healthCheckInterval = durationProperty(properties, "healthCheckIntervalMillis");
+    if (healthCheckInterval != null) {
+      config.setHealthCheckInterval(healthCheckInterval);
+    }
+    return config;
+  }
+
+  private static DataSourceStartupConfig startupConfig(Properties properties) {
+    final DataSourceStartupConfig config = new DataSourceStartupConfig();
+    final String startupMode = properties.getProperty(STARTUP_PROPERTY_PREFIX + "mode");
+    if (startupMode != null) {
+      config.setStartupMode(DataSourceStartupConfig.StartupMode.valueOf(startupMode.trim()));
+    }
+    final String warmUpDeadlineMillis = properties.getProperty(STARTUP_PROPERTY_PREFIX + "warmUpDeadlineMillis");
+    if (warmUpDeadlineMillis != null) {
+      config.setWarmUpDeadline(Duration.ofMillis(Long.parseLong(warmUpDeadlineMillis.trim())));
+    }
+    return config;
+  }
+
+  private static Duration durationProperty(Properties properties, String routingPropertyName) {
+    final String value = properties.getProperty(ROUTING_PROPERTY_PREFIX + routingPropertyName);
+    return value != null ? Duration.ofMillis(Long.parseLong(value.trim())) : null;
+  }
+
+  /**
+   * Configures the JDBC driver to cache prepared statements and rewrite batched statements, if the DataSource is for a
+   * MySQL database. Any of these driver properties that have already been configured are left unchanged.
+   *
+   * @param hikariConfig the configuration of the DataSource.
+   */
+  private static void configureStatementProperties(HikariConfig hikariConfig) {
+    if (isMySql(hikariConfig)) {
+      MYSQL_STATEMENT_PROPERTIES.forEach(hikariConfig.getDataSourceProperties()::putIfAbsent);
+    }
+  }
+
+  private static HikariDataSource unwrap(DataSource dataSource) {
+    Objects.requireNonNull(dataSource, "dataSource must not be null.");
+    try {
+      if (dataSource.isWrapperFor(HikariDataSource.class)) {
+        return dataSource.unwrap(HikariDataSource.class);
+      }
+    } catch (SQLException sqle) {
+      throw new IllegalArgumentException("Error unwrapping DataSource [" + dataSource + "].", sqle);
+    }
+    throw new IllegalArgumentException("DataSource [" + dataSource + "] is not a pool created by this factory.");
+  }
+
+  private static boolean isMySql(HikariConfig hikariConfig) {
+    // The driver properties are MySQL specific. Other drivers (e.g. those used by tests) may reject unknown properties.
+    return hikariConfig.getJdbcUrl() != null && hikariConfig.getJdbcUrl().contains(":mysql:");
   }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of how a DataSource created by {@link DataSourceFactory} starts its connection pool. Each
+ * property has a default value that's used unless it's overridden.
+ */
+public class DataSourceStartupConfig {
+
+  /** Default max time taken to warm up the pool, when the startup mode is {@link StartupMode#WARM_UP}. */
+  public static final Duration DEFAULT_WARM_UP_DEADLINE = Duration.ofSeconds(10);
+
+  /** Default query used to validate each connection that's warmed up. */
+  public static final String DEFAULT_VALIDATION_QUERY = "SELECT 1";
+
+  /**
+   * Modes of starting the connection pool.
+   */
+  public enum StartupMode {
+    /**
+     * The pool is started when the DataSource is created. A first connection is established before the DataSource is
+     * returned (failing if it can't be), and the pool is filled to its min idle size in the background.
+     */
+    EAGER,
+    /**
+     * As per {@link #EAGER}, and then, before the DataSource is returned, the pool's min idle no. of connections are
+     * obtained concurrently, and each is validated, and has the DAO's statements prepared, within a deadline.
+     */
+    WARM_UP,
+    /**
+     * The pool isn't started, and no connections are established, until a connection is first requested. Suits tools
+     * that may never use the database.
+     */
+    LAZY
+  }
+
+  private StartupMode startupMode = StartupMode.EAGER;
+  private Duration warmUpDeadline = DEFAULT_WARM_UP_DEADLINE;
+  private List<String> warmUpStatements;
+  private String validationQuery = DEFAULT_VALIDATION_QUERY;
+
+  /**
+   * @return the mode of starting the connection pool.
+   */
+  public StartupMode getStartupMode() {
+    return this.startupMode;
+  }
+
+  /**
+   * @param startupMode the mode of starting the connection pool. Defaults to {@link StartupMode#EAGER}.
+   */
+  public void setStartupMode(StartupMode startupMode) {
+    this.startupMode = Objects.requireNonNull(startupMode, "startupMode must not be null.");
+  }
+
+  /**
+   * @return the max time taken to warm up the pool.
+   */
+  public Duration getWarmUpDeadline() {
+    return this.warmUpDeadline;
+  }
+
+  /**
+   * @param warmUpDeadline the max time taken to warm up the pool. If it's reached, warm-up is abandoned, and the
+   * DataSource is returned with the connections that have been warmed up so far. Must be positive.
+   */
+  public void setWarmUpDeadline(Duration warmUpDeadline) {
+    Preconditions.checkArgument(warmUpDeadline != null && !warmUpDeadline.isNegative() && !warmUpDeadline.isZero(),
+      "warmUpDeadline must be positive.");
+    this.warmUpDeadline = warmUpDeadline;
+  }
+
+  /**
+   * @return the SQL of the statements prepared on each connection that's warmed up, or null if they're those of a
+   * {@link JdbcUserDao} with the default configuration.
+   */
+  public List<String> getWarmUpStatements() {
+    return this.warmUpStatements;
+  }
+
+  /**
+   * @param warmUpStatements the SQL of the statements prepared on each connection that's warmed up, so that they're
+   * cached by the JDBC driver (see {@link DataSourceFactory}) before they're first executed, e.g. the result of
+   * {@link JdbcUserDao#getStatementSql(JdbcUserDaoConfig)}. Optional. If null (the default), the statements of a
+   * {@link JdbcUserDao} with the default configuration are prepared.
+   */
+  public void setWarmUpStatements(List<String> warmUpStatements) {
+    this.warmUpStatements = warmUpStatements != null ? List.copyOf(warmUpStatements) : null;
+  }
+
+  /**
+   * @return the query used to validate each connection that's warmed up.
+   */
+  public String getValidationQuery() {
+    return this.validationQuery;
+  }
+
+  /**
+   * @param validationQuery the query executed to validate each connection that's warmed up. Defaults to 'SELECT 1'.
+   */
+  public void setValidationQuery(String validationQuery) {
+    this.validationQuery = Objects.requireNonNull(validationQuery, "validationQuery must not be null.");
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("startupMode", startupMode)
+      .add("warmUpDeadline", warmUpDeadline)
+      .add("warmUpStatements", warmUpStatements != null ? warmUpStatements.size() + " statements" : null)
+      .add("validationQuery", validationQuery)
+      .toString();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Locale;
+
+/**
+ * Thrown when a query is rejected without being executed, because the no. of queries of the same cost that are
+ * already executing has reached the current concurrency limit (see {@link AdaptiveConcurrencyLimiter}).
+ * <p>
+ * Signals that the database is (or was recently) overloaded. The rejection is immediate, rather than the caller
+ * waiting for a connection from the pool, so callers can shed load, e.g. by returning an error or a degraded response,
+ * or retrying later with backoff.
+ */
+public class DatabaseOverloadedException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final QueryCost queryCost;
+  private final int limit;
+
+  /**
+   * @param queryCost the cost of the rejected query.
+   * @param limit the concurrency limit that applied to the query when it was rejected.
+   */
+  public DatabaseOverloadedException(QueryCost queryCost, int limit) {
+    super("Query rejected as the limit of concurrent " + queryCost.name().toLowerCase(Locale.ROOT) + " queries (" +
+      limit + ") has been reached.");
+    this.queryCost = queryCost;
+    this.limit = limit;
+  }
+
+  /**
+   * @return the cost of the rejected query.
+   */
+  public QueryCost getQueryCost() {
+    return this.queryCost;
+  }
+
+  /**
+   * @return the concurrency limit that applied to the query when it was rejected.
+   */
+  public int getLimit() {
+    return this.limit;
+  }
+}
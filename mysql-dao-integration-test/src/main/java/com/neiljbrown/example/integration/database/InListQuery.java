@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A query whose SQL contains an IN-list with a variable no. of parameters, e.g. {@code ... WHERE u.id IN (?,?,?)}.
+ * <p>
+ * To limit the no. of distinct statements that the JDBC driver and database need to prepare and cache, the IN-list is
+ * padded (by repeating the last value) to one of a fixed set of sizes, or 'shapes' - powers of 2 up to, and including,
+ * the max IN-list size. Padding the IN-list with a duplicate value has no effect on the result of the query.
+ */
+final class InListQuery {
+
+  private final int maxInListSize;
+  // SQL of the query, keyed by the no. of parameters in the IN-list (the statement's shape)
+  private final Map<Integer, String> sqlByShape;
+
+  /**
+   * @param sqlPrefix the SQL preceding the IN-list's parameters, e.g. "SELECT * FROM user u WHERE u.id IN (".
+   * @param sqlSuffix the SQL following the IN-list's parameters, e.g. ")".
+   * @param maxInListSize the max no. of parameters in the IN-list.
+   */
+  InListQuery(String sqlPrefix, String sqlSuffix, int maxInListSize) {
+    Preconditions.checkArgument(maxInListSize > 0, "maxInListSize must be greater than 0.");
+    this.maxInListSize = maxInListSize;
+    final Map<Integer, String> sqlByShape = new HashMap<>();
+    for (int shape = 1; shape < maxInListSize; shape <<= 1) {
+      sqlByShape.put(shape, sqlPrefix + String.join(",", Collections.nCopies(shape, "?")) + sqlSuffix);
+    }
+    sqlByShape.put(maxInListSize, sqlPrefix + String.join(",", Collections.nCopies(maxInListSize, "?")) + sqlSuffix);
+    this.sqlByShape = Collections.unmodifiableMap(sqlByShape);
+  }
+
+  /**
+   * @return the max no. of values that can be bound to a single execution of the query.
+   */
+  int getMaxInListSize() {
+    return this.maxInListSize;
+  }
+
+  /**
+   * @return the SQL of each shape of the query, in ascending order of shape.
+   */
+  List<String> getSqlOfAllShapes() {
+    return new ArrayList<>(new TreeMap<>(this.sqlByShape).values());
+  }
+
+  /**
+   * @param valueCount the no. of values to be bound to the IN-list.
+   * @return the SQL of the smallest shape of the query that can hold the values.
+   */
+  String sqlFor(int valueCount) {
+    return this.sqlByShape.get(shapeFor(valueCount));
+  }
+
+  /**
+   * Creates a binder for the IN-list parameters of the query, padding the values to the size of the shape returned by
+   * {@link #sqlFor(int)}.
+   *
+   * @param values the values to bind. Must contain between 1 and {@link #getMaxInListSize()} values.
+   * @param firstParameterIndex the (1-based) index of the first parameter in the IN-list.
+   * @return the created binder.
+   */
+  StatementBinder binderFor(List<?> values, int firstParameterIndex) {
+    Preconditions.checkArgument(!values.isEmpty() && values.size() <= this.maxInListSize,
+      "No. of values must be between 1 and " + this.maxInListSize + ".");
+    final int shape = shapeFor(values.size());
+    return preparedStatement -> {
+      for (int i = 0; i < shape; i++) {
+        preparedStatement.setObject(firstParameterIndex + i, values.get(Math.min(i, values.size() - 1)));
+      }
+    };
+  }
+
+  private int shapeFor(int valueCount) {
+    int shape = 1;
+    while (shape < valueCount) {
+      shape <<= 1;
+    }
+    return Math.min(shape, this.maxInListSize);
+  }
+}
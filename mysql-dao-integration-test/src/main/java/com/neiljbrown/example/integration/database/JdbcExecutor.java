@@ -0,0 +1,297 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+import javax.sql.DataSource;
+
+/**
+ * Internal template for executing SQL statements using JDBC, used by the application's JDBC DAO.
+ * <p>
+ * Encapsulates the JDBC resource management boilerplate. The {@link Connection}, {@link PreparedStatement} and
+ * {@link ResultSet} used to execute each statement are always closed (returning the connection to the pool) before
+ * the method returns, regardless of whether the statement succeeded. This ensures that a pooled {@link DataSource}
+ * can't be drained of connections by the DAO. Any {@link SQLException} is translated to an unchecked exception.
+ * <p>
+ * A new {@link PreparedStatement} is created on every execution. Repeated executions of the same SQL benefit from
+ * the statement caching configured for the JDBC driver (see {@link DataSourceFactory}), rather than relying on the
+ * caller to hold on to statements (and hence connections) between executions.
+ * <p>
+ * Each execution is labelled with the {@link QueryType type} of query. If the executor is configured with
+ * {@link JdbcMetrics} the latency of each execution (excluding the time taken to obtain a connection), the no. of rows
+ * it returned and whether it failed are recorded, per type of query.
+ * <p>
+ * If the {@link DataSource} is a {@link RoutingDataSource}, connections for
+ * {@link QueryType#isReplicaReadable() replica-readable} queries are obtained using
+ * {@link RoutingDataSource#getReadConnection()}, so they can be served by a replica. Connections for other
+ * {@link QueryType#isReadOnly() read-only} queries are obtained using
+ * {@link RoutingDataSource#getPrimaryReadConnection()}, so they don't pin the thread's subsequent reads to the primary.
+ * <p>
+ * If the executor is configured with an {@link AdaptiveConcurrencyLimiter}, executions over the limit that applies to
+ * the {@link QueryType#getCost() cost} of their type of query are rejected with a {@link DatabaseOverloadedException},
+ * before a connection is requested.
+ */
+final class JdbcExecutor {
+
+  private final DataSource dataSource;
+  private final RoutingDataSource routingDataSource;
+  private final JdbcMetrics metrics;
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  /**
+   * Creates an executor that doesn't record metrics.
+   *
+   * @param dataSource the {@link DataSource} to use to obtain connections.
+   */
+  JdbcExecutor(DataSource dataSource) {
+    this(dataSource, null);
+  }
+
+  /**
+   * @param dataSource the {@link DataSource} to use to obtain connections.
+   * @param metrics the metrics in which to record each execution. Optional. If null, metrics aren't recorded.
+   */
+  JdbcExecutor(DataSource dataSource, JdbcMetrics metrics) {
+    this(dataSource, metrics, null);
+  }
+
+  /**
+   * @param dataSource the {@link DataSource} to use to obtain connections.
+   * @param metrics the metrics in which to record each execution. Optional. If null, metrics aren't recorded.
+   * @param concurrencyLimiter the limiter of concurrent executions. Optional. If null, executions aren't limited.
+   */
+  JdbcExecutor(DataSource dataSource, JdbcMetrics metrics, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+    Objects.requireNonNull(dataSource, "dataSource must not be null.");
+    this.dataSource = dataSource;
+    this.routingDataSource = dataSource instanceof RoutingDataSource ? (RoutingDataSource) dataSource : null;
+    this.metrics = metrics;
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  /**
+   * Executes a query and maps each row of the result set.
+   *
+   * @param queryType the type of the query.
+   * @param sql the SQL query.
+   * @param binder the binder for the query's parameters.
+   * @param rowMapper the mapper to apply to each row.
+   * @param <T> the type of object each row is mapped to.
+   * @return the list of mapped rows, in the order they were returned by the query. Empty if there were no rows.
+   */
+  <T> List<T> query(QueryType queryType, String sql, StatementBinder binder, RowMapper<T> rowMapper) {
+    return execute(queryType, sql, connection -> query(connection, sql, binder, rowMapper), List::size);
+  }
+
+  /**
+   * Executes a query using an existing connection, e.g. one supplied to a {@link ConnectionCallback}, and maps each
+   * row of the result set. The query isn't recorded separately in the metrics - it's part of the execution which
+   * supplied the connection.
+   *
+   * @param connection the connection to use. Remains open once the query has been executed.
+   * @param sql the SQL query.
+   * @param binder the binder for the query's parameters.
+   * @param rowMapper the mapper to apply to each row.
+   * @param <T> the type of object each row is mapped to.
+   * @return the list of mapped rows, in the order they were returned by the query. Empty if there were no rows.
+   * @throws SQLException if an error occurs executing the query.
+   */
+  <T> List<T> query(Connection connection, String sql, StatementBinder binder, RowMapper<T> rowMapper)
+    throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      binder.bind(preparedStatement);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        final List<T> results = new ArrayList<>();
+        while (resultSet.next()) {
+          results.add(rowMapper.mapRow(resultSet));
+        }
+        return results;
+      }
+    }
+  }
+
+  /**
+   * Executes a query that's expected to return at most one row, and maps it.
+   *
+   * @param queryType the type of the query.
+   * @param sql the SQL query.
+   * @param binder the binder for the query's parameters.
+   * @param rowMapper the mapper to apply to the row.
+   * @param <T> the type of object the row is mapped to.
+   * @return an Optional of the mapped row, empty if the query didn't return any rows.
+   */
+  <T> Optional<T> queryForOptional(QueryType queryType, String sql, StatementBinder binder, RowMapper<T> rowMapper) {
+    return queryForOptional(queryType, sql, binder, rowMapper, QueryDeadline.NONE);
+  }
+
+  /**
+   * Executes a query that's expected to return at most one row, and maps it, within a deadline. The query is aborted
+   * if it's still executing when the deadline passes, or the deadline is cancelled.
+   *
+   * @param queryType the type of the query.
+   * @param sql the SQL query.
+   * @param binder the binder for the query's parameters.
+   * @param rowMapper the mapper to apply to the row.
+   * @param deadline the deadline by which the query must complete.
+   * @param <T> the type of object the row is mapped to.
+   * @return an Optional of the mapped row, empty if the query didn't return any rows.
+   */
+  <T> Optional<T> queryForOptional(QueryType queryType, String sql, StatementBinder binder, RowMapper<T> rowMapper,
+    QueryDeadline deadline) {
+    return execute(queryType, sql, connection -> {
+      try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+        binder.bind(preparedStatement);
+        deadline.apply(preparedStatement);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          return resultSet.next() ? Optional.ofNullable(rowMapper.mapRow(resultSet)) : Optional.empty();
+        } finally {
+          deadline.release(preparedStatement);
+        }
+      }
+    }, result -> result.isPresent() ? 1 : 0);
+  }
+
+  /**
+   * Executes a single insert, update or delete statement.
+   *
+   * @param queryType the type of the statement.
+   * @param sql the SQL statement.
+   * @param binder the binder for the statement's parameters.
+   * @return the number of rows affected by the statement.
+   */
+  int update(QueryType queryType, String sql, StatementBinder binder) {
+    return execute(queryType, sql, connection -> {
+      try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+        binder.bind(preparedStatement);
+        return preparedStatement.executeUpdate();
+      }
+    }, null);
+  }
+
+  /**
+   * Executes an arbitrary unit of work using a connection obtained from the {@link DataSource}, which is released
+   * once the work completes. Statements and result sets created by the callback remain its responsibility to close.
+   *
+   * @param queryType the type of the statement(s) executed by the callback.
+   * @param sql the SQL executed by the callback, or a description of it, used when reporting errors.
+   * @param callback the work to perform.
+   * @param <T> the type of the result of the work.
+   * @return the result of the work.
+   */
+  <T> T execute(QueryType queryType, String sql, ConnectionCallback<T> callback) {
+    return execute(queryType, sql, callback, null);
+  }
+
+  /**
+   * Executes an arbitrary unit of work in a single transaction, using a connection obtained from the
+   * {@link DataSource}. The transaction is committed if the work completes successfully, and otherwise rolled back.
+   *
+   * @param queryType the type of the statement(s) executed by the callback.
+   * @param sql the SQL executed by the callback, or a description of it, used when reporting errors.
+   * @param callback the work to perform. Must not commit or rollback the transaction itself.
+   * @param <T> the type of the result of the work.
+   * @return the result of the work.
+   */
+  <T> T inTransaction(QueryType queryType, String sql, ConnectionCallback<T> callback) {
+    return execute(queryType, sql, connection -> {
+      final boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      try {
+        final T result = callback.doInConnection(connection);
+        connection.commit();
+        return result;
+      } catch (SQLException | RuntimeException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(autoCommit);
+      }
+    });
+  }
+
+  /**
+   * Executes a unit of work within the concurrency limit, if configured.
+   *
+   * @param rowCounter function returning the no. of rows in the result of the work. Null if the work doesn't return
+   * rows.
+   * @throws DatabaseOverloadedException if the concurrency limit has been reached.
+   */
+  private <T> T execute(QueryType queryType, String sql, ConnectionCallback<T> callback,
+    ToIntFunction<? super T> rowCounter) {
+    if (this.concurrencyLimiter == null) {
+      return executeUnlimited(queryType, sql, callback, rowCounter);
+    }
+    final QueryCost queryCost = queryType.getCost();
+    final long permit = this.concurrencyLimiter.tryAcquire(queryCost);
+    if (permit == AdaptiveConcurrencyLimiter.REJECTED) {
+      throw new DatabaseOverloadedException(queryCost, this.concurrencyLimiter.getLimit(queryCost));
+    }
+    final long startNanos = System.nanoTime();
+    boolean overloaded = false;
+    try {
+      return executeUnlimited(queryType, sql, callback, rowCounter);
+    } catch (RuntimeException e) {
+      // E.g. a timeout obtaining a connection from the pool, or executing the query
+      overloaded = e.getCause() instanceof SQLTransientException;
+      throw e;
+    } finally {
+      this.concurrencyLimiter.release(queryCost, permit, System.nanoTime() - startNanos, overloaded);
+    }
+  }
+
+  /**
+   * Executes a unit of work using a connection obtained from the {@link DataSource}, recording its execution in the
+   * metrics, if configured.
+   */
+  private <T> T executeUnlimited(QueryType queryType, String sql, ConnectionCallback<T> callback,
+    ToIntFunction<? super T> rowCounter) {
+    try (Connection connection = getConnection(queryType)) {
+      if (this.metrics == null) {
+        return callback.doInConnection(connection);
+      }
+      final long startNanos = System.nanoTime();
+      T result = null;
+      boolean failed = true;
+      try {
+        result = callback.doInConnection(connection);
+        failed = false;
+        return result;
+      } finally {
+        this.metrics.recordQuery(queryType, sql, System.nanoTime() - startNanos,
+          failed || rowCounter == null ? -1 : rowCounter.applyAsInt(result), failed);
+      }
+    } catch (SQLException sqle) {
+      throw new RuntimeException("Error executing query [" + sql + "].", sqle);
+    }
+  }
+
+  private Connection getConnection(QueryType queryType) throws SQLException {
+    if (this.routingDataSource == null || !queryType.isReadOnly()) {
+      return this.dataSource.getConnection();
+    }
+    return queryType.isReplicaReadable() ? this.routingDataSource.getReadConnection() :
+      this.routingDataSource.getPrimaryReadConnection();
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Records metrics of the application's use of its database, to support diagnosing the cause of slow database calls -
+ * e.g. distinguishing the time spent waiting for a connection from a starved pool, from the time spent executing
+ * queries.
+ *
+ * <h2>Metrics</h2>
+ * The following metrics are recorded, per type of query executed by a {@link JdbcUserDao} configured to use these
+ * metrics (see {@link JdbcUserDaoConfig#setMetrics(JdbcMetrics)}) -
+ * <ul>
+ *   <li>query.[type].latency_us - Histogram of the time taken to execute the query, and read its results, in
+ *   microseconds. Excludes the time taken to obtain a connection from the pool.</li>
+ *   <li>query.[type].rows - Histogram of the no. of rows returned by the query.</li>
+ *   <li>query.[type].errors - Count of the queries that failed.</li>
+ *   <li>query.[type].slow - Count of the queries whose latency exceeded the slow query threshold.</li>
+ * </ul>
+ * The following metrics are recorded per connection pool that's instrumented using
+ * {@link #getMetricsTrackerFactory()} (see {@link DataSourceFactory#instrument}) -
+ * <ul>
+ *   <li>pool.[name].acquire_us - Histogram of the time callers waited to obtain a connection, in microseconds.</li>
+ *   <li>pool.[name].usage_ms - Histogram of the time connections were held (in use) by callers, in milliseconds.</li>
+ *   <li>pool.[name].creation_ms - Histogram of the time taken to create new connections, in milliseconds.</li>
+ *   <li>pool.[name].timeouts - Count of the callers that timed out waiting for a connection.</li>
+ *   <li>pool.[name].active, idle, total, pending - Gauges of the no. of connections in use, idle, and in total, and
+ *   the no. of callers waiting for a connection.</li>
+ * </ul>
+ *
+ * <h2>Overhead</h2>
+ * Latencies and row counts are recorded in HdrHistogram {@link Recorder recorders}, whose fixed range and precision
+ * mean that recording a value is wait-free and doesn't allocate memory. Values beyond the range are clamped to its max.
+ * Histograms and counters are reset each time a {@link #snapshot() snapshot} is taken, so each snapshot covers an
+ * interval of time.
+ *
+ * <h2>Slow Query Log</h2>
+ * Queries whose latency exceeds a configured threshold are logged at WARN level to the logger named
+ * {@value #SLOW_QUERY_LOGGER_NAME}, including the query's SQL, but not its parameters. The logged queries can be
+ * sampled, to bound the volume of logging when many queries are slow.
+ *
+ * <h2>Reporting</h2>
+ * If any {@link MetricsSink sinks} are configured, a snapshot is taken and reported to them at a regular interval,
+ * using a (daemon) thread created by this class. The metrics should be {@link #close() closed} once they're no longer
+ * needed, to stop the thread.
+ */
+public class JdbcMetrics implements AutoCloseable {
+
+  /** Name of the logger to which slow queries are logged. */
+  public static final String SLOW_QUERY_LOGGER_NAME = "com.neiljbrown.example.integration.database.SlowQueryLog";
+
+  private static final Logger logger = LoggerFactory.getLogger(JdbcMetrics.class);
+  private static final Logger slowQueryLogger = LoggerFactory.getLogger(SLOW_QUERY_LOGGER_NAME);
+
+  // Precision of the histograms. 2 significant digits bounds the error of recorded values to 1%.
+  private static final int SIGNIFICANT_DIGITS = 2;
+  private static final long MAX_TRACKABLE_ROWS = 10_000_000;
+
+  private final long slowQueryThresholdNanos;
+  private final double slowQueryLogSampleRate;
+  private final long maxTrackableLatencyMicros;
+  private final Map<QueryType, QueryMetrics> queryMetrics = new EnumMap<>(QueryType.class);
+  private final Map<String, PoolMetrics> poolMetrics = new ConcurrentHashMap<>();
+  private final List<MetricsSink> sinks;
+  private final ScheduledExecutorService reporter;
+  private long intervalStartMillis = System.currentTimeMillis();
+
+  /**
+   * Creates metrics with the default configuration, which aren't reported to any sinks.
+   */
+  public JdbcMetrics() {
+    this(new JdbcMetricsConfig());
+  }
+
+  /**
+   * @param config the configuration of the metrics.
+   */
+  public JdbcMetrics(JdbcMetricsConfig config) {
+    Objects.requireNonNull(config, "config must not be null.");
+    this.slowQueryThresholdNanos = config.getSlowQueryThreshold().toNanos();
+    this.slowQueryLogSampleRate = config.getSlowQueryLogSampleRate();
+    this.maxTrackableLatencyMicros = TimeUnit.MILLISECONDS.toMicros(config.getMaxTrackableLatency().toMillis());
+    for (QueryType queryType : QueryType.values()) {
+      this.queryMetrics.put(queryType, new QueryMetrics(this.maxTrackableLatencyMicros));
+    }
+    this.sinks = config.getSinks();
+    if (this.sinks.isEmpty()) {
+      this.reporter = null;
+    } else {
+      this.reporter = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("jdbc-metrics-reporter").setDaemon(true).build());
+      final long intervalMillis = config.getReportInterval().toMillis();
+      this.reporter.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Records the execution of a query.
+   *
+   * @param queryType the type of query.
+   * @param sql the SQL of the query, logged if the query is slow.
+   * @param elapsedNanos the time taken to execute the query, and read its results, in nanoseconds.
+   * @param rows the no. of rows returned by the query, or -1 if the query doesn't return rows, or failed.
+   * @param failed true if the query failed.
+   */
+  void recordQuery(QueryType queryType, String sql, long elapsedNanos, int rows, boolean failed) {
+    final QueryMetrics metrics = this.queryMetrics.get(queryType);
+    metrics.latency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    if (rows >= 0) {
+      metrics.rows.record(rows);
+    }
+    if (failed) {
+      metrics.errors.increment();
+    }
+    if (elapsedNanos >= this.slowQueryThresholdNanos) {
+      metrics.slow.increment();
+      if (this.slowQueryLogSampleRate >= 1.0 ||
+        ThreadLocalRandom.current().nextDouble() < this.slowQueryLogSampleRate) {
+        slowQueryLogger.warn("Slow query of type [{}] {} after {} ms{} - [{}].", queryType.getMetricName(),
+          failed ? "failed" : "completed", TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+          rows >= 0 ? ", returning " + rows + " rows" : "", sql);
+      }
+    }
+  }
+
+  /**
+   * Returns a factory of Hikari metrics trackers, which records metrics of the connection pool, e.g. the time callers
+   * wait to obtain a connection. Use {@link DataSourceFactory#instrument} to instrument a DataSource.
+   *
+   * @return the factory.
+   */
+  public MetricsTrackerFactory getMetricsTrackerFactory() {
+    return (poolName, poolStats) -> {
+      final PoolMetrics metrics = new PoolMetrics(poolName, poolStats, this.maxTrackableLatencyMicros);
+      this.poolMetrics.put(poolName, metrics);
+      return metrics;
+    };
+  }
+
+  /**
+   * Takes a snapshot of the metrics recorded since the previous snapshot was taken (or since the metrics were
+   * created), and resets the histograms and counters.
+   *
+   * @return the snapshot.
+   */
+  public synchronized MetricsSnapshot snapshot() {
+    final Map<String, MetricsSnapshot.HistogramSummary> histograms = new HashMap<>();
+    final Map<String, Long> counters = new HashMap<>();
+    final Map<String, Long> gauges = new HashMap<>();
+    this.queryMetrics.forEach((queryType, metrics) -> {
+      final String prefix = "query." + queryType.getMetricName() + ".";
+      histograms.put(prefix + "latency_us", metrics.latency.summarise());
+      histograms.put(prefix + "rows", metrics.rows.summarise());
+      counters.put(prefix + "errors", metrics.errors.sumThenReset());
+      counters.put(prefix + "slow", metrics.slow.sumThenReset());
+    });
+    this.poolMetrics.forEach((poolName, metrics) -> {
+      final String prefix = "pool." + poolName + ".";
+      histograms.put(prefix + "acquire_us", metrics.acquire.summarise());
+      histograms.put(prefix + "usage_ms", metrics.usage.summarise());
+      histograms.put(prefix + "creation_ms", metrics.creation.summarise());
+      counters.put(prefix + "timeouts", metrics.timeouts.sumThenReset());
+      gauges.put(prefix + "active", (long) metrics.poolStats.getActiveConnections());
+      gauges.put(prefix + "idle", (long) metrics.poolStats.getIdleConnections());
+      gauges.put(prefix + "total", (long) metrics.poolStats.getTotalConnections());
+      gauges.put(prefix + "pending", (long) metrics.poolStats.getPendingThreads());
+    });
+    final long intervalEndMillis = System.currentTimeMillis();
+    final MetricsSnapshot snapshot = new MetricsSnapshot(this.intervalStartMillis, intervalEndMillis, histograms,
+      counters, gauges);
+    this.intervalStartMillis = intervalEndMillis;
+    return snapshot;
+  }
+
+  /**
+   * Stops reporting the metrics to the sinks, if any.
+   */
+  @Override
+  public void close() {
+    if (this.reporter != null) {
+      this.reporter.shutdown();
+    }
+  }
+
+  private void report() {
+    final MetricsSnapshot snapshot = snapshot();
+    for (MetricsSink sink : this.sinks) {
+      try {
+        sink.report(snapshot);
+      } catch (RuntimeException e) {
+        // Don't let a failing sink prevent other sinks, or subsequent reports
+        logger.warn("Error reporting metrics to sink [{}].", sink, e);
+      }
+    }
+  }
+
+  /**
+   * A histogram of the values recorded over an interval of time, which is reset each time it's summarised.
+   */
+  private static final class IntervalHistogram {
+
+    private final long highestTrackableValue;
+    private final Recorder recorder;
+    // Histogram recycled by the recorder on each summary, to avoid allocating a new one each time
+    private Histogram intervalHistogram;
+
+    IntervalHistogram(long highestTrackableValue) {
+      // A histogram must be able to track at least two distinct values
+      this.highestTrackableValue = Math.max(2, highestTrackableValue);
+      this.recorder = new Recorder(this.highestTrackableValue, SIGNIFICANT_DIGITS);
+    }
+
+    void record(long value) {
+      this.recorder.recordValue(Math.min(Math.max(value, 0), this.highestTrackableValue));
+    }
+
+    MetricsSnapshot.HistogramSummary summarise() {
+      this.intervalHistogram = this.recorder.getIntervalHistogram(this.intervalHistogram);
+      return new MetricsSnapshot.HistogramSummary(this.intervalHistogram);
+    }
+  }
+
+  /**
+   * The metrics recorded for a type of query.
+   */
+  private static final class QueryMetrics {
+
+    private final IntervalHistogram latency;
+    private final IntervalHistogram rows = new IntervalHistogram(MAX_TRACKABLE_ROWS);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+
+    QueryMetrics(long maxTrackableLatencyMicros) {
+      this.latency = new IntervalHistogram(maxTrackableLatencyMicros);
+    }
+  }
+
+  /**
+   * The metrics recorded for a connection pool, by the Hikari pool itself.
+   */
+  private final class PoolMetrics implements IMetricsTracker {
+
+    private final String poolName;
+    private final PoolStats poolStats;
+    private final IntervalHistogram acquire;
+    private final IntervalHistogram usage;
+    private final IntervalHistogram creation;
+    private final LongAdder timeouts = new LongAdder();
+
+    PoolMetrics(String poolName, PoolStats poolStats, long maxTrackableLatencyMicros) {
+      this.poolName = poolName;
+      this.poolStats = poolStats;
+      this.acquire = new IntervalHistogram(maxTrackableLatencyMicros);
+      this.usage = new IntervalHistogram(TimeUnit.MICROSECONDS.toMillis(maxTrackableLatencyMicros));
+      this.creation = new IntervalHistogram(TimeUnit.MICROSECONDS.toMillis(maxTrackableLatencyMicros));
+    }
+
+    @Override
+    public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+      this.creation.record(connectionCreatedMillis);
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+      this.acquire.record(TimeUnit.NANOSECONDS.toMicros(elapsedAcquiredNanos));
+    }
+
+    @Override
+    public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+      this.usage.record(elapsedBorrowedMillis);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+      this.timeouts.increment();
+    }
+
+    @Override
+    public void close() {
+      // The pool has been shutdown
+      poolMetrics.remove(this.poolName, this);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of {@link JdbcMetrics}. Each property has a default value that's used unless it's
+ * overridden. The configuration is copied when the metrics are created.
+ */
+public class JdbcMetricsConfig {
+
+  /** Default min execution time of a query for it to be considered slow. */
+  public static final Duration DEFAULT_SLOW_QUERY_THRESHOLD = Duration.ofMillis(500);
+
+  /** Default max latency that's tracked accurately. Longer latencies are recorded as this value. */
+  public static final Duration DEFAULT_MAX_TRACKABLE_LATENCY = Duration.ofMinutes(1);
+
+  /** Default interval at which metrics are reported to the sinks. */
+  public static final Duration DEFAULT_REPORT_INTERVAL = Duration.ofMinutes(1);
+
+  private Duration slowQueryThreshold = DEFAULT_SLOW_QUERY_THRESHOLD;
+  private double slowQueryLogSampleRate = 1.0;
+  private Duration maxTrackableLatency = DEFAULT_MAX_TRACKABLE_LATENCY;
+  private List<MetricsSink> sinks = Collections.emptyList();
+  private Duration reportInterval = DEFAULT_REPORT_INTERVAL;
+
+  /**
+   * @return the min execution time of a query for it to be considered slow.
+   */
+  public Duration getSlowQueryThreshold() {
+    return this.slowQueryThreshold;
+  }
+
+  /**
+   * @param slowQueryThreshold the min execution time of a query for it to be considered slow. Slow queries are
+   * counted, and (a sample of them) logged. Must be positive.
+   */
+  public void setSlowQueryThreshold(Duration slowQueryThreshold) {
+    Preconditions.checkArgument(slowQueryThreshold != null && !slowQueryThreshold.isNegative() &&
+      !slowQueryThreshold.isZero(), "slowQueryThreshold must be positive.");
+    this.slowQueryThreshold = slowQueryThreshold;
+  }
+
+  /**
+   * @return the fraction of slow queries that are logged.
+   */
+  public double getSlowQueryLogSampleRate() {
+    return this.slowQueryLogSampleRate;
+  }
+
+  /**
+   * @param slowQueryLogSampleRate the fraction of slow queries that are logged, between 0 (none) and 1 (all, the
+   * default). Sampling bounds the volume of logging when many queries are slow, e.g. when the database is overloaded.
+   * All slow queries are counted, regardless of whether they're logged.
+   */
+  public void setSlowQueryLogSampleRate(double slowQueryLogSampleRate) {
+    Preconditions.checkArgument(slowQueryLogSampleRate >= 0 && slowQueryLogSampleRate <= 1,
+      "slowQueryLogSampleRate must be between 0 and 1.");
+    this.slowQueryLogSampleRate = slowQueryLogSampleRate;
+  }
+
+  /**
+   * @return the max latency that's tracked accurately.
+   */
+  public Duration getMaxTrackableLatency() {
+    return this.maxTrackableLatency;
+  }
+
+  /**
+   * @param maxTrackableLatency the max latency that's tracked accurately. Longer latencies are recorded as this
+   * value. Together with the fixed precision of the histograms, determines the memory they use. Must be at least 1ms.
+   */
+  public void setMaxTrackableLatency(Duration maxTrackableLatency) {
+    Preconditions.checkArgument(maxTrackableLatency != null && maxTrackableLatency.toMillis() >= 1,
+      "maxTrackableLatency must be at least 1ms.");
+    this.maxTrackableLatency = maxTrackableLatency;
+  }
+
+  /**
+   * @return the sinks to which the metrics are periodically reported.
+   */
+  public List<MetricsSink> getSinks() {
+    return this.sinks;
+  }
+
+  /**
+   * @param sinks the sinks to which the metrics are periodically reported, e.g. an {@link Slf4jMetricsSink} and/or
+   * a {@link JmxMetricsSink}. Empty (the default) to not report the metrics, in which case they can be read on
+   * demand using {@link JdbcMetrics#snapshot()}.
+   */
+  public void setSinks(List<MetricsSink> sinks) {
+    // Checked by iterating, as some (immutable) lists don't permit querying whether they contain null
+    Preconditions.checkArgument(sinks != null && sinks.stream().allMatch(Objects::nonNull),
+      "sinks must not be or contain null.");
+    this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+  }
+
+  /**
+   * @return the interval at which metrics are reported to the sinks.
+   */
+  public Duration getReportInterval() {
+    return this.reportInterval;
+  }
+
+  /**
+   * @param reportInterval the interval at which metrics are reported to the sinks. Each report contains the metrics
+   * recorded since the previous one. Must be at least 1ms.
+   */
+  public void setReportInterval(Duration reportInterval) {
+    Preconditions.checkArgument(reportInterval != null && reportInterval.toMillis() >= 1,
+      "reportInterval must be at least 1ms.");
+    this.reportInterval = reportInterval;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("slowQueryThreshold", slowQueryThreshold)
+      .add("slowQueryLogSampleRate", slowQueryLogSampleRate)
+      .add("maxTrackableLatency", maxTrackableLatency)
+      .add("sinks", sinks)
+      .add("reportInterval", reportInterval)
+      .toString();
+  }
+}
@@ -15,32 +15,171 @@
  */
 package com.neiljbrown.example.integration.database;
 
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Iterables;
+import com.neiljbrown.example.business.domain.EmailAddresses;
+import com.neiljbrown.example.business.domain.NewUser;
 import com.neiljbrown.example.business.domain.User;
+import com.neiljbrown.example.business.domain.UserView;
+import com.neiljbrown.example.integration.database.CreateUsersResult.RejectedUser;
 
 /**
  * Implementation of the Data Access Object (DAO) for users, which uses the JDBC API to store and retrieve the
  * entities to/from the service's relational database.
+ * <p>
+ * Statements are executed via a {@link JdbcExecutor}, which guarantees that the JDBC resources used by each method
+ * (including the pooled connection) are released before the method returns.
+ * <p>
+ * The DAO's behaviour can optionally be tuned by supplying a {@link JdbcUserDaoConfig} when it's created. This
+ * includes optionally recording metrics of the queries the DAO executes, in {@link JdbcMetrics}, and limiting the no.
+ * of queries it executes concurrently, using an {@link AdaptiveConcurrencyLimiter}, in which case any method may fail
+ * fast with a {@link DatabaseOverloadedException}.
+ * <p>
+ * If the DAO is created with a {@link RoutingDataSource}, its read-only methods (e.g. {@link #findUserById(long)}) may
+ * be served by a replica database, and all other methods are served by the primary. Strict reads of the last user ID
+ * are also served by the primary, but unlike writes, don't cause the calling thread's subsequent reads to be served by
+ * the primary.
  */
-public class JdbcUserDao {
+public class JdbcUserDao implements UserDao {
 
-  private final DataSource dataSource;
+  // Templates of the SQL of queries for users, in which %s is replaced by the columns of a projection
+  private static final String FIND_USER_BY_ID_SQL_TEMPLATE = "SELECT %s FROM user u WHERE u.id=?";
+  private static final String FIND_USERS_BY_IDS_SQL_PREFIX_TEMPLATE = "SELECT %s FROM user u WHERE u.id IN (";
+  private static final String FIND_USERS_PAGE_SQL_TEMPLATE =
+    "SELECT %s FROM user u WHERE u.id > ? ORDER BY u.id LIMIT ?";
+  // Queries for users by their (normalised) email, which are satisfied by the unique index of the email column. The
+  // users' ids and names are selected (as per the USER_PROJECTION). The query for multiple emails also selects each
+  // user's email, to map them back to the requested emails. (package-private)
+  static final String FIND_USER_BY_EMAIL_SQL =
+    "SELECT u.id, u.first_name, u.last_name FROM user u WHERE u.email=?";
+  static final String FIND_USERS_BY_EMAILS_SQL_PREFIX =
+    "SELECT u.id, u.first_name, u.last_name, u.email FROM user u WHERE u.email IN (";
+  private static final String FIND_LAST_USER_ID_SQL = "SELECT MAX(id) last_user_id FROM user";
+  private static final String FIND_EXISTING_EMAILS_SQL_PREFIX = "SELECT u.email FROM user u WHERE u.email IN (";
+  private static final String INSERT_USER_SQL = "INSERT INTO user (first_name, last_name, email) VALUES (?, ?, ?)";
+  private static final String UPDATE_USER_SQL = "UPDATE user SET first_name=?, last_name=? WHERE id=?";
+
+  // The projection used to query the details held by a User
+  private static final UserProjection USER_PROJECTION = UserProjection.NAME;
+  // Maps a row selected using the columns of the USER_PROJECTION, by position
+  private static final RowMapper<User> USER_ROW_MAPPER = resultSet ->
+    new User(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3));
+  // Maps a row selected using the columns of the USER_PROJECTION followed by the email, to the user and their email
+  private static final RowMapper<Map.Entry<String, User>> EMAIL_USER_ROW_MAPPER = resultSet ->
+    Map.entry(resultSet.getString(4), USER_ROW_MAPPER.mapRow(resultSet));
+
+  private final JdbcExecutor jdbcExecutor;
+  private final Executor bulkLookupExecutor;
+  private final Map<UserProjection, String> findUserByIdSql = new EnumMap<>(UserProjection.class);
+  private final Map<UserProjection, InListQuery> findUsersByIdsQueries = new EnumMap<>(UserProjection.class);
+  private final Map<UserProjection, String> findUsersPageSql = new EnumMap<>(UserProjection.class);
+  private final InListQuery findUsersByEmailsQuery;
+  private final InListQuery findExistingEmailsQuery;
+  private final int insertBatchSize;
+  private final int insertTransactionSize;
+  private final int scanPageSize;
+  private final LastUserIdTracker lastUserIdTracker;
 
   /**
+   * Creates a DAO with the default configuration.
+   *
    * @param dataSource the {@link DataSource} to use to obtain a connection to the service's relational DB (the
    * data-store containing users).
    */
   public JdbcUserDao(DataSource dataSource) {
+    this(dataSource, new JdbcUserDaoConfig());
+  }
+
+  /**
+   * @param dataSource the {@link DataSource} to use to obtain a connection to the service's relational DB (the
+   * data-store containing users).
+   * @param config the configuration of the DAO.
+   */
+  public JdbcUserDao(DataSource dataSource, JdbcUserDaoConfig config) {
     Objects.requireNonNull(dataSource, "dataSource must not be null.");
-    this.dataSource = dataSource;
+    Objects.requireNonNull(config, "config must not be null.");
+    this.jdbcExecutor = new JdbcExecutor(dataSource, config.getMetrics(), config.getConcurrencyLimiter());
+    this.bulkLookupExecutor = config.getBulkLookupExecutor();
+    for (UserProjection projection : UserProjection.values()) {
+      this.findUserByIdSql.put(projection, String.format(FIND_USER_BY_ID_SQL_TEMPLATE, projection.getColumns()));
+      this.findUsersByIdsQueries.put(projection, new InListQuery(
+        String.format(FIND_USERS_BY_IDS_SQL_PREFIX_TEMPLATE, projection.getColumns()), ")", config.getMaxInListSize()));
+      this.findUsersPageSql.put(projection, String.format(FIND_USERS_PAGE_SQL_TEMPLATE, projection.getColumns()));
+    }
+    this.findUsersByEmailsQuery = new InListQuery(FIND_USERS_BY_EMAILS_SQL_PREFIX, ")", config.getMaxInListSize());
+    this.findExistingEmailsQuery = new InListQuery(FIND_EXISTING_EMAILS_SQL_PREFIX, ")", config.getMaxInListSize());
+    this.insertBatchSize = config.getInsertBatchSize();
+    this.insertTransactionSize = config.getInsertTransactionSize();
+    this.scanPageSize = config.getScanPageSize();
+    this.lastUserIdTracker = new LastUserIdTracker(() -> queryLastUserId(QueryType.FIND_LAST_USER_ID),
+      config.getLastUserIdMaxStaleness(), Ticker.systemTicker());
+  }
+
+  /**
+   * Returns the SQL of each of the statements that a DAO with the given configuration can execute, e.g. for preparing
+   * them on the connections of a pool before the DAO is first used (see {@link DataSourceStartupConfig}). The
+   * statements used by the DAO's methods that don't take a {@link UserProjection} are listed first.
+   *
+   * @param config the configuration of the DAO.
+   * @return the SQL of the DAO's statements.
+   */
+  public static List<String> getStatementSql(JdbcUserDaoConfig config) {
+    Objects.requireNonNull(config, "config must not be null.");
+    final List<String> statementSql = new ArrayList<>();
+    final List<UserProjection> projections = new ArrayList<>(List.of(UserProjection.values()));
+    projections.remove(USER_PROJECTION);
+    projections.add(0, USER_PROJECTION);
+    for (UserProjection projection : projections) {
+      statementSql.add(String.format(FIND_USER_BY_ID_SQL_TEMPLATE, projection.getColumns()));
+      statementSql.addAll(new InListQuery(String.format(FIND_USERS_BY_IDS_SQL_PREFIX_TEMPLATE, projection.getColumns()),
+        ")", config.getMaxInListSize()).getSqlOfAllShapes());
+      statementSql.add(String.format(FIND_USERS_PAGE_SQL_TEMPLATE, projection.getColumns()));
+      if (projection == USER_PROJECTION) {
+        statementSql.add(FIND_USER_BY_EMAIL_SQL);
+        statementSql.addAll(new InListQuery(FIND_USERS_BY_EMAILS_SQL_PREFIX, ")", config.getMaxInListSize())
+          .getSqlOfAllShapes());
+        statementSql.add(FIND_LAST_USER_ID_SQL);
+        statementSql.add(INSERT_USER_SQL);
+        statementSql.addAll(new InListQuery(FIND_EXISTING_EMAILS_SQL_PREFIX, ")", config.getMaxInListSize())
+          .getSqlOfAllShapes());
+        statementSql.add(UPDATE_USER_SQL);
+      }
+    }
+    return statementSql;
   }
 
   /**
@@ -49,37 +188,544 @@ public class JdbcUserDao {
    * @param userId the unique ID of the user.
    * @return an Optional of {@link User user}, empty if the {code userId} doesn't identify an existing user.
    */
+  @Override
   public Optional<User> findUserById(long userId) {
+    return findUserById(userId, QueryDeadline.NONE);
+  }
+
+  /**
+   * Finds a {@link User user} by their unique id, within a deadline.
+   *
+   * @param userId the unique ID of the user.
+   * @param deadline the deadline by which the query must complete. The query is aborted if the deadline passes, or
+   * is cancelled, while the query is executing.
+   * @return an Optional of {@link User user}, empty if the {code userId} doesn't identify an existing user.
+   */
+  Optional<User> findUserById(long userId, QueryDeadline deadline) {
     Preconditions.checkArgument(userId > 0, "userId must be greater than 0.");
-    final String sqlQuery = "SELECT * FROM user u WHERE u.id=?";
-    try {
-      final PreparedStatement preparedStatement = this.dataSource.getConnection().prepareStatement(sqlQuery);
-      preparedStatement.setLong(1, userId);
-      final ResultSet resultSet = preparedStatement.executeQuery();
-      if (resultSet.next()) {
-        User user = new User(resultSet.getLong("id"), resultSet.getString("first_name"),
-          resultSet.getString("last_name"));
-        return Optional.of(user);
-      } else {
-        return Optional.empty();
-      }
-    } catch (SQLException sqle) {
-      throw new RuntimeException("Error executing query [" + sqlQuery + "].", sqle);
+    return this.jdbcExecutor.queryForOptional(QueryType.FIND_USER_BY_ID, this.findUserByIdSql.get(USER_PROJECTION),
+      preparedStatement -> preparedStatement.setLong(1, userId), USER_ROW_MAPPER, deadline);
+  }
+
+  /**
+   * Finds a subset (projection) of the details of a user, by their unique id.
+   *
+   * @param userId the unique ID of the user.
+   * @param projection the details of the user to retrieve.
+   * @return an Optional of a {@link UserView view} of the user containing the projected details, empty if the
+   * {code userId} doesn't identify an existing user.
+   */
+  public Optional<UserView> findUserById(long userId, UserProjection projection) {
+    Preconditions.checkArgument(userId > 0, "userId must be greater than 0.");
+    Objects.requireNonNull(projection, "projection must not be null.");
+    return this.jdbcExecutor.queryForOptional(QueryType.FIND_USER_BY_ID, this.findUserByIdSql.get(projection),
+      preparedStatement -> preparedStatement.setLong(1, userId), projection.getRowMapper());
+  }
+
+  /**
+   * Finds a {@link User user} by their unique email address.
+   * <p>
+   * The email is {@link EmailAddresses#normalise(String) normalised} before it's used in the query, which compares it
+   * as-is to the stored (normalised) emails, so the query is satisfied by a lookup of the email column's unique index.
+   *
+   * @param email the email address of the user. Compared case-insensitively, ignoring leading and trailing whitespace.
+   * @return an Optional of {@link User user}, empty if the {code email} doesn't belong to an existing user.
+   */
+  @Override
+  public Optional<User> findUserByEmail(String email) {
+    final String normalisedEmail = EmailAddresses.normalise(email);
+    return this.jdbcExecutor.queryForOptional(QueryType.FIND_USER_BY_EMAIL, FIND_USER_BY_EMAIL_SQL,
+      preparedStatement -> preparedStatement.setString(1, normalisedEmail), USER_ROW_MAPPER);
+  }
+
+  /**
+   * Finds the {@link User users} identified by a collection of unique email addresses, using as few queries as
+   * possible.
+   * <p>
+   * The emails are {@link EmailAddresses#normalise(String) normalised}, and duplicates ignored. The remaining emails
+   * are retrieved in chunks, using IN-list queries that are padded to a fixed set of shapes, in the same way as
+   * {@link #findUsersByIds(Collection)}. Each query is satisfied by lookups of the email column's unique index.
+   *
+   * @param emails the email addresses of the users. Compared case-insensitively, ignoring leading and trailing
+   * whitespace.
+   * @return a map of the found {@link User users} keyed by their normalised email address. Emails which don't belong
+   * to an existing user are omitted. Empty if no users were found.
+   */
+  @Override
+  public Map<String, User> findUsersByEmails(Collection<String> emails) {
+    Objects.requireNonNull(emails, "emails must not be null.");
+    final Set<String> normalisedEmails = new LinkedHashSet<>();
+    emails.forEach(email -> normalisedEmails.add(EmailAddresses.normalise(email)));
+    final Map<String, User> usersByEmail = new HashMap<>(normalisedEmails.size() * 4 / 3 + 1);
+    for (List<String> chunk : Iterables.partition(normalisedEmails, this.findUsersByEmailsQuery.getMaxInListSize())) {
+      this.jdbcExecutor.query(QueryType.FIND_USERS_BY_EMAILS, this.findUsersByEmailsQuery.sqlFor(chunk.size()),
+        this.findUsersByEmailsQuery.binderFor(chunk, 1), EMAIL_USER_ROW_MAPPER)
+        .forEach(entry -> usersByEmail.put(EmailAddresses.normalise(entry.getKey()), entry.getValue()));
     }
+    return usersByEmail;
   }
 
   /**
+   * Finds the user ID of the last (most recently created) user, by querying the database. If the DAO was created with a
+   * {@link RoutingDataSource} the query may be served by a replica, so the result may lag behind the primary. Use
+   * {@link #findLastUserId(ReadConsistency)} with {@link ReadConsistency#STRICT} for a result that reflects all
+   * committed inserts.
+   *
    * @return the user ID of the last (most recently created) user.
    */
+  @Override
   public long findLastUserId() {
-    final String sqlQuery = "SELECT MAX(id) last_user_id FROM user";
-    try {
-      final PreparedStatement preparedStatement = this.dataSource.getConnection().prepareStatement(sqlQuery);
-      final ResultSet resultSet = preparedStatement.executeQuery();
-      resultSet.next();
-      return resultSet.getLong("last_user_id");
-    } catch (SQLException sqle) {
-      throw new RuntimeException("Error executing query [" + sqlQuery + "].", sqle);
+    final long lastUserId = queryLastUserId(QueryType.FIND_LAST_USER_ID);
+    this.lastUserIdTracker.advance(lastUserId);
+    return lastUserId;
+  }
+
+  /**
+   * Finds the user ID of the last (most recently created) user, with a specified consistency.
+   * <p>
+   * The DAO tracks a high-water mark of user IDs in memory. It's seeded by querying the database once, advances from
+   * the IDs generated for users created by this DAO, and is reconciled with the database once the configured max
+   * staleness has elapsed ({@link JdbcUserDaoConfig#getLastUserIdMaxStaleness()}). A
+   * {@link ReadConsistency#BOUNDED_STALE bounded-stale} read returns the high-water mark, which avoids querying the
+   * database on all but a small fraction of calls. A {@link ReadConsistency#STRICT strict} read always queries the
+   * primary database, and returns the result, even if it's lower than the high-water mark (e.g. because the last users
+   * were deleted). The high-water mark is advanced to the result if it's higher.
+   *
+   * @param consistency the consistency required of the result.
+   * @return the user ID of the last (most recently created) user. Zero if no users exist.
+   */
+  public long findLastUserId(ReadConsistency consistency) {
+    Objects.requireNonNull(consistency, "consistency must not be null.");
+    if (consistency == ReadConsistency.BOUNDED_STALE) {
+      return this.lastUserIdTracker.get();
+    }
+    final long lastUserId = queryLastUserId(QueryType.FIND_LAST_USER_ID_STRICT);
+    this.lastUserIdTracker.advance(lastUserId);
+    return lastUserId;
+  }
+
+  private long queryLastUserId(QueryType queryType) {
+    return this.jdbcExecutor.queryForOptional(queryType, FIND_LAST_USER_ID_SQL,
+      StatementBinder.NO_PARAMS, resultSet -> resultSet.getLong("last_user_id")).orElse(0L);
+  }
+
+  /**
+   * Finds the {@link User users} identified by a collection of unique ids, using as few queries as possible.
+   * <p>
+   * Duplicate IDs are ignored. The remaining IDs are split into chunks of at most the configured max IN-list size
+   * ({@link JdbcUserDaoConfig#getMaxInListSize()}), and each chunk is retrieved using a single query. Lookups of N IDs
+   * therefore require ceil(N / max-in-list-size) round trips to the database rather than N.
+   * <p>
+   * To limit the no. of distinct statements that the JDBC driver and database need to prepare and cache, the IN-list
+   * of each query is padded (by repeating an ID) to one of a fixed set of sizes - powers of 2 up to, and including, the
+   * max IN-list size. If a bulk lookup executor is configured ({@link JdbcUserDaoConfig#getBulkLookupExecutor()}),
+   * the chunks are executed in parallel, each using its own pooled connection.
+   *
+   * @param userIds the unique IDs of the users. Each ID must be greater than 0.
+   * @return a map of the found {@link User users} keyed by their id. IDs which don't identify an existing user are
+   * omitted. Empty if no users were found.
+   */
+  @Override
+  public Map<Long, User> findUsersByIds(Collection<Long> userIds) {
+    return findUsersByIds(userIds, USER_PROJECTION, USER_ROW_MAPPER, User::getId);
+  }
+
+  /**
+   * Finds a subset (projection) of the details of the users identified by a collection of unique ids, using as few
+   * queries as possible, in the same way as {@link #findUsersByIds(Collection)}.
+   *
+   * @param userIds the unique IDs of the users. Each ID must be greater than 0.
+   * @param projection the details of the users to retrieve.
+   * @return a map of {@link UserView views} of the found users containing the projected details, keyed by their id.
+   * IDs which don't identify an existing user are omitted. Empty if no users were found.
+   */
+  public Map<Long, UserView> findUsersByIds(Collection<Long> userIds, UserProjection projection) {
+    Objects.requireNonNull(projection, "projection must not be null.");
+    return findUsersByIds(userIds, projection, projection.getRowMapper(), UserView::getId);
+  }
+
+  private <T> Map<Long, T> findUsersByIds(Collection<Long> userIds, UserProjection projection,
+    RowMapper<T> rowMapper, ToLongFunction<T> idOf) {
+    Objects.requireNonNull(userIds, "userIds must not be null.");
+    final Set<Long> distinctUserIds = new LinkedHashSet<>(userIds);
+    distinctUserIds.forEach(userId -> Preconditions.checkArgument(userId != null && userId > 0,
+      "userIds must be greater than 0."));
+    if (distinctUserIds.isEmpty()) {
+      return Collections.emptyMap();
     }
+    final InListQuery query = this.findUsersByIdsQueries.get(projection);
+    final List<List<Long>> chunks = new ArrayList<>();
+    Iterables.partition(distinctUserIds, query.getMaxInListSize()).forEach(chunks::add);
+    final Map<Long, T> usersById = new HashMap<>(distinctUserIds.size() * 4 / 3 + 1);
+    if (this.bulkLookupExecutor == null || chunks.size() == 1) {
+      chunks.forEach(chunk -> findUsersByIdsChunk(query, chunk, rowMapper)
+        .forEach(user -> usersById.put(idOf.applyAsLong(user), user)));
+    } else {
+      final List<CompletableFuture<List<T>>> chunkLookups = chunks.stream()
+        .map(chunk -> CompletableFuture.supplyAsync(() -> findUsersByIdsChunk(query, chunk, rowMapper),
+          this.bulkLookupExecutor))
+        .collect(Collectors.toList());
+      for (CompletableFuture<List<T>> chunkLookup : chunkLookups) {
+        try {
+          chunkLookup.join().forEach(user -> usersById.put(idOf.applyAsLong(user), user));
+        } catch (CompletionException ce) {
+          throw ce.getCause() instanceof RuntimeException ? (RuntimeException) ce.getCause() : ce;
+        }
+      }
+    }
+    return usersById;
+  }
+
+  /**
+   * Returns a stream of all users, in ascending order of their id, e.g. to support reindexing or exporting users.
+   * <p>
+   * The users are retrieved lazily, as the stream is consumed, using keyset pagination - each page is retrieved by a
+   * query for the next users with an id greater than the last id of the previous page, of at most the configured page
+   * size ({@link JdbcUserDaoConfig#getScanPageSize()}). Unlike paginating using an offset, the cost of retrieving each
+   * page is the same regardless of how far through the table the scan is. At most one page of users is held in memory
+   * at a time, so memory use is the same regardless of the no. of users.
+   * <p>
+   * A connection is only used (borrowed from the pool) for the duration of each page's query, and is not held while
+   * the stream is being consumed. As a result, a long-running scan doesn't tie up a connection, or hold locks, and
+   * there are no resources to leak if the stream isn't fully consumed. The stream should nonetheless be closed once
+   * it's no longer needed, e.g. using try-with-resources, as per other streams backed by I/O.
+   * <p>
+   * Each page is read in its own transaction, so the stream is not a consistent snapshot of the table. Users created
+   * during the scan are included if their id is greater than the last id already returned.
+   *
+   * @return a sequential stream of all users.
+   */
+  @Override
+  public Stream<User> streamAllUsers() {
+    return streamUsersAfter(0);
+  }
+
+  /**
+   * Returns a stream of all users whose id is greater than a given id, in ascending order of their id. The stream is
+   * retrieved lazily, in the same way as {@link #streamAllUsers()}.
+   *
+   * @param userId the id after which to start the stream. Zero to stream all users.
+   * @return a sequential stream of the users with an id greater than {@code userId}.
+   */
+  @Override
+  public Stream<User> streamUsersAfter(long userId) {
+    Preconditions.checkArgument(userId >= 0, "userId must be greater than or equal to 0.");
+    return StreamSupport.stream(new KeysetPageSpliterator<>(userId, USER_PROJECTION, USER_ROW_MAPPER, User::getId),
+      false);
+  }
+
+  /**
+   * Returns a stream of a subset (projection) of the details of all users whose id is greater than a given id, in
+   * ascending order of their id. The stream is retrieved lazily, in the same way as {@link #streamAllUsers()}.
+   *
+   * @param userId the id after which to start the stream. Zero to stream all users.
+   * @param projection the details of the users to retrieve.
+   * @return a sequential stream of {@link UserView views} of the users with an id greater than {@code userId},
+   * containing the projected details.
+   */
+  public Stream<UserView> streamUsersAfter(long userId, UserProjection projection) {
+    Preconditions.checkArgument(userId >= 0, "userId must be greater than or equal to 0.");
+    Objects.requireNonNull(projection, "projection must not be null.");
+    return StreamSupport.stream(new KeysetPageSpliterator<>(userId, projection, projection.getRowMapper(),
+      UserView::getId), false);
+  }
+
+  /**
+   * Creates (inserts) a single new user.
+   *
+   * @param newUser the details of the new user.
+   * @return the created {@link User}, including its generated id.
+   */
+  @Override
+  public User createUser(NewUser newUser) {
+    Objects.requireNonNull(newUser, "newUser must not be null.");
+    final User user = this.jdbcExecutor.execute(QueryType.CREATE_USER, INSERT_USER_SQL, connection -> {
+      try (PreparedStatement preparedStatement =
+             connection.prepareStatement(INSERT_USER_SQL, Statement.RETURN_GENERATED_KEYS)) {
+        bindNewUser(preparedStatement, newUser);
+        preparedStatement.executeUpdate();
+        return newUser.toUser(readGeneratedIds(preparedStatement, 1).get(0));
+      }
+    });
+    this.lastUserIdTracker.advance(user.getId());
+    return user;
+  }
+
+  /**
+   * Creates (inserts) a list of new users in bulk, e.g. as part of an import.
+   * <p>
+   * The users are inserted using JDBC batches of the configured size ({@link JdbcUserDaoConfig#getInsertBatchSize()}),
+   * which the MySQL driver rewrites as multi-row INSERT statements (see {@link DataSourceFactory}). Each transaction
+   * inserts at most the configured no. of users ({@link JdbcUserDaoConfig#getInsertTransactionSize()}). The ids that
+   * the database generates for the inserted rows are returned as part of the created {@link User users}.
+   * <p>
+   * A user whose email address is the same as that of an existing user, or a user earlier in the list, is rejected
+   * rather than causing the whole batch to fail. Such duplicates are normally detected up front, before the batch is
+   * executed. If another user with the same email is created concurrently (causing the batch to fail) the batch is
+   * rolled back and its users are instead inserted one at a time, so the duplicates can be identified.
+   * <p>
+   * If an error other than a duplicate email occurs, an exception is thrown, and only the users inserted by
+   * previously committed transactions remain created.
+   * <p>
+   * Returning the ids generated for a multi-row INSERT relies on the ids being allocated consecutively, which
+   * MySQL guarantees for such statements when innodb_autoinc_lock_mode is 0 or 1 (the default prior to MySQL 8).
+   *
+   * @param newUsers the details of the new users.
+   * @return the result of creating the users - the created users, and any that were rejected.
+   */
+  @Override
+  public CreateUsersResult createUsers(List<NewUser> newUsers) {
+    Objects.requireNonNull(newUsers, "newUsers must not be null.");
+    newUsers.forEach(newUser -> Objects.requireNonNull(newUser, "newUsers must not contain null."));
+    final List<User> createdUsers = new ArrayList<>(newUsers.size());
+    final List<RejectedUser> rejectedUsers = new ArrayList<>();
+    final Set<String> emailKeys = new HashSet<>(newUsers.size() * 4 / 3 + 1);
+    for (int from = 0; from < newUsers.size(); from += this.insertTransactionSize) {
+      // Indexes of the users in this transaction that aren't duplicates of users earlier in the list
+      final List<Integer> candidateIndexes = new ArrayList<>();
+      for (int i = from; i < Math.min(from + this.insertTransactionSize, newUsers.size()); i++) {
+        if (emailKeys.add(EmailAddresses.normalise(newUsers.get(i).getEmail()))) {
+          candidateIndexes.add(i);
+        } else {
+          rejectedUsers.add(new RejectedUser(i, newUsers.get(i), RejectedUser.Reason.DUPLICATE_EMAIL));
+        }
+      }
+      final int createdCountBefore = createdUsers.size();
+      this.jdbcExecutor.inTransaction(QueryType.CREATE_USERS, INSERT_USER_SQL, connection -> {
+        final Set<String> existingEmailKeys = findExistingEmailKeys(connection, newUsers, candidateIndexes);
+        final List<Integer> insertIndexes = new ArrayList<>(candidateIndexes.size());
+        for (int i : candidateIndexes) {
+          if (existingEmailKeys.contains(EmailAddresses.normalise(newUsers.get(i).getEmail()))) {
+            rejectedUsers.add(new RejectedUser(i, newUsers.get(i), RejectedUser.Reason.DUPLICATE_EMAIL));
+          } else {
+            insertIndexes.add(i);
+          }
+        }
+        for (List<Integer> batchIndexes : Iterables.partition(insertIndexes, this.insertBatchSize)) {
+          insertBatch(connection, newUsers, batchIndexes, createdUsers, rejectedUsers);
+        }
+        return null;
+      });
+      // The transaction has committed, so the high-water mark can advance to the highest ID it generated
+      long lastCreatedUserId = 0;
+      for (User user : createdUsers.subList(createdCountBefore, createdUsers.size())) {
+        lastCreatedUserId = Math.max(lastCreatedUserId, user.getId());
+      }
+      this.lastUserIdTracker.advance(lastCreatedUserId);
+    }
+    rejectedUsers.sort(Comparator.comparingInt(RejectedUser::getIndex));
+    return new CreateUsersResult(createdUsers, rejectedUsers);
+  }
+
+  /**
+   * Updates (the names of) an existing user.
+   *
+   * @param user the user, identified by their id, containing the updated details.
+   * @return true if the user was updated, or false if the user doesn't exist.
+   */
+  @Override
+  public boolean updateUser(User user) {
+    Objects.requireNonNull(user, "user must not be null.");
+    return this.jdbcExecutor.update(QueryType.UPDATE_USER, UPDATE_USER_SQL,
+      preparedStatement -> bindUserUpdate(preparedStatement, user)) > 0;
+  }
+
+  /**
+   * Updates (the names of) a collection of existing users, using a single JDBC batch, in a single transaction.
+   * <p>
+   * The MySQL driver sends the batch to the database in as few round trips as possible (see
+   * {@link DataSourceFactory}). Users that don't exist are ignored. If an error occurs none of the users are updated.
+   *
+   * @param users the users, identified by their id, containing the updated details. Should contain at most one user
+   * with each id, as the order in which the updates are applied isn't defined.
+   * @return the no. of users updated, if reported by the driver, or -1 if the driver only reported that the updates
+   * succeeded.
+   */
+  @Override
+  public int updateUsers(Collection<User> users) {
+    Objects.requireNonNull(users, "users must not be null.");
+    users.forEach(user -> Objects.requireNonNull(user, "users must not contain null."));
+    if (users.isEmpty()) {
+      return 0;
+    }
+    return this.jdbcExecutor.inTransaction(QueryType.UPDATE_USERS, UPDATE_USER_SQL, connection -> {
+      try (PreparedStatement preparedStatement = connection.prepareStatement(UPDATE_USER_SQL)) {
+        for (User user : users) {
+          bindUserUpdate(preparedStatement, user);
+          preparedStatement.addBatch();
+        }
+        int updatedCount = 0;
+        for (int rowCount : preparedStatement.executeBatch()) {
+          if (rowCount == Statement.SUCCESS_NO_INFO) {
+            return -1;
+          }
+          updatedCount += rowCount;
+        }
+        return updatedCount;
+      }
+    });
+  }
+
+  /**
+   * Inserts a batch of users, falling back to inserting them one at a time if the batch fails due to a duplicate
+   * email.
+   */
+  private void insertBatch(Connection connection, List<NewUser> newUsers, List<Integer> batchIndexes,
+    List<User> createdUsers, List<RejectedUser> rejectedUsers) throws SQLException {
+    final Savepoint savepoint = connection.setSavepoint();
+    try (PreparedStatement preparedStatement =
+           connection.prepareStatement(INSERT_USER_SQL, Statement.RETURN_GENERATED_KEYS)) {
+      for (int i : batchIndexes) {
+        bindNewUser(preparedStatement, newUsers.get(i));
+        preparedStatement.addBatch();
+      }
+      preparedStatement.executeBatch();
+      final List<Long> generatedIds = readGeneratedIds(preparedStatement, batchIndexes.size());
+      for (int i = 0; i < batchIndexes.size(); i++) {
+        createdUsers.add(newUsers.get(batchIndexes.get(i)).toUser(generatedIds.get(i)));
+      }
+      connection.releaseSavepoint(savepoint);
+      return;
+    } catch (BatchUpdateException bue) {
+      if (!isDuplicateKey(bue)) {
+        throw bue;
+      }
+      connection.rollback(savepoint);
+    }
+    try (PreparedStatement preparedStatement =
+           connection.prepareStatement(INSERT_USER_SQL, Statement.RETURN_GENERATED_KEYS)) {
+      for (int i : batchIndexes) {
+        bindNewUser(preparedStatement, newUsers.get(i));
+        try {
+          preparedStatement.executeUpdate();
+        } catch (SQLException sqle) {
+          if (!isDuplicateKey(sqle)) {
+            throw sqle;
+          }
+          rejectedUsers.add(new RejectedUser(i, newUsers.get(i), RejectedUser.Reason.DUPLICATE_EMAIL));
+          continue;
+        }
+        createdUsers.add(newUsers.get(i).toUser(readGeneratedIds(preparedStatement, 1).get(0)));
+      }
+    }
+  }
+
+  /**
+   * Finds which of the emails of a list of new users are already used by existing users.
+   *
+   * @return the {@link EmailAddresses#normalise(String) normalised} emails of existing users.
+   */
+  private Set<String> findExistingEmailKeys(Connection connection, List<NewUser> newUsers, List<Integer> indexes)
+    throws SQLException {
+    final Set<String> existingEmailKeys = new HashSet<>();
+    for (List<Integer> chunk : Iterables.partition(indexes, this.findExistingEmailsQuery.getMaxInListSize())) {
+      final List<String> emails = new ArrayList<>(chunk.size());
+      chunk.forEach(i -> emails.add(EmailAddresses.normalise(newUsers.get(i).getEmail())));
+      this.jdbcExecutor.query(connection, this.findExistingEmailsQuery.sqlFor(emails.size()),
+        this.findExistingEmailsQuery.binderFor(emails, 1), resultSet -> resultSet.getString("email"))
+        .forEach(email -> existingEmailKeys.add(EmailAddresses.normalise(email)));
+    }
+    return existingEmailKeys;
+  }
+
+  private static void bindNewUser(PreparedStatement preparedStatement, NewUser newUser) throws SQLException {
+    preparedStatement.setString(1, newUser.getFirstName());
+    preparedStatement.setString(2, newUser.getLastName());
+    // Stored normalised, so lookups by email can compare it as-is (see findUserByEmail)
+    preparedStatement.setString(3, EmailAddresses.normalise(newUser.getEmail()));
+  }
+
+  private static void bindUserUpdate(PreparedStatement preparedStatement, User user) throws SQLException {
+    preparedStatement.setString(1, user.getFirstName());
+    preparedStatement.setString(2, user.getLastName());
+    preparedStatement.setLong(3, user.getId());
+  }
+
+  private static List<Long> readGeneratedIds(PreparedStatement preparedStatement, int expectedCount)
+    throws SQLException {
+    final List<Long> generatedIds = new ArrayList<>(expectedCount);
+    try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+      while (generatedKeys.next()) {
+        generatedIds.add(generatedKeys.getLong(1));
+      }
+    }
+    if (generatedIds.size() != expectedCount) {
+      throw new IllegalStateException("Expected " + expectedCount + " generated ids but got " + generatedIds.size() +
+        ".");
+    }
+    return generatedIds;
+  }
+
+  /**
+   * @return true if the exception was caused by a violation of a unique key, e.g. a duplicate email.
+   */
+  private static boolean isDuplicateKey(SQLException sqle) {
+    // SQLState class 23 - integrity constraint violation. Reported by MySQL (23000) and ANSI drivers (23505).
+    return sqle.getSQLState() != null && sqle.getSQLState().startsWith("23");
+  }
+
+  /**
+   * Finds the users identified by a single chunk of IDs, using a query whose IN-list is padded to a fixed shape.
+   *
+   * @param query the query for the users, selecting the columns mapped by the {@code rowMapper}.
+   * @param userIds the distinct IDs of the users. The no. of IDs must not exceed the max IN-list size.
+   * @param rowMapper the mapper of each row.
+   * @return the list of found users.
+   */
+  private <T> List<T> findUsersByIdsChunk(InListQuery query, List<Long> userIds, RowMapper<T> rowMapper) {
+    return this.jdbcExecutor.query(QueryType.FIND_USERS_BY_IDS, query.sqlFor(userIds.size()),
+      query.binderFor(userIds, 1), rowMapper);
+  }
+
+  /**
+   * A {@link Spliterator} that retrieves users a page at a time, on demand, using keyset pagination.
+   *
+   * @param <T> the type to which each user (row) is mapped.
+   */
+  private class KeysetPageSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    private final String pageSql;
+    private final RowMapper<T> rowMapper;
+    private final ToLongFunction<T> idOf;
+    private long lastUserId;
+    private List<T> page = Collections.emptyList();
+    private int pageIndex;
+    private boolean lastPage;
+
+    KeysetPageSpliterator(long afterUserId, UserProjection projection, RowMapper<T> rowMapper,
+      ToLongFunction<T> idOf) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+      this.pageSql = findUsersPageSql.get(projection);
+      this.rowMapper = rowMapper;
+      this.idOf = idOf;
+      this.lastUserId = afterUserId;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      if (this.pageIndex == this.page.size()) {
+        if (this.lastPage) {
+          return false;
+        }
+        // Release the previous page before retrieving the next, so at most one page is held in memory
+        this.page = Collections.emptyList();
+        this.page = findUsersPage(this.pageSql, this.lastUserId, this.rowMapper);
+        this.pageIndex = 0;
+        this.lastPage = this.page.size() < scanPageSize;
+        if (this.page.isEmpty()) {
+          return false;
+        }
+        this.lastUserId = this.idOf.applyAsLong(this.page.get(this.page.size() - 1));
+      }
+      action.accept(this.page.get(this.pageIndex++));
+      return true;
+    }
+  }
+
+  private <T> List<T> findUsersPage(String pageSql, long afterUserId, RowMapper<T> rowMapper) {
+    return this.jdbcExecutor.query(QueryType.FIND_USERS_PAGE, pageSql, preparedStatement -> {
+      preparedStatement.setLong(1, afterUserId);
+      preparedStatement.setInt(2, this.scanPageSize);
+    }, rowMapper);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of a {@link JdbcUserDao}, used to tune its behaviour. Each property has a default value
+ * that's used unless it's overridden. The configuration is copied when the DAO is created, so subsequent changes to
+ * an instance of this class have no effect on previously created DAO.
+ */
+public class JdbcUserDaoConfig {
+
+  /** Default max no. of IDs included in the IN-list of a single bulk lookup query. */
+  public static final int DEFAULT_MAX_IN_LIST_SIZE = 128;
+
+  /** Default max no. of rows inserted by a single JDBC batch. */
+  public static final int DEFAULT_INSERT_BATCH_SIZE = 500;
+
+  /** Default max no. of rows inserted by a single transaction. */
+  public static final int DEFAULT_INSERT_TRANSACTION_SIZE = 5000;
+
+  /** Default max no. of rows retrieved by each query (page) of a scan of all users. */
+  public static final int DEFAULT_SCAN_PAGE_SIZE = 1000;
+
+  /** Default max staleness of the last user ID returned by a {@link ReadConsistency#BOUNDED_STALE} read. */
+  public static final Duration DEFAULT_LAST_USER_ID_MAX_STALENESS = Duration.ofSeconds(1);
+
+  private int maxInListSize = DEFAULT_MAX_IN_LIST_SIZE;
+  private Executor bulkLookupExecutor;
+  private int insertBatchSize = DEFAULT_INSERT_BATCH_SIZE;
+  private int insertTransactionSize = DEFAULT_INSERT_TRANSACTION_SIZE;
+  private int scanPageSize = DEFAULT_SCAN_PAGE_SIZE;
+  private Duration lastUserIdMaxStaleness = DEFAULT_LAST_USER_ID_MAX_STALENESS;
+  private JdbcMetrics metrics;
+  private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  /**
+   * @return the max no. of IDs included in the IN-list of a single bulk lookup query.
+   */
+  public int getMaxInListSize() {
+    return this.maxInListSize;
+  }
+
+  /**
+   * @param maxInListSize the max no. of IDs included in the IN-list of a single bulk lookup query. Bulk lookups of
+   * more IDs are split into multiple queries (chunks). Must be greater than 0.
+   */
+  public void setMaxInListSize(int maxInListSize) {
+    Preconditions.checkArgument(maxInListSize > 0, "maxInListSize must be greater than 0.");
+    this.maxInListSize = maxInListSize;
+  }
+
+  /**
+   * @return the {@link Executor} used to execute the chunks of a bulk lookup in parallel, or null if they're executed
+   * sequentially by the calling thread.
+   */
+  public Executor getBulkLookupExecutor() {
+    return this.bulkLookupExecutor;
+  }
+
+  /**
+   * @param bulkLookupExecutor the {@link Executor} to use to execute the chunks of a bulk lookup in parallel, each
+   * using its own connection from the pool. Optional. If null (the default), chunks are executed sequentially by the
+   * calling thread. The executor's parallelism should be bounded relative to the size of the connection pool.
+   */
+  public void setBulkLookupExecutor(Executor bulkLookupExecutor) {
+    this.bulkLookupExecutor = bulkLookupExecutor;
+  }
+
+  /**
+   * @return the max no. of rows inserted by a single JDBC batch, when creating users in bulk.
+   */
+  public int getInsertBatchSize() {
+    return this.insertBatchSize;
+  }
+
+  /**
+   * @param insertBatchSize the max no. of rows inserted by a single JDBC batch, when creating users in bulk. When
+   * the driver is configured to rewrite batched statements, each batch is sent to the database as one (or a few)
+   * multi-row INSERT statements. Must be greater than 0.
+   */
+  public void setInsertBatchSize(int insertBatchSize) {
+    Preconditions.checkArgument(insertBatchSize > 0, "insertBatchSize must be greater than 0.");
+    this.insertBatchSize = insertBatchSize;
+  }
+
+  /**
+   * @return the max no. of rows inserted by a single transaction, when creating users in bulk.
+   */
+  public int getInsertTransactionSize() {
+    return this.insertTransactionSize;
+  }
+
+  /**
+   * @param insertTransactionSize the max no. of rows inserted by a single transaction, when creating users in bulk.
+   * Larger transactions reduce the no. of commits (and hence log flushes) but hold locks for longer, and increase the
+   * amount of work that's lost if the transaction fails. Must be greater than 0.
+   */
+  public void setInsertTransactionSize(int insertTransactionSize) {
+    Preconditions.checkArgument(insertTransactionSize > 0, "insertTransactionSize must be greater than 0.");
+    this.insertTransactionSize = insertTransactionSize;
+  }
+
+  /**
+   * @return the max no. of rows retrieved by each query (page) of a scan of all users.
+   */
+  public int getScanPageSize() {
+    return this.scanPageSize;
+  }
+
+  /**
+   * @param scanPageSize the max no. of rows retrieved by each query (page) of a scan of all users. Determines the
+   * max no. of users held in memory by a scan at any one time. Must be greater than 0.
+   */
+  public void setScanPageSize(int scanPageSize) {
+    Preconditions.checkArgument(scanPageSize > 0, "scanPageSize must be greater than 0.");
+    this.scanPageSize = scanPageSize;
+  }
+
+  /**
+   * @return the max staleness of the last user ID returned by a {@link ReadConsistency#BOUNDED_STALE bounded-stale}
+   * read.
+   */
+  public Duration getLastUserIdMaxStaleness() {
+    return this.lastUserIdMaxStaleness;
+  }
+
+  /**
+   * @param lastUserIdMaxStaleness the max staleness of the last user ID returned by a
+   * {@link ReadConsistency#BOUNDED_STALE bounded-stale} read - the period after which the DAO's high-water mark of
+   * user IDs is reconciled with the database, to account for users created by other processes. Users created by the
+   * DAO itself are reflected immediately. Zero to reconcile on every read. Must not be negative.
+   */
+  public void setLastUserIdMaxStaleness(Duration lastUserIdMaxStaleness) {
+    Preconditions.checkArgument(lastUserIdMaxStaleness != null && !lastUserIdMaxStaleness.isNegative(),
+      "lastUserIdMaxStaleness must not be negative.");
+    this.lastUserIdMaxStaleness = lastUserIdMaxStaleness;
+  }
+
+  /**
+   * @return the metrics in which the DAO records the execution of its queries, or null if they're not recorded.
+   */
+  public JdbcMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * @param metrics the metrics in which the DAO records the latency, no. of rows returned and failures of the queries
+   * it executes, per type of query. Optional. If null (the default), the DAO isn't instrumented. The same metrics can
+   * be shared by multiple DAO, and used to instrument the DataSource (see {@link DataSourceFactory#instrument}).
+   */
+  public void setMetrics(JdbcMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the limiter of the no. of queries the DAO executes concurrently, or null if they're not limited.
+   */
+  public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+    return this.concurrencyLimiter;
+  }
+
+  /**
+   * @param concurrencyLimiter the limiter of the no. of queries the DAO executes concurrently. Queries over the
+   * current limit are rejected with a {@link DatabaseOverloadedException}, rather than waiting for a connection from
+   * the pool. Optional. If null (the default), queries aren't limited, other than by the size of the pool. The same
+   * limiter can be shared by multiple DAO that use the same database.
+   */
+  public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("maxInListSize", maxInListSize)
+      .add("bulkLookupExecutor", bulkLookupExecutor)
+      .add("insertBatchSize", insertBatchSize)
+      .add("insertTransactionSize", insertTransactionSize)
+      .add("scanPageSize", scanPageSize)
+      .add("lastUserIdMaxStaleness", lastUserIdMaxStaleness)
+      .add("metrics", metrics)
+      .add("concurrencyLimiter", concurrencyLimiter)
+      .toString();
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A {@link MetricsSink} which publishes the most recently reported snapshot of metrics as a JMX MXBean, so that the
+ * metrics can be read using JMX tools (e.g. JConsole, VisualVM), or collected by a monitoring agent.
+ * <p>
+ * The MXBean is registered with the platform MBean server when the sink is created, and should be unregistered when
+ * it's no longer needed, by {@link #close() closing} the sink.
+ */
+public class JmxMetricsSink implements MetricsSink, MetricsSnapshotMXBean, AutoCloseable {
+
+  /** The default name under which the MXBean is registered. */
+  public static final String DEFAULT_OBJECT_NAME = "com.neiljbrown.example.integration.database:type=JdbcMetrics";
+
+  private final MBeanServer mBeanServer;
+  private final ObjectName objectName;
+  private volatile MetricsSnapshot latestSnapshot;
+
+  /**
+   * Creates a sink whose MXBean is registered under the {@link #DEFAULT_OBJECT_NAME default name}.
+   */
+  public JmxMetricsSink() {
+    this(DEFAULT_OBJECT_NAME);
+  }
+
+  /**
+   * @param objectName the name under which to register the MXBean, e.g. to distinguish the metrics of multiple
+   * databases.
+   * @throws IllegalArgumentException if the name is invalid, or already registered.
+   */
+  public JmxMetricsSink(String objectName) {
+    Objects.requireNonNull(objectName, "objectName must not be null.");
+    this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    try {
+      this.objectName = new ObjectName(objectName);
+      this.mBeanServer.registerMBean(this, this.objectName);
+    } catch (JMException e) {
+      throw new IllegalArgumentException("Error registering MXBean [" + objectName + "].", e);
+    }
+  }
+
+  @Override
+  public void report(MetricsSnapshot snapshot) {
+    this.latestSnapshot = snapshot;
+  }
+
+  @Override
+  public MetricsSnapshot getLatestSnapshot() {
+    return this.latestSnapshot;
+  }
+
+  /**
+   * Unregisters the MXBean.
+   */
+  @Override
+  public void close() {
+    try {
+      this.mBeanServer.unregisterMBean(this.objectName);
+    } catch (JMException e) {
+      throw new IllegalStateException("Error unregistering MXBean [" + this.objectName + "].", e);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+
+/**
+ * Tracks a high-water mark of the IDs of users - the last (highest) user ID - so that it can be read without querying
+ * the database each time.
+ * <p>
+ * The high-water mark is seeded by querying the database once, on first use. It then advances from the IDs generated
+ * for users created by the owning DAO, and is periodically reconciled with the database (by re-executing the query)
+ * to account for users created by other processes. A reconciliation is triggered by the first read after the max
+ * staleness has elapsed since the last one, and is executed by that reader only - concurrent readers continue to
+ * return the current high-water mark rather than each querying the database. The high-water mark never decreases.
+ */
+final class LastUserIdTracker {
+
+  private final LongSupplier lastUserIdQuery;
+  private final long maxStalenessNanos;
+  private final Ticker ticker;
+  private final AtomicLong highWaterMark = new AtomicLong();
+  private final AtomicBoolean reconciling = new AtomicBoolean();
+  private volatile boolean seeded;
+  private volatile long lastReconciledNanos;
+
+  /**
+   * @param lastUserIdQuery the query of the database for the last user ID, used to seed and reconcile the high-water
+   * mark.
+   * @param maxStaleness the max period between reconciliations with the database.
+   * @param ticker the source of time.
+   */
+  LastUserIdTracker(LongSupplier lastUserIdQuery, Duration maxStaleness, Ticker ticker) {
+    this.lastUserIdQuery = Objects.requireNonNull(lastUserIdQuery, "lastUserIdQuery must not be null.");
+    this.maxStalenessNanos = Objects.requireNonNull(maxStaleness, "maxStaleness must not be null.").toNanos();
+    this.ticker = Objects.requireNonNull(ticker, "ticker must not be null.");
+  }
+
+  /**
+   * Returns the high-water mark, seeding or reconciling it with the database first if it's never been seeded, or the
+   * max staleness has elapsed and no other thread is already reconciling it.
+   *
+   * @return the last user ID, which reflects all users created via {@link #advance(long)}, and all users created by
+   * other processes at least the max staleness ago.
+   */
+  long get() {
+    if (!this.seeded) {
+      synchronized (this) {
+        if (!this.seeded) {
+          return reconcile();
+        }
+      }
+    }
+    if (this.ticker.read() - this.lastReconciledNanos >= this.maxStalenessNanos &&
+      this.reconciling.compareAndSet(false, true)) {
+      try {
+        return reconcile();
+      } finally {
+        this.reconciling.set(false);
+      }
+    }
+    return this.highWaterMark.get();
+  }
+
+  /**
+   * Queries the database for the last user ID, and advances the high-water mark to it if it's higher.
+   *
+   * @return the high-water mark after reconciling it.
+   */
+  long reconcile() {
+    final long startNanos = this.ticker.read();
+    advance(this.lastUserIdQuery.getAsLong());
+    this.lastReconciledNanos = startNanos;
+    this.seeded = true;
+    return this.highWaterMark.get();
+  }
+
+  /**
+   * Advances the high-water mark to the ID of a created user, if it's higher. Should only be called once the user's
+   * creation has been committed.
+   *
+   * @param userId the ID of the created user.
+   */
+  void advance(long userId) {
+    this.highWaterMark.accumulateAndGet(userId, Math::max);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("highWaterMark", highWaterMark.get())
+      .add("seeded", seeded)
+      .add("maxStalenessNanos", maxStalenessNanos)
+      .toString();
+  }
+}
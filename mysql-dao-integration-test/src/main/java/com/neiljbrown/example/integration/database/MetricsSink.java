@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+/**
+ * A destination to which the metrics recorded by {@link JdbcMetrics} are periodically reported, e.g. a log, or a
+ * monitoring system.
+ *
+ * @see Slf4jMetricsSink
+ * @see JmxMetricsSink
+ */
+@FunctionalInterface
+public interface MetricsSink {
+
+  /**
+   * Reports a snapshot of the metrics. Called periodically, by a single (reporting) thread. Implementations should
+   * not block for long, as that delays subsequent reports.
+   *
+   * @param snapshot the snapshot of the metrics recorded since the previous report.
+   */
+  void report(MetricsSnapshot snapshot);
+}
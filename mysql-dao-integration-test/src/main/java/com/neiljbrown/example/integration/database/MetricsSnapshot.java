@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.HdrHistogram.Histogram;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * An immutable snapshot of the metrics recorded by {@link JdbcMetrics} over an interval of time.
+ * <p>
+ * Histograms and counters contain only the values recorded during the interval - the metrics are reset each time a
+ * snapshot is taken. Gauges contain the value at the time the snapshot was taken. Each metric is identified by a
+ * dot-separated name, e.g. {@code query.find_user_by_id.latency}. Metrics are sorted by name.
+ */
+public class MetricsSnapshot {
+
+  private final long startTimeMillis;
+  private final long endTimeMillis;
+  private final Map<String, HistogramSummary> histograms;
+  private final Map<String, Long> counters;
+  private final Map<String, Long> gauges;
+
+  /**
+   * @param startTimeMillis the time at which the interval started, in milliseconds since the epoch.
+   * @param endTimeMillis the time at which the interval ended, in milliseconds since the epoch.
+   * @param histograms the summaries of the histograms, keyed by metric name.
+   * @param counters the values of the counters, keyed by metric name.
+   * @param gauges the values of the gauges, keyed by metric name.
+   */
+  MetricsSnapshot(long startTimeMillis, long endTimeMillis, Map<String, HistogramSummary> histograms,
+    Map<String, Long> counters, Map<String, Long> gauges) {
+    this.startTimeMillis = startTimeMillis;
+    this.endTimeMillis = endTimeMillis;
+    this.histograms = Collections.unmodifiableMap(new TreeMap<>(histograms));
+    this.counters = Collections.unmodifiableMap(new TreeMap<>(counters));
+    this.gauges = Collections.unmodifiableMap(new TreeMap<>(gauges));
+  }
+
+  /**
+   * @return the time at which the interval covered by the snapshot started, in milliseconds since the epoch.
+   */
+  public long getStartTimeMillis() {
+    return this.startTimeMillis;
+  }
+
+  /**
+   * @return the time at which the interval covered by the snapshot ended, in milliseconds since the epoch.
+   */
+  public long getEndTimeMillis() {
+    return this.endTimeMillis;
+  }
+
+  /**
+   * @return summaries of the distributions of the values recorded during the interval, e.g. query latencies in
+   * microseconds, keyed by metric name.
+   */
+  public Map<String, HistogramSummary> getHistograms() {
+    return this.histograms;
+  }
+
+  /**
+   * @return the no. of events that occurred during the interval, e.g. query errors, keyed by metric name.
+   */
+  public Map<String, Long> getCounters() {
+    return this.counters;
+  }
+
+  /**
+   * @return the values of gauges at the end of the interval, e.g. the no. of active connections, keyed by metric
+   * name.
+   */
+  public Map<String, Long> getGauges() {
+    return this.gauges;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("startTimeMillis", startTimeMillis)
+      .add("endTimeMillis", endTimeMillis)
+      .add("histograms", histograms)
+      .add("counters", counters)
+      .add("gauges", gauges)
+      .toString();
+  }
+
+  /**
+   * A summary of the distribution of the values recorded by a histogram - their count, and selected percentiles.
+   */
+  public static class HistogramSummary {
+
+    private final long count;
+    private final long min;
+    private final long max;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+
+    /**
+     * @param histogram the histogram to summarise.
+     */
+    HistogramSummary(Histogram histogram) {
+      this.count = histogram.getTotalCount();
+      this.min = this.count == 0 ? 0 : histogram.getMinValue();
+      this.max = histogram.getMaxValue();
+      this.mean = histogram.getMean();
+      this.p50 = histogram.getValueAtPercentile(50);
+      this.p90 = histogram.getValueAtPercentile(90);
+      this.p99 = histogram.getValueAtPercentile(99);
+      this.p999 = histogram.getValueAtPercentile(99.9);
+    }
+
+    public long getCount() {
+      return this.count;
+    }
+
+    public long getMin() {
+      return this.min;
+    }
+
+    public long getMax() {
+      return this.max;
+    }
+
+    public double getMean() {
+      return this.mean;
+    }
+
+    public long getP50() {
+      return this.p50;
+    }
+
+    public long getP90() {
+      return this.p90;
+    }
+
+    public long getP99() {
+      return this.p99;
+    }
+
+    public long getP999() {
+      return this.p999;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+        .add("count", count)
+        .add("min", min)
+        .add("max", max)
+        .add("mean", String.format("%.1f", mean))
+        .add("p50", p50)
+        .add("p90", p90)
+        .add("p99", p99)
+        .add("p999", p999)
+        .toString();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+/**
+ * The relative cost of a type of query executed by the DAO. Queries of each cost are subject to their own concurrency
+ * limit (see {@link AdaptiveConcurrencyLimiter}), so that a build-up of expensive queries can't starve cheap ones.
+ */
+public enum QueryCost {
+
+  /** Queries that read or write a single row, using the primary key or a unique index, e.g. lookup of a user by id. */
+  POINT,
+
+  /** Queries that read many rows, e.g. bulk lookups and pages of a scan. */
+  BULK,
+
+  /**
+   * Queries that write many rows, e.g. batches of inserts or updates. Their latency grows with the no. of rows they
+   * write, and is typically much higher than that of bulk reads, so they're limited separately from them.
+   */
+  BULK_WRITE
+}
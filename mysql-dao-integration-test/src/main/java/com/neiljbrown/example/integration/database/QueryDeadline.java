@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The point in time by which a call to the database must complete, used to bound the execution of the JDBC
+ * statement(s) made by the call.
+ * <p>
+ * Before a statement is executed it's {@link #apply(Statement) applied} to the deadline, which fails fast if the
+ * deadline has already passed, and otherwise sets the statement's query timeout to the remaining time, so the
+ * database (or driver) aborts the statement if it's still executing when the deadline passes. The statement is also
+ * registered with the deadline, so that another thread (e.g. a timer) can {@link #cancel() cancel} it as soon as the
+ * deadline passes, rather than waiting for the query timeout, whose granularity is seconds.
+ */
+final class QueryDeadline {
+
+  /** A deadline that never passes. */
+  static final QueryDeadline NONE = new QueryDeadline(Long.MAX_VALUE);
+
+  private final long deadlineNanos;
+  // The statement currently being executed, if any
+  private volatile Statement statement;
+  private volatile boolean cancelled;
+
+  private QueryDeadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @param timeout the max time allowed for the call.
+   * @return a deadline that passes once the timeout has elapsed from now.
+   */
+  static QueryDeadline after(Duration timeout) {
+    Preconditions.checkArgument(timeout != null && !timeout.isNegative(), "timeout must not be negative.");
+    return new QueryDeadline(System.nanoTime() + timeout.toNanos());
+  }
+
+  /**
+   * @return the time remaining before the deadline passes, in nanoseconds. Zero or negative if it's passed.
+   */
+  long remainingNanos() {
+    return this == NONE ? Long.MAX_VALUE : this.deadlineNanos - System.nanoTime();
+  }
+
+  /**
+   * @return true if the deadline has passed, or the call has been cancelled.
+   */
+  boolean isExpired() {
+    return this.cancelled || remainingNanos() <= 0;
+  }
+
+  /**
+   * Prepares a statement to be executed within the deadline, setting its query timeout to the remaining time, and
+   * registering it so it can be cancelled.
+   *
+   * @param statement the statement that's about to be executed.
+   * @throws SQLTimeoutException if the deadline has already passed.
+   * @throws SQLException if an error occurs setting the query timeout.
+   */
+  void apply(Statement statement) throws SQLException {
+    if (this == NONE) {
+      return;
+    }
+    if (isExpired()) {
+      throw new SQLTimeoutException("Deadline passed before statement was executed.");
+    }
+    // Query timeout is in (whole) seconds. Round up, so the statement isn't aborted before the deadline.
+    statement.setQueryTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remainingNanos() + 999_999_999L)));
+    this.statement = statement;
+    // Cancel the statement if the call was cancelled while it was being registered
+    if (this.cancelled) {
+      statement.cancel();
+    }
+  }
+
+  /**
+   * Deregisters a statement once it has finished executing.
+   *
+   * @param statement the statement that has finished executing.
+   */
+  void release(Statement statement) {
+    if (this.statement == statement) {
+      this.statement = null;
+    }
+  }
+
+  /**
+   * Cancels the call, including aborting the statement that's currently executing, if any. Errors cancelling the
+   * statement are ignored, as the statement may have completed in the meantime.
+   */
+  void cancel() {
+    this.cancelled = true;
+    final Statement executingStatement = this.statement;
+    if (executingStatement != null) {
+      try {
+        executingStatement.cancel();
+      } catch (SQLException | RuntimeException e) {
+        // Ignored - the statement may have completed, or been closed
+      }
+    }
+  }
+}
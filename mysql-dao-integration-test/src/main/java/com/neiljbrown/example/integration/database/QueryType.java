@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Locale;
+
+/**
+ * The types of query executed by the application's JDBC DAO, used to classify (label) the metrics recorded for each
+ * query, e.g. its latency, independently of the exact SQL, which can vary (e.g. with the size of an IN-list). Also
+ * identifies which queries only read, which of those can be served by a replica database (see
+ * {@link RoutingDataSource}), and the relative cost of each type of query.
+ */
+enum QueryType {
+
+  FIND_USER_BY_ID(true, QueryCost.POINT),
+  FIND_LAST_USER_ID(true, QueryCost.POINT),
+  // A strict read of the last user ID must reflect all committed inserts, so it can't be served by a lagging replica
+  FIND_LAST_USER_ID_STRICT(true, false, QueryCost.POINT),
+  FIND_USERS_BY_IDS(true, QueryCost.BULK),
+  FIND_USER_BY_EMAIL(true, QueryCost.POINT),
+  FIND_USERS_BY_EMAILS(true, QueryCost.BULK),
+  FIND_USERS_PAGE(true, QueryCost.BULK),
+  CREATE_USER(false, QueryCost.POINT),
+  CREATE_USERS(false, QueryCost.BULK_WRITE),
+  UPDATE_USER(false, QueryCost.POINT),
+  UPDATE_USERS(false, QueryCost.BULK_WRITE);
+
+  private final String metricName = name().toLowerCase(Locale.ROOT);
+  private final boolean readOnly;
+  private final boolean replicaReadable;
+  private final QueryCost cost;
+
+  QueryType(boolean readOnly, QueryCost cost) {
+    this(readOnly, readOnly, cost);
+  }
+
+  QueryType(boolean readOnly, boolean replicaReadable, QueryCost cost) {
+    this.readOnly = readOnly;
+    this.replicaReadable = replicaReadable;
+    this.cost = cost;
+  }
+
+  /**
+   * @return the name used to identify the query type in the names of metrics, e.g. find_user_by_id.
+   */
+  String getMetricName() {
+    return this.metricName;
+  }
+
+  /**
+   * @return true if queries of this type only read from the database.
+   */
+  boolean isReadOnly() {
+    return this.readOnly;
+  }
+
+  /**
+   * @return true if queries of this type only read from the database, and can tolerate reading from a replica that
+   * lags (within limits) behind the primary.
+   */
+  boolean isReplicaReadable() {
+    return this.replicaReadable;
+  }
+
+  /**
+   * @return the relative cost of queries of this type, which determines the concurrency limit that applies to them
+   * (see {@link AdaptiveConcurrencyLimiter}).
+   */
+  QueryCost getCost() {
+    return this.cost;
+  }
+}
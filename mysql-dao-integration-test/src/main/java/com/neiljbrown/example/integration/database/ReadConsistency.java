@@ -0,0 +1,32 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+/**
+ * The consistency required of a read of a value that the DAO can either query from the database, or derive more
+ * cheaply from state it tracks in memory, e.g. {@link JdbcUserDao#findLastUserId(ReadConsistency)}.
+ */
+public enum ReadConsistency {
+
+  /** The value is read from the database, and reflects all changes committed before the read. */
+  STRICT,
+
+  /**
+   * The value may be derived from state held in memory. It reflects all changes made via the same DAO, but changes
+   * committed by other processes may not be reflected until after a configured max staleness.
+   */
+  BOUNDED_STALE
+}
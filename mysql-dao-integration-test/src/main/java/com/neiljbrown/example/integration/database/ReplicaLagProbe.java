@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+/**
+ * Measures how far a replica database lags behind the primary, i.e. how stale the data read from the replica may be.
+ * Used by a {@link RoutingDataSource} to decide whether a replica is eligible to serve reads.
+ */
+@FunctionalInterface
+public interface ReplicaLagProbe {
+
+  /**
+   * Probe for a MySQL replica, which reports the replica's Seconds_Behind_Master. The replica is reported as not
+   * replicating (null) if it isn't configured as a replica, or its replication SQL thread isn't running.
+   */
+  ReplicaLagProbe MYSQL = connection -> {
+    try (Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery("SHOW SLAVE STATUS")) {
+      if (!resultSet.next()) {
+        return null;
+      }
+      final long secondsBehindMaster = resultSet.getLong("Seconds_Behind_Master");
+      return resultSet.wasNull() ? null : Duration.ofSeconds(secondsBehindMaster);
+    }
+  };
+
+  /**
+   * Measures the lag of a replica.
+   *
+   * @param connection a connection to the replica.
+   * @return the replica's lag behind the primary, or null if it's unknown, e.g. because the replica isn't
+   * replicating, in which case the replica is considered unhealthy.
+   * @throws SQLException if an error occurs measuring the lag, in which case the replica is considered unhealthy.
+   */
+  Duration measureLag(Connection connection) throws SQLException;
+}
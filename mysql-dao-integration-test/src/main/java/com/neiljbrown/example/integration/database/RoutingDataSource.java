@@ -0,0 +1,380 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * A {@link DataSource} which routes reads across a set of replica databases, and all other use of the database to the
+ * primary.
+ *
+ * <h2>Routing</h2>
+ * {@link #getConnection()} always returns a connection to the primary, so the DataSource can be used anywhere a
+ * single database is expected. Reads that can be served by a replica obtain their connection using
+ * {@link #getReadConnection()}. {@link JdbcExecutor} does this for the
+ * {@link QueryType#isReplicaReadable() replica-readable} queries executed by {@link JdbcUserDao}, e.g.
+ * {@code findUserById} and {@code findLastUserId}. Reads that must reflect all committed writes (e.g. a strict read of
+ * the last user ID) obtain their connection using {@link #getPrimaryReadConnection()}. Reads are spread
+ * across the eligible replicas, either in turn, or by selecting the replica with the fewest connections in use (see
+ * {@link RoutingDataSourceConfig.ReplicaSelection}).
+ *
+ * <h2>Fallback to the Primary</h2>
+ * The health and lag of each replica are checked at a regular interval, by a (daemon) thread created by this class.
+ * A replica is only eligible to serve reads if it was healthy and its lag was within the configured max at the last
+ * check. Until the first check completes, no replica is eligible. The first check is made when the DataSource is
+ * created, and skips replicas whose connection pools are started lazily (see {@link DataSourceStartupConfig}) and
+ * haven't been started yet, so creating the DataSource doesn't start them. Such replicas are first checked (and their
+ * pools started) one health-check interval later. A replica from which a connection can't be obtained is immediately
+ * made ineligible until the next check. Reads are served by the primary when there are no eligible replicas.
+ *
+ * <h2>Read Your Writes</h2>
+ * After a thread obtains a connection to the primary using {@link #getConnection()} (e.g. to write), its reads are
+ * served by the primary for a configured window, so that it sees its own writes even if they haven't yet been
+ * replicated. The window applies per thread. Callers that write and then read on different threads (e.g. via an
+ * executor) aren't pinned to the primary.
+ * <p>
+ * The DataSource should be {@link #close() closed} when it's no longer needed. This stops the health checks and
+ * closes the primary and replica DataSources.
+ */
+public class RoutingDataSource implements DataSource, AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(RoutingDataSource.class);
+
+  private final DataSource primary;
+  private final List<Replica> replicas;
+  private final RoutingDataSourceConfig.ReplicaSelection replicaSelection;
+  private final long maxReplicaLagNanos;
+  private final long readYourWritesWindowNanos;
+  private final ReplicaLagProbe replicaLagProbe;
+  private final AtomicInteger nextReplica = new AtomicInteger();
+  // Time at which each thread last obtained a connection to the primary, or Long.MIN_VALUE if it hasn't
+  private final ThreadLocal<long[]> lastPrimaryConnectionNanos = ThreadLocal.withInitial(() ->
+    new long[] {Long.MIN_VALUE});
+  private final ScheduledExecutorService healthChecker;
+
+  /**
+   * @param primary the DataSource for the primary database.
+   * @param replicas the DataSources for the replica databases. May be empty, in which case all reads are served by
+   * the primary.
+   * @param config the configuration of the routing.
+   */
+  public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas, RoutingDataSourceConfig config) {
+    this.primary = Objects.requireNonNull(primary, "primary must not be null.");
+    Objects.requireNonNull(replicas, "replicas must not be null.");
+    Objects.requireNonNull(config, "config must not be null.");
+    this.replicas = new ArrayList<>(replicas.size());
+    for (DataSource replica : replicas) {
+      this.replicas.add(new Replica("replica-" + (this.replicas.size() + 1),
+        Objects.requireNonNull(replica, "replicas must not contain null.")));
+    }
+    this.replicaSelection = config.getReplicaSelection();
+    this.maxReplicaLagNanos = config.getMaxReplicaLag().toNanos();
+    this.readYourWritesWindowNanos = config.getReadYourWritesWindow().toNanos();
+    this.replicaLagProbe = config.getReplicaLagProbe();
+    if (this.replicas.isEmpty()) {
+      this.healthChecker = null;
+    } else {
+      this.healthChecker = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("routing-data-source-health-check").setDaemon(true).build());
+      // The first check skips replicas whose pools haven't been started, so a lazily started pool isn't started here
+      this.healthChecker.execute(() -> checkReplicas(false));
+      final long healthCheckIntervalMillis = config.getHealthCheckInterval().toMillis();
+      this.healthChecker.scheduleWithFixedDelay(this::checkReplicas, healthCheckIntervalMillis,
+        healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns a connection to the primary database. The calling thread's subsequent reads are served by the primary
+   * for the configured read-your-writes window.
+   *
+   * @return a connection to the primary.
+   * @throws SQLException if a connection can't be obtained.
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    if (this.readYourWritesWindowNanos > 0) {
+      this.lastPrimaryConnectionNanos.get()[0] = System.nanoTime();
+    }
+    return this.primary.getConnection();
+  }
+
+  /**
+   * Returns a connection to the primary database, using the supplied credentials.
+   *
+   * @see #getConnection()
+   */
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    if (this.readYourWritesWindowNanos > 0) {
+      this.lastPrimaryConnectionNanos.get()[0] = System.nanoTime();
+    }
+    return this.primary.getConnection(username, password);
+  }
+
+  /**
+   * Returns a connection with which to read from the database. The connection is to an eligible replica, if any, and
+   * otherwise to the primary. The connection is to the primary if the calling thread obtained a connection to the
+   * primary within the read-your-writes window.
+   *
+   * @return a connection to a replica, or to the primary.
+   * @throws SQLException if a connection to the primary is needed, and can't be obtained.
+   */
+  public Connection getReadConnection() throws SQLException {
+    if (!this.replicas.isEmpty() && !isWithinReadYourWritesWindow()) {
+      final Replica replica = selectReplica();
+      if (replica != null) {
+        try {
+          return replica.dataSource.getConnection();
+        } catch (SQLException sqle) {
+          logger.warn("Failed to obtain connection to {}. Routing reads to the primary until the next check.",
+            replica.name, sqle);
+          replica.eligible = false;
+        }
+      }
+    }
+    return this.primary.getConnection();
+  }
+
+  /**
+   * Returns a connection with which to read from the primary database, for reads that must reflect all committed
+   * writes. Unlike {@link #getConnection()}, the calling thread's subsequent reads aren't served by the primary as a
+   * result.
+   *
+   * @return a connection to the primary.
+   * @throws SQLException if a connection can't be obtained.
+   */
+  public Connection getPrimaryReadConnection() throws SQLException {
+    return this.primary.getConnection();
+  }
+
+  /**
+   * @return the no. of replicas that are currently eligible to serve reads.
+   */
+  public int getEligibleReplicaCount() {
+    return (int) this.replicas.stream().filter(replica -> replica.eligible).count();
+  }
+
+  /**
+   * Stops checking the health of the replicas, and closes the primary and replica DataSources, if they're closeable.
+   */
+  @Override
+  public void close() {
+    if (this.healthChecker != null) {
+      this.healthChecker.shutdownNow();
+    }
+    this.replicas.forEach(replica -> closeQuietly(replica.dataSource));
+    closeQuietly(this.primary);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return this.primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    this.primary.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    this.primary.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return this.primary.getLoginTimeout();
+  }
+
+  @Override
+  public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return this.primary.getParentLogger();
+  }
+
+  /**
+   * Unwraps this DataSource, or else the primary DataSource, e.g. to obtain the primary's connection pool.
+   */
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return iface.isInstance(this) ? iface.cast(this) : this.primary.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || this.primary.isWrapperFor(iface);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("primary", primary)
+      .add("replicas", replicas)
+      .add("replicaSelection", replicaSelection)
+      .toString();
+  }
+
+  /**
+   * Checks the health and lag of each replica, updating whether it's eligible to serve reads.
+   */
+  void checkReplicas() {
+    checkReplicas(true);
+  }
+
+  /**
+   * @param includeUnstartedPools whether to check replicas whose pools haven't been started, which starts them.
+   */
+  private void checkReplicas(boolean includeUnstartedPools) {
+    for (Replica replica : this.replicas) {
+      if (!includeUnstartedPools && !replica.isPoolStarted()) {
+        continue;
+      }
+      boolean eligible = false;
+      String reason;
+      try (Connection connection = replica.dataSource.getConnection()) {
+        final Duration lag = this.replicaLagProbe.measureLag(connection);
+        replica.lag = lag;
+        if (lag == null) {
+          reason = "replication status is unknown";
+        } else if (lag.toNanos() > this.maxReplicaLagNanos) {
+          reason = "lag of " + lag + " exceeds max";
+        } else {
+          eligible = true;
+          reason = "lag of " + lag;
+        }
+      } catch (SQLException | RuntimeException e) {
+        replica.lag = null;
+        reason = "check failed - " + e;
+      }
+      if (eligible != replica.eligible) {
+        logger.info("{} is now {} to serve reads - {}.", replica.name, eligible ? "eligible" : "ineligible", reason);
+      }
+      replica.eligible = eligible;
+    }
+  }
+
+  private boolean isWithinReadYourWritesWindow() {
+    if (this.readYourWritesWindowNanos == 0) {
+      return false;
+    }
+    final long lastNanos = this.lastPrimaryConnectionNanos.get()[0];
+    return lastNanos != Long.MIN_VALUE && System.nanoTime() - lastNanos < this.readYourWritesWindowNanos;
+  }
+
+  /**
+   * @return the eligible replica selected to serve a read, or null if there are no eligible replicas.
+   */
+  private Replica selectReplica() {
+    final int replicaCount = this.replicas.size();
+    // Start from the next replica in turn, so the replicas are used in turn, and ties are broken in turn
+    final int start = Math.floorMod(this.nextReplica.getAndIncrement(), replicaCount);
+    Replica selected = null;
+    int selectedActiveConnections = Integer.MAX_VALUE;
+    for (int i = 0; i < replicaCount; i++) {
+      final Replica replica = this.replicas.get((start + i) % replicaCount);
+      if (!replica.eligible) {
+        continue;
+      }
+      if (this.replicaSelection == RoutingDataSourceConfig.ReplicaSelection.ROUND_ROBIN) {
+        return replica;
+      }
+      final int activeConnections = replica.getActiveConnections();
+      if (activeConnections < selectedActiveConnections) {
+        selected = replica;
+        selectedActiveConnections = activeConnections;
+      }
+    }
+    return selected;
+  }
+
+  private static void closeQuietly(DataSource dataSource) {
+    if (dataSource instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) dataSource).close();
+      } catch (Exception e) {
+        logger.warn("Error closing DataSource [{}].", dataSource, e);
+      }
+    }
+  }
+
+  /**
+   * A replica database, and its current state.
+   */
+  private static final class Replica {
+
+    private final String name;
+    private final DataSource dataSource;
+    private volatile boolean eligible;
+    private volatile Duration lag;
+
+    Replica(String name, DataSource dataSource) {
+      this.name = name;
+      this.dataSource = dataSource;
+    }
+
+    /**
+     * @return the no. of connections to the replica that are in use, or 0 if it's unknown, e.g. because the replica's
+     * pool is started lazily and hasn't been started yet.
+     */
+    int getActiveConnections() {
+      final HikariPoolMXBean pool = getPool();
+      return pool != null ? pool.getActiveConnections() : 0;
+    }
+
+    /**
+     * @return false if the replica's pool is started lazily, and hasn't been started yet, otherwise true.
+     */
+    boolean isPoolStarted() {
+      return !(this.dataSource instanceof HikariDataSource) || getPool() != null;
+    }
+
+    private HikariPoolMXBean getPool() {
+      // The pool is looked up each time, as a lazily started DataSource doesn't have one until it's first used
+      return this.dataSource instanceof HikariDataSource ?
+        ((HikariDataSource) this.dataSource).getHikariPoolMXBean() : null;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+        .add("name", name)
+        .add("eligible", eligible)
+        .add("lag", lag)
+        .toString();
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of a {@link RoutingDataSource}. Each property has a default value that's used unless it's
+ * overridden. The configuration is copied when the DataSource is created.
+ */
+public class RoutingDataSourceConfig {
+
+  /** Default max lag of a replica behind the primary for it to serve reads. */
+  public static final Duration DEFAULT_MAX_REPLICA_LAG = Duration.ofSeconds(5);
+
+  /** Default period after a caller writes during which its reads are served by the primary. */
+  public static final Duration DEFAULT_READ_YOUR_WRITES_WINDOW = Duration.ofSeconds(5);
+
+  /** Default interval at which the health and lag of the replicas are checked. */
+  public static final Duration DEFAULT_HEALTH_CHECK_INTERVAL = Duration.ofSeconds(5);
+
+  /**
+   * Strategies for selecting the replica which serves a read.
+   */
+  public enum ReplicaSelection {
+    /** Select each of the eligible replicas in turn. */
+    ROUND_ROBIN,
+    /** Select the eligible replica with the fewest connections in use, breaking ties in turn. */
+    LEAST_ACTIVE_CONNECTIONS
+  }
+
+  private ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+  private Duration maxReplicaLag = DEFAULT_MAX_REPLICA_LAG;
+  private Duration readYourWritesWindow = DEFAULT_READ_YOUR_WRITES_WINDOW;
+  private Duration healthCheckInterval = DEFAULT_HEALTH_CHECK_INTERVAL;
+  private ReplicaLagProbe replicaLagProbe = ReplicaLagProbe.MYSQL;
+
+  /**
+   * @return the strategy for selecting the replica which serves a read.
+   */
+  public ReplicaSelection getReplicaSelection() {
+    return this.replicaSelection;
+  }
+
+  /**
+   * @param replicaSelection the strategy for selecting the replica which serves a read. Defaults to
+   * {@link ReplicaSelection#ROUND_ROBIN}.
+   */
+  public void setReplicaSelection(ReplicaSelection replicaSelection) {
+    this.replicaSelection = Objects.requireNonNull(replicaSelection, "replicaSelection must not be null.");
+  }
+
+  /**
+   * @return the max lag of a replica behind the primary for it to serve reads.
+   */
+  public Duration getMaxReplicaLag() {
+    return this.maxReplicaLag;
+  }
+
+  /**
+   * @param maxReplicaLag the max lag of a replica behind the primary for it to serve reads. Replicas that lag further
+   * behind are excluded from routing until they catch up. Must not be negative.
+   */
+  public void setMaxReplicaLag(Duration maxReplicaLag) {
+    Preconditions.checkArgument(maxReplicaLag != null && !maxReplicaLag.isNegative(),
+      "maxReplicaLag must not be negative.");
+    this.maxReplicaLag = maxReplicaLag;
+  }
+
+  /**
+   * @return the period after a caller writes during which its reads are served by the primary.
+   */
+  public Duration getReadYourWritesWindow() {
+    return this.readYourWritesWindow;
+  }
+
+  /**
+   * @param readYourWritesWindow the period after a caller (thread) writes during which its reads are served by the
+   * primary, so that it sees its own writes, even if they haven't yet been replicated. Should be at least the max
+   * replica lag. Zero to disable. Must not be negative.
+   */
+  public void setReadYourWritesWindow(Duration readYourWritesWindow) {
+    Preconditions.checkArgument(readYourWritesWindow != null && !readYourWritesWindow.isNegative(),
+      "readYourWritesWindow must not be negative.");
+    this.readYourWritesWindow = readYourWritesWindow;
+  }
+
+  /**
+   * @return the interval at which the health and lag of the replicas are checked.
+   */
+  public Duration getHealthCheckInterval() {
+    return this.healthCheckInterval;
+  }
+
+  /**
+   * @param healthCheckInterval the interval at which the health and lag of the replicas are checked. Must be at least
+   * 1ms.
+   */
+  public void setHealthCheckInterval(Duration healthCheckInterval) {
+    Preconditions.checkArgument(healthCheckInterval != null && healthCheckInterval.toMillis() >= 1,
+      "healthCheckInterval must be at least 1ms.");
+    this.healthCheckInterval = healthCheckInterval;
+  }
+
+  /**
+   * @return the probe used to measure the lag of each replica.
+   */
+  public ReplicaLagProbe getReplicaLagProbe() {
+    return this.replicaLagProbe;
+  }
+
+  /**
+   * @param replicaLagProbe the probe used to measure the lag of each replica. Defaults to
+   * {@link ReplicaLagProbe#MYSQL}.
+   */
+  public void setReplicaLagProbe(ReplicaLagProbe replicaLagProbe) {
+    this.replicaLagProbe = Objects.requireNonNull(replicaLagProbe, "replicaLagProbe must not be null.");
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("replicaSelection", replicaSelection)
+      .add("maxReplicaLag", maxReplicaLag)
+      .add("readYourWritesWindow", readYourWritesWindow)
+      .add("healthCheckInterval", healthCheckInterval)
+      .add("replicaLagProbe", replicaLagProbe)
+      .toString();
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a JDBC {@link ResultSet} to an object. Implementations should not advance or close the
+ * result set - that's the responsibility of the {@link JdbcExecutor}.
+ *
+ * @param <T> the type of object each row is mapped to.
+ */
+@FunctionalInterface
+interface RowMapper<T> {
+
+  /**
+   * @param resultSet the result set, positioned on the row to be mapped.
+   * @return the object the current row was mapped to.
+   * @throws SQLException if an error occurs reading the row.
+   */
+  T mapRow(ResultSet resultSet) throws SQLException;
+}
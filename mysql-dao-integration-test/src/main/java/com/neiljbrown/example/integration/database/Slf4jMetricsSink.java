@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MetricsSink} which writes each snapshot of metrics to an SLF4J logger, at INFO level.
+ * <p>
+ * Each non-empty histogram is logged as a separate line containing its count and percentiles, followed by a line
+ * containing the non-zero counters, and a line containing the gauges. Nothing is logged if the logger isn't enabled
+ * for INFO.
+ */
+public class Slf4jMetricsSink implements MetricsSink {
+
+  private final Logger logger;
+
+  /**
+   * Creates a sink which writes to the logger named after this class.
+   */
+  public Slf4jMetricsSink() {
+    this(LoggerFactory.getLogger(Slf4jMetricsSink.class));
+  }
+
+  /**
+   * @param logger the logger to write to.
+   */
+  public Slf4jMetricsSink(Logger logger) {
+    this.logger = Objects.requireNonNull(logger, "logger must not be null.");
+  }
+
+  @Override
+  public void report(MetricsSnapshot snapshot) {
+    if (!this.logger.isInfoEnabled()) {
+      return;
+    }
+    final long intervalMillis = snapshot.getEndTimeMillis() - snapshot.getStartTimeMillis();
+    for (Map.Entry<String, MetricsSnapshot.HistogramSummary> histogram : snapshot.getHistograms().entrySet()) {
+      final MetricsSnapshot.HistogramSummary summary = histogram.getValue();
+      if (summary.getCount() > 0) {
+        this.logger.info("{} - count={}, min={}, p50={}, p90={}, p99={}, p999={}, max={} over {} ms.",
+          histogram.getKey(), summary.getCount(), summary.getMin(), summary.getP50(), summary.getP90(),
+          summary.getP99(), summary.getP999(), summary.getMax(), intervalMillis);
+      }
+    }
+    final StringBuilder counters = new StringBuilder();
+    snapshot.getCounters().forEach((name, count) -> {
+      if (count != 0) {
+        counters.append(counters.length() == 0 ? "" : ", ").append(name).append('=').append(count);
+      }
+    });
+    if (counters.length() > 0) {
+      this.logger.info("Counters - {} over {} ms.", counters, intervalMillis);
+    }
+    if (!snapshot.getGauges().isEmpty()) {
+      this.logger.info("Gauges - {}.", snapshot.getGauges());
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds the values of the parameters of a {@link PreparedStatement} before it's executed.
+ */
+@FunctionalInterface
+interface StatementBinder {
+
+  /** A binder for statements that don't have any parameters. */
+  StatementBinder NO_PARAMS = preparedStatement -> { };
+
+  /**
+   * @param preparedStatement the statement whose parameters should be bound.
+   * @throws SQLException if an error occurs binding a parameter.
+   */
+  void bind(PreparedStatement preparedStatement) throws SQLException;
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.neiljbrown.example.business.domain.EmailAddresses;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * Data Access Object (DAO) for storing and retrieving {@link User users}.
+ * <p>
+ * {@link JdbcUserDao} provides the implementation that accesses the service's relational database. Other
+ * implementations decorate another UserDao to add behaviour such as caching.
+ */
+public interface UserDao {
+
+  /**
+   * Finds a {@link User user} by their unique id.
+   *
+   * @param userId the unique ID of the user.
+   * @return an Optional of {@link User user}, empty if the {code userId} doesn't identify an existing user.
+   */
+  Optional<User> findUserById(long userId);
+
+  /**
+   * Finds the {@link User users} identified by a collection of unique ids.
+   *
+   * @param userIds the unique IDs of the users. Each ID must be greater than 0. Duplicates are ignored.
+   * @return a map of the found {@link User users} keyed by their id. IDs which don't identify an existing user are
+   * omitted. Empty if no users were found.
+   */
+  Map<Long, User> findUsersByIds(Collection<Long> userIds);
+
+  /**
+   * Finds a {@link User user} by their unique email address.
+   *
+   * @param email the email address of the user. Compared case-insensitively, ignoring leading and trailing whitespace
+   * (see {@link EmailAddresses#normalise(String)}).
+   * @return an Optional of {@link User user}, empty if the {code email} doesn't belong to an existing user.
+   */
+  Optional<User> findUserByEmail(String email);
+
+  /**
+   * Finds the {@link User users} identified by a collection of unique email addresses.
+   *
+   * @param emails the email addresses of the users. Compared case-insensitively, ignoring leading and trailing
+   * whitespace (see {@link EmailAddresses#normalise(String)}). Duplicates are ignored.
+   * @return a map of the found {@link User users} keyed by their {@link EmailAddresses#normalise(String) normalised}
+   * email address. Emails which don't belong to an existing user are omitted. Empty if no users were found.
+   */
+  Map<String, User> findUsersByEmails(Collection<String> emails);
+
+  /**
+   * @return the user ID of the last (most recently created) user.
+   */
+  long findLastUserId();
+
+  /**
+   * Returns a stream of all users whose id is greater than a given id, in ascending order of their id. The stream
+   * should be closed once it's no longer needed.
+   *
+   * @param userId the id after which to start the stream. Zero to stream all users.
+   * @return a sequential stream of the users with an id greater than {@code userId}.
+   */
+  Stream<User> streamUsersAfter(long userId);
+
+  /**
+   * Returns a stream of all users, in ascending order of their id. The stream should be closed once it's no longer
+   * needed.
+   *
+   * @return a sequential stream of all users.
+   */
+  default Stream<User> streamAllUsers() {
+    return streamUsersAfter(0);
+  }
+
+  /**
+   * Creates (inserts) a single new user.
+   *
+   * @param newUser the details of the new user.
+   * @return the created {@link User}, including its generated id.
+   */
+  User createUser(NewUser newUser);
+
+  /**
+   * Creates (inserts) a list of new users in bulk. Users that can't be created, e.g. because their email is already
+   * in use, are rejected without preventing the other users being created.
+   *
+   * @param newUsers the details of the new users.
+   * @return the result of creating the users - the created users, and any that were rejected.
+   */
+  CreateUsersResult createUsers(List<NewUser> newUsers);
+
+  /**
+   * Updates (the names of) an existing user.
+   *
+   * @param user the user, identified by their id, containing the updated details.
+   * @return true if the user was updated, or false if the user doesn't exist. Implementations that defer writing the
+   * update return true once it's accepted.
+   */
+  boolean updateUser(User user);
+
+  /**
+   * Updates (the names of) a collection of existing users in bulk. Users that don't exist are ignored.
+   *
+   * @param users the users, identified by their id, containing the updated details. Should contain at most one user
+   * with each id, as the order in which the updates are applied isn't defined.
+   * @return the no. of users updated, or -1 if the no. isn't known, e.g. because the updates were deferred.
+   */
+  int updateUsers(Collection<User> users);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import com.neiljbrown.example.business.domain.UserView;
+
+/**
+ * The subsets (projections) of a user's details that can be retrieved as a {@link UserView}.
+ * <p>
+ * Each projection selects an explicit list of columns, so that columns which aren't needed aren't transferred from
+ * the database, and maps each row by column position rather than name, avoiding a lookup of each column's name for
+ * every column of every row.
+ */
+public enum UserProjection {
+
+  /** The user's id only, e.g. to check which users exist. */
+  ID_ONLY("u.id", resultSet -> new UserView(resultSet.getLong(1), null, null, null)),
+
+  /** The user's id and name. */
+  NAME("u.id, u.first_name, u.last_name", resultSet ->
+    new UserView(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3), null)),
+
+  /** All of the user's details, including their email address. */
+  FULL("u.id, u.first_name, u.last_name, u.email", resultSet ->
+    new UserView(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4)));
+
+  private final String columns;
+  private final RowMapper<UserView> rowMapper;
+
+  UserProjection(String columns, RowMapper<UserView> rowMapper) {
+    this.columns = columns;
+    this.rowMapper = rowMapper;
+  }
+
+  /**
+   * @return the comma-separated list of the columns selected by the projection, qualified by the alias 'u' of the
+   * user table, in the order in which they're mapped.
+   */
+  String getColumns() {
+    return this.columns;
+  }
+
+  /**
+   * @return the mapper of a row selected using the projection's {@link #getColumns() columns}.
+   */
+  RowMapper<UserView> getRowMapper() {
+    return this.rowMapper;
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * A read-only, in-memory snapshot of all users, for batch jobs that look up (many) users by id, and can tolerate
+ * reading users as of the last refresh, rather than executing a query per lookup.
+ * <p>
+ * The snapshot is loaded using a streaming (paged) scan of the users ({@link UserDao#streamUsersAfter(long)}), and is
+ * held in a compact structure of primitive arrays, rather than a map of {@link User} objects -
+ * <ul>
+ *   <li>The users' ids, in ascending order, in a {@code long[]}. A user is found by binary search, without boxing.</li>
+ *   <li>The users' first and last names, encoded in UTF-8, packed one after another in a single {@code byte[]}, with
+ *   the offset of each name in an {@code int[]}.</li>
+ * </ul>
+ * A {@link User} is only created when a user is looked up. For a million users with names of ~10 ASCII chars, the
+ * snapshot's arrays retain ~40 MB of heap (~40 bytes per user, which can grow by up to 50% with spare capacity),
+ * compared to ~210 MB for a {@code HashMap<Long, User>} of the same users (a map entry, boxed id, user, and two strings
+ * each).
+ *
+ * <h2>Refresh</h2>
+ * The snapshot is empty until it's first {@link #refresh() refreshed}. Each refresh loads only the users created since
+ * the last, by scanning the users whose id is above the snapshot's high-water mark (the highest id it holds), relying
+ * on ids being allocated in ascending order. Changes to existing users (e.g. updates of their names) aren't loaded by
+ * a refresh - the snapshot must be {@link #reload() reloaded} in full to reflect them.
+ * <p>
+ * Lookups are thread-safe, and aren't blocked by a concurrent refresh. Each lookup reads the snapshot as of the last
+ * completed refresh. Refreshes are executed one at a time.
+ */
+public class UserSnapshot {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int INITIAL_NAMES_CAPACITY = INITIAL_CAPACITY * 16;
+
+  private final UserDao userDao;
+  private final Object refreshLock = new Object();
+  // The users as of the last refresh. Replaced by each refresh.
+  private volatile Users users = new Users(new long[0], new int[] {0}, new byte[0], 0);
+
+  /**
+   * Creates an empty snapshot.
+   *
+   * @param userDao the DAO used to load users.
+   */
+  public UserSnapshot(UserDao userDao) {
+    this.userDao = Objects.requireNonNull(userDao, "userDao must not be null.");
+  }
+
+  /**
+   * Loads the users created since the snapshot was last refreshed (or all users, on the first refresh).
+   *
+   * @return the no. of users loaded.
+   */
+  public int refresh() {
+    synchronized (this.refreshLock) {
+      final Users users = this.users;
+      final Users refreshedUsers = load(new Appender(users));
+      this.users = refreshedUsers;
+      return refreshedUsers.size - users.size;
+    }
+  }
+
+  /**
+   * Discards the snapshot, and loads all users again, to reflect changes to existing users. Lookups continue to be
+   * served by the existing snapshot until the reload completes.
+   *
+   * @return the no. of users loaded.
+   */
+  public int reload() {
+    synchronized (this.refreshLock) {
+      final Users reloadedUsers = load(new Appender(null));
+      this.users = reloadedUsers;
+      return reloadedUsers.size;
+    }
+  }
+
+  /**
+   * Finds a {@link User user} in the snapshot, by their unique id.
+   *
+   * @param userId the unique ID of the user.
+   * @return an Optional of {@link User user}, empty if the {code userId} doesn't identify a user in the snapshot.
+   */
+  public Optional<User> findUserById(long userId) {
+    final Users users = this.users;
+    final int index = Arrays.binarySearch(users.ids, 0, users.size, userId);
+    return index >= 0 ? Optional.of(users.get(index)) : Optional.empty();
+  }
+
+  /**
+   * @param userId the unique ID of a user.
+   * @return true if the user is in the snapshot.
+   */
+  public boolean containsUser(long userId) {
+    final Users users = this.users;
+    return Arrays.binarySearch(users.ids, 0, users.size, userId) >= 0;
+  }
+
+  /**
+   * @return the no. of users in the snapshot.
+   */
+  public int size() {
+    return this.users.size;
+  }
+
+  /**
+   * @return the highest id of the users in the snapshot, or 0 if it's empty.
+   */
+  public long getHighWaterMark() {
+    final Users users = this.users;
+    return users.size > 0 ? users.ids[users.size - 1] : 0;
+  }
+
+  /**
+   * @return the no. of bytes allocated to the arrays holding the snapshot's users, including spare capacity, excluding
+   * the arrays' headers.
+   */
+  public long getAllocatedBytes() {
+    final Users users = this.users;
+    return (long) users.ids.length * Long.BYTES + (long) users.nameOffsets.length * Integer.BYTES + users.names.length;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("size", size())
+      .add("highWaterMark", getHighWaterMark())
+      .add("allocatedBytes", getAllocatedBytes())
+      .toString();
+  }
+
+  private Users load(Appender appender) {
+    try (Stream<User> stream = this.userDao.streamUsersAfter(appender.highWaterMark)) {
+      stream.forEach(appender::append);
+    }
+    return appender.toUsers();
+  }
+
+  /**
+   * An immutable view of the users in the snapshot. The arrays may have spare capacity beyond the users in the view,
+   * to which a refresh appends users before publishing a new view.
+   */
+  private static final class Users {
+
+    final long[] ids;
+    // Offsets of the users' names in the names array. The first name of the user at index i starts at offset 2i, and
+    // their last name at offset 2i + 1. Each name ends at the offset of the next.
+    final int[] nameOffsets;
+    final byte[] names;
+    final int size;
+
+    Users(long[] ids, int[] nameOffsets, byte[] names, int size) {
+      this.ids = ids;
+      this.nameOffsets = nameOffsets;
+      this.names = names;
+      this.size = size;
+    }
+
+    User get(int index) {
+      return new User(this.ids[index], name(2 * index), name(2 * index + 1));
+    }
+
+    private String name(int nameIndex) {
+      final int offset = this.nameOffsets[nameIndex];
+      return new String(this.names, offset, this.nameOffsets[nameIndex + 1] - offset, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Appends users to the arrays of an existing view, growing them as required, without modifying the users in the
+   * view.
+   */
+  private static final class Appender {
+
+    private long[] ids;
+    private int[] nameOffsets;
+    private byte[] names;
+    private int size;
+    private long highWaterMark;
+
+    /**
+     * @param users the view to append to, or null to create new arrays.
+     */
+    Appender(Users users) {
+      if (users == null || users.size == 0) {
+        this.ids = new long[INITIAL_CAPACITY];
+        this.nameOffsets = new int[2 * INITIAL_CAPACITY + 1];
+        this.names = new byte[INITIAL_NAMES_CAPACITY];
+      } else {
+        this.ids = users.ids;
+        this.nameOffsets = users.nameOffsets;
+        this.names = users.names;
+        this.size = users.size;
+        this.highWaterMark = users.ids[users.size - 1];
+      }
+    }
+
+    void append(User user) {
+      Preconditions.checkState(user.getId() > this.highWaterMark,
+        "Users must be loaded in ascending order of id, but user id [%s] followed [%s].", user.getId(),
+        this.highWaterMark);
+      if (this.size == this.ids.length) {
+        final int capacity = this.size + (this.size >> 1);
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.nameOffsets = Arrays.copyOf(this.nameOffsets, 2 * capacity + 1);
+      }
+      this.ids[this.size] = user.getId();
+      appendName(2 * this.size, user.getFirstName());
+      appendName(2 * this.size + 1, user.getLastName());
+      this.size++;
+      this.highWaterMark = user.getId();
+    }
+
+    Users toUsers() {
+      return new Users(this.ids, this.nameOffsets, this.names, this.size);
+    }
+
+    private void appendName(int nameIndex, String name) {
+      final byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+      final int offset = this.nameOffsets[nameIndex];
+      if (offset + encodedName.length > this.names.length) {
+        this.names = Arrays.copyOf(this.names, Math.max(offset + encodedName.length,
+          this.names.length + (this.names.length >> 1)));
+      }
+      System.arraycopy(encodedName, 0, this.names, offset, encodedName.length);
+      this.nameOffsets[nameIndex + 1] = offset + encodedName.length;
+    }
+  }
+}
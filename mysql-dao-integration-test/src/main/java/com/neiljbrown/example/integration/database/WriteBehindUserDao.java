@@ -0,0 +1,596 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * A {@link UserDao} which decorates another (typically a {@link JdbcUserDao}) with write-behind of updates to users
+ * (e.g. changes to their names), to reduce the no. of transactions executed against the database when users are
+ * updated frequently.
+ *
+ * <h2>Coalescing</h2>
+ * An update ({@link #updateUser(User)}) is queued in memory rather than written immediately, and replaces any update
+ * of the same user that's already pending. Pending updates are flushed to the database periodically, at the
+ * configured flush interval, so repeated updates of a user within the interval are collapsed into the last one. Each
+ * flush writes the surviving updates in bulk ({@link UserDao#updateUsers(Collection)}), which a {@link JdbcUserDao}
+ * does using a single JDBC batch, in a single transaction. Flushes are executed one at a time by a dedicated thread,
+ * so the writes use at most one of the pool's connections at a time.
+ *
+ * <h2>Backpressure</h2>
+ * The no. of users with pending updates is bounded. Once the limit is reached a flush is started early, and updates of
+ * other users wait for it to make space, up to a configured max wait, after which they're rejected with a
+ * {@link RejectedExecutionException}.
+ *
+ * <h2>Read-your-writes</h2>
+ * Users read through this DAO reflect the updates that are pending or being flushed, so callers see their own writes
+ * before they reach the database. (Reads made directly against the database, or via another DAO, don't.) Updates of
+ * users that don't exist are ignored when they're flushed, and are never reflected by reads.
+ *
+ * <h2>Failures</h2>
+ * If a flush's batch is rejected by the database because of the data of one of its updates (SQLState class 22 or 23,
+ * e.g. a value too long for its column), its updates are retried one at a time, so that the rejected update doesn't
+ * prevent the others being written. Updates that still fail are re-queued (unless superseded) and retried by the next
+ * flush, up to a configured max no. of attempts, after which they're dropped and logged.
+ * <p>
+ * If a flush's batch fails for any other reason, e.g. a connection can't be obtained, or the database is overloaded,
+ * retrying its updates one at a time would only add to the load, so the whole batch is re-queued (unless superseded)
+ * instead, without using any of its updates' attempts. Periodic flushes are then suspended for a backoff period, which
+ * doubles with each consecutive such failure, up to a configured max. Meanwhile updates continue to be queued.
+ * <p>
+ * Re-queued updates are subject to the limit on the no. of pending updates; any that don't fit are dropped.
+ * <p>
+ * The DAO should be {@link #close() closed} when it's no longer needed, which flushes any pending updates. Updates that
+ * are pending when the process dies are lost.
+ * <p>
+ * The latency of each flush, and the coalescing ratio (the no. of updates requested per user updated) are reported
+ * via this class's getters. If the decorated DAO is an instrumented {@link JdbcUserDao}, flushes are also recorded in
+ * its {@link JdbcMetrics} as queries of type 'update_users'.
+ */
+public class WriteBehindUserDao implements UserDao, AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(WriteBehindUserDao.class);
+
+  private final UserDao delegate;
+  private final int maxPendingUpdates;
+  private final long maxEnqueueWaitNanos;
+  private final int maxFlushAttempts;
+  private final long flushIntervalNanos;
+  private final long maxFlushBackoffNanos;
+  private final ScheduledExecutorService flushExecutor;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = this.lock.newCondition();
+  // Serialises flushes, which can be triggered by the flush thread and by callers of flush() or close()
+  private final Object flushLock = new Object();
+  // Latest pending update of each user, keyed by user id. Only modified, or replaced, while holding the lock.
+  private volatile Map<Long, User> pendingUpdates = new ConcurrentHashMap<>();
+  // Updates of the flush that's executing, keyed by user id. Not modified once assigned.
+  private volatile Map<Long, User> flushingUpdates = Collections.emptyMap();
+  // No. of failed attempts to write each update re-queued by the last flush, keyed by the (instance of the) update, so
+  // that a superseding update of the same user starts afresh. Guarded by flushLock.
+  private Map<User, Integer> failedAttempts = Collections.emptyMap();
+  // No. of consecutive flushes whose batch failed with a transient error. Guarded by flushLock.
+  private int consecutiveTransientFailures;
+  // Time (System.nanoTime()) until which periodic flushes are suspended, following a transient failure
+  private volatile long backoffUntilNanos;
+  // Guarded by lock
+  private boolean earlyFlushRequested;
+  private boolean closed;
+  private final AtomicLong updateCount = new AtomicLong();
+  private final AtomicLong coalescedUpdateCount = new AtomicLong();
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong failedFlushCount = new AtomicLong();
+  private final AtomicLong flushedUpdateCount = new AtomicLong();
+  private final AtomicLong droppedUpdateCount = new AtomicLong();
+  private final AtomicLong totalFlushNanos = new AtomicLong();
+  private final AtomicLong maxFlushNanos = new AtomicLong();
+
+  /**
+   * Creates a write-behind DAO with the default configuration.
+   *
+   * @param delegate the DAO used to flush updates, and to which all other operations are delegated.
+   */
+  public WriteBehindUserDao(UserDao delegate) {
+    this(delegate, new WriteBehindUserDaoConfig());
+  }
+
+  /**
+   * @param delegate the DAO used to flush updates, and to which all other operations are delegated.
+   * @param config the configuration of the DAO.
+   */
+  public WriteBehindUserDao(UserDao delegate, WriteBehindUserDaoConfig config) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate must not be null.");
+    Objects.requireNonNull(config, "config must not be null.");
+    this.maxPendingUpdates = config.getMaxPendingUpdates();
+    this.maxEnqueueWaitNanos = config.getMaxEnqueueWait().toNanos();
+    this.maxFlushAttempts = config.getMaxFlushAttempts();
+    this.flushIntervalNanos = config.getFlushInterval().toNanos();
+    this.maxFlushBackoffNanos = config.getMaxFlushBackoff().toNanos();
+    this.backoffUntilNanos = System.nanoTime();
+    this.flushExecutor = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("user-write-behind-flush").setDaemon(true).build());
+    this.flushExecutor.scheduleWithFixedDelay(this::flushQuietly, this.flushIntervalNanos, this.flushIntervalNanos,
+      TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Queues an update of (the names of) an existing user, to be written to the database by the next flush. Replaces any
+   * pending update of the same user. If the queue is full, waits up to the configured max time for space.
+   *
+   * @param user the user, identified by their id, containing the updated details.
+   * @return true, once the update has been queued. Whether the user exists isn't known until the update is flushed.
+   * @throws RejectedExecutionException if the queue of pending updates remained full for the max wait time, or the
+   * calling thread was interrupted while waiting.
+   * @throws IllegalStateException if the DAO has been closed.
+   */
+  @Override
+  public boolean updateUser(User user) {
+    Objects.requireNonNull(user, "user must not be null.");
+    Preconditions.checkArgument(user.getId() > 0, "user id must be greater than 0.");
+    this.lock.lock();
+    try {
+      long remainingWaitNanos = this.maxEnqueueWaitNanos;
+      while (true) {
+        Preconditions.checkState(!this.closed, "DAO is closed.");
+        if (this.pendingUpdates.size() < this.maxPendingUpdates || this.pendingUpdates.containsKey(user.getId())) {
+          break;
+        }
+        if (!this.earlyFlushRequested) {
+          this.earlyFlushRequested = true;
+          this.flushExecutor.execute(this::flushQuietly);
+        }
+        if (remainingWaitNanos <= 0) {
+          throw new RejectedExecutionException("Queue of pending updates is full (" + this.maxPendingUpdates + ").");
+        }
+        try {
+          remainingWaitNanos = this.notFull.awaitNanos(remainingWaitNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RejectedExecutionException("Interrupted waiting for space in queue of pending updates.", e);
+        }
+      }
+      if (this.pendingUpdates.put(user.getId(), user) != null) {
+        this.coalescedUpdateCount.incrementAndGet();
+      }
+      this.updateCount.incrementAndGet();
+      return true;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Queues updates of (the names of) a collection of existing users, as if each were queued by
+   * {@link #updateUser(User)}. If the queue is full, an update that can't be queued within the max wait time is
+   * rejected, and the updates that follow it aren't queued.
+   *
+   * @param users the users, identified by their id, containing the updated details.
+   * @return -1, as the no. of users updated isn't known until the updates are flushed.
+   * @throws RejectedExecutionException if the queue of pending updates remained full for the max wait time, or the
+   * calling thread was interrupted while waiting.
+   * @throws IllegalStateException if the DAO has been closed.
+   */
+  @Override
+  public int updateUsers(Collection<User> users) {
+    Objects.requireNonNull(users, "users must not be null.");
+    users.forEach(this::updateUser);
+    return -1;
+  }
+
+  /**
+   * Flushes the pending updates to the database now, blocking until they've been written. Flushes even if periodic
+   * flushes are suspended following a transient failure.
+   *
+   * @throws RuntimeException if any of the updates couldn't be written. If the database rejected some of the updates,
+   * the others are written, and those that failed remain pending, unless they've used all their attempts. If the batch
+   * failed for another reason, e.g. a connection couldn't be obtained, all of the updates remain pending.
+   */
+  public void flush() {
+    synchronized (this.flushLock) {
+      final Map<Long, User> batch;
+      this.lock.lock();
+      try {
+        this.earlyFlushRequested = false;
+        if (this.pendingUpdates.isEmpty()) {
+          return;
+        }
+        batch = this.pendingUpdates;
+        // Published before the pending updates are replaced, so concurrent reads don't miss the updates
+        this.flushingUpdates = batch;
+        this.pendingUpdates = new ConcurrentHashMap<>();
+        this.notFull.signalAll();
+      } finally {
+        this.lock.unlock();
+      }
+      final long startNanos = System.nanoTime();
+      try {
+        this.delegate.updateUsers(batch.values());
+        this.failedAttempts = Collections.emptyMap();
+        this.consecutiveTransientFailures = 0;
+        recordFlush(batch.size(), System.nanoTime() - startNanos);
+      } catch (RuntimeException e) {
+        if (!isRejectedData(e)) {
+          requeueAndBackOff(batch);
+          throw e;
+        }
+        this.consecutiveTransientFailures = 0;
+        logger.warn("Failed to flush batch of {} updates of users. Retrying them one at a time.", batch.size(), e);
+        flushEachUpdate(batch, startNanos);
+      } finally {
+        this.flushingUpdates = Collections.emptyMap();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The user reflects any update of the user that's yet to be written to the database.
+   */
+  @Override
+  public Optional<User> findUserById(long userId) {
+    final UnaryOperator<User> overlay = captureOverlay();
+    return this.delegate.findUserById(userId).map(overlay);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The users reflect any updates that are yet to be written to the database.
+   */
+  @Override
+  public Map<Long, User> findUsersByIds(Collection<Long> userIds) {
+    final UnaryOperator<User> overlay = captureOverlay();
+    return this.delegate.findUsersByIds(userIds).values().stream().map(overlay)
+      .collect(Collectors.toMap(User::getId, user -> user));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The user reflects any update of the user that's yet to be written to the database.
+   */
+  @Override
+  public Optional<User> findUserByEmail(String email) {
+    final UnaryOperator<User> overlay = captureOverlay();
+    return this.delegate.findUserByEmail(email).map(overlay);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The users reflect any updates that are yet to be written to the database.
+   */
+  @Override
+  public Map<String, User> findUsersByEmails(Collection<String> emails) {
+    final UnaryOperator<User> overlay = captureOverlay();
+    return this.delegate.findUsersByEmails(emails).entrySet().stream()
+      .collect(Collectors.toMap(Map.Entry::getKey, entry -> overlay.apply(entry.getValue())));
+  }
+
+  @Override
+  public long findLastUserId() {
+    return this.delegate.findLastUserId();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The users reflect any updates that were yet to be written to the database when the stream was created.
+   */
+  @Override
+  public Stream<User> streamUsersAfter(long userId) {
+    final UnaryOperator<User> overlay = captureOverlay();
+    return this.delegate.streamUsersAfter(userId).map(overlay);
+  }
+
+  @Override
+  public User createUser(NewUser newUser) {
+    return this.delegate.createUser(newUser);
+  }
+
+  @Override
+  public CreateUsersResult createUsers(List<NewUser> newUsers) {
+    return this.delegate.createUsers(newUsers);
+  }
+
+  /**
+   * @return the no. of users with updates that are yet to be written to the database, including those being flushed.
+   */
+  public int getPendingUpdateCount() {
+    return this.pendingUpdates.size() + this.flushingUpdates.size();
+  }
+
+  /**
+   * @return the total no. of updates requested of this DAO.
+   */
+  public long getUpdateCount() {
+    return this.updateCount.get();
+  }
+
+  /**
+   * @return the total no. of updates of users written to the database by flushes.
+   */
+  public long getFlushedUpdateCount() {
+    return this.flushedUpdateCount.get();
+  }
+
+  /**
+   * @return the ratio of the no. of updates requested to the no. of (distinct) user updates they were collapsed into,
+   * e.g. 4.0 if each user was updated 4 times within a flush interval on average. 1.0 if no updates were coalesced.
+   */
+  public double getCoalescingRatio() {
+    final long updateCount = this.updateCount.get();
+    final long uncoalescedUpdateCount = updateCount - this.coalescedUpdateCount.get();
+    return uncoalescedUpdateCount == 0 ? 1.0 : (double) updateCount / uncoalescedUpdateCount;
+  }
+
+  /**
+   * @return the total no. of updates of users that were dropped without being written to the database, because they
+   * failed on every attempt, or there was no space to re-queue them.
+   */
+  public long getDroppedUpdateCount() {
+    return this.droppedUpdateCount.get();
+  }
+
+  /**
+   * @return the total no. of successful flushes.
+   */
+  public long getFlushCount() {
+    return this.flushCount.get();
+  }
+
+  /**
+   * @return the total no. of flushes that failed to write one or more of their updates.
+   */
+  public long getFailedFlushCount() {
+    return this.failedFlushCount.get();
+  }
+
+  /**
+   * @return the mean latency of successful flushes - the time taken to write their updates to the database.
+   */
+  public Duration getMeanFlushLatency() {
+    final long flushCount = this.flushCount.get();
+    return Duration.ofNanos(flushCount == 0 ? 0 : this.totalFlushNanos.get() / flushCount);
+  }
+
+  /**
+   * @return the max latency of successful flushes.
+   */
+  public Duration getMaxFlushLatency() {
+    return Duration.ofNanos(this.maxFlushNanos.get());
+  }
+
+  /**
+   * Stops accepting updates, flushes any pending updates to the database, and releases the thread created by this DAO.
+   *
+   * @throws RuntimeException if the pending updates couldn't be written.
+   */
+  @Override
+  public void close() {
+    this.lock.lock();
+    try {
+      this.closed = true;
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+    this.flushExecutor.shutdown();
+    try {
+      if (!this.flushExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+        logger.warn("Timed out waiting for flush in progress to complete.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("pendingUpdateCount", getPendingUpdateCount())
+      .add("updateCount", updateCount.get())
+      .add("coalescingRatio", getCoalescingRatio())
+      .add("flushCount", flushCount.get())
+      .add("failedFlushCount", failedFlushCount.get())
+      .add("droppedUpdateCount", droppedUpdateCount.get())
+      .add("meanFlushLatency", getMeanFlushLatency())
+      .add("maxFlushLatency", getMaxFlushLatency())
+      .toString();
+  }
+
+  /**
+   * Flushes the pending updates, logging rather than throwing any error, for use by the flush thread. Does nothing
+   * while flushes are suspended following a transient failure.
+   */
+  private void flushQuietly() {
+    if (System.nanoTime() - this.backoffUntilNanos < 0) {
+      return;
+    }
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      logger.error("Failed to flush pending updates of users. Retrying failed updates in next flush.", e);
+    }
+  }
+
+  /**
+   * Writes the updates of a failed batch one at a time, re-queuing those that fail, or dropping them if they've used
+   * all their attempts. Must be called holding the flushLock.
+   *
+   * @throws RuntimeException the error from the first update that failed, if any did.
+   */
+  private void flushEachUpdate(Map<Long, User> batch, long startNanos) {
+    final Map<Long, User> failedUpdates = new HashMap<>();
+    final Map<User, Integer> previousFailedAttempts = this.failedAttempts;
+    this.failedAttempts = new IdentityHashMap<>();
+    int flushedCount = 0;
+    RuntimeException firstError = null;
+    for (User user : batch.values()) {
+      try {
+        this.delegate.updateUser(user);
+        flushedCount++;
+      } catch (RuntimeException e) {
+        firstError = firstError != null ? firstError : e;
+        final int attempts = previousFailedAttempts.getOrDefault(user, 0) + 1;
+        if (attempts < this.maxFlushAttempts) {
+          failedUpdates.put(user.getId(), user);
+          this.failedAttempts.put(user, attempts);
+        } else {
+          drop(user, "it failed on each of " + attempts + " attempts", e);
+        }
+      }
+    }
+    requeue(failedUpdates);
+    if (firstError == null) {
+      recordFlush(flushedCount, System.nanoTime() - startNanos);
+      return;
+    }
+    this.failedFlushCount.incrementAndGet();
+    this.flushedUpdateCount.addAndGet(flushedCount);
+    throw firstError;
+  }
+
+  /**
+   * Re-queues all the updates of a batch that failed with a transient error, without using any of their attempts, and
+   * suspends periodic flushes for a backoff period that doubles with each consecutive such failure. Must be called
+   * holding the flushLock.
+   */
+  private void requeueAndBackOff(Map<Long, User> batch) {
+    this.failedFlushCount.incrementAndGet();
+    final int shift = Math.min(this.consecutiveTransientFailures + 1, 16);
+    final long backoffNanos = Math.min(this.flushIntervalNanos << shift, this.maxFlushBackoffNanos);
+    this.consecutiveTransientFailures++;
+    this.backoffUntilNanos = System.nanoTime() + backoffNanos;
+    logger.warn("Failed to flush batch of {} updates of users. Re-queuing them, and suspending flushes for {} ms.",
+      batch.size(), TimeUnit.NANOSECONDS.toMillis(backoffNanos));
+    requeue(batch);
+  }
+
+  /**
+   * Re-queues the failed updates of a flush, unless they've been superseded by a subsequent update of the same user.
+   * Updates for which there's no longer space in the queue of pending updates are dropped.
+   */
+  private void requeue(Map<Long, User> failedUpdates) {
+    this.lock.lock();
+    try {
+      failedUpdates.forEach((userId, user) -> {
+        if (this.pendingUpdates.containsKey(userId)) {
+          return;
+        }
+        if (this.pendingUpdates.size() < this.maxPendingUpdates) {
+          this.pendingUpdates.put(userId, user);
+        } else {
+          drop(user, "the queue of pending updates is full (" + this.maxPendingUpdates + ")", null);
+        }
+      });
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if the exception was caused by the database rejecting the data of an update, e.g. a value too long for
+   * its column (SQLState class 22) or a constraint violation (class 23), rather than by a transient failure, such as a
+   * connection that couldn't be obtained.
+   */
+  private static boolean isRejectedData(RuntimeException e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLException) {
+        for (SQLException sqle = (SQLException) cause; sqle != null; sqle = sqle.getNextException()) {
+          final String sqlState = sqle.getSQLState();
+          if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"))) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private void drop(User user, String reason, RuntimeException error) {
+    this.droppedUpdateCount.incrementAndGet();
+    logger.error("Dropped update of user [{}], as {}.", user.getId(), reason, error);
+  }
+
+  private void recordFlush(int updateCount, long elapsedNanos) {
+    this.flushCount.incrementAndGet();
+    this.flushedUpdateCount.addAndGet(updateCount);
+    this.totalFlushNanos.addAndGet(elapsedNanos);
+    this.maxFlushNanos.accumulateAndGet(elapsedNanos, Math::max);
+    logger.debug("Flushed {} updates of users in {} us.", updateCount, TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+  }
+
+  /**
+   * Captures the updates that are yet to be written to the database, before users are read from the delegate DAO.
+   * <p>
+   * Updates captured before the read, as well as those that are current after it, are applied to the users read, in
+   * case a flush writes (and stops tracking) an update after the delegate read the user. The most recent update of a
+   * user wins.
+   *
+   * @return a function that applies the latest update of a user, if any, to the user read from the delegate DAO.
+   */
+  private UnaryOperator<User> captureOverlay() {
+    // Read in the reverse order to that in which they're replaced by a flush, so an update can't be missed
+    final Map<Long, User> capturedPendingUpdates = this.pendingUpdates;
+    final Map<Long, User> capturedFlushingUpdates = this.flushingUpdates;
+    return user -> {
+      final Long userId = user.getId();
+      User update = this.pendingUpdates.get(userId);
+      if (update == null) {
+        update = this.flushingUpdates.get(userId);
+      }
+      if (update == null) {
+        update = capturedPendingUpdates.get(userId);
+      }
+      if (update == null) {
+        update = capturedFlushingUpdates.get(userId);
+      }
+      return update != null ? update : user;
+    };
+  }
+}
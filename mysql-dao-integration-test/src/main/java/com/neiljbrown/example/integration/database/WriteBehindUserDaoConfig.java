@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.time.Duration;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Optional configuration of a {@link WriteBehindUserDao}. Each property has a default value that's used unless it's
+ * overridden. The configuration is copied when the DAO is created.
+ */
+public class WriteBehindUserDaoConfig {
+
+  /** Default period between flushes of pending updates to the database. */
+  public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(100);
+
+  /** Default max no. of users with pending updates. */
+  public static final int DEFAULT_MAX_PENDING_UPDATES = 10_000;
+
+  /** Default max time an update waits for space in the queue of pending updates, when it's full. */
+  public static final Duration DEFAULT_MAX_ENQUEUE_WAIT = Duration.ofSeconds(1);
+
+  /** Default max no. of flushes that attempt to write an update that fails, before it's dropped. */
+  public static final int DEFAULT_MAX_FLUSH_ATTEMPTS = 3;
+
+  /** Default max time for which flushes are suspended after a flush fails with a transient error. */
+  public static final Duration DEFAULT_MAX_FLUSH_BACKOFF = Duration.ofSeconds(10);
+
+  private Duration flushInterval = DEFAULT_FLUSH_INTERVAL;
+  private int maxPendingUpdates = DEFAULT_MAX_PENDING_UPDATES;
+  private Duration maxEnqueueWait = DEFAULT_MAX_ENQUEUE_WAIT;
+  private int maxFlushAttempts = DEFAULT_MAX_FLUSH_ATTEMPTS;
+  private Duration maxFlushBackoff = DEFAULT_MAX_FLUSH_BACKOFF;
+
+  /**
+   * @return the period between flushes of pending updates to the database.
+   */
+  public Duration getFlushInterval() {
+    return this.flushInterval;
+  }
+
+  /**
+   * @param flushInterval the period between flushes of pending updates to the database - the window within which
+   * repeated updates of the same user are collapsed into one. Bounds how long an update remains only in memory (and is
+   * lost if the process dies). Must be positive.
+   */
+  public void setFlushInterval(Duration flushInterval) {
+    Preconditions.checkArgument(flushInterval != null && !flushInterval.isNegative() && !flushInterval.isZero(),
+      "flushInterval must be positive.");
+    this.flushInterval = flushInterval;
+  }
+
+  /**
+   * @return the max no. of users with pending updates.
+   */
+  public int getMaxPendingUpdates() {
+    return this.maxPendingUpdates;
+  }
+
+  /**
+   * @param maxPendingUpdates the max no. of (distinct) users with pending updates, which bounds the size of each
+   * flush. Once reached, a flush is started early, and updates of other users wait for it to complete. Further updates
+   * of a user whose update is already pending never wait, as they replace it. Must be greater than 0.
+   */
+  public void setMaxPendingUpdates(int maxPendingUpdates) {
+    Preconditions.checkArgument(maxPendingUpdates > 0, "maxPendingUpdates must be greater than 0.");
+    this.maxPendingUpdates = maxPendingUpdates;
+  }
+
+  /**
+   * @return the max time an update waits for space in the queue of pending updates, when it's full.
+   */
+  public Duration getMaxEnqueueWait() {
+    return this.maxEnqueueWait;
+  }
+
+  /**
+   * @param maxEnqueueWait the max time an update waits for space in the queue of pending updates, when it's full,
+   * before it's rejected. Zero to reject updates immediately. Must not be negative.
+   */
+  public void setMaxEnqueueWait(Duration maxEnqueueWait) {
+    Preconditions.checkArgument(maxEnqueueWait != null && !maxEnqueueWait.isNegative(),
+      "maxEnqueueWait must not be negative.");
+    this.maxEnqueueWait = maxEnqueueWait;
+  }
+
+  /**
+   * @return the max no. of flushes that attempt to write an update that fails, before it's dropped.
+   */
+  public int getMaxFlushAttempts() {
+    return this.maxFlushAttempts;
+  }
+
+  /**
+   * @param maxFlushAttempts the max no. of flushes that attempt to write an update of a user that the database
+   * rejects (e.g. because a value is too long for its column), before the update is dropped (and logged). Flushes that
+   * fail because the database is unavailable or overloaded don't count. An update that's superseded by a later update
+   * of the same user is no longer retried, and the later update gets its own attempts. Must be greater than 0.
+   */
+  public void setMaxFlushAttempts(int maxFlushAttempts) {
+    Preconditions.checkArgument(maxFlushAttempts > 0, "maxFlushAttempts must be greater than 0.");
+    this.maxFlushAttempts = maxFlushAttempts;
+  }
+
+  /**
+   * @return the max time for which flushes are suspended after a flush fails with a transient error.
+   */
+  public Duration getMaxFlushBackoff() {
+    return this.maxFlushBackoff;
+  }
+
+  /**
+   * @param maxFlushBackoff the max time for which periodic flushes are suspended after a flush fails with a transient
+   * error, e.g. because a connection can't be obtained. The suspension starts at twice the flush interval, and doubles
+   * with each consecutive transient failure, up to this max. Must not be negative.
+   */
+  public void setMaxFlushBackoff(Duration maxFlushBackoff) {
+    Preconditions.checkArgument(maxFlushBackoff != null && !maxFlushBackoff.isNegative(),
+      "maxFlushBackoff must not be negative.");
+    this.maxFlushBackoff = maxFlushBackoff;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+      .add("flushInterval", flushInterval)
+      .add("maxPendingUpdates", maxPendingUpdates)
+      .add("maxEnqueueWait", maxEnqueueWait)
+      .add("maxFlushAttempts", maxFlushAttempts)
+      .add("maxFlushBackoff", maxFlushBackoff)
+      .toString();
+  }
+}
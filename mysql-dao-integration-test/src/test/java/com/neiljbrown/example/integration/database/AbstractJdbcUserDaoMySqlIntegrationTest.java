@@ -15,12 +15,30 @@
  */
 package com.neiljbrown.example.integration.database;
 
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import com.zaxxer.hikari.HikariDataSource;
 
 /**
  * Abstract super-class for implementations of the MySQL DB integration tests of the {@link JdbcUserDao}.
+ * <p>
+ * All the tests share the same database ({@link SharedUserDatabase}) - a single instance of MySQL, launched in a
+ * container on first use, or an embedded stand-in for it if Docker isn't available. The tests run in parallel (see
+ * junit-platform.properties). Each test is isolated from the others by running against its own schema, which starts
+ * out with an empty user table, and is reset once the test completes.
  */
+@Execution(ExecutionMode.CONCURRENT)
 abstract class AbstractJdbcUserDaoMySqlIntegrationTest {
 
   // Specific version of MySQL to use. (package-private)
@@ -31,16 +49,57 @@ abstract class AbstractJdbcUserDaoMySqlIntegrationTest {
   // Class under test (package-private)
   JdbcUserDao jdbcUserDao;
 
-  static Properties loadDataSourceProperties() {
+  private SharedUserDatabase database;
+  private SharedUserDatabase.WorkerSchema schema;
+  // DataSources created by the test, which are closed once it completes
+  private final List<HikariDataSource> createdDataSources = new ArrayList<>();
+
+  static synchronized Properties loadDataSourceProperties() {
     if (dataSourceProperties == null) {
-      dataSourceProperties = new Properties();
+      final Properties properties = new Properties();
       try {
-        dataSourceProperties.load(
-          AbstractJdbcUserDaoMySqlIntegrationTest.class.getResourceAsStream("/datasource.properties"));
+        properties.load(AbstractJdbcUserDaoMySqlIntegrationTest.class.getResourceAsStream("/datasource.properties"));
       } catch (IOException e) {
         throw new RuntimeException("Failed to load datasource.properties.", e);
       }
+      dataSourceProperties = properties;
     }
     return dataSourceProperties;
   }
-}
\ No newline at end of file
+
+  @BeforeEach
+  void acquireSchema() {
+    this.database = SharedUserDatabase.getInstance();
+    this.schema = this.database.acquireSchema();
+    this.jdbcUserDao = new JdbcUserDao(this.schema.getDataSource());
+  }
+
+  @AfterEach
+  void releaseSchema() {
+    this.createdDataSources.forEach(HikariDataSource::close);
+    if (this.schema != null) {
+      this.database.releaseSchema(this.schema);
+    }
+  }
+
+  /**
+   * Creates a new DataSource for the test's schema, for tests that need to configure the DataSource used by the DAO
+   * under test, e.g. the size of its connection pool. The DataSource is closed once the test completes.
+   *
+   * @return the created {@link DataSource}, which is a {@link HikariDataSource}.
+   */
+  DataSource createDataSource() {
+    final HikariDataSource dataSource = (HikariDataSource) this.schema.createDataSource();
+    this.createdDataSources.add(dataSource);
+    return dataSource;
+  }
+
+  /**
+   * Skips the current test unless it's running against MySQL, rather than the embedded stand-in for it.
+   *
+   * @param reason the reason the test depends on MySQL.
+   */
+  void assumeMySql(String reason) {
+    assumeTrue(this.database.isMySql(), "Test requires MySQL - " + reason);
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Unit tests for {@link AdaptiveConcurrencyLimiter}, including its use by {@link JdbcUserDao}.
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+  private static final long FAST_NANOS = Duration.ofMillis(1).toNanos();
+  private static final long SLOW_NANOS = Duration.ofSeconds(1).toNanos();
+
+  @Test
+  void test_tryAcquire_whenLimitReached_thenRejectedAndCounted() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limitConfig(2, 1, 10),
+      limitConfig(1, 1, 10));
+
+    final long permit = limiter.tryAcquire(QueryCost.POINT);
+    assertThat(permit).isPositive();
+    assertThat(limiter.tryAcquire(QueryCost.POINT)).isGreaterThan(permit);
+    assertThat(limiter.tryAcquire(QueryCost.POINT)).isEqualTo(AdaptiveConcurrencyLimiter.REJECTED);
+
+    assertThat(limiter.getInFlightCount(QueryCost.POINT)).isEqualTo(2);
+    assertThat(limiter.getRejectedCount(QueryCost.POINT)).isEqualTo(1);
+    // The limit of bulk queries is separate
+    assertThat(limiter.tryAcquire(QueryCost.BULK)).isPositive();
+    assertThat(limiter.getRejectedCount(QueryCost.BULK)).isZero();
+
+    limiter.release(QueryCost.POINT, permit, FAST_NANOS, false);
+    assertThat(limiter.tryAcquire(QueryCost.POINT)).isPositive();
+  }
+
+  @Test
+  void test_release_whenBulkWritesSlowerThanBulkReadThreshold_thenBulkReadLimitNotDecreased() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limitConfig(10, 2, 10),
+      limitConfig(10, 2, 10));
+
+    // The default threshold of bulk writes is well above the latency of a slow bulk read
+    limiter.release(QueryCost.BULK_WRITE, limiter.tryAcquire(QueryCost.BULK_WRITE), SLOW_NANOS, false);
+
+    assertThat(limiter.getLimit(QueryCost.BULK_WRITE)).isEqualTo(
+      AdaptiveConcurrencyLimiter.DEFAULT_BULK_WRITE_INITIAL_LIMIT);
+    assertThat(limiter.getLimit(QueryCost.BULK)).isEqualTo(10);
+    assertThat(QueryType.CREATE_USERS.getCost()).isEqualTo(QueryCost.BULK_WRITE);
+    assertThat(QueryType.UPDATE_USERS.getCost()).isEqualTo(QueryCost.BULK_WRITE);
+  }
+
+  @Test
+  void test_release_whenQueriesSlow_thenLimitDecreasedMultiplicativelyToMin() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limitConfig(10, 2, 10),
+      limitConfig(10, 2, 10));
+
+    limiter.release(QueryCost.POINT, limiter.tryAcquire(QueryCost.POINT), SLOW_NANOS, false);
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(5);
+
+    limiter.release(QueryCost.POINT, limiter.tryAcquire(QueryCost.POINT), FAST_NANOS, true);
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(2);
+
+    limiter.release(QueryCost.POINT, limiter.tryAcquire(QueryCost.POINT), SLOW_NANOS, false);
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(2);
+    assertThat(limiter.getLimit(QueryCost.BULK)).isEqualTo(10);
+  }
+
+  @Test
+  void test_release_whenQueriesFastAndLimitUsed_thenLimitIncreasedAdditivelyToMax() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limitConfig(2, 1, 3),
+      limitConfig(2, 1, 3));
+
+    // Each fast query completing while the limit is at least half used increases it by 1 / limit - 2, 2.5, 2.9, 3
+    for (int i = 0; i < 3; i++) {
+      final long permit1 = limiter.tryAcquire(QueryCost.POINT);
+      final long permit2 = limiter.tryAcquire(QueryCost.POINT);
+      limiter.release(QueryCost.POINT, permit1, FAST_NANOS, false);
+      limiter.release(QueryCost.POINT, permit2, FAST_NANOS, false);
+    }
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(3);
+
+    for (int i = 0; i < 10; i++) {
+      final long permit1 = limiter.tryAcquire(QueryCost.POINT);
+      final long permit2 = limiter.tryAcquire(QueryCost.POINT);
+      final long permit3 = limiter.tryAcquire(QueryCost.POINT);
+      limiter.release(QueryCost.POINT, permit1, FAST_NANOS, false);
+      limiter.release(QueryCost.POINT, permit2, FAST_NANOS, false);
+      limiter.release(QueryCost.POINT, permit3, FAST_NANOS, false);
+    }
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(3);
+  }
+
+  @Test
+  void test_release_whenQueriesFastButLimitLightlyUsed_thenLimitNotIncreased() {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limitConfig(10, 1, 100),
+      limitConfig(10, 1, 100));
+
+    for (int i = 0; i < 100; i++) {
+      limiter.release(QueryCost.POINT, limiter.tryAcquire(QueryCost.POINT), FAST_NANOS, false);
+    }
+
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(10);
+  }
+
+  @Test
+  void test_release_whenConcurrentQueriesAllFail_thenLimitDecreasedOnlyOnce() throws Exception {
+    final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limitConfig(20, 1, 20),
+      limitConfig(20, 1, 20));
+    final List<Long> permits = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      permits.add(limiter.tryAcquire(QueryCost.POINT));
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(20);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<?>> releases = new ArrayList<>();
+      for (long permit : permits) {
+        releases.add(executor.submit(() -> {
+          start.await();
+          limiter.release(QueryCost.POINT, permit, FAST_NANOS, true);
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> release : releases) {
+        release.get(5, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(10);
+    // A query started after the decrease that fails starts a new window
+    limiter.release(QueryCost.POINT, limiter.tryAcquire(QueryCost.POINT), SLOW_NANOS, false);
+    assertThat(limiter.getLimit(QueryCost.POINT)).isEqualTo(5);
+  }
+
+  @Test
+  void test_jdbcUserDao_whenLimitOfCostReached_thenQueriesOfCostFailFast() {
+    final HikariDataSource dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase(
+      "limiter" + System.nanoTime(), 2);
+    try {
+      final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(limitConfig(1, 1, 1),
+        limitConfig(1, 1, 1));
+      final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+      config.setConcurrencyLimiter(limiter);
+      final JdbcUserDao dao = new JdbcUserDao(dataSource, config);
+      final User user = dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+      // Hold the only permit for point queries, as if a query were executing
+      assertThat(limiter.tryAcquire(QueryCost.POINT)).isPositive();
+
+      assertThatThrownBy(() -> dao.findUserById(user.getId()))
+        .isInstanceOfSatisfying(DatabaseOverloadedException.class, e -> {
+          assertThat(e.getQueryCost()).isEqualTo(QueryCost.POINT);
+          assertThat(e.getLimit()).isEqualTo(1);
+        });
+      assertThat(dao.findUsersByIds(List.of(user.getId()))).containsOnlyKeys(user.getId());
+      assertThat(limiter.getRejectedCount(QueryCost.POINT)).isEqualTo(1);
+      assertThat(limiter.getInFlightCount(QueryCost.BULK)).isZero();
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private static AdaptiveConcurrencyLimitConfig limitConfig(int initialLimit, int minLimit, int maxLimit) {
+    final AdaptiveConcurrencyLimitConfig config = new AdaptiveConcurrencyLimitConfig();
+    config.setInitialLimit(initialLimit);
+    config.setMinLimit(minLimit);
+    config.setMaxLimit(maxLimit);
+    config.setLatencyThreshold(Duration.ofMillis(100));
+    config.setBackoffRatio(0.5);
+    return config;
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * Unit tests of {@link CachingUserDao}, using an {@link InMemoryUserDao} as a stub of the decorated DAO.
+ */
+class CachingUserDaoTest {
+
+  private final InMemoryUserDao stubUserDao = new InMemoryUserDao();
+  private final FakeTicker ticker = new FakeTicker();
+  private final CachingUserDao cachingUserDao;
+
+  /** Create test case. */
+  CachingUserDaoTest() {
+    final CachingUserDaoConfig config = new CachingUserDaoConfig();
+    config.setMaximumSize(2);
+    config.setExpireAfterWrite(Duration.ofMinutes(5));
+    config.setRefreshAfterWrite(Duration.ofMinutes(1));
+    config.setMissingExpireAfterWrite(Duration.ofSeconds(5));
+    // Refresh synchronously, so the result of a refresh can be asserted without waiting
+    config.setRefreshExecutor(MoreExecutors.directExecutor());
+    config.setTicker(this.ticker);
+    this.cachingUserDao = new CachingUserDao(this.stubUserDao, config);
+  }
+
+  @Test
+  void test_findUserById_whenUserCached_thenDelegateNotQueried() {
+    final User user = this.stubUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+
+    assertThat(this.cachingUserDao.findUserById(user.getId())).hasValue(user);
+    assertThat(this.cachingUserDao.findUserById(user.getId())).hasValue(user);
+
+    assertThat(this.stubUserDao.lookupCount.get()).isEqualTo(1);
+    assertThat(this.cachingUserDao.getUserCacheStats().hitCount()).isEqualTo(1);
+    assertThat(this.cachingUserDao.getUserCacheStats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  void test_findUserById_whenUserDoesNotExist_thenMissingUserCachedUntilExpiry() {
+    assertThat(this.cachingUserDao.findUserById(99)).isEmpty();
+    assertThat(this.cachingUserDao.findUserById(99)).isEmpty();
+    assertThat(this.stubUserDao.lookupCount.get()).isEqualTo(1);
+    assertThat(this.cachingUserDao.getMissingUserCacheStats().hitCount()).isEqualTo(1);
+
+    this.ticker.advance(Duration.ofSeconds(6));
+
+    assertThat(this.cachingUserDao.findUserById(99)).isEmpty();
+    assertThat(this.stubUserDao.lookupCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  void test_createUser_whenUserCachedAsMissing_thenCreatedUserFound() {
+    final long nextUserId = this.stubUserDao.findLastUserId() + 1;
+    assertThat(this.cachingUserDao.findUserById(nextUserId)).isEmpty();
+
+    final User user = this.cachingUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+
+    assertThat(user.getId()).isEqualTo(nextUserId);
+    assertThat(this.cachingUserDao.findUserById(nextUserId)).hasValue(user);
+  }
+
+  @Test
+  void test_findUserById_whenUserCreatedWhileLookupInProgress_thenUserNotCachedAsMissing() throws Exception {
+    final CountDownLatch lookupStarted = new CountDownLatch(1);
+    final CountDownLatch userCreated = new CountDownLatch(1);
+    final InMemoryUserDao slowUserDao = new InMemoryUserDao() {
+      @Override
+      public Optional<User> findUserById(long userId) {
+        final Optional<User> user = super.findUserById(userId);
+        lookupStarted.countDown();
+        try {
+          userCreated.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return user;
+      }
+    };
+    final CachingUserDao dao = new CachingUserDao(slowUserDao);
+    final long nextUserId = slowUserDao.findLastUserId() + 1;
+    final CompletableFuture<Optional<User>> lookup = CompletableFuture.supplyAsync(() -> dao.findUserById(nextUserId));
+    assertThat(lookupStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    final User user = dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    userCreated.countDown();
+
+    assertThat(lookup.get(5, TimeUnit.SECONDS)).isEmpty();
+    assertThat(dao.getMissingUserCacheStats().hitCount()).isZero();
+    assertThat(dao.findUserById(nextUserId)).hasValue(user);
+  }
+
+  @Test
+  void test_findUsersByIds_whenUserUpdatedWhileLookupInProgress_thenStaleUserNotCached() throws Exception {
+    final CountDownLatch lookupStarted = new CountDownLatch(1);
+    final CountDownLatch userUpdated = new CountDownLatch(1);
+    final InMemoryUserDao slowUserDao = new InMemoryUserDao() {
+      @Override
+      public Map<Long, User> findUsersByIds(Collection<Long> userIds) {
+        final Map<Long, User> usersById = super.findUsersByIds(userIds);
+        lookupStarted.countDown();
+        try {
+          userUpdated.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return usersById;
+      }
+    };
+    final CachingUserDao dao = new CachingUserDao(slowUserDao);
+    final User user = slowUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final CompletableFuture<Map<Long, User>> lookup = CompletableFuture.supplyAsync(() ->
+      dao.findUsersByIds(List.of(user.getId())));
+    assertThat(lookupStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    final User updatedUser = new User(user.getId(), "Joseph", "Bloggs");
+    assertThat(dao.updateUser(updatedUser)).isTrue();
+    userUpdated.countDown();
+
+    assertThat(lookup.get(5, TimeUnit.SECONDS)).containsEntry(user.getId(), user);
+    assertThat(dao.findUserById(user.getId())).hasValue(updatedUser);
+  }
+
+  @Test
+  void test_updateUser_whenUserCachedByIdAndEmail_thenUserInvalidatedAndEmailStillCached() {
+    final User user = this.stubUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    assertThat(this.cachingUserDao.findUserByEmail("joe@example.com")).hasValue(user);
+    final User updatedUser = new User(user.getId(), "Joseph", "Bloggs");
+
+    assertThat(this.cachingUserDao.updateUser(updatedUser)).isTrue();
+
+    assertThat(this.cachingUserDao.findUserById(user.getId())).hasValue(updatedUser);
+    assertThat(this.cachingUserDao.findUserByEmail("joe@example.com")).hasValue(updatedUser);
+    // An update can't change a user's email, so the email is still cached, and the updated user is found by their ID
+    assertThat(this.stubUserDao.lookupCount.get()).isEqualTo(1);
+    assertThat(this.stubUserDao.emailLookupCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  void test_findUserById_whenRefreshPeriodElapsed_thenUserReloaded() {
+    final User user = this.stubUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    assertThat(this.cachingUserDao.findUserById(user.getId())).hasValue(user);
+    final User renamedUser = new User(user.getId(), "Joseph", "Bloggs");
+    this.stubUserDao.usersById.put(user.getId(), renamedUser);
+
+    this.ticker.advance(Duration.ofMinutes(2));
+
+    assertThat(this.cachingUserDao.findUserById(user.getId())).hasValue(renamedUser);
+    assertThat(this.cachingUserDao.getUserCacheStats().loadCount()).isEqualTo(2);
+  }
+
+  @Test
+  void test_findUserById_whenMaximumSizeExceeded_thenLeastRecentlyUsedUserEvicted() {
+    final List<User> users = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      users.add(this.stubUserDao.createUser(new NewUser("First" + i, "Last" + i, i + "@example.com")));
+    }
+
+    users.forEach(user -> this.cachingUserDao.findUserById(user.getId()));
+
+    assertThat(this.cachingUserDao.getUserCacheStats().evictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  void test_findUserByEmail_whenEmailCached_thenUserFoundByIdWithoutQueryingByEmail() {
+    final User user = this.stubUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+
+    assertThat(this.cachingUserDao.findUserByEmail("Joe@Example.com")).hasValue(user);
+    assertThat(this.cachingUserDao.findUserByEmail(" joe@example.com")).hasValue(user);
+    assertThat(this.cachingUserDao.findUserById(user.getId())).hasValue(user);
+
+    assertThat(this.stubUserDao.emailLookupCount.get()).isEqualTo(1);
+    assertThat(this.stubUserDao.lookupCount.get()).isZero();
+    assertThat(this.cachingUserDao.getEmailCacheStats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  void test_findUsersByEmails_whenSomeEmailsCached_thenOnlyUncachedEmailsQueried() {
+    final User user1 = this.stubUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final User user2 = this.stubUserDao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+    assertThat(this.cachingUserDao.findUserByEmail("joe@example.com")).hasValue(user1);
+
+    final Map<String, User> usersByEmail =
+      this.cachingUserDao.findUsersByEmails(List.of("JOE@example.com", "jane@example.com", "nobody@example.com"));
+
+    assertThat(usersByEmail).containsOnly(Map.entry("joe@example.com", user1), Map.entry("jane@example.com", user2));
+    assertThat(this.stubUserDao.emailLookupCount.get()).isEqualTo(2);
+    assertThat(this.cachingUserDao.findUserByEmail("jane@example.com")).hasValue(user2);
+    assertThat(this.stubUserDao.emailLookupCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  void test_findUsersByIds_whenSomeUsersCached_thenOnlyUncachedUsersQueried() {
+    final User user1 = this.stubUserDao.createUser(new NewUser("First1", "Last1", "1@example.com"));
+    final User user2 = this.stubUserDao.createUser(new NewUser("First2", "Last2", "2@example.com"));
+    this.cachingUserDao.findUserById(user1.getId());
+
+    final Map<Long, User> usersById = this.cachingUserDao.findUsersByIds(List.of(user1.getId(), user2.getId(), 99L));
+
+    assertThat(usersById).containsOnlyKeys(user1.getId(), user2.getId());
+    assertThat(this.stubUserDao.bulkLookupUserIds).containsExactly(List.of(user2.getId(), 99L));
+    assertThat(this.cachingUserDao.findUserById(99)).isEmpty();
+    assertThat(this.cachingUserDao.findUsersByIds(List.of(user1.getId(), user2.getId(), 99L))).hasSize(2);
+    assertThat(this.stubUserDao.bulkLookupUserIds).hasSize(1);
+  }
+
+  /**
+   * A {@link Ticker} whose time only changes when it's advanced by the test.
+   */
+  private static class FakeTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return this.nanos.get();
+    }
+
+    void advance(Duration duration) {
+      this.nanos.addAndGet(TimeUnit.NANOSECONDS.convert(duration));
+    }
+  }
+}
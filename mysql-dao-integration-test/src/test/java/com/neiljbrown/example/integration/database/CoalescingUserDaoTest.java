@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * Unit tests of {@link CoalescingUserDao}, using an {@link InMemoryUserDao} as a stub of the decorated DAO.
+ */
+class CoalescingUserDaoTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(CoalescingUserDaoTest.class);
+
+  @Test
+  void test_findUserByIdAsync_whenConcurrentLookupsWithinWindow_thenOneBatchWithDistinctIds() {
+    final InMemoryUserDao stubUserDao = new InMemoryUserDao();
+    final User user1 = stubUserDao.createUser(new NewUser("First1", "Last1", "1@example.com"));
+    final User user2 = stubUserDao.createUser(new NewUser("First2", "Last2", "2@example.com"));
+    final CoalescingUserDaoConfig config = new CoalescingUserDaoConfig();
+    config.setBatchWindow(Duration.ofMillis(200));
+    try (CoalescingUserDao coalescingUserDao = new CoalescingUserDao(stubUserDao, config)) {
+
+      final CompletableFuture<Optional<User>> lookup1 = coalescingUserDao.findUserByIdAsync(user1.getId());
+      final CompletableFuture<Optional<User>> lookup2 = coalescingUserDao.findUserByIdAsync(user2.getId());
+      final CompletableFuture<Optional<User>> duplicateLookup1 = coalescingUserDao.findUserByIdAsync(user1.getId());
+      final CompletableFuture<Optional<User>> missingLookup = coalescingUserDao.findUserByIdAsync(99);
+
+      assertThat(lookup1.join()).hasValue(user1);
+      assertThat(lookup2.join()).hasValue(user2);
+      assertThat(duplicateLookup1).isSameAs(lookup1);
+      assertThat(missingLookup.join()).isEmpty();
+      assertThat(stubUserDao.bulkLookupUserIds).hasSize(1);
+      assertThat(stubUserDao.bulkLookupUserIds.get(0)).containsExactlyInAnyOrder(user1.getId(), user2.getId(), 99L);
+      assertThat(stubUserDao.lookupCount.get()).isZero();
+    }
+  }
+
+  @Test
+  void test_findUserByIdAsync_whenMaxBatchSizeReached_thenBatchExecutedWithoutWaitingForWindow() {
+    final InMemoryUserDao stubUserDao = new InMemoryUserDao();
+    final CoalescingUserDaoConfig config = new CoalescingUserDaoConfig();
+    config.setBatchWindow(Duration.ofMinutes(1));
+    config.setMaxBatchSize(3);
+    try (CoalescingUserDao coalescingUserDao = new CoalescingUserDao(stubUserDao, config)) {
+      final List<CompletableFuture<Optional<User>>> lookups = new ArrayList<>();
+      for (long userId = 1; userId <= 3; userId++) {
+        lookups.add(coalescingUserDao.findUserByIdAsync(userId));
+      }
+
+      CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).orTimeout(5, TimeUnit.SECONDS).join();
+
+      assertThat(coalescingUserDao.getBatchCount()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void test_findUserByIdAsync_whenClosed_thenLookupRejected() {
+    final InMemoryUserDao stubUserDao = new InMemoryUserDao();
+    final User user = stubUserDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final CoalescingUserDao coalescingUserDao = new CoalescingUserDao(stubUserDao);
+    final CompletableFuture<Optional<User>> pendingLookup = coalescingUserDao.findUserByIdAsync(user.getId());
+
+    coalescingUserDao.close();
+
+    assertThat(pendingLookup.orTimeout(5, TimeUnit.SECONDS).join()).hasValue(user);
+    assertThatThrownBy(() -> coalescingUserDao.findUserByIdAsync(user.getId()))
+      .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> coalescingUserDao.findUserById(user.getId())).isInstanceOf(IllegalStateException.class);
+  }
+
+  /**
+   * Benchmarks the throughput of concurrent lookups of individual users, and the no. of queries they execute, with
+   * and without coalescing, at increasing levels of concurrency. The decorated DAO simulates a database accessed via
+   * a small connection pool, where each query holds a connection for a fixed period.
+   * <p>
+   * Reports the results, and verifies that at high concurrency coalescing executes far fewer queries.
+   */
+  @Test
+  void benchmark_findUserById_withAndWithoutCoalescing() throws Exception {
+    final int connections = 4;
+    final long queryLatencyNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    final int lookupsPerLevel = 4000;
+    final int userCount = 1000;
+    for (int concurrency : new int[] {1, 8, 32, 128}) {
+      final InMemoryUserDao directDao = new InMemoryUserDao(connections, queryLatencyNanos);
+      final InMemoryUserDao coalescedDao = new InMemoryUserDao(connections, queryLatencyNanos);
+      for (int i = 0; i < userCount; i++) {
+        directDao.createUser(new NewUser("First" + i, "Last" + i, i + "@example.com"));
+        coalescedDao.createUser(new NewUser("First" + i, "Last" + i, i + "@example.com"));
+      }
+      final CoalescingUserDaoConfig config = new CoalescingUserDaoConfig();
+      config.setBatchWindow(Duration.ofMillis(1));
+      try (CoalescingUserDao coalescingUserDao = new CoalescingUserDao(coalescedDao, config)) {
+        final double directThroughput = runLookups(directDao, concurrency, lookupsPerLevel, userCount);
+        final double coalescedThroughput = runLookups(coalescingUserDao, concurrency, lookupsPerLevel, userCount);
+        final int coalescedQueries = coalescedDao.bulkLookupUserIds.size();
+
+        logger.info("Concurrency {} - direct: {} lookups/sec, {} queries; coalesced: {} lookups/sec, {} queries.",
+          concurrency, String.format("%.0f", directThroughput), directDao.lookupCount.get(),
+          String.format("%.0f", coalescedThroughput), coalescedQueries);
+        assertThat(directDao.lookupCount.get()).isEqualTo(lookupsPerLevel);
+        if (concurrency >= 32) {
+          assertThat(coalescedQueries).isLessThan(lookupsPerLevel / 4);
+        }
+      }
+    }
+  }
+
+  private static double runLookups(UserDao userDao, int concurrency, int lookups, int userCount) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      final List<Future<Optional<User>>> results = new ArrayList<>(lookups);
+      final long startNanos = System.nanoTime();
+      for (int i = 0; i < lookups; i++) {
+        final long userId = 1 + ThreadLocalRandom.current().nextInt(userCount);
+        results.add(executor.submit(() -> userDao.findUserById(userId)));
+      }
+      for (Future<Optional<User>> result : results) {
+        assertThat(result.get(30, TimeUnit.SECONDS)).isPresent();
+      }
+      return lookups / ((System.nanoTime() - startNanos) / 1e9);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Tests of the startup modes of the DataSources created by {@link DataSourceFactory} (see
+ * {@link DataSourceStartupConfig}), using an {@link EmbeddedUserDatabase}.
+ */
+class DataSourceFactoryStartupTest {
+
+  private String databaseName;
+  private HikariDataSource schemaDataSource;
+  private HikariDataSource dataSource;
+
+  @BeforeEach
+  void setUp() {
+    // The schema is created using a separate DataSource, so the statements prepared by warm-up can be prepared
+    this.databaseName = "startup" + System.nanoTime();
+    this.schemaDataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase(this.databaseName, 1);
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (this.dataSource != null) {
+      this.dataSource.close();
+    }
+    this.schemaDataSource.close();
+  }
+
+  @Test
+  void test_createDataSource_whenWarmUp_thenMinIdleConnectionsEstablishedBeforeReturned() {
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(DataSourceStartupConfig.StartupMode.WARM_UP);
+
+    this.dataSource = createDataSource(startupConfig);
+
+    assertThat(this.dataSource.getMinimumIdle()).isEqualTo(this.dataSource.getMaximumPoolSize());
+    assertThat(this.dataSource.getHikariPoolMXBean().getTotalConnections()).isEqualTo(
+      this.dataSource.getMinimumIdle());
+    assertThat(this.dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+    final JdbcUserDao dao = new JdbcUserDao(this.dataSource);
+    assertThat(dao.findUserById(dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com")).getId())).isPresent();
+  }
+
+  @Test
+  void test_createDataSource_whenWarmUpStatementInvalid_thenFails() {
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(DataSourceStartupConfig.StartupMode.WARM_UP);
+    startupConfig.setWarmUpStatements(List.of("SELECT id FROM no_such_table"));
+
+    assertThatThrownBy(() -> createDataSource(startupConfig)).isInstanceOf(IllegalStateException.class)
+      .hasMessageContaining("Failed to warm up pool");
+  }
+
+  @Test
+  void test_createDataSource_whenLazy_thenPoolNotStartedUntilFirstUsed() {
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(DataSourceStartupConfig.StartupMode.LAZY);
+
+    this.dataSource = createDataSource(startupConfig);
+
+    assertThat(this.dataSource.getHikariPoolMXBean()).isNull();
+    assertThat(new JdbcUserDao(this.dataSource).findLastUserId()).isZero();
+    assertThat(this.dataSource.getHikariPoolMXBean()).isNotNull();
+  }
+
+  @Test
+  void test_createDataSource_whenLazyAndDatabaseUnreachable_thenCreatedWithoutConnecting() {
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(DataSourceStartupConfig.StartupMode.LAZY);
+
+    this.dataSource = (HikariDataSource) DataSourceFactory.createDataSource("jdbc:h2:tcp://localhost:1/unreachable",
+      "sa", "", null, startupConfig);
+
+    assertThat(this.dataSource.getHikariPoolMXBean()).isNull();
+  }
+
+  @Test
+  void test_getStatementSql_thenIncludesStatementOfEachShapeOfInList() {
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    config.setMaxInListSize(4);
+
+    final List<String> statementSql = JdbcUserDao.getStatementSql(config);
+
+    assertThat(statementSql).doesNotHaveDuplicates();
+    assertThat(statementSql.get(0)).isEqualTo("SELECT u.id, u.first_name, u.last_name FROM user u WHERE u.id=?");
+    assertThat(statementSql).contains(JdbcUserDao.FIND_USER_BY_EMAIL_SQL,
+      JdbcUserDao.FIND_USERS_BY_EMAILS_SQL_PREFIX + "?)", JdbcUserDao.FIND_USERS_BY_EMAILS_SQL_PREFIX + "?,?)",
+      JdbcUserDao.FIND_USERS_BY_EMAILS_SQL_PREFIX + "?,?,?,?)");
+  }
+
+  private HikariDataSource createDataSource(DataSourceStartupConfig startupConfig) {
+    return (HikariDataSource) DataSourceFactory.createDataSource(EmbeddedUserDatabase.jdbcUrl(this.databaseName),
+      "sa", "", null, startupConfig);
+  }
+}
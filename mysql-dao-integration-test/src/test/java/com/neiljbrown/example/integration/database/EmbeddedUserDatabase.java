@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * An embedded, in-memory stand-in for the application's MySQL database, for use by tests and benchmarks when Docker
+ * (and hence a Testcontainers managed MySQL) isn't available.
+ * <p>
+ * The database is implemented using H2, running in its MySQL compatibility mode. The application's schema is created
+ * from the same SQL script as is used to initialise MySQL (db/V1__create_user_table.sql), with the MySQL specific
+ * statements and syntax that H2 doesn't support (creating and switching database, double-quoted comments) adapted.
+ * <p>
+ * H2 is not MySQL. It's a reasonable stand-in for exercising the DAO's SQL and JDBC code paths, but results that
+ * depend on the MySQL server or driver - e.g. query plans, and statement caching and batch rewriting - aren't
+ * representative.
+ */
+final class EmbeddedUserDatabase {
+
+  /** Classpath location of the SQL script that creates the application's schema. */
+  static final String SCHEMA_SCRIPT = "/db/V1__create_user_table.sql";
+
+  /** Username of the database's user. */
+  static final String USERNAME = "sa";
+
+  /** Password of the database's user. */
+  static final String PASSWORD = "";
+
+  // Matches a double-quoted string following COMMENT, e.g. COMMENT "..." or COMMENT="..."
+  private static final Pattern DOUBLE_QUOTED_COMMENT = Pattern.compile("COMMENT(\\s*=?\\s*)\"([^\"]*)\"");
+
+  private EmbeddedUserDatabase() {
+  }
+
+  /**
+   * @param databaseName the name of the database.
+   * @return the JDBC URL of a named, in-memory H2 database in MySQL mode. The database exists until the JVM exits.
+   */
+  static String jdbcUrl(String databaseName) {
+    return "jdbc:h2:mem:" + databaseName + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+  }
+
+  /**
+   * Creates a new, named in-memory database, initialised with the application's schema, and a DataSource for it.
+   *
+   * @param databaseName the name of the database. Must not already exist.
+   * @param maximumPoolSize the max size of the DataSource's connection pool.
+   * @return a pooled {@link DataSource} for the created database, created using {@link DataSourceFactory}.
+   */
+  static DataSource createDatabase(String databaseName, int maximumPoolSize) {
+    final DataSource dataSource = DataSourceFactory.createDataSource(jdbcUrl(databaseName), USERNAME, PASSWORD, null);
+    ((HikariDataSource) dataSource).setMaximumPoolSize(maximumPoolSize);
+    createSchema(dataSource);
+    return dataSource;
+  }
+
+  /**
+   * Creates the application's schema in the database.
+   *
+   * @param dataSource the DataSource for the database.
+   */
+  static void createSchema(DataSource dataSource) {
+    try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+      for (String sql : readSchemaStatements()) {
+        statement.execute(sql);
+      }
+    } catch (SQLException sqle) {
+      throw new RuntimeException("Error creating schema from [" + SCHEMA_SCRIPT + "].", sqle);
+    }
+  }
+
+  /**
+   * Reads the statements in the schema script, adapting them for H2.
+   *
+   * @return the list of SQL statements, in the order they should be executed.
+   */
+  static List<String> readSchemaStatements() {
+    final String script;
+    try (InputStream inputStream = EmbeddedUserDatabase.class.getResourceAsStream(SCHEMA_SCRIPT)) {
+      script = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read " + SCHEMA_SCRIPT + ".", e);
+    }
+    final List<String> statements = new ArrayList<>();
+    for (String sql : script.replaceAll("(?m)^--.*$", "").split(";")) {
+      sql = sql.trim();
+      final String upperCaseSql = sql.toUpperCase(Locale.ROOT);
+      // The embedded database is the database. There's no need to create it, or switch to it.
+      if (sql.isEmpty() || upperCaseSql.startsWith("CREATE DATABASE") || upperCaseSql.startsWith("USE ")) {
+        continue;
+      }
+      // H2 requires comments to be string literals, which are single-quoted, even in MySQL mode
+      statements.add(DOUBLE_QUOTED_COMMENT.matcher(sql).replaceAll("COMMENT$1'$2'"));
+    }
+    return statements;
+  }
+}
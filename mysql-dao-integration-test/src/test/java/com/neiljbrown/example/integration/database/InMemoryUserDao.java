@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.neiljbrown.example.business.domain.EmailAddresses;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * An in-memory implementation of {@link UserDao}, used as a stub of the DAO decorated by the {@link UserDao}
+ * implementations under test. Records the lookups it performs.
+ * <p>
+ * Can optionally simulate the cost of querying a database via a connection pool - each lookup holds one of a limited
+ * no. of 'connections' (permits) for a fixed period.
+ */
+class InMemoryUserDao implements UserDao {
+
+  final Map<Long, User> usersById = new ConcurrentHashMap<>();
+  // Keyed by normalised email
+  final Map<String, User> usersByEmail = new ConcurrentHashMap<>();
+  final AtomicInteger lookupCount = new AtomicInteger();
+  final AtomicInteger emailLookupCount = new AtomicInteger();
+  final List<List<Long>> bulkLookupUserIds = new CopyOnWriteArrayList<>();
+  private final AtomicLong lastUserId = new AtomicLong();
+  private final Semaphore connections;
+  private final long queryLatencyNanos;
+
+  /** Creates a DAO whose lookups complete immediately. */
+  InMemoryUserDao() {
+    this(Integer.MAX_VALUE, 0);
+  }
+
+  /**
+   * @param connections the max no. of lookups that can execute concurrently.
+   * @param queryLatencyNanos the time taken by each lookup, in nanoseconds.
+   */
+  InMemoryUserDao(int connections, long queryLatencyNanos) {
+    this.connections = new Semaphore(connections);
+    this.queryLatencyNanos = queryLatencyNanos;
+  }
+
+  @Override
+  public Optional<User> findUserById(long userId) {
+    this.lookupCount.incrementAndGet();
+    simulateQuery();
+    return Optional.ofNullable(this.usersById.get(userId));
+  }
+
+  @Override
+  public Map<Long, User> findUsersByIds(Collection<Long> userIds) {
+    this.bulkLookupUserIds.add(new ArrayList<>(userIds));
+    simulateQuery();
+    return userIds.stream().distinct().filter(this.usersById::containsKey)
+      .collect(Collectors.toMap(userId -> userId, this.usersById::get));
+  }
+
+  @Override
+  public Optional<User> findUserByEmail(String email) {
+    this.emailLookupCount.incrementAndGet();
+    simulateQuery();
+    return Optional.ofNullable(this.usersByEmail.get(EmailAddresses.normalise(email)));
+  }
+
+  @Override
+  public Map<String, User> findUsersByEmails(Collection<String> emails) {
+    this.emailLookupCount.incrementAndGet();
+    simulateQuery();
+    return emails.stream().map(EmailAddresses::normalise).distinct().filter(this.usersByEmail::containsKey)
+      .collect(Collectors.toMap(email -> email, this.usersByEmail::get));
+  }
+
+  @Override
+  public long findLastUserId() {
+    return this.lastUserId.get();
+  }
+
+  @Override
+  public Stream<User> streamUsersAfter(long userId) {
+    return this.usersById.values().stream().filter(user -> user.getId() > userId)
+      .sorted(Comparator.comparingLong(User::getId));
+  }
+
+  @Override
+  public User createUser(NewUser newUser) {
+    final User user = newUser.toUser(this.lastUserId.incrementAndGet());
+    this.usersById.put(user.getId(), user);
+    this.usersByEmail.put(EmailAddresses.normalise(newUser.getEmail()), user);
+    return user;
+  }
+
+  @Override
+  public CreateUsersResult createUsers(List<NewUser> newUsers) {
+    return new CreateUsersResult(newUsers.stream().map(this::createUser).collect(Collectors.toList()), List.of());
+  }
+
+  @Override
+  public boolean updateUser(User user) {
+    if (this.usersById.replace(user.getId(), user) == null) {
+      return false;
+    }
+    this.usersByEmail.replaceAll((email, existingUser) -> existingUser.getId() == user.getId() ? user : existingUser);
+    return true;
+  }
+
+  @Override
+  public int updateUsers(Collection<User> users) {
+    return (int) users.stream().filter(this::updateUser).count();
+  }
+
+  private void simulateQuery() {
+    if (this.queryLatencyNanos == 0) {
+      return;
+    }
+    this.connections.acquireUninterruptibly();
+    try {
+      TimeUnit.NANOSECONDS.sleep(this.queryLatencyNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.connections.release();
+    }
+  }
+}
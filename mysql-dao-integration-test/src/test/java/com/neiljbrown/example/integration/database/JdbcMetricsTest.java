@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Tests of {@link JdbcMetrics}, including the instrumentation of {@link JdbcUserDao} and of the DataSource created by
+ * {@link DataSourceFactory}, using an {@link EmbeddedUserDatabase}.
+ */
+class JdbcMetricsTest {
+
+  @Test
+  void test_snapshot_whenQueriesRecorded_thenSummarisedAndReset() {
+    final JdbcMetricsConfig config = new JdbcMetricsConfig();
+    config.setSlowQueryThreshold(Duration.ofMillis(100));
+    final JdbcMetrics metrics = new JdbcMetrics(config);
+    for (int i = 1; i <= 100; i++) {
+      metrics.recordQuery(QueryType.FIND_USER_BY_ID, "SELECT 1", TimeUnit.MILLISECONDS.toNanos(i), 1, false);
+    }
+    metrics.recordQuery(QueryType.FIND_USER_BY_ID, "SELECT 1", TimeUnit.SECONDS.toNanos(1), -1, true);
+
+    final MetricsSnapshot snapshot = metrics.snapshot();
+
+    final MetricsSnapshot.HistogramSummary latency = snapshot.getHistograms().get("query.find_user_by_id.latency_us");
+    assertThat(latency.getCount()).isEqualTo(101);
+    // Values are recorded with a precision of 2 significant digits
+    assertThat(latency.getP50()).isBetween(49_000L, 52_000L);
+    assertThat(latency.getMax()).isBetween(990_000L, 1_010_000L);
+    assertThat(snapshot.getHistograms().get("query.find_user_by_id.rows").getCount()).isEqualTo(100);
+    assertThat(snapshot.getCounters()).containsEntry("query.find_user_by_id.errors", 1L);
+    assertThat(snapshot.getCounters()).containsEntry("query.find_user_by_id.slow", 2L);
+    final MetricsSnapshot nextSnapshot = metrics.snapshot();
+    assertThat(nextSnapshot.getHistograms().get("query.find_user_by_id.latency_us").getCount()).isZero();
+    assertThat(nextSnapshot.getCounters()).containsEntry("query.find_user_by_id.errors", 0L);
+  }
+
+  @Test
+  void test_instrumentedDaoAndDataSource_whenQueriesExecuted_thenQueryAndPoolMetricsRecorded() {
+    final JdbcMetrics metrics = new JdbcMetrics();
+    try (HikariDataSource dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase("metrics", 2)) {
+      DataSourceFactory.instrument(dataSource, metrics);
+      final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+      config.setMetrics(metrics);
+      final JdbcUserDao dao = new JdbcUserDao(dataSource, config);
+      final User user = dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+      for (int i = 0; i < 10; i++) {
+        assertThat(dao.findUserById(user.getId())).isPresent();
+      }
+      assertThat(dao.findUsersByIds(List.of(user.getId(), user.getId() + 1))).hasSize(1);
+
+      final MetricsSnapshot snapshot = metrics.snapshot();
+
+      assertThat(snapshot.getHistograms().get("query.create_user.latency_us").getCount()).isEqualTo(1);
+      assertThat(snapshot.getHistograms().get("query.create_user.rows").getCount()).isZero();
+      assertThat(snapshot.getHistograms().get("query.find_user_by_id.latency_us").getCount()).isEqualTo(10);
+      assertThat(snapshot.getHistograms().get("query.find_user_by_id.rows").getMax()).isEqualTo(1);
+      assertThat(snapshot.getHistograms().get("query.find_users_by_ids.rows").getMax()).isEqualTo(1);
+      final String poolPrefix = "pool." + dataSource.getPoolName() + ".";
+      assertThat(snapshot.getHistograms().get(poolPrefix + "acquire_us").getCount()).isGreaterThanOrEqualTo(12);
+      assertThat(snapshot.getHistograms().get(poolPrefix + "usage_ms").getCount()).isGreaterThanOrEqualTo(12);
+      assertThat(snapshot.getGauges()).containsEntry(poolPrefix + "active", 0L);
+      assertThat(snapshot.getCounters()).containsEntry(poolPrefix + "timeouts", 0L);
+    }
+  }
+
+  @Test
+  void test_instrumentedDataSource_whenPoolExhausted_thenTimeoutRecorded() throws Exception {
+    final JdbcMetrics metrics = new JdbcMetrics();
+    try (HikariDataSource dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase("metricsTimeout", 1)) {
+      dataSource.setConnectionTimeout(250);
+      DataSourceFactory.instrument(dataSource, metrics);
+      // Hold the pool's only connection, so that the next request for one times out
+      try (Connection connection = dataSource.getConnection()) {
+        assertThat(connection.isValid(1)).isTrue();
+        assertThatThrownBy(dataSource::getConnection).isInstanceOf(SQLException.class);
+
+        final MetricsSnapshot snapshot = metrics.snapshot();
+
+        final String poolPrefix = "pool." + dataSource.getPoolName() + ".";
+        assertThat(snapshot.getCounters()).containsEntry(poolPrefix + "timeouts", 1L);
+        assertThat(snapshot.getGauges()).containsEntry(poolPrefix + "active", 1L);
+      }
+    }
+  }
+
+  @Test
+  void test_reporting_whenSinksConfigured_thenSnapshotsReportedPeriodically() throws Exception {
+    final BlockingQueue<MetricsSnapshot> reported = new LinkedBlockingQueue<>();
+    final JdbcMetricsConfig config = new JdbcMetricsConfig();
+    config.setReportInterval(Duration.ofMillis(50));
+    try (JmxMetricsSink jmxSink = new JmxMetricsSink(JmxMetricsSink.DEFAULT_OBJECT_NAME + ",name=test")) {
+      // Snapshots are reported to each sink in turn, so report to the queue last
+      config.setSinks(List.of(jmxSink, new Slf4jMetricsSink(), reported::add));
+      try (JdbcMetrics metrics = new JdbcMetrics(config)) {
+        metrics.recordQuery(QueryType.FIND_LAST_USER_ID, "SELECT 1", TimeUnit.MILLISECONDS.toNanos(5), 1, false);
+
+        final MetricsSnapshot snapshot = reported.poll(5, TimeUnit.SECONDS);
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.getHistograms().get("query.find_last_user_id.latency_us").getCount()).isEqualTo(1);
+        final CompositeData jmxSnapshot = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(
+          new ObjectName(JmxMetricsSink.DEFAULT_OBJECT_NAME + ",name=test"), "LatestSnapshot");
+        assertThat(jmxSnapshot).isNotNull();
+        assertThat(((TabularData) jmxSnapshot.get("histograms")).size()).isEqualTo(snapshot.getHistograms().size());
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Tests of the lookups of users by email address by {@link JdbcUserDao}, using an {@link EmbeddedUserDatabase}. See
+ * the MySQL integration tests for checks of the queries' plans in MySQL.
+ */
+class JdbcUserDaoEmailLookupTest {
+
+  private HikariDataSource dataSource;
+  private JdbcUserDao dao;
+
+  @BeforeEach
+  void setUp() {
+    this.dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase("email" + System.nanoTime(), 2);
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    config.setMaxInListSize(2);
+    this.dao = new JdbcUserDao(this.dataSource, config);
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.dataSource.close();
+  }
+
+  @Test
+  void test_findUserByEmail_whenEmailNotNormalised_thenUserFound() {
+    final User user = this.dao.createUser(new NewUser("Joe", "Bloggs", " Joe.Bloggs@Example.com"));
+
+    assertThat(this.dao.findUserByEmail("joe.bloggs@example.com").map(User::getId)).hasValue(user.getId());
+    assertThat(this.dao.findUserByEmail("JOE.BLOGGS@EXAMPLE.COM ").map(User::getId)).hasValue(user.getId());
+    assertThat(this.dao.findUserByEmail("jane.doe@example.com")).isEmpty();
+  }
+
+  @Test
+  void test_findUsersByEmails_whenMoreEmailsThanMaxInListSize_thenUsersFoundKeyedByNormalisedEmail() {
+    final User user1 = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final User user2 = this.dao.createUser(new NewUser("Jane", "Doe", "Jane@Example.com"));
+    final User user3 = this.dao.createUser(new NewUser("John", "Smith", "john@example.com"));
+
+    final Map<String, User> usersByEmail = this.dao.findUsersByEmails(
+      List.of("JOE@example.com", "jane@example.com", "joe@example.com", "nobody@example.com", "john@example.com"));
+
+    assertThat(usersByEmail).containsOnlyKeys("joe@example.com", "jane@example.com", "john@example.com");
+    assertThat(usersByEmail.get("joe@example.com").getId()).isEqualTo(user1.getId());
+    assertThat(usersByEmail.get("jane@example.com").getId()).isEqualTo(user2.getId());
+    assertThat(usersByEmail.get("john@example.com").getId()).isEqualTo(user3.getId());
+  }
+
+  @Test
+  void test_createUsers_whenEmailDiffersOnlyInCase_thenRejectedAsDuplicate() {
+    this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+
+    final CreateUsersResult result = this.dao.createUsers(List.of(new NewUser("Joe", "Bloggs", "JOE@example.com"),
+      new NewUser("Jane", "Doe", "jane@example.com"), new NewUser("Jane", "Doe", " Jane@example.com")));
+
+    assertThat(result.getRejectedUsers()).extracting(CreateUsersResult.RejectedUser::getIndex).containsExactly(0, 2);
+    assertThat(result.getCreatedUsers()).hasSize(1);
+  }
+
+  @Test
+  void test_findUserByEmail_queryPlansUseUniqueIndex() throws SQLException {
+    final InListQuery findUsersByEmailsQuery = new InListQuery(JdbcUserDao.FIND_USERS_BY_EMAILS_SQL_PREFIX, ")", 2);
+    try (Connection connection = this.dataSource.getConnection()) {
+      assertThat(explain(connection, JdbcUserDao.FIND_USER_BY_EMAIL_SQL)).doesNotContain("tableScan");
+      assertThat(explain(connection, findUsersByEmailsQuery.sqlFor(2))).doesNotContain("tableScan");
+    }
+  }
+
+  /**
+   * @return H2's plan for the query, in which a full scan of a table is shown as a comment containing 'tableScan', and
+   * a lookup of an index as a comment naming the index.
+   */
+  private static String explain(Connection connection, String sql) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + sql);
+         ResultSet resultSet = preparedStatement.executeQuery()) {
+      assertThat(resultSet.next()).isTrue();
+      return resultSet.getString(1);
+    }
+  }
+}
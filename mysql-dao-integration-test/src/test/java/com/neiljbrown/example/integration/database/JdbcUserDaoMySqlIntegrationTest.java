@@ -0,0 +1,446 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Integration tests of {@link JdbcUserDao} in conjunction with MySQL.
+ *
+ * <h2>Support for Launching MySQL</h2>
+ * This TestCase has been enhanced to remove the limitation (in the original version) of relying on an instance MySQL
+ * running locally on the default port (i.e. accessible via localhost:3306). The Testcontainers library is used to
+ * automate launching an instance of the required version of MySQL in a Docker container. The container is shared by
+ * all the integration tests run in the same JVM, being started before the first test runs, and stopped when the JVM
+ * exits (see {@link SharedUserDatabase}).
+ * <p>
+ * Using the Testcontainers library to automate launching the MySQL server rather than relying on an locally running
+ * instance of MySQL has the following benefits -
+ * <ul>
+ *   <li>Fewer Env Prerequisites - Having MySQL installed in env is no longer a pre-req for the test to run.</li>
+ *   <li>Increased robustness of test - Test doesn't rely on MySQL having been started and running on a specific
+ *   port. As a result the tests are more reliable/robust. The database is also always in the same state.</li>
+ *   <li>Consistency - The tests are now guaranteed to always run against the same version of MySQL with identical
+ *   configuration across all env.</li>
+ * </ul>
+ * If Docker isn't available, the tests are run against an embedded stand-in for MySQL instead, except for those that
+ * depend on behaviour specific to MySQL, which are skipped.
+ * <p>
+ * Examples of the two approaches the Testcontainers library supports for launching a container from a test, each of
+ * which launches its own instance of MySQL, can be found in
+ * {@link JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport} and
+ * {@link JdbcUserDaoMySqlIntegrationTestUsingTestContainersJUnit5Support}.
+*/
+public class JdbcUserDaoMySqlIntegrationTest extends AbstractJdbcUserDaoMySqlIntegrationTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(JdbcUserDaoMySqlIntegrationTest.class);
+
+  /**
+   * An integration test for {@link JdbcUserDao#findUserById(long)} in the case where the identified user does not
+   * exist.
+   */
+  @Test
+  void test_findUserById_whenUserDoesNotExist() {
+    long lastUserId = this.jdbcUserDao.findLastUserId();
+
+    final Optional<User> userById = this.jdbcUserDao.findUserById(++lastUserId);
+
+    assertThat(userById).isEmpty();
+  }
+
+  /**
+   * A concurrency test for {@link JdbcUserDao#findUserById(long)}, which runs thousands of lookups in parallel through
+   * a (bounded) connection pool that's much smaller than the no. of concurrent callers. Verifies that the DAO doesn't
+   * leak connections - every lookup succeeds without timing out waiting for a connection, and all connections are
+   * returned to the pool once the lookups complete - and that throughput remains steady across successive rounds.
+   */
+  @Test
+  void test_findUserById_whenManyConcurrentLookups_thenNoConnectionsLeak() throws Exception {
+    final int poolSize = 4;
+    final int threads = 32;
+    final int rounds = 5;
+    final int lookupsPerRound = 2000;
+    try (HikariDataSource dataSource = (HikariDataSource) this.createDataSource()) {
+      dataSource.setMaximumPoolSize(poolSize);
+      // Fail fast if a connection leaks, rather than waiting for the default (30s) timeout
+      dataSource.setConnectionTimeout(5000);
+      final List<Long> userIds = insertUsers(dataSource, 100);
+      final JdbcUserDao dao = new JdbcUserDao(dataSource);
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        final List<Double> throughputPerRound = new ArrayList<>();
+        for (int round = 1; round <= rounds; round++) {
+          final List<Future<Optional<User>>> lookups = new ArrayList<>(lookupsPerRound);
+          final long startNanos = System.nanoTime();
+          for (int i = 0; i < lookupsPerRound; i++) {
+            final long userId = userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+            lookups.add(executor.submit(() -> dao.findUserById(userId)));
+          }
+          for (Future<Optional<User>> lookup : lookups) {
+            assertThat(lookup.get(30, TimeUnit.SECONDS)).isPresent();
+          }
+          final double throughput = lookupsPerRound / ((System.nanoTime() - startNanos) / 1e9);
+          logger.info("Round {} - {} lookups/sec through a pool of {} connections.",
+            round, String.format("%.0f", throughput), poolSize);
+          throughputPerRound.add(throughput);
+        }
+
+        assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+        assertThat(dataSource.getHikariPoolMXBean().getTotalConnections()).isLessThanOrEqualTo(poolSize);
+        // Throughput of the final round should not have degraded significantly relative to the best round, as would
+        // be the case if callers were increasingly waiting on connections that aren't returned to the pool.
+        final double bestThroughput = throughputPerRound.stream().mapToDouble(Double::doubleValue).max().orElseThrow();
+        assertThat(throughputPerRound.get(rounds - 1)).isGreaterThan(bestThroughput / 4);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * An integration test for {@link JdbcUserDao#findUsersByIds(java.util.Collection)} in the case where the IDs span
+   * multiple chunks, include duplicates and an ID of a user that doesn't exist, and the chunks are executed in
+   * parallel.
+   */
+  @Test
+  void test_findUsersByIds_whenMultipleChunksExecutedInParallel() throws Exception {
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    config.setMaxInListSize(8);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    config.setBulkLookupExecutor(executor);
+    try (HikariDataSource dataSource = (HikariDataSource) this.createDataSource()) {
+      final List<Long> userIds = insertUsers(dataSource, 21);
+      final JdbcUserDao dao = new JdbcUserDao(dataSource, config);
+      final List<Long> requestedUserIds = new ArrayList<>(userIds);
+      requestedUserIds.addAll(userIds.subList(0, 5));
+      final long nonExistentUserId = dao.findLastUserId() + 1;
+      requestedUserIds.add(nonExistentUserId);
+
+      final Map<Long, User> usersById = dao.findUsersByIds(requestedUserIds);
+
+      assertThat(usersById).containsOnlyKeys(userIds);
+      usersById.forEach((userId, user) -> assertThat(user.getId()).isEqualTo(userId));
+      assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * An integration test for {@link JdbcUserDao#createUsers(List)} in the case where the list spans multiple batches and
+   * transactions, and includes users with the same email as an existing user and as an earlier user in the list.
+   */
+  @Test
+  void test_createUsers_whenDuplicateEmails_thenDuplicatesRejectedAndOthersCreated() {
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    config.setInsertBatchSize(4);
+    config.setInsertTransactionSize(10);
+    final JdbcUserDao dao = new JdbcUserDao(this.createDataSource(), config);
+    final String emailPrefix = "create-users-" + System.nanoTime() + "-";
+    final User existingUser = dao.createUser(new NewUser("Existing", "User", emailPrefix + "existing@example.com"));
+    final List<NewUser> newUsers = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      newUsers.add(new NewUser("First" + i, "Last" + i, emailPrefix + i + "@example.com"));
+    }
+    newUsers.set(7, new NewUser("First7", "Last7", emailPrefix + "EXISTING@example.com"));
+    newUsers.set(18, new NewUser("First18", "Last18", emailPrefix + "3@example.com"));
+
+    final CreateUsersResult result = dao.createUsers(newUsers);
+
+    assertThat(result.getRejectedUsers()).extracting(CreateUsersResult.RejectedUser::getIndex).containsExactly(7, 18);
+    assertThat(result.getCreatedUsers()).hasSize(23);
+    assertThat(result.getCreatedUsers()).extracting(User::getId).doesNotHaveDuplicates().allMatch(
+      userId -> userId > existingUser.getId());
+    for (User createdUser : result.getCreatedUsers()) {
+      assertThat(dao.findUserById(createdUser.getId()).map(User::getFirstName)).hasValue(createdUser.getFirstName());
+    }
+  }
+
+  /**
+   * An integration test for {@link JdbcUserDao#findUserByEmail(String)} and
+   * {@link JdbcUserDao#findUsersByEmails(java.util.Collection)}, in the case where the emails used to look up the users
+   * differ in case and surrounding whitespace from those the users were created with.
+   */
+  @Test
+  void test_findUserByEmail_whenEmailNotNormalised_thenUserFound() {
+    final String emailPrefix = "find-by-email-" + System.nanoTime() + "-";
+    final User user1 = this.jdbcUserDao.createUser(new NewUser("Joe", "Bloggs", emailPrefix + "Joe@Example.com"));
+    final User user2 = this.jdbcUserDao.createUser(new NewUser("Jane", "Doe", emailPrefix + "jane@example.com"));
+
+    assertThat(this.jdbcUserDao.findUserByEmail(" " + emailPrefix + "JOE@example.COM ").map(User::getId))
+      .hasValue(user1.getId());
+    assertThat(this.jdbcUserDao.findUserByEmail(emailPrefix + "nobody@example.com")).isEmpty();
+    final Map<String, User> usersByEmail = this.jdbcUserDao.findUsersByEmails(
+      List.of(emailPrefix + "joe@example.com", emailPrefix + "JANE@example.com", emailPrefix + "nobody@example.com"));
+    assertThat(usersByEmail).containsOnlyKeys(emailPrefix + "joe@example.com", emailPrefix + "jane@example.com");
+    assertThat(usersByEmail.get(emailPrefix + "jane@example.com").getId()).isEqualTo(user2.getId());
+  }
+
+  /**
+   * Checks, using EXPLAIN, that MySQL executes the DAO's queries for users by email using the unique index of the
+   * email column - a single row lookup (access type 'const') for a single email, and index range scans (access type
+   * 'range') for a list of emails - rather than a full scan of the user table.
+   */
+  @Test
+  void test_findUserByEmail_queryPlansUseUniqueIndex() throws SQLException {
+    assumeMySql("the query plans of other databases differ.");
+    final DataSource dataSource = this.createDataSource();
+    // Ensure the table is large enough that the optimiser would never prefer a full scan
+    insertUsers(dataSource, 100);
+    final InListQuery findUsersByEmailsQuery = new InListQuery(JdbcUserDao.FIND_USERS_BY_EMAILS_SQL_PREFIX, ")", 4);
+    final List<String> emails = List.of("a@example.com", "b@example.com", "c@example.com", "d@example.com");
+    try (Connection connection = dataSource.getConnection()) {
+      final Map<String, String> findUserByEmailPlan = explain(connection, JdbcUserDao.FIND_USER_BY_EMAIL_SQL,
+        preparedStatement -> preparedStatement.setString(1, "a@example.com"));
+      // The email column's unique index is named after the column, as the schema doesn't name it
+      assertThat(findUserByEmailPlan).containsEntry("key", "email");
+      assertThat(findUserByEmailPlan.get("type")).isIn("const", "ref");
+      final Map<String, String> findUsersByEmailsPlan = explain(connection, findUsersByEmailsQuery.sqlFor(4),
+        findUsersByEmailsQuery.binderFor(emails, 1));
+      assertThat(findUsersByEmailsPlan).containsEntry("key", "email");
+      assertThat(findUsersByEmailsPlan).containsEntry("type", "range");
+    }
+  }
+
+  /**
+   * Compares the throughput of creating users in bulk using {@link JdbcUserDao#createUsers(List)} with that of
+   * creating them one at a time, using {@link JdbcUserDao#createUser(NewUser)}, and reports the results.
+   */
+  @Test
+  void test_createUsers_throughputComparedWithSingleRowInserts() {
+    final int userCount = 2000;
+    final JdbcUserDao dao = new JdbcUserDao(this.createDataSource());
+    final String emailPrefix = "throughput-" + System.nanoTime() + "-";
+
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < userCount; i++) {
+      dao.createUser(new NewUser("First" + i, "Last" + i, emailPrefix + "single-" + i + "@example.com"));
+    }
+    final double singleRowThroughput = userCount / ((System.nanoTime() - startNanos) / 1e9);
+
+    final List<NewUser> newUsers = new ArrayList<>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      newUsers.add(new NewUser("First" + i, "Last" + i, emailPrefix + "batch-" + i + "@example.com"));
+    }
+    startNanos = System.nanoTime();
+    final CreateUsersResult result = dao.createUsers(newUsers);
+    final double batchThroughput = userCount / ((System.nanoTime() - startNanos) / 1e9);
+
+    logger.info("Created {} users - single-row inserts: {} users/sec, batched inserts: {} users/sec.", userCount,
+      String.format("%.0f", singleRowThroughput), String.format("%.0f", batchThroughput));
+    assertThat(result.getCreatedUsers()).hasSize(userCount);
+    assertThat(batchThroughput).isGreaterThan(singleRowThroughput);
+  }
+
+  /**
+   * An integration test for {@link JdbcUserDao#streamAllUsers()} which scans a large generated data set. Verifies that
+   * every user is returned, in order of id, without the scan's memory use growing with the no. of users. The test JVM
+   * is run with a small, fixed heap (see build.gradle), which a scan that loaded all the users into memory would
+   * exhaust. Also verifies the scan doesn't hold on to a connection.
+   */
+  @Test
+  void test_streamAllUsers_whenLargeNoOfUsers_thenAllUsersReturnedInOrder() {
+    assumeMySql("the embedded database holds the users in the test JVM's heap, which the test relies on being small.");
+    final int userCount = 300_000;
+    final int chunkSize = 10_000;
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    config.setScanPageSize(500);
+    try (HikariDataSource dataSource = (HikariDataSource) this.createDataSource()) {
+      final JdbcUserDao dao = new JdbcUserDao(dataSource, config);
+      final long firstUserId = dao.findLastUserId();
+      final String emailPrefix = "stream-" + System.nanoTime() + "-";
+      // Generate the users in chunks to avoid the test itself holding them all in memory
+      for (int from = 0; from < userCount; from += chunkSize) {
+        final List<NewUser> newUsers = new ArrayList<>(chunkSize);
+        for (int i = from; i < from + chunkSize; i++) {
+          newUsers.add(new NewUser("First" + i, "Last" + i, emailPrefix + i + "@example.com"));
+        }
+        assertThat(dao.createUsers(newUsers).getRejectedUsers()).isEmpty();
+      }
+      final long heapUsedBeforeBytes = usedHeapBytes();
+
+      final AtomicLong scannedUserCount = new AtomicLong();
+      final AtomicLong previousUserId = new AtomicLong(firstUserId);
+      try (Stream<User> users = dao.streamUsersAfter(firstUserId)) {
+        users.forEach(user -> {
+          assertThat(user.getId()).isGreaterThan(previousUserId.getAndSet(user.getId()));
+          assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+          scannedUserCount.incrementAndGet();
+        });
+      }
+
+      logger.info("Scanned {} users. Heap used before scan {} MB, after scan {} MB (max heap {} MB).",
+        scannedUserCount.get(), heapUsedBeforeBytes >> 20, usedHeapBytes() >> 20,
+        Runtime.getRuntime().maxMemory() >> 20);
+      assertThat(scannedUserCount.get()).isGreaterThanOrEqualTo(userCount);
+      assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+    }
+  }
+
+  private static long usedHeapBytes() {
+    final Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * An integration test for {@link AsyncUserDao#findUserById(long)} in the case where many more lookups are made
+   * concurrently than there are connections in the pool. Verifies all the lookups complete, and that the excess
+   * lookups queue in the DAO rather than waiting for a connection inside the pool.
+   */
+  @Test
+  void test_asyncFindUserById_whenMoreConcurrentLookupsThanConnections_thenLookupsQueueInDao() throws Exception {
+    try (HikariDataSource dataSource = (HikariDataSource) this.createDataSource()) {
+      dataSource.setMaximumPoolSize(4);
+      final List<Long> userIds = insertUsers(dataSource, 50);
+      try (AsyncUserDao asyncUserDao = new AsyncUserDao(new JdbcUserDao(dataSource), dataSource)) {
+        assertThat(asyncUserDao.getMaxConcurrency()).isEqualTo(4);
+        final List<CompletableFuture<Optional<User>>> lookups = new ArrayList<>();
+        int maxThreadsAwaitingConnection = 0;
+        for (int i = 0; i < 2000; i++) {
+          lookups.add(asyncUserDao.findUserById(userIds.get(i % userIds.size())));
+          maxThreadsAwaitingConnection = Math.max(maxThreadsAwaitingConnection,
+            dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection());
+        }
+        for (CompletableFuture<Optional<User>> lookup : lookups) {
+          assertThat(lookup.get(30, TimeUnit.SECONDS)).isPresent();
+        }
+
+        // The pool counts a thread as awaiting a connection while it searches for an idle one, so a snapshot can
+        // include threads that don't then wait. Callers in excess of the DAO's limit would be counted if they weren't
+        // queued in the DAO.
+        assertThat(maxThreadsAwaitingConnection).isLessThanOrEqualTo(asyncUserDao.getMaxConcurrency());
+        assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+      }
+    }
+  }
+
+  /**
+   * An integration test for {@link AsyncUserDao#findUserById(long, Duration)} in the case where the query doesn't
+   * complete within the specified timeout, because the user table is locked by another session. Verifies that the
+   * lookup fails with a timeout once its deadline passes, and that the blocked statement is cancelled, releasing its
+   * connection, while the table remains locked.
+   */
+  @Test
+  void test_asyncFindUserById_whenTimeoutExceeded_thenTimesOutAndStatementCancelled() throws Exception {
+    assumeMySql("the test blocks the query by locking the user table using LOCK TABLES.");
+    try (HikariDataSource dataSource = (HikariDataSource) this.createDataSource()) {
+      final long userId = insertUsers(dataSource, 1).get(0);
+      try (AsyncUserDao asyncUserDao = new AsyncUserDao(new JdbcUserDao(dataSource), dataSource);
+           Connection lockingConnection = dataSource.getConnection();
+           Statement lockingStatement = lockingConnection.createStatement()) {
+        lockingStatement.execute("LOCK TABLES user WRITE");
+        try {
+          final CompletableFuture<Optional<User>> lookup = asyncUserDao.findUserById(userId, Duration.ofMillis(500));
+
+          assertThatThrownBy(() -> lookup.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+            .hasCauseInstanceOf(TimeoutException.class);
+          // Only the locking connection should remain active, once the cancelled statement's connection is released
+          final long waitUntilNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+          while (dataSource.getHikariPoolMXBean().getActiveConnections() > 1 && System.nanoTime() < waitUntilNanos) {
+            Thread.sleep(50);
+          }
+          assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isEqualTo(1);
+        } finally {
+          lockingStatement.execute("UNLOCK TABLES");
+        }
+      }
+    }
+  }
+
+  /**
+   * Explains how MySQL executes a query.
+   *
+   * @param connection the connection to use to execute the EXPLAIN statement.
+   * @param sql the SQL of the query.
+   * @param binder the binder of the query's parameters.
+   * @return the first row of the query plan, as a map of the plan's column names (e.g. 'type' and 'key') to values.
+   * @throws SQLException if an error occurs executing the EXPLAIN statement.
+   */
+  private static Map<String, String> explain(Connection connection, String sql, StatementBinder binder)
+    throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + sql)) {
+      binder.bind(preparedStatement);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        assertThat(resultSet.next()).isTrue();
+        final Map<String, String> plan = new HashMap<>();
+        for (int i = 1; i <= resultSet.getMetaData().getColumnCount(); i++) {
+          plan.put(resultSet.getMetaData().getColumnLabel(i), resultSet.getString(i));
+        }
+        logger.info("Plan of query [{}]: {}", sql, plan);
+        return plan;
+      }
+    }
+  }
+
+  /**
+   * Inserts the specified no. of new users into the database.
+   *
+   * @param dataSource the DataSource to use to connect to the database.
+   * @param count the number of users to insert.
+   * @return the IDs of the inserted users.
+   * @throws SQLException if an error occurs inserting the users.
+   */
+  private static List<Long> insertUsers(DataSource dataSource, int count) throws SQLException {
+    final List<Long> userIds = new ArrayList<>(count);
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement insert = connection.prepareStatement(
+           "INSERT INTO user (first_name, last_name, email) VALUES (?, ?, ?)", new String[] {"id"})) {
+      for (int i = 0; i < count; i++) {
+        insert.setString(1, "First" + i);
+        insert.setString(2, "Last" + i);
+        insert.setString(3, "user-" + System.nanoTime() + "-" + i + "@example.com");
+        insert.executeUpdate();
+        try (ResultSet generatedKeys = insert.getGeneratedKeys()) {
+          generatedKeys.next();
+          userIds.add(generatedKeys.getLong(1));
+        }
+      }
+    }
+    return userIds;
+  }
+}
\ No newline at end of file
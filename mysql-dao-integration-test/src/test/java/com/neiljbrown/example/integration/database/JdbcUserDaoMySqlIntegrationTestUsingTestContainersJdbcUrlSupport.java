@@ -14,55 +14,65 @@
  *  limitations under the License.
  */
 package com.neiljbrown.example.integration.database;
-
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.Optional;
 import java.util.Properties;
-import javax.sql.DataSource;
 
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.testcontainers.junit.jupiter.Testcontainers;
 
 import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
 
 /**
- * An implementation of integration tests of {@link JdbcUserDao} in conjunction with MySQL that provides an example
- * of using the Testcontainers library's JDBC URL based approach to launching (and connecting to) the MySQL container.
- *
- * <h2>Support for Launching MySQL</h2>
- * This TestCase has been enhanced to remove the limitation (in the original version) of relying on an instance MySQL
- * running locally on the default port (i.e. accessible via localhost:3306). Instead the Testcontainers library is
- * used to automate launching an instance of the required version of MySQL in a Docker container.
+ * An example of an integration test of {@link JdbcUserDao} in conjunction with MySQL that uses the Testcontainers
+ * library's JDBC URL based approach to launching (and connecting to) the MySQL container.
  *
  * <h2>TestContainers Integration Method</h2>
- * This implementation of the integration test provides an example of using the Testcontainers library's custom JDBC
- * URL based approach for launching the MySQL container. This offers a simpler albeit it less flexible approach than
- * using Testcontainers' JUnit integration. The DataSource and hence (standard) JDBC driver is configured to connect
- * to the database using a custom JDBC URL that's proxied by Testcontainers which then intercepts connect requests and
- * launches the container. This integration approach is simpler to implement but there is less ability to customise
- * the configuration/setup of the MySQL container or its lifecycle. A single instance of a container, running on a
- * random port is launched on the first request and shared by all subsequent requests. For more details of how the
- * custom JDBC URL is implemented see method {@link #buildJdbcUrlForMySqlTestContainer(Properties)}.
-*/
-public class JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport extends AbstractJdbcUserDaoMySqlIntegrationTest {
+ * This test case provides an example of using the Testcontainers library's custom JDBC URL based approach for launching
+ * the MySQL container. This offers a simpler albeit it less flexible approach than using Testcontainers' JUnit
+ * integration (see {@link JdbcUserDaoMySqlIntegrationTestUsingTestContainersJUnit5Support}). The DataSource and hence
+ * (standard) JDBC driver is configured to connect to the database using a custom JDBC URL that's proxied by
+ * Testcontainers which then intercepts connect requests and launches the container. This integration approach is
+ * simpler to implement but there is less ability to customise the configuration/setup of the MySQL container or its
+ * lifecycle. A single instance of a container, running on a random port is launched on the first request and shared by
+ * all subsequent requests, until the last connection to it is closed. For more details of how the custom JDBC URL is
+ * implemented see method {@link #buildJdbcUrlForMySqlTestContainer(Properties)}.
+ * <p>
+ * Unlike the bulk of the integration tests ({@link JdbcUserDaoMySqlIntegrationTest}), which share a single database,
+ * this test case launches its own instance of MySQL, and so is kept small. It's skipped if Docker isn't available.
+ */
+@Testcontainers(disabledWithoutDocker = true) // Only used to skip the tests if Docker isn't available
+public class JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport {
 
-  private static final Logger logger =
-    LoggerFactory.getLogger(JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport.class);
+  private static HikariDataSource dataSource;
 
-  /** Create test case. */
-  JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport() {
-    Properties dataSourceProperties = loadDataSourceProperties();
+  // Class under test
+  private static JdbcUserDao jdbcUserDao;
+
+  @BeforeAll
+  static void createDao() {
+    final Properties dataSourceProperties = AbstractJdbcUserDaoMySqlIntegrationTest.loadDataSourceProperties();
     // Create the DataSource that the DAO under test will use to connect to the database, configuring it to use a
     // JDBC URL with a custom protocol provided by the Testcontainers library, which will result in subsequent requests
     // being routed to an instance of MySQL running in the Testcontainers provided Docker container.
-    final DataSource dataSource = DataSourceFactory.createDataSource(
+    dataSource = (HikariDataSource) DataSourceFactory.createDataSource(
       buildJdbcUrlForMySqlTestContainer(dataSourceProperties),
       dataSourceProperties.getProperty("dataSource.user"),
       dataSourceProperties.getProperty("dataSource.password"),
       dataSourceProperties.getProperty("driverClassName"));
-    this.jdbcUserDao = new JdbcUserDao(dataSource);
+    jdbcUserDao = new JdbcUserDao(dataSource);
+  }
+
+  @AfterAll
+  static void closeDataSource() {
+    // Closing the last connection to the container results in Testcontainers stopping it
+    if (dataSource != null) {
+      dataSource.close();
+    }
   }
 
   /**
@@ -71,9 +81,9 @@ public class JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport ex
    */
   @Test
   void test_findUserById_whenUserDoesNotExist() {
-    long lastUserId = this.jdbcUserDao.findLastUserId();
+    long lastUserId = jdbcUserDao.findLastUserId();
 
-    final Optional<User> userById = this.jdbcUserDao.findUserById(++lastUserId);
+    final Optional<User> userById = jdbcUserDao.findUserById(++lastUserId);
 
     assertThat(userById).isEmpty();
   }
@@ -97,8 +107,8 @@ public class JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport ex
    * @return a JDBC URL for accessing the application's DB hosted by an instance of MySQL running in a container that
    * will be launched by the Testcontainers library.
    */
-  private String buildJdbcUrlForMySqlTestContainer(Properties dataSourceProperties) {
-    return "jdbc:tc:mysql:" + MYSQL_VERSION + ":" +
+  private static String buildJdbcUrlForMySqlTestContainer(Properties dataSourceProperties) {
+    return "jdbc:tc:mysql:" + AbstractJdbcUserDaoMySqlIntegrationTest.MYSQL_VERSION + ":" +
       // Note - Testcontainers ignores the DB hostname and port specified in the TC JDBC URL. According to the current
       // docs you should be able to just leave them blank resulting in the component part of the string being "///".
       // However, there appears to be a bug in Testcontainers (1.14.3) such that if the hostname is left blank then
@@ -107,4 +117,4 @@ public class JdbcUserDaoMySqlIntegrationTestUsingTestContainersJdbcUrlSupport ex
       dataSourceProperties.getProperty("dataSource.databaseName") +
       "?TC_INITSCRIPT=db/V1__create_user_table.sql";
   }
-}
\ No newline at end of file
+}
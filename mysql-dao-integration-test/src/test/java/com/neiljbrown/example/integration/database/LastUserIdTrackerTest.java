@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Ticker;
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Tests of {@link LastUserIdTracker}, and its use by {@link JdbcUserDao} to serve bounded-stale reads of the last user
+ * ID, using an {@link EmbeddedUserDatabase}.
+ */
+class LastUserIdTrackerTest {
+
+  private final AtomicLong databaseLastUserId = new AtomicLong(10);
+  private final AtomicInteger queryCount = new AtomicInteger();
+  private final FakeTicker ticker = new FakeTicker();
+  private final LastUserIdTracker tracker = new LastUserIdTracker(() -> {
+    this.queryCount.incrementAndGet();
+    return this.databaseLastUserId.get();
+  }, Duration.ofSeconds(1), this.ticker);
+
+  @Test
+  void test_get_whenNotSeeded_thenSeededOnceFromDatabase() {
+    assertThat(this.tracker.get()).isEqualTo(10);
+    assertThat(this.tracker.get()).isEqualTo(10);
+
+    assertThat(this.queryCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  void test_get_whenAdvanced_thenReflectsCreatedUsersWithoutQuerying() {
+    this.tracker.get();
+
+    this.tracker.advance(12);
+    this.tracker.advance(11);
+
+    assertThat(this.tracker.get()).isEqualTo(12);
+    assertThat(this.queryCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  void test_get_whenMaxStalenessElapsed_thenReconciledWithDatabase() {
+    this.tracker.get();
+    this.databaseLastUserId.set(20);
+
+    this.ticker.advance(Duration.ofMillis(999));
+    assertThat(this.tracker.get()).isEqualTo(10);
+    this.ticker.advance(Duration.ofMillis(1));
+    assertThat(this.tracker.get()).isEqualTo(20);
+
+    assertThat(this.queryCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  void test_reconcile_whenDatabaseBehindHighWaterMark_thenHighWaterMarkNotDecreased() {
+    this.tracker.advance(15);
+
+    assertThat(this.tracker.reconcile()).isEqualTo(15);
+  }
+
+  @Test
+  void test_get_whenReconcilingAfterMaxStaleness_thenConcurrentReadersReturnHighWaterMarkWithoutWaiting()
+    throws Exception {
+    final CountDownLatch queryStarted = new CountDownLatch(1);
+    final CountDownLatch releaseQuery = new CountDownLatch(1);
+    final AtomicInteger blockingQueryCount = new AtomicInteger();
+    final LastUserIdTracker blockingTracker = new LastUserIdTracker(() -> {
+      if (blockingQueryCount.incrementAndGet() > 1) {
+        queryStarted.countDown();
+        try {
+          releaseQuery.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return this.databaseLastUserId.get();
+    }, Duration.ofSeconds(1), this.ticker);
+    blockingTracker.get();
+    this.databaseLastUserId.set(30);
+    this.ticker.advance(Duration.ofSeconds(1));
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final Future<Long> reconcilingReader = executor.submit(blockingTracker::get);
+      assertThat(queryStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      final List<Future<Long>> readers = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        readers.add(executor.submit(blockingTracker::get));
+      }
+      for (Future<Long> reader : readers) {
+        assertThat(reader.get(5, TimeUnit.SECONDS)).isEqualTo(10);
+      }
+      releaseQuery.countDown();
+      assertThat(reconcilingReader.get(5, TimeUnit.SECONDS)).isEqualTo(30);
+      assertThat(blockingQueryCount.get()).isEqualTo(2);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void test_jdbcUserDao_whenBoundedStaleRead_thenReflectsOwnInsertsButNotOthersUntilReconciled() throws SQLException {
+    try (HikariDataSource dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase(
+      "lastUserId" + System.nanoTime(), 2)) {
+      final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+      config.setLastUserIdMaxStaleness(Duration.ofHours(1));
+      final JdbcUserDao dao = new JdbcUserDao(dataSource, config);
+      assertThat(dao.findLastUserId(ReadConsistency.BOUNDED_STALE)).isZero();
+
+      final User user = dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+      final List<User> users = dao.createUsers(List.of(new NewUser("Jane", "Doe", "jane@example.com"),
+        new NewUser("John", "Smith", "john@example.com"))).getCreatedUsers();
+
+      assertThat(dao.findLastUserId(ReadConsistency.BOUNDED_STALE)).isEqualTo(users.get(1).getId())
+        .isGreaterThan(user.getId());
+      try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+        statement.executeUpdate("INSERT INTO user (first_name, last_name, email) VALUES ('A', 'B', 'ab@example.com')");
+      }
+      assertThat(dao.findLastUserId(ReadConsistency.BOUNDED_STALE)).isEqualTo(users.get(1).getId());
+      assertThat(dao.findLastUserId(ReadConsistency.STRICT)).isEqualTo(users.get(1).getId() + 1);
+      assertThat(dao.findLastUserId(ReadConsistency.BOUNDED_STALE)).isEqualTo(users.get(1).getId() + 1);
+    }
+  }
+
+  @Test
+  void test_jdbcUserDao_whenStrictReadAfterLastUsersDeleted_thenReturnsDatabaseValue() throws SQLException {
+    try (HikariDataSource dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase(
+      "lastUserIdDeleted" + System.nanoTime(), 2)) {
+      final JdbcUserDao dao = new JdbcUserDao(dataSource);
+      final User user = dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+      final User lastUser = dao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+      assertThat(dao.findLastUserId(ReadConsistency.BOUNDED_STALE)).isEqualTo(lastUser.getId());
+
+      try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+        statement.executeUpdate("DELETE FROM user WHERE id = " + lastUser.getId());
+      }
+
+      assertThat(dao.findLastUserId(ReadConsistency.STRICT)).isEqualTo(user.getId());
+      try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+        statement.executeUpdate("TRUNCATE TABLE user");
+      }
+      assertThat(dao.findLastUserId(ReadConsistency.STRICT)).isZero();
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return this.nanos.get();
+    }
+
+    void advance(Duration duration) {
+      this.nanos.addAndGet(duration.toNanos());
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Tests of {@link RoutingDataSource}, and its use by {@link JdbcUserDao}, using separate {@link EmbeddedUserDatabase
+ * embedded databases} for the primary and the replicas. The databases aren't replicated, so the database that served
+ * a read can be identified from the data it returns.
+ */
+class RoutingDataSourceTest {
+
+  private final AtomicReference<Duration> replicaLag = new AtomicReference<>(Duration.ZERO);
+  private final RoutingDataSourceConfig config = new RoutingDataSourceConfig();
+
+  /** Create test case. */
+  RoutingDataSourceTest() {
+    this.config.setReplicaLagProbe(connection -> {
+      if (this.replicaLag.get() == null) {
+        throw new SQLException("Replica is down.");
+      }
+      return this.replicaLag.get();
+    });
+    this.config.setMaxReplicaLag(Duration.ofSeconds(5));
+    this.config.setReadYourWritesWindow(Duration.ZERO);
+    // Replicas are checked on demand by the tests
+    this.config.setHealthCheckInterval(Duration.ofHours(1));
+  }
+
+  @Test
+  void test_jdbcUserDao_whenReplicaEligible_thenReadsServedByReplicaAndWritesByPrimary() {
+    final DataSource primary = createDatabase("primary");
+    final DataSource replica = createDatabase("replica");
+    final User replicaUser = new JdbcUserDao(replica).createUser(new NewUser("Replica", "User", "r@example.com"));
+    try (RoutingDataSource routingDataSource = new RoutingDataSource(primary, List.of(replica), this.config)) {
+      routingDataSource.checkReplicas();
+      final JdbcUserDao dao = new JdbcUserDao(routingDataSource);
+
+      assertThat(dao.findUserById(replicaUser.getId())).hasValueSatisfying(user ->
+        assertThat(user.getFirstName()).isEqualTo("Replica"));
+      assertThat(dao.findLastUserId()).isEqualTo(replicaUser.getId());
+      assertThat(dao.findLastUserId(ReadConsistency.BOUNDED_STALE)).isEqualTo(replicaUser.getId());
+      // A strict read must reflect all committed inserts, so isn't served by a (potentially lagging) replica
+      assertThat(dao.findLastUserId(ReadConsistency.STRICT)).isZero();
+
+      final User createdUser = dao.createUser(new NewUser("Primary", "User", "p@example.com"));
+      assertThat(new JdbcUserDao(primary).findUserById(createdUser.getId())).isPresent();
+      assertThat(new JdbcUserDao(replica).findLastUserId()).isEqualTo(replicaUser.getId());
+    }
+  }
+
+  @Test
+  void test_getReadConnection_whenThreadWroteWithinReadYourWritesWindow_thenReadsServedByPrimary() throws Exception {
+    this.config.setReadYourWritesWindow(Duration.ofMinutes(1));
+    final DataSource primary = createDatabase("primary");
+    final DataSource replica = createDatabase("replica");
+    try (RoutingDataSource routingDataSource = new RoutingDataSource(primary, List.of(replica), this.config)) {
+      routingDataSource.checkReplicas();
+      final JdbcUserDao dao = new JdbcUserDao(routingDataSource);
+      assertThat(dao.findLastUserId()).isZero();
+
+      final User createdUser = dao.createUser(new NewUser("Primary", "User", "p@example.com"));
+
+      assertThat(dao.findUserById(createdUser.getId())).isPresent();
+      // Other threads haven't written, so their reads are still served by the replica
+      final Optional<User> userReadByOtherThread = CompletableFuture.supplyAsync(() ->
+        dao.findUserById(createdUser.getId())).get();
+      assertThat(userReadByOtherThread).isEmpty();
+    }
+  }
+
+  @Test
+  void test_getReadConnection_whenThreadReadFromPrimaryWithinReadYourWritesWindow_thenReadsServedByReplica() {
+    this.config.setReadYourWritesWindow(Duration.ofMinutes(1));
+    final DataSource primary = createDatabase("primary");
+    final DataSource replica = createDatabase("replica");
+    final User replicaUser = new JdbcUserDao(replica).createUser(new NewUser("Replica", "User", "r@example.com"));
+    try (RoutingDataSource routingDataSource = new RoutingDataSource(primary, List.of(replica), this.config)) {
+      routingDataSource.checkReplicas();
+      final JdbcUserDao dao = new JdbcUserDao(routingDataSource);
+
+      assertThat(dao.findLastUserId(ReadConsistency.STRICT)).isZero();
+
+      assertThat(dao.findUserById(replicaUser.getId())).isPresent();
+    }
+  }
+
+  @Test
+  void test_getReadConnection_whenReplicaLagsOrIsDown_thenReadsFallBackToPrimary() {
+    final DataSource primary = createDatabase("primary");
+    final DataSource replica = createDatabase("replica");
+    final User primaryUser = new JdbcUserDao(primary).createUser(new NewUser("Primary", "User", "p@example.com"));
+    try (RoutingDataSource routingDataSource = new RoutingDataSource(primary, List.of(replica), this.config)) {
+      final JdbcUserDao dao = new JdbcUserDao(routingDataSource);
+
+      this.replicaLag.set(Duration.ofSeconds(10));
+      routingDataSource.checkReplicas();
+      assertThat(routingDataSource.getEligibleReplicaCount()).isZero();
+      assertThat(dao.findUserById(primaryUser.getId())).isPresent();
+
+      this.replicaLag.set(Duration.ofSeconds(1));
+      routingDataSource.checkReplicas();
+      assertThat(routingDataSource.getEligibleReplicaCount()).isEqualTo(1);
+      assertThat(dao.findUserById(primaryUser.getId())).isEmpty();
+
+      this.replicaLag.set(null);
+      routingDataSource.checkReplicas();
+      assertThat(routingDataSource.getEligibleReplicaCount()).isZero();
+      assertThat(dao.findUserById(primaryUser.getId())).isPresent();
+    }
+  }
+
+  @Test
+  void test_getReadConnection_whenRoundRobin_thenReadsSpreadAcrossReplicas() {
+    final DataSource replica1 = createDatabase("replica1");
+    final DataSource replica2 = createDatabase("replica2");
+    final long userId = new JdbcUserDao(replica1).createUser(new NewUser("Replica1", "User", "1@example.com")).getId();
+    new JdbcUserDao(replica2).createUser(new NewUser("Replica2", "User", "2@example.com"));
+    try (RoutingDataSource routingDataSource = new RoutingDataSource(createDatabase("primary"),
+      List.of(replica1, replica2), this.config)) {
+      routingDataSource.checkReplicas();
+      final JdbcUserDao dao = new JdbcUserDao(routingDataSource);
+
+      final Set<String> firstNames = new HashSet<>();
+      for (int i = 0; i < 4; i++) {
+        dao.findUserById(userId).ifPresent(user -> firstNames.add(user.getFirstName()));
+      }
+
+      assertThat(firstNames).containsExactlyInAnyOrder("Replica1", "Replica2");
+    }
+  }
+
+  @Test
+  void test_getReadConnection_whenLeastActiveConnectionsAndReplicasStartedLazily_thenLeastBusyReplicaSelected()
+    throws SQLException {
+    final String replica1Name = "replica1" + System.nanoTime();
+    final String replica2Name = "replica2" + System.nanoTime();
+    final long userId = new JdbcUserDao(EmbeddedUserDatabase.createDatabase(replica1Name, 1)).createUser(
+      new NewUser("Replica1", "User", "1@example.com")).getId();
+    new JdbcUserDao(EmbeddedUserDatabase.createDatabase(replica2Name, 1)).createUser(
+      new NewUser("Replica2", "User", "2@example.com"));
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(DataSourceStartupConfig.StartupMode.LAZY);
+    final List<DataSource> replicas = List.of(
+      DataSourceFactory.createDataSource(EmbeddedUserDatabase.jdbcUrl(replica1Name), EmbeddedUserDatabase.USERNAME,
+        EmbeddedUserDatabase.PASSWORD, null, startupConfig),
+      DataSourceFactory.createDataSource(EmbeddedUserDatabase.jdbcUrl(replica2Name), EmbeddedUserDatabase.USERNAME,
+        EmbeddedUserDatabase.PASSWORD, null, startupConfig));
+    this.config.setReplicaSelection(RoutingDataSourceConfig.ReplicaSelection.LEAST_ACTIVE_CONNECTIONS);
+    try (RoutingDataSource routingDataSource = new RoutingDataSource(createDatabase("primary"), replicas,
+      this.config)) {
+      routingDataSource.checkReplicas();
+      assertThat(routingDataSource.getEligibleReplicaCount()).isEqualTo(2);
+      final JdbcUserDao dao = new JdbcUserDao(routingDataSource);
+
+      try (Connection busyReplicaConnection = routingDataSource.getReadConnection();
+           PreparedStatement statement = busyReplicaConnection.prepareStatement(
+             "SELECT first_name FROM user WHERE id=?")) {
+        statement.setLong(1, userId);
+        final String busyReplicaFirstName;
+        try (ResultSet resultSet = statement.executeQuery()) {
+          assertThat(resultSet.next()).isTrue();
+          busyReplicaFirstName = resultSet.getString(1);
+        }
+
+        final Set<String> firstNames = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+          dao.findUserById(userId).ifPresent(user -> firstNames.add(user.getFirstName()));
+        }
+
+        assertThat(firstNames).hasSize(1).doesNotContain(busyReplicaFirstName);
+      }
+    }
+  }
+
+  @Test
+  void test_createRoutingDataSource_whenReplicaStartedLazily_thenFirstHealthCheckDoesNotStartIt() throws Exception {
+    final String lazyReplicaName = "lazyReplica" + System.nanoTime();
+    EmbeddedUserDatabase.createDatabase(lazyReplicaName, 1);
+    final DataSourceStartupConfig startupConfig = new DataSourceStartupConfig();
+    startupConfig.setStartupMode(DataSourceStartupConfig.StartupMode.LAZY);
+    final HikariDataSource lazyReplica = (HikariDataSource) DataSourceFactory.createDataSource(
+      EmbeddedUserDatabase.jdbcUrl(lazyReplicaName), EmbeddedUserDatabase.USERNAME, EmbeddedUserDatabase.PASSWORD,
+      null, startupConfig);
+    try (RoutingDataSource routingDataSource = new RoutingDataSource(createDatabase("primary"),
+      List.of(createDatabase("replica"), lazyReplica), this.config)) {
+      final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+      while (routingDataSource.getEligibleReplicaCount() == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+
+      assertThat(routingDataSource.getEligibleReplicaCount()).isEqualTo(1);
+      assertThat(lazyReplica.getHikariPoolMXBean()).isNull();
+
+      routingDataSource.checkReplicas();
+      assertThat(routingDataSource.getEligibleReplicaCount()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void test_createRoutingDataSource_whenReplicasConfiguredInProperties_thenCreatedAndCheckedWithMySqlProbe() {
+    final String primaryName = "primary" + System.nanoTime();
+    final User primaryUser;
+    try (HikariDataSource primary = (HikariDataSource) EmbeddedUserDatabase.createDatabase(primaryName, 1)) {
+      primaryUser = new JdbcUserDao(primary).createUser(new NewUser("Primary", "User", "p@example.com"));
+    }
+    final Properties properties = new Properties();
+    properties.setProperty("jdbcUrl", EmbeddedUserDatabase.jdbcUrl(primaryName));
+    properties.setProperty("username", "sa");
+    properties.setProperty("password", "");
+    properties.setProperty("replica.1.jdbcUrl", EmbeddedUserDatabase.jdbcUrl("replica1" + System.nanoTime()));
+    properties.setProperty("replica.2.jdbcUrl", EmbeddedUserDatabase.jdbcUrl("replica2" + System.nanoTime()));
+    properties.setProperty("replica.2.maximumPoolSize", "3");
+    properties.setProperty("routing.replicaSelection", "LEAST_ACTIVE_CONNECTIONS");
+    properties.setProperty("routing.maxReplicaLagMillis", "1000");
+
+    try (RoutingDataSource routingDataSource = DataSourceFactory.createRoutingDataSource(properties)) {
+      routingDataSource.checkReplicas();
+
+      // The embedded replicas don't support the MySQL replication status query, so are ineligible
+      assertThat(routingDataSource.getEligibleReplicaCount()).isZero();
+      assertThat(new JdbcUserDao(routingDataSource).findUserById(primaryUser.getId())).isPresent();
+      assertThat(routingDataSource.toString()).contains("replica-1", "replica-2");
+    }
+  }
+
+  private static DataSource createDatabase(String name) {
+    return EmbeddedUserDatabase.createDatabase(name + System.nanoTime(), 2);
+  }
+}
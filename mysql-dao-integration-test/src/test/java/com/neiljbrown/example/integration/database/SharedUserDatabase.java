@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.MySQLContainer;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * The database used by the integration tests of {@link JdbcUserDao}, which is shared by all the tests run in the same
+ * JVM, so that the (relatively slow) startup of the database is paid once per test run, rather than once per test case.
+ * <p>
+ * If Docker is available, the database is the required version of MySQL, launched in a container by the
+ * Testcontainers library. The container is started on first use, and left running until the JVM exits, when it's
+ * removed by Testcontainers. Otherwise, the embedded, in-memory stand-in for MySQL ({@link EmbeddedUserDatabase}) is
+ * used.
+ * <p>
+ * Tests which run in parallel are isolated from each other by each using its own schema (a database, in MySQL terms),
+ * which is {@link #acquireSchema() acquired} before the test runs and {@link #releaseSchema(WorkerSchema) released}
+ * once it completes. Schemas are created on demand from the application's schema script, so there are only ever as
+ * many as the max no. of tests that have run concurrently. A released schema is reset by truncating the user table,
+ * which is much faster than dropping and recreating it, and is then reused by the next test.
+ */
+final class SharedUserDatabase {
+
+  private static final Logger logger = LoggerFactory.getLogger(SharedUserDatabase.class);
+
+  /** Max size of the connection pool of the DataSource of each schema. */
+  private static final int SCHEMA_POOL_SIZE = 8;
+
+  private static SharedUserDatabase instance;
+
+  // Container in which MySQL is running. Null if the embedded database is used.
+  private final MySQLContainer<?> mySqlContainer;
+  private final Properties dataSourceProperties;
+  // Schemas that have been released, available for reuse. Guarded by this.
+  private final Deque<WorkerSchema> releasedSchemas = new ArrayDeque<>();
+  // Guarded by this.
+  private int schemaCount;
+
+  private SharedUserDatabase(MySQLContainer<?> mySqlContainer, Properties dataSourceProperties) {
+    this.mySqlContainer = mySqlContainer;
+    this.dataSourceProperties = dataSourceProperties;
+  }
+
+  /**
+   * @return the database shared by the tests, launching it on first use.
+   */
+  static synchronized SharedUserDatabase getInstance() {
+    if (instance == null) {
+      final Properties dataSourceProperties = AbstractJdbcUserDaoMySqlIntegrationTest.loadDataSourceProperties();
+      if (DockerClientFactory.instance().isDockerAvailable()) {
+        instance = new SharedUserDatabase(startMySqlContainer(dataSourceProperties), dataSourceProperties);
+      } else {
+        logger.warn("Docker isn't available. Using an embedded database as a stand-in for MySQL.");
+        instance = new SharedUserDatabase(null, dataSourceProperties);
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * @return true if the database is MySQL, false if it's the embedded stand-in. Tests of behaviour that's specific to
+   * MySQL (e.g. query plans and table locks) should only be run against MySQL.
+   */
+  boolean isMySql() {
+    return this.mySqlContainer != null;
+  }
+
+  /**
+   * Acquires a schema for the exclusive use of a test, reusing a released schema if there is one, and otherwise
+   * creating a new one.
+   *
+   * @return the acquired schema, containing an empty user table.
+   */
+  WorkerSchema acquireSchema() {
+    final int schemaNo;
+    synchronized (this) {
+      final WorkerSchema releasedSchema = this.releasedSchemas.pollFirst();
+      if (releasedSchema != null) {
+        return releasedSchema;
+      }
+      schemaNo = ++this.schemaCount;
+    }
+    final long startNanos = System.nanoTime();
+    final WorkerSchema schema = isMySql() ? createMySqlSchema(schemaNo) : createEmbeddedSchema(schemaNo);
+    logger.info("Created schema {} in {} ms.", schema.getName(), (System.nanoTime() - startNanos) / 1_000_000);
+    return schema;
+  }
+
+  /**
+   * Releases a schema that's no longer used by a test, truncating its user table so it can be reused.
+   *
+   * @param schema the schema to release.
+   */
+  void releaseSchema(WorkerSchema schema) {
+    Objects.requireNonNull(schema, "schema must not be null.");
+    try (Connection connection = schema.getDataSource().getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("TRUNCATE TABLE user");
+    } catch (SQLException sqle) {
+      // Don't reuse a schema that may not have been reset
+      logger.warn("Failed to truncate schema {}. It won't be reused.", schema.getName(), sqle);
+      schema.close();
+      return;
+    }
+    synchronized (this) {
+      this.releasedSchemas.addFirst(schema);
+    }
+  }
+
+  private static MySQLContainer<?> startMySqlContainer(Properties dataSourceProperties) {
+    final MySQLContainer<?> mySqlContainer = new MySQLContainer<>(
+      "mysql:" + AbstractJdbcUserDaoMySqlIntegrationTest.MYSQL_VERSION)
+      .withDatabaseName(dataSourceProperties.getProperty("dataSource.databaseName"));
+    mySqlContainer.start();
+    return mySqlContainer;
+  }
+
+  private WorkerSchema createEmbeddedSchema(int schemaNo) {
+    final String name = "shared_worker_" + schemaNo;
+    return new WorkerSchema(name, EmbeddedUserDatabase.jdbcUrl(name), EmbeddedUserDatabase.USERNAME,
+      EmbeddedUserDatabase.PASSWORD, null, EmbeddedUserDatabase.createDatabase(name, SCHEMA_POOL_SIZE));
+  }
+
+  private WorkerSchema createMySqlSchema(int schemaNo) {
+    final String name = this.dataSourceProperties.getProperty("dataSource.databaseName") + "_worker_" + schemaNo;
+    final String serverUrl = "jdbc:mysql://" + this.mySqlContainer.getHost() + ":" +
+      this.mySqlContainer.getFirstMappedPort() + "/";
+    // Disable use of SSL in dev to avoid MySQL logging warning about server's SSL certificate not being verified
+    final String urlParams = "?useSSL=false";
+    final String username = this.dataSourceProperties.getProperty("dataSource.user");
+    final String password = this.dataSourceProperties.getProperty("dataSource.password");
+    try (Connection connection = DriverManager.getConnection(serverUrl + urlParams, username, password);
+         Statement statement = connection.createStatement()) {
+      statement.execute("CREATE DATABASE " + name + " CHARSET=utf8");
+    } catch (SQLException sqle) {
+      throw new RuntimeException("Error creating database [" + name + "].", sqle);
+    }
+    final String jdbcUrl = serverUrl + name + urlParams;
+    final String driverClassName = this.dataSourceProperties.getProperty("driverClassName");
+    final HikariDataSource dataSource =
+      (HikariDataSource) DataSourceFactory.createDataSource(jdbcUrl, username, password, driverClassName);
+    dataSource.setMaximumPoolSize(SCHEMA_POOL_SIZE);
+    // The embedded database's adaptation of the schema script (excluding creating and switching database) also suits
+    // creating the schema in a database other than the one named in the script
+    EmbeddedUserDatabase.createSchema(dataSource);
+    return new WorkerSchema(name, jdbcUrl, username, password, driverClassName, dataSource);
+  }
+
+  /**
+   * A schema in the shared database, for the exclusive use of one test at a time.
+   */
+  static final class WorkerSchema {
+
+    private final String name;
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+    private final String driverClassName;
+    private final HikariDataSource dataSource;
+
+    private WorkerSchema(String name, String jdbcUrl, String username, String password, String driverClassName,
+      DataSource dataSource) {
+      this.name = name;
+      this.jdbcUrl = jdbcUrl;
+      this.username = username;
+      this.password = password;
+      this.driverClassName = driverClassName;
+      this.dataSource = (HikariDataSource) dataSource;
+    }
+
+    /**
+     * @return the name of the schema.
+     */
+    String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return a pooled DataSource for the schema, which is shared by all the tests that use the schema, and so must not
+     * be closed or reconfigured by them.
+     */
+    DataSource getDataSource() {
+      return this.dataSource;
+    }
+
+    /**
+     * Creates a new DataSource for the schema, for tests that need to configure the DataSource used by the DAO under
+     * test. It's the test's responsibility to close it.
+     *
+     * @return the created, pooled {@link DataSource}, created using {@link DataSourceFactory}.
+     */
+    DataSource createDataSource() {
+      return DataSourceFactory.createDataSource(this.jdbcUrl, this.username, this.password, this.driverClassName);
+    }
+
+    private void close() {
+      this.dataSource.close();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.neiljbrown.example.business.domain.UserView;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Tests of the queries of {@link JdbcUserDao} that retrieve a {@link UserProjection projection} of the details of
+ * users, using an {@link EmbeddedUserDatabase}.
+ */
+class UserProjectionTest {
+
+  private HikariDataSource dataSource;
+  private JdbcUserDao dao;
+  private User user1;
+  private User user2;
+
+  @BeforeEach
+  void setUp() {
+    this.dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase("projection" + System.nanoTime(), 2);
+    final JdbcUserDaoConfig config = new JdbcUserDaoConfig();
+    config.setScanPageSize(1);
+    this.dao = new JdbcUserDao(this.dataSource, config);
+    this.user1 = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    this.user2 = this.dao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.dataSource.close();
+  }
+
+  @Test
+  void test_findUserById_whenProjected_thenOnlyProjectedDetailsPopulated() {
+    final UserView idOnly = this.dao.findUserById(this.user1.getId(), UserProjection.ID_ONLY).orElseThrow();
+    assertUserView(idOnly, this.user1.getId(), null, null, null);
+
+    final UserView name = this.dao.findUserById(this.user1.getId(), UserProjection.NAME).orElseThrow();
+    assertUserView(name, this.user1.getId(), "Joe", "Bloggs", null);
+
+    final UserView full = this.dao.findUserById(this.user1.getId(), UserProjection.FULL).orElseThrow();
+    assertUserView(full, this.user1.getId(), "Joe", "Bloggs", "joe@example.com");
+
+    assertThat(this.dao.findUserById(this.user2.getId() + 1, UserProjection.FULL)).isEmpty();
+  }
+
+  @Test
+  void test_findUsersByIds_whenProjected_thenOnlyProjectedDetailsPopulated() {
+    final Map<Long, UserView> users = this.dao.findUsersByIds(
+      List.of(this.user1.getId(), this.user2.getId(), this.user2.getId() + 1), UserProjection.NAME);
+
+    assertThat(users).containsOnlyKeys(this.user1.getId(), this.user2.getId());
+    assertUserView(users.get(this.user2.getId()), this.user2.getId(), "Jane", "Doe", null);
+  }
+
+  @Test
+  void test_streamUsersAfter_whenProjected_thenAllPagesStreamedInIdOrder() {
+    final List<UserView> users = this.dao.streamUsersAfter(0, UserProjection.FULL).collect(Collectors.toList());
+
+    assertThat(users).extracting(UserView::getId).containsExactly(this.user1.getId(), this.user2.getId());
+    assertUserView(users.get(1), this.user2.getId(), "Jane", "Doe", "jane@example.com");
+    assertThat(this.dao.streamUsersAfter(this.user1.getId(), UserProjection.ID_ONLY).map(UserView::getId))
+      .containsExactly(this.user2.getId());
+  }
+
+  @Test
+  void test_findUserById_whenNotProjected_thenUserMappedByPosition() {
+    final User user = this.dao.findUserById(this.user2.getId()).orElseThrow();
+
+    assertThat(user.getId()).isEqualTo(this.user2.getId());
+    assertThat(user.getFirstName()).isEqualTo("Jane");
+    assertThat(user.getLastName()).isEqualTo("Doe");
+  }
+
+  private static void assertUserView(UserView view, long id, String firstName, String lastName, String email) {
+    assertThat(view.getId()).isEqualTo(id);
+    assertThat(view.getFirstName()).isEqualTo(firstName);
+    assertThat(view.getLastName()).isEqualTo(lastName);
+    assertThat(view.getEmail()).isEqualTo(email);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+
+/**
+ * Unit tests for {@link UserSnapshot}, using an {@link InMemoryUserDao} as the source of users.
+ */
+class UserSnapshotTest {
+
+  private InMemoryUserDao userDao;
+  private UserSnapshot snapshot;
+
+  @BeforeEach
+  void setUp() {
+    this.userDao = new InMemoryUserDao();
+    this.snapshot = new UserSnapshot(this.userDao);
+  }
+
+  @Test
+  void test_findUserById_whenNotRefreshed_thenEmpty() {
+    this.userDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+
+    assertThat(this.snapshot.findUserById(1)).isEmpty();
+    assertThat(this.snapshot.size()).isZero();
+    assertThat(this.snapshot.getHighWaterMark()).isZero();
+  }
+
+  @Test
+  void test_refresh_whenManyUsers_thenAllUsersFoundWithNames() {
+    final int userCount = 5000;
+    for (int i = 1; i <= userCount; i++) {
+      this.userDao.createUser(new NewUser("First" + i, "Last" + i, "user" + i + "@example.com"));
+    }
+    // Names that aren't ASCII are encoded in more than one byte
+    final User user = this.userDao.createUser(new NewUser("Zo\u00eb", "\u0141ukasiewicz", "zoe@example.com"));
+
+    assertThat(this.snapshot.refresh()).isEqualTo(userCount + 1);
+
+    assertThat(this.snapshot.size()).isEqualTo(userCount + 1);
+    assertThat(this.snapshot.getHighWaterMark()).isEqualTo(user.getId());
+    for (long id = 1; id <= userCount; id++) {
+      final User snapshotUser = this.snapshot.findUserById(id).orElseThrow();
+      assertThat(snapshotUser.getId()).isEqualTo(id);
+      assertThat(snapshotUser.getFirstName()).isEqualTo("First" + id);
+      assertThat(snapshotUser.getLastName()).isEqualTo("Last" + id);
+    }
+    assertThat(this.snapshot.findUserById(user.getId()).map(User::getFirstName)).hasValue("Zo\u00eb");
+    assertThat(this.snapshot.findUserById(user.getId()).map(User::getLastName)).hasValue("\u0141ukasiewicz");
+    assertThat(this.snapshot.findUserById(user.getId() + 1)).isEmpty();
+    assertThat(this.snapshot.containsUser(user.getId())).isTrue();
+    assertThat(this.snapshot.containsUser(0)).isFalse();
+  }
+
+  @Test
+  void test_refresh_whenUsersCreatedSinceLastRefresh_thenOnlyNewUsersLoaded() {
+    final User user1 = this.userDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    this.snapshot.refresh();
+    final User user2 = this.userDao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+    // A change to an existing user isn't loaded by a refresh
+    this.userDao.usersById.put(user1.getId(), new User(user1.getId(), "Joseph", "Bloggs"));
+
+    assertThat(this.snapshot.refresh()).isEqualTo(1);
+
+    assertThat(this.snapshot.findUserById(user2.getId()).map(User::getFirstName)).hasValue("Jane");
+    assertThat(this.snapshot.findUserById(user1.getId()).map(User::getFirstName)).hasValue("Joe");
+    assertThat(this.snapshot.refresh()).isZero();
+  }
+
+  @Test
+  void test_reload_whenExistingUserChanged_thenChangeLoaded() {
+    final User user = this.userDao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    this.snapshot.refresh();
+    this.userDao.usersById.put(user.getId(), new User(user.getId(), "Joseph", "Bloggs"));
+
+    assertThat(this.snapshot.reload()).isEqualTo(1);
+
+    assertThat(this.snapshot.findUserById(user.getId()).map(User::getFirstName)).hasValue("Joseph");
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2020 - present the original author or authors.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *            http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.neiljbrown.example.integration.database;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.neiljbrown.example.business.domain.NewUser;
+import com.neiljbrown.example.business.domain.User;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Unit tests for {@link WriteBehindUserDao}, using a {@link JdbcUserDao} and an {@link EmbeddedUserDatabase}. Unless
+ * stated otherwise, the flush interval is long enough that updates are only flushed when a test requests it.
+ */
+class WriteBehindUserDaoTest {
+
+  private HikariDataSource dataSource;
+  private JdbcUserDao jdbcUserDao;
+  private WriteBehindUserDao dao;
+
+  @BeforeEach
+  void setUp() {
+    this.dataSource = (HikariDataSource) EmbeddedUserDatabase.createDatabase("writebehind" + System.nanoTime(), 2);
+    this.jdbcUserDao = new JdbcUserDao(this.dataSource);
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (this.dao != null) {
+      this.dao.close();
+    }
+    this.dataSource.close();
+  }
+
+  @Test
+  void test_updateUser_whenUserUpdatedRepeatedly_thenUpdatesCoalescedIntoOneWrite() {
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config(Duration.ofHours(1), 10, Duration.ZERO));
+    final User user1 = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final User user2 = this.dao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+
+    for (int i = 1; i <= 3; i++) {
+      this.dao.updateUser(new User(user1.getId(), "Joe" + i, "Bloggs" + i));
+    }
+    this.dao.updateUser(new User(user2.getId(), "Janet", "Doe"));
+    this.dao.flush();
+
+    assertThat(this.dao.getUpdateCount()).isEqualTo(4);
+    assertThat(this.dao.getFlushedUpdateCount()).isEqualTo(2);
+    assertThat(this.dao.getFlushCount()).isEqualTo(1);
+    assertThat(this.dao.getCoalescingRatio()).isEqualTo(2.0);
+    assertThat(this.dao.getPendingUpdateCount()).isZero();
+    assertThat(this.jdbcUserDao.findUserById(user1.getId()).map(User::getFirstName)).hasValue("Joe3");
+    assertThat(this.jdbcUserDao.findUserById(user2.getId()).map(User::getFirstName)).hasValue("Janet");
+  }
+
+  @Test
+  void test_findUser_whenUpdatePending_thenUserReflectsUpdate() {
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config(Duration.ofHours(1), 10, Duration.ZERO));
+    final User user = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+
+    this.dao.updateUser(new User(user.getId(), "Joseph", "Bloggs"));
+
+    assertThat(this.jdbcUserDao.findUserById(user.getId()).map(User::getFirstName)).hasValue("Joe");
+    assertThat(this.dao.findUserById(user.getId()).map(User::getFirstName)).hasValue("Joseph");
+    assertThat(this.dao.findUsersByIds(List.of(user.getId())).get(user.getId()).getFirstName()).isEqualTo("Joseph");
+    assertThat(this.dao.findUserByEmail("joe@example.com").map(User::getFirstName)).hasValue("Joseph");
+    assertThat(this.dao.streamUsersAfter(0)).extracting(User::getFirstName).containsExactly("Joseph");
+  }
+
+  @Test
+  void test_findUser_whenUpdateOfNonExistentUserPending_thenUserNotFound() {
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config(Duration.ofHours(1), 10, Duration.ZERO));
+
+    this.dao.updateUser(new User(1234, "Joe", "Bloggs"));
+
+    assertThat(this.dao.findUserById(1234)).isEmpty();
+    this.dao.flush();
+    assertThat(this.dao.getFlushCount()).isEqualTo(1);
+  }
+
+  @Test
+  void test_flushInterval_whenUpdatePending_thenFlushedInBackground() throws Exception {
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config(Duration.ofMillis(10), 10, Duration.ZERO));
+    final User user = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+
+    this.dao.updateUser(new User(user.getId(), "Joseph", "Bloggs"));
+
+    final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (this.dao.getFlushCount() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(this.dao.getFlushCount()).isEqualTo(1);
+    assertThat(this.jdbcUserDao.findUserById(user.getId()).map(User::getFirstName)).hasValue("Joseph");
+  }
+
+  @Test
+  void test_close_whenUpdatesPending_thenUpdatesFlushedAndFurtherUpdatesRejected() {
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config(Duration.ofHours(1), 10, Duration.ZERO));
+    final User user = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    this.dao.updateUser(new User(user.getId(), "Joseph", "Bloggs"));
+
+    this.dao.close();
+
+    assertThat(this.jdbcUserDao.findUserById(user.getId()).map(User::getFirstName)).hasValue("Joseph");
+    assertThatThrownBy(() -> this.dao.updateUser(user)).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void test_updateUser_whenQueueFullAndNoWait_thenOtherUsersRejectedButPendingUsersAccepted() {
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config(Duration.ofHours(1), 1, Duration.ZERO));
+    this.dao.updateUser(new User(1, "Joe", "Bloggs"));
+
+    assertThatThrownBy(() -> this.dao.updateUser(new User(2, "Jane", "Doe")))
+      .isInstanceOf(RejectedExecutionException.class);
+    this.dao.updateUser(new User(1, "Joseph", "Bloggs"));
+  }
+
+  @Test
+  void test_updateUser_whenQueueFull_thenEarlyFlushMakesSpace() {
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config(Duration.ofHours(1), 1, Duration.ofSeconds(5)));
+    final User user1 = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final User user2 = this.dao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+    this.dao.updateUser(new User(user1.getId(), "Joseph", "Bloggs"));
+
+    this.dao.updateUser(new User(user2.getId(), "Janet", "Doe"));
+    this.dao.flush();
+
+    assertThat(this.dao.getFlushCount()).isEqualTo(2);
+    assertThat(this.jdbcUserDao.findUserById(user1.getId()).map(User::getFirstName)).hasValue("Joseph");
+    assertThat(this.jdbcUserDao.findUserById(user2.getId()).map(User::getFirstName)).hasValue("Janet");
+  }
+
+  @Test
+  void test_flush_whenUpdateRejectedByDatabase_thenOtherUpdatesWrittenAndRejectedUpdateDroppedAfterMaxAttempts() {
+    final WriteBehindUserDaoConfig config = config(Duration.ofHours(1), 10, Duration.ZERO);
+    config.setMaxFlushAttempts(2);
+    this.dao = new WriteBehindUserDao(this.jdbcUserDao, config);
+    final User user1 = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final User user2 = this.dao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+    final User user3 = this.dao.createUser(new NewUser("John", "Smith", "john@example.com"));
+    this.dao.updateUser(new User(user1.getId(), "Joseph", "Bloggs"));
+    // Too long for the column
+    this.dao.updateUser(new User(user2.getId(), "J".repeat(101), "Doe"));
+    this.dao.updateUser(new User(user3.getId(), "Johnny", "Smith"));
+
+    assertThatThrownBy(() -> this.dao.flush()).isInstanceOf(RuntimeException.class);
+
+    assertThat(this.jdbcUserDao.findUserById(user1.getId()).map(User::getFirstName)).hasValue("Joseph");
+    assertThat(this.jdbcUserDao.findUserById(user3.getId()).map(User::getFirstName)).hasValue("Johnny");
+    assertThat(this.dao.getFlushedUpdateCount()).isEqualTo(2);
+    assertThat(this.dao.getFailedFlushCount()).isEqualTo(1);
+    assertThat(this.dao.getPendingUpdateCount()).isEqualTo(1);
+
+    assertThatThrownBy(() -> this.dao.flush()).isInstanceOf(RuntimeException.class);
+
+    assertThat(this.dao.getFailedFlushCount()).isEqualTo(2);
+    assertThat(this.dao.getDroppedUpdateCount()).isEqualTo(1);
+    assertThat(this.dao.getPendingUpdateCount()).isZero();
+    assertThat(this.jdbcUserDao.findUserById(user2.getId()).map(User::getFirstName)).hasValue("Jane");
+    this.dao.updateUser(new User(user2.getId(), "Janet", "Doe"));
+    this.dao.flush();
+    assertThat(this.jdbcUserDao.findUserById(user2.getId()).map(User::getFirstName)).hasValue("Janet");
+  }
+
+  @Test
+  void test_flush_whenBatchFailsWithTransientError_thenWholeBatchRequeuedWithoutRetryingEachUpdate() {
+    final AtomicBoolean databaseUnavailable = new AtomicBoolean(true);
+    final AtomicInteger singleUpdateCount = new AtomicInteger();
+    final InMemoryUserDao unavailableUserDao = new InMemoryUserDao() {
+      @Override
+      public boolean updateUser(User user) {
+        singleUpdateCount.incrementAndGet();
+        return super.updateUser(user);
+      }
+
+      @Override
+      public int updateUsers(Collection<User> users) {
+        if (databaseUnavailable.get()) {
+          // A later update of a user, queued while the batch is being written
+          dao.updateUser(new User(users.iterator().next().getId(), "Later", "Update"));
+          throw new RuntimeException(new SQLTransientConnectionException("Connection is not available."));
+        }
+        return super.updateUsers(users);
+      }
+    };
+    final WriteBehindUserDaoConfig config = config(Duration.ofHours(1), 10, Duration.ZERO);
+    config.setMaxFlushAttempts(1);
+    this.dao = new WriteBehindUserDao(unavailableUserDao, config);
+    final User user1 = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    final User user2 = this.dao.createUser(new NewUser("Jane", "Doe", "jane@example.com"));
+    this.dao.updateUser(new User(user1.getId(), "Joseph", "Bloggs"));
+    this.dao.updateUser(new User(user2.getId(), "Janet", "Doe"));
+
+    assertThatThrownBy(() -> this.dao.flush()).hasCauseInstanceOf(SQLTransientConnectionException.class);
+    assertThatThrownBy(() -> this.dao.flush()).hasCauseInstanceOf(SQLTransientConnectionException.class);
+
+    assertThat(singleUpdateCount).hasValue(0);
+    assertThat(this.dao.getFailedFlushCount()).isEqualTo(2);
+    assertThat(this.dao.getDroppedUpdateCount()).isZero();
+    assertThat(this.dao.getPendingUpdateCount()).isEqualTo(2);
+
+    databaseUnavailable.set(false);
+    this.dao.flush();
+
+    assertThat(unavailableUserDao.findUserById(user1.getId()).map(User::getFirstName)).hasValue("Later");
+    assertThat(unavailableUserDao.findUserById(user2.getId()).map(User::getFirstName)).hasValue("Janet");
+    assertThat(this.dao.getPendingUpdateCount()).isZero();
+  }
+
+  @Test
+  void test_flushInterval_whenBatchFailsWithTransientError_thenPeriodicFlushesBackOff() throws Exception {
+    final AtomicBoolean databaseUnavailable = new AtomicBoolean(true);
+    final AtomicInteger batchUpdateCount = new AtomicInteger();
+    final InMemoryUserDao unavailableUserDao = new InMemoryUserDao() {
+      @Override
+      public int updateUsers(Collection<User> users) {
+        batchUpdateCount.incrementAndGet();
+        if (databaseUnavailable.get()) {
+          throw new RuntimeException(new SQLTransientConnectionException("Connection is not available."));
+        }
+        return super.updateUsers(users);
+      }
+    };
+    final WriteBehindUserDaoConfig config = config(Duration.ofMillis(10), 10, Duration.ZERO);
+    config.setMaxFlushBackoff(Duration.ofHours(1));
+    this.dao = new WriteBehindUserDao(unavailableUserDao, config);
+    final User user = this.dao.createUser(new NewUser("Joe", "Bloggs", "joe@example.com"));
+    this.dao.updateUser(new User(user.getId(), "Joseph", "Bloggs"));
+
+    Thread.sleep(500);
+
+    // Without backoff, the update would be retried about 50 times. With it, the flushes are 20, 40, 80, 160 ms apart.
+    assertThat(batchUpdateCount.get()).isBetween(1, 6);
+    assertThat(this.dao.getPendingUpdateCount()).isEqualTo(1);
+    databaseUnavailable.set(false);
+  }
+
+  private static WriteBehindUserDaoConfig config(Duration flushInterval, int maxPendingUpdates,
+    Duration maxEnqueueWait) {
+    final WriteBehindUserDaoConfig config = new WriteBehindUserDaoConfig();
+    config.setFlushInterval(flushInterval);
+    config.setMaxPendingUpdates(maxPendingUpdates);
+    config.setMaxEnqueueWait(maxEnqueueWait);
+    return config;
+  }
+}